@@ -1,10 +1,14 @@
 package org.riotfamily.cachius;
 
-import java.util.Iterator;
-import java.util.TreeSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
 
+import org.riotfamily.cachius.eviction.EvictionPolicy;
 import org.riotfamily.cachius.invalidation.ItemIndex;
 
 public class Cache {
@@ -18,11 +22,18 @@ public class Cache {
 	
 	private AtomicInteger size = new AtomicInteger();
 	
+	private AtomicLong diskUsage = new AtomicLong();
+	
+	private AtomicLong heapUsage = new AtomicLong();
+	
 	private CleanUpThread cleanUpThread = new CleanUpThread();
+	
+	private RegionStatistics statistics = new RegionStatistics(this);
 
 	public Cache(Region region, ItemIndex index) {
 		this.region = region;
 		this.index = index;
+		region.getEvictionPolicy().setCapacity(region.getCapacity());
 		cleanUpThread.start();
 	}
 
@@ -41,6 +52,8 @@ public class Cache {
 				CacheEntry oldEntry = map.putIfAbsent(key, newEntry);
 				if (oldEntry == null) {
 					size.incrementAndGet();
+					newEntry.peekItem().attach(this);
+					region.getEvictionPolicy().entryAdded(newEntry);
 					checkCapacity();
 					return newEntry;
 				}
@@ -54,43 +67,194 @@ public class Cache {
 			}
 		}
 		else {
+			region.getEvictionPolicy().entryAccessed(entry);
 			return entry;
 		}
 	}
 	
 	/**
-	 * Removes the given item from the cache.
+	 * Adds an entry that has been restored from a {@link PersistentIndex}.
+	 */
+	void restoreEntry(CacheEntry entry) {
+		if (map.putIfAbsent(entry.getKey(), entry) == null) {
+			size.incrementAndGet();
+			CacheItem item = entry.getItem();
+			item.attach(this);
+			region.getEvictionPolicy().entryAdded(entry);
+			index.add(item);
+			checkCapacity();
+		}
+	}
+	
+	/**
+	 * Returns a live view of all entries.
+	 */
+	Collection<CacheEntry> getEntries() {
+		return map.values();
+	}
+	
+	public Region getRegion() {
+		return region;
+	}
+	
+	public RegionStatistics getStatistics() {
+		return statistics;
+	}
+	
+	/**
+	 * Returns the number of entries.
+	 */
+	public int getSize() {
+		return size.get();
+	}
+	
+	/**
+	 * Returns the number of bytes occupied on disk by the cached items.
+	 */
+	public long getDiskUsage() {
+		return diskUsage.get();
+	}
+	
+	/**
+	 * Returns the number of bytes held in memory by the cached items.
+	 */
+	public long getHeapUsage() {
+		return heapUsage.get();
+	}
+	
+	/**
+	 * Returns whether the given entry is still mapped. Entries are only 
+	 * removed while holding their write-lock, hence the result can't change
+	 * until a caller holding the lock releases it.
+	 */
+	boolean containsEntry(CacheEntry entry) {
+		return map.get(entry.getKey()) == entry;
+	}
+	
+	/**
+	 * Replaces the item of the given entry. From now on the sizes of the new 
+	 * item count against the region's budgets instead of the old one's. 
+	 * Must be invoked while holding the entry's write-lock.
+	 * 
+	 * @return <code>false</code> if the entry has been evicted, in which case
+	 * 		the entry is left untouched and the caller remains responsible 
+	 * 		for the new item
+	 */
+	boolean replaceItem(CacheEntry entry, CacheItem newItem) {
+		if (!containsEntry(entry)) {
+			return false;
+		}
+		entry.peekItem().detach();
+		entry.setItem(newItem);
+		newItem.attach(this);
+		return true;
+	}
+	
+	/**
+	 * Adds the given deltas to the disk and heap usage. All changes of the 
+	 * usage counters go through this method.
 	 */
-	private void removeEntry(CacheEntry entry) {
-		map.remove(entry.getKey());
-		size.decrementAndGet();
-		index.remove(entry.getItem());
-		entry.delete();
+	void adjustUsage(long disk, long heap) {
+		diskUsage.addAndGet(disk);
+		heapUsage.addAndGet(heap);
+		if (disk > 0 || heap > 0) {
+			checkCapacity();
+		}
+	}
+	
+	/**
+	 * Removes the given entry from the cache. Entries that are currently
+	 * locked (i.e. being captured or served) are skipped, so that the 
+	 * clean-up thread never waits for a request.
+	 * 
+	 * @return Whether the entry was removed
+	 */
+	private boolean removeEntry(CacheEntry entry) {
+		Lock writeLock = entry.getLock().writeLock();
+		if (!writeLock.tryLock()) {
+			return false;
+		}
+		try {
+			if (map.remove(entry.getKey(), entry)) {
+				size.decrementAndGet();
+				CacheItem item = entry.peekItem();
+				item.detach();
+				index.remove(item);
+				entry.delete();
+				return true;
+			}
+			return false;
+		}
+		finally {
+			writeLock.unlock();
+		}
 	}
 	
 	/**
-	 * Notifies the clean-up thread when the capacity is exceeded.
+	 * Notifies the clean-up thread when the capacity or one of the byte 
+	 * budgets is exceeded.
 	 */
 	private void checkCapacity() {
-		if (size.get() >= region.getCapacity()) {
+		if (exceedsCapacity() || exceedsBudget(1)) {
 			synchronized (cleanUpThread) {
 				cleanUpThread.notify();
 			}
 		}
 	}
 	
+	private boolean exceedsCapacity() {
+		return size.get() >= region.getCapacity();
+	}
+	
 	/**
-	 * Removes items from the cache that haven't been used for a long time. The
-	 * number of items removed is <code>capacity * evictionFactor</code>.
+	 * Returns whether the disk or heap usage exceeds the given fraction of
+	 * the budgets configured for the region.
 	 */
-	private void cleanup() {
-		TreeSet<CacheEntry> entries = new TreeSet<CacheEntry>(map.values());
-		int i = region.getItemsToEvict();
-		Iterator<CacheEntry> it = entries.iterator();
-		while (it.hasNext() && i > 0) {
-			removeEntry(it.next());
-			i--;
+	private boolean exceedsBudget(double factor) {
+		long maxDisk = region.getMaxDiskSize();
+		long maxHeap = region.getMaxHeapSize();
+		return (maxDisk > 0 && diskUsage.get() > maxDisk * factor)
+				|| (maxHeap > 0 && heapUsage.get() > maxHeap * factor);
+	}
+	
+	/**
+	 * Removes the items selected by the region's {@link EvictionPolicy}. If 
+	 * the capacity is exceeded, the number of items removed is 
+	 * <code>capacity * evictionFactor</code>. If a byte budget is exceeded,
+	 * items are removed until the usage drops below 
+	 * <code>budget * (1 - evictionFactor)</code>.
+	 */
+	void cleanup() {
+		EvictionPolicy policy = region.getEvictionPolicy();
+		List<CacheEntry> skipped = new ArrayList<CacheEntry>();
+		int i = 0;
+		if (exceedsCapacity()) {
+			i = region.getItemsToEvict();
+		}
+		else if (exceedsBudget(1)) {
+			region.logOverflow();
+		}
+		double targetFactor = 1 - region.getEvictionFactor();
+		int evicted = 0;
+		while (i > 0 || exceedsBudget(targetFactor)) {
+			CacheEntry victim = policy.nextVictim();
+			if (victim == null) {
+				break;
+			}
+			if (removeEntry(victim)) {
+				evicted++;
+				i--;
+			}
+			else if (containsEntry(victim)) {
+				skipped.add(victim);
+			}
+		}
+		// Hand locked entries back to the policy, so that they can be
+		// evicted by a later run
+		for (CacheEntry entry : skipped) {
+			policy.entryAdded(entry);
 		}
+		statistics.evicted(evicted);
 	}
 	
 	public void destroy() {
@@ -47,6 +47,13 @@ public class CacheEntry implements Serializable, Comparable<CacheEntry> {
 		return item;
 	}
     
+    /**
+     * Returns the item without updating the access time.
+     */
+    CacheItem peekItem() {
+    	return item;
+    }
+    
     public void setItem(CacheItem item) {
     	touch();
 		this.item = item;
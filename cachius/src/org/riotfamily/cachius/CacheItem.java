@@ -7,6 +7,8 @@ import java.util.HashSet;
 import java.util.Set;
 
 import org.riotfamily.cachius.persistence.Deleteable;
+import org.riotfamily.cachius.persistence.Measurable;
+import org.riotfamily.cachius.persistence.Resizable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -15,7 +17,7 @@ import org.slf4j.LoggerFactory;
  */
 public class CacheItem implements Serializable {
 
-	private Logger log = LoggerFactory.getLogger(CacheItem.class);
+	private static Logger log = LoggerFactory.getLogger(CacheItem.class);
 	
 	private String key;
 	
@@ -48,6 +50,18 @@ public class CacheItem implements Serializable {
     /** Set of files involved in the creation of the cached data */
     private Set<File> involvedFiles;
     
+    /** Number of bytes the data occupies on disk */
+    private long diskSize;
+    
+    /** Number of bytes the data occupies on the heap */
+    private long heapSize;
+    
+    /** Generation of the ItemIndex when the capturing started */
+    private long generation;
+    
+    /** Cache whose usage counters currently include the item's sizes */
+    private transient Cache cache;
+    
     public CacheItem(String key) {
     	this.key = key;
     	this.lastModified = System.currentTimeMillis();
@@ -56,6 +70,9 @@ public class CacheItem implements Serializable {
     public CacheItem(CacheItem old) {
     	this(old.key);
     	this.data = old.data;
+    	this.diskSize = old.diskSize;
+    	this.heapSize = old.heapSize;
+    	this.generation = old.generation;
     }
     
     /**
@@ -76,8 +93,80 @@ public class CacheItem implements Serializable {
 		return data;
 	}
 
-	public void setData(Serializable data) {
+	/**
+	 * Sets the cached data. If the data implements the {@link Measurable}
+	 * interface, its size is recorded, so that it counts against the budgets
+	 * of the region. {@link Resizable} data reports later changes of its 
+	 * disk size, which are applied as long as the data is not replaced.
+	 */
+	public synchronized void setData(final Serializable data) {
+		long oldDiskSize = diskSize;
+		long oldHeapSize = heapSize;
 		this.data = data;
+		if (data instanceof Resizable) {
+			Resizable r = (Resizable) data;
+			diskSize = r.setSizeListener(new Resizable.SizeListener() {
+				public void diskSizeChanged(long delta) {
+					CacheItem.this.diskSizeChanged(data, delta);
+				}
+			});
+			heapSize = r.getHeapSize();
+		}
+		else if (data instanceof Measurable) {
+			Measurable m = (Measurable) data;
+			diskSize = m.getDiskSize();
+			heapSize = m.getHeapSize();
+		}
+		else {
+			diskSize = 0;
+			heapSize = 0;
+		}
+		if (cache != null) {
+			cache.adjustUsage(diskSize - oldDiskSize, heapSize - oldHeapSize);
+		}
+	}
+	
+	private synchronized void diskSizeChanged(Serializable source, long delta) {
+		if (source == data) {
+			diskSize += delta;
+			if (cache != null) {
+				cache.adjustUsage(delta, 0);
+			}
+		}
+	}
+	
+	/**
+	 * Returns the number of bytes the data occupies on disk.
+	 */
+	public synchronized long getDiskSize() {
+		return diskSize;
+	}
+	
+	/**
+	 * Returns the number of bytes the data occupies on the heap.
+	 */
+	public synchronized long getHeapSize() {
+		return heapSize;
+	}
+	
+	/**
+	 * Adds the item's sizes to the usage counters of the given cache.
+	 */
+	synchronized void attach(Cache cache) {
+		detach();
+		this.cache = cache;
+		cache.adjustUsage(diskSize, heapSize);
+	}
+	
+	/**
+	 * Subtracts the item's sizes from the usage counters of the cache it
+	 * has been attached to. Does nothing if the item is not attached.
+	 */
+	synchronized void detach() {
+		if (cache != null) {
+			cache.adjustUsage(-diskSize, -heapSize);
+			cache = null;
+		}
 	}
     
     public void setExpires(long expires) {
@@ -92,6 +181,23 @@ public class CacheItem implements Serializable {
 		this.error = error;
 	}
 
+	/**
+	 * Returns the generation of the ItemIndex at the time the capturing 
+	 * of the data started.
+	 */
+	public long getGeneration() {
+		return generation;
+	}
+
+	/**
+	 * Sets the generation of the ItemIndex. Must be invoked before the 
+	 * data is captured.
+	 * @see org.riotfamily.cachius.invalidation.ItemIndex#getGeneration()
+	 */
+	public void setGeneration(long generation) {
+		this.generation = generation;
+	}
+
 	/**
 	 * Invalidates the item.
 	 */
@@ -109,6 +215,15 @@ public class CacheItem implements Serializable {
     	return expires > 0 && now >= expires;
     }
 	
+	/**
+	 * Returns whether the item has not yet expired, but will within the 
+	 * given number of milliseconds.
+	 */
+	public boolean isExpiringWithin(long millis) {
+		long now = System.currentTimeMillis();
+		return expires > now && expires - now <= millis;
+	}
+	
 	public boolean isUpToDate(CacheHandler handler) {
 		if (data == null) {
 			log.trace("Item is new and must be updated");
@@ -1,13 +1,26 @@
 package org.riotfamily.cachius;
 
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantReadWriteLock.ReadLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock.WriteLock;
 
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.riotfamily.cachius.invalidation.AbstractItemInvalidator;
 import org.riotfamily.cachius.invalidation.DefaultItemInvalidator;
+import org.riotfamily.cachius.invalidation.InvalidationBus;
 import org.riotfamily.cachius.invalidation.ItemIndex;
 import org.riotfamily.cachius.invalidation.ItemInvalidator;
 import org.riotfamily.cachius.persistence.DiskStore;
@@ -27,6 +40,23 @@ public class CacheService {
 	private ItemIndex index = new ItemIndex();
 	
 	private ItemInvalidator invalidator = new DefaultItemInvalidator();
+	
+	private InvalidationBus invalidationBus;
+	
+	private PersistentIndex persistentIndex;
+	
+	private CaptureScheduler captureScheduler = new CaptureScheduler();
+	
+	private RefreshScheduler refreshScheduler;
+	
+	private InvalidationStatistics invalidationStatistics = 
+			new InvalidationStatistics();
+	
+	private String jmxDomain = "org.riotfamily.cachius";
+	
+	private MBeanServer mbeanServer;
+	
+	private List<ObjectName> mbeanNames = new ArrayList<ObjectName>();
 
 	public CacheService() {
 		this(new SimpleDiskStore());
@@ -42,6 +72,25 @@ public class CacheService {
 			caches.put(region.getName(), new Cache(region, index));
 		}
 	}
+	
+	/**
+	 * Creates a CacheService that persists its entries in the given file. 
+	 * Previously saved entries are restored and files in the DiskStore that
+	 * are no longer referenced are deleted. The index is saved when the 
+	 * service is destroyed, or whenever {@link #saveIndex()} is invoked.
+	 * <p>
+	 * Note: The DiskStore must use a directory that is not shared with other
+	 * applications and survives a restart.
+	 */
+	public CacheService(DiskStore diskStore, List<Region> regions, 
+			File indexFile) {
+		
+		this(diskStore, regions);
+		if (indexFile != null) {
+			persistentIndex = new PersistentIndex(indexFile);
+			persistentIndex.load(caches, diskStore);
+		}
+	}
 
 	public Cache getCache(String region) {
 		if (region == null) {
@@ -54,21 +103,130 @@ public class CacheService {
 		return cache;
 	}
 
-	private CacheEntry getCacheEntry(CacheHandler handler) {
-		CacheEntry entry = null;
-		String cacheKey = handler.getCacheKey();
-		if (cacheKey != null) {
-			Cache cache = getCache(handler.getCacheRegion());
-			entry = cache.getEntry(cacheKey);
+	/**
+	 * Returns the caches of all regions.
+	 */
+	public Collection<Cache> getCaches() {
+		return Collections.unmodifiableCollection(caches.values());
+	}
+	
+	public InvalidationStatistics getInvalidationStatistics() {
+		return invalidationStatistics;
+	}
+	
+	/**
+	 * Sets the JMX domain under which the statistics are registered.
+	 * Default is <code>org.riotfamily.cachius</code>. Must be set before
+	 * JMX is enabled.
+	 */
+	public void setJmxDomain(String jmxDomain) {
+		this.jmxDomain = jmxDomain;
+	}
+	
+	/**
+	 * Sets whether the {@link RegionStatistics} of each region and the 
+	 * {@link InvalidationStatistics} should be registered with the platform
+	 * MBeanServer. Default is <code>false</code>.
+	 */
+	public void setJmxEnabled(boolean jmxEnabled) {
+		if (jmxEnabled) {
+			registerMBeans(ManagementFactory.getPlatformMBeanServer());
+		}
+	}
+	
+	/**
+	 * Registers the statistics with the given MBeanServer. The MBeans are
+	 * unregistered when the service is destroyed. If another MBean with 
+	 * the same name exists (i.e. when two applications use the same domain),
+	 * a warning is logged.
+	 */
+	public synchronized void registerMBeans(MBeanServer server) {
+		unregisterMBeans();
+		mbeanServer = server;
+		for (Cache cache : caches.values()) {
+			registerMBean(cache.getStatistics(), "type=Region,name=" 
+					+ ObjectName.quote(cache.getRegion().getName()));
+		}
+		registerMBean(invalidationStatistics, "type=Invalidations");
+	}
+	
+	private void registerMBean(Object mbean, String properties) {
+		try {
+			ObjectName name = new ObjectName(jmxDomain + ":" + properties);
+			mbeanServer.registerMBean(mbean, name);
+			mbeanNames.add(name);
+		}
+		catch (InstanceAlreadyExistsException e) {
+			log.warn("MBean already registered: {}", e.getMessage());
+		}
+		catch (Exception e) {
+			log.error("Failed to register MBean", e);
+		}
+	}
+	
+	private synchronized void unregisterMBeans() {
+		for (ObjectName name : mbeanNames) {
+			try {
+				mbeanServer.unregisterMBean(name);
+			}
+			catch (Exception e) {
+				log.warn("Failed to unregister MBean " + name, e);
+			}
 		}
-		return entry;
+		mbeanNames.clear();
+	}
+	
+	/**
+	 * Sets whether tags should be invalidated by incrementing a generation 
+	 * counter instead of flagging all tagged items. When enabled, the costs 
+	 * of an invalidation no longer depend on the number of tagged items. 
+	 * Instead, the tags of an item are checked whenever it is accessed.
+	 * Default is <code>false</code>.
+	 */
+	public void setGenerationalInvalidation(boolean generationalInvalidation) {
+		index.setGenerational(generationalInvalidation);
+	}
+	
+	/**
+	 * Sets the scheduler that coordinates blocking captures.
+	 */
+	public void setCaptureScheduler(CaptureScheduler captureScheduler) {
+		this.captureScheduler = captureScheduler;
+	}
+	
+	public CaptureScheduler getCaptureScheduler() {
+		return captureScheduler;
+	}
+	
+	/**
+	 * Sets the scheduler that refreshes content in background threads. 
+	 * Only content of {@link RefreshableHandler RefreshableHandlers} is 
+	 * refreshed. Default is <code>null</code>, which means that all captures
+	 * are performed by request threads.
+	 */
+	public void setRefreshScheduler(RefreshScheduler refreshScheduler) {
+		this.refreshScheduler = refreshScheduler;
+	}
+	
+	public RefreshScheduler getRefreshScheduler() {
+		return refreshScheduler;
+	}
+	
+	/**
+	 * Applies pending generational invalidations and checks whether the 
+	 * item is up-to-date.
+	 */
+	private boolean isUpToDate(CacheItem item, CacheHandler handler) {
+		index.applyInvalidations(item);
+		return item.isUpToDate(handler);
 	}
 	
 	public long getLastModified(CacheHandler handler) {
-		CacheEntry entry = getCacheEntry(handler);
-        if (entry != null) {
-        	CacheItem item = entry.getItem();
-        	if (item.isUpToDate(handler)) {
+		String cacheKey = handler.getCacheKey();
+        if (cacheKey != null) {
+        	Cache cache = getCache(handler.getCacheRegion());
+        	CacheItem item = cache.getEntry(cacheKey).getItem();
+        	if (isUpToDate(item, handler)) {
         		return item.getLastModified();
         	}
         }
@@ -76,54 +234,137 @@ public class CacheService {
 	}
 	
 	public void handle(CacheHandler handler) throws Exception {
-		CacheEntry entry = getCacheEntry(handler);
-        if (entry == null) {
+		String cacheKey = handler.getCacheKey();
+        if (cacheKey == null) {
             handler.handleUncached();
         }
         else {
+        	Cache cache = getCache(handler.getCacheRegion());
+        	CacheEntry entry = cache.getEntry(cacheKey);
         	CacheItem item = entry.getItem();
-        	if (item.isUpToDate(handler)) {
-        		//stats.addHit();
+        	if (isUpToDate(item, handler)) {
+        		cache.getStatistics().hit();
         		log.debug("Serving cached content: {}", entry.getKey());
-        		serveData(handler, entry);
+        		serveData(cache, handler, entry);
+        		if (refreshScheduler != null && item.isExpiringWithin(
+        				refreshScheduler.getRefreshAheadTime())
+        				&& canRefresh(entry, handler)) {
+        			
+        			scheduleRefresh(cache, entry, handler);
+        		}
         	}
         	else {
-        		//stats.addMiss();
-        		capture(entry, handler);        		        			
+        		cache.getStatistics().miss();
+        		capture(cache, entry, handler);        		        			
         	}
         }
 	}
 	
-	private void capture(CacheEntry entry, CacheHandler handler) throws Exception {
+	private void capture(Cache cache, CacheEntry entry, CacheHandler handler) 
+			throws Exception {
+		
     	CacheItem item = entry.getItem();
-		long t1 = System.currentTimeMillis();
     	if (item != null && item.isServeStaleWhileRevalidate()) {
-    		nonBlockingCapture(entry, handler);
+    		if (canRefresh(entry, handler)) {
+    			log.debug("Serving stale content: {}", entry.getKey());
+    			cache.getStatistics().staleServed();
+    			serveData(cache, handler, entry);
+    			scheduleRefresh(cache, entry, handler);
+    		}
+    		else {
+    			nonBlockingCapture(cache, entry, handler);
+    		}
     	}
     	else {
-    		blockingCapture(entry, handler);
+    		blockingCapture(cache, entry, handler);
     	}
-    	long t2 = System.currentTimeMillis();
-    	//stats.itemUpdated(item, t2 - t1);
     }
 	
-	 private void nonBlockingCapture(CacheEntry entry, CacheHandler handler)
-	 		throws Exception {
+	/**
+	 * Acquires the given lock and records the time spent waiting.
+	 */
+	private void lock(Cache cache, Lock lock) {
+		long t1 = System.nanoTime();
+		lock.lock();
+		cache.getStatistics().lockWaited(System.nanoTime() - t1);
+	}
+	
+	/**
+	 * Returns whether the entry can be refreshed in a background thread.
+	 */
+	private boolean canRefresh(CacheEntry entry, CacheHandler handler) {
+		return refreshScheduler != null 
+				&& handler instanceof RefreshableHandler
+				&& ((RefreshableHandler) handler).isRefreshable()
+				&& entry.peekItem().getData() != null
+				&& refreshScheduler.accepts(entry.getKey());
+	}
+	
+	/**
+	 * Detaches the handler from the current request and schedules a refresh.
+	 * Must be invoked after the response has been served.
+	 */
+	private void scheduleRefresh(final Cache cache, final CacheEntry entry, 
+			final CacheHandler handler) {
+		
+		((RefreshableHandler) handler).detach();
+		refreshScheduler.schedule(entry.getKey(), new RefreshScheduler.Refresh() {
+			public void run() throws Exception {
+				refresh(cache, entry, handler);
+			}
+		});
+	}
+	
+	/**
+	 * Captures the content and replaces the entry's item. Invoked by a 
+	 * background thread of the {@link RefreshScheduler}. If the capture 
+	 * fails, the current item is retained.
+	 */
+	private void refresh(Cache cache, CacheEntry entry, CacheHandler handler) 
+			throws Exception {
+		
+		CacheItem newItem = new CacheItem(entry.getKey());
+		updateInContext(cache, handler, newItem);
+		if (newItem.isError()) {
+			newItem.delete();
+			throw new IllegalStateException("Captured content contains an error");
+		}
+		WriteLock writeLock = entry.getLock().writeLock();
+		lock(cache, writeLock);
+		try {
+			CacheItem oldItem = entry.peekItem();
+			if (cache.replaceItem(entry, newItem)) {
+				index.remove(oldItem);
+				index.add(newItem);
+				oldItem.delete();
+			}
+			else {
+				log.debug("{} has been evicted during the refresh", entry.getKey());
+				newItem.delete();
+			}
+		}
+		finally {
+			writeLock.unlock();
+		}
+	}
+	
+	 private void nonBlockingCapture(Cache cache, CacheEntry entry, 
+			CacheHandler handler) throws Exception {
 	    	
     	CacheItem oldItem;
     	// Acquire a write-lock to replace the item by a temporary one
     	// that serves the old data.
     	WriteLock writeLock = entry.getLock().writeLock();
-		writeLock.lock();
+		lock(cache, writeLock);
 		try {
 			oldItem = entry.getItem();
-			if (oldItem.isUpToDate(handler)) {
+			if (isUpToDate(oldItem, handler)) {
 				log.debug("Item has already been updated by another thread");
-				serveData(handler, entry);
+				serveData(cache, handler, entry);
 				return;
 			}
-			else {
-				entry.setItem(new CacheItem(oldItem));					
+			else if (!cache.replaceItem(entry, new CacheItem(oldItem))) {
+				oldItem = null;
 			}
 		}
 		finally {
@@ -132,19 +373,25 @@ public class CacheService {
 				writeLock.unlock();
 			}
 		}
+		if (oldItem == null) {
+			// The entry has been evicted in the meantime, start over with 
+			// a new one
+			handle(handler);
+			return;
+		}
 		
 		log.debug("Updating {} (non-blocking)", entry.getKey());
 		
 		// Create a new CacheItem and capture the content ...
 		CacheItem newItem = new CacheItem(entry.getKey());
 
-		updateInContext(handler, newItem);
+		updateInContext(cache, handler, newItem);
 		
 		// Acquire a write-lock again to swap the CacheItems
 		writeLock = entry.getLock().writeLock();
-		writeLock.lock();
+		lock(cache, writeLock);
 		try {
-			replaceItemAndServeData(entry, handler, oldItem, newItem);
+			replaceItemAndServeData(cache, entry, handler, oldItem, newItem);
 		}
 		finally {
 			// The lock should have already been released by serveCacheEntry(),
@@ -155,23 +402,75 @@ public class CacheService {
 		}	
 	}
 	 
-    private void blockingCapture(CacheEntry entry, CacheHandler handler)
-    		throws Exception {
+	/**
+	 * Captures the content while concurrent requests for the same entry
+	 * wait for the result. If the capture of another thread fails, one of the 
+	 * waiting threads takes over. Threads that run into a timeout of the 
+	 * {@link CaptureScheduler} handle the request uncached.
+	 */
+    private void blockingCapture(Cache cache, CacheEntry entry, 
+    		CacheHandler handler) throws Exception {
+    	
+    	while (true) {
+    		// Nested captures don't need a permit, as the enclosing capture
+    		// already holds one. Top-level captures acquire the permit before
+    		// joining, so that the thread responsible for a capture is never
+    		// queued on the semaphore. Otherwise a nested capture could wait 
+    		// for a thread that waits for the permit held by its own parent.
+    		boolean nested = CacheContext.getItem() != null;
+    		if (!nested && !captureScheduler.acquire()) {
+    			log.debug("No capture permit for {}", entry.getKey());
+    			handler.handleUncached();
+    			return;
+    		}
+    		CountDownLatch capture;
+    		try {
+		    	capture = captureScheduler.join(
+		    			cache.getRegion().getName(), entry.getKey());
+		    	if (capture == null) {
+		    		try {
+		    			blockingCaptureInternal(cache, entry, handler);
+		    		}
+		    		finally {
+		    			captureScheduler.leave(
+		    					cache.getRegion().getName(), entry.getKey());
+		    		}
+		    		return;
+		    	}
+    		}
+    		finally {
+    			if (!nested) {
+    				captureScheduler.release();
+    			}
+    		}
+	    	if (!captureScheduler.await(capture)) {
+	    		log.debug("Timeout while waiting for {}", entry.getKey());
+	    		handler.handleUncached();
+	    		return;
+	    	}
+	    	if (serveDataIfUpToDate(cache, handler, entry)) {
+	    		return;
+	    	}
+    	}
+    }
+    
+    private void blockingCaptureInternal(Cache cache, CacheEntry entry, 
+    		CacheHandler handler) throws Exception {
     	
     	WriteLock writeLock = entry.getLock().writeLock();
-		writeLock.lock();
+		lock(cache, writeLock);
 		try {
 			CacheItem oldItem = entry.getItem();
-			if (oldItem.isUpToDate(handler)) {
+			if (isUpToDate(oldItem, handler)) {
 				log.debug("Item has already been updated by another thread");
-				serveData(handler, entry);
+				serveData(cache, handler, entry);
 			}
 			else {
 				// Item is stale and must be revalidated
 				log.debug("Updating {} (blocking)", entry.getKey());
 				CacheItem newItem = new CacheItem(entry.getKey());
-				updateInContext(handler, newItem);
-				replaceItemAndServeData(entry, handler, oldItem, newItem);
+				updateInContext(cache, handler, newItem);
+				replaceItemAndServeData(cache, entry, handler, oldItem, newItem);
 			}
 		}
 		finally {
@@ -183,36 +482,74 @@ public class CacheService {
 		}
     }
     
-    private void updateInContext(CacheHandler handler, CacheItem newItem)
-    		throws Exception {
+    private void updateInContext(Cache cache, CacheHandler handler, 
+    		CacheItem newItem) throws Exception {
     	
     	CacheItem parent = CacheContext.getItem();
+    	long t1 = System.currentTimeMillis();
     	try { 
+	    	newItem.setGeneration(index.getGeneration());
 	    	CacheContext.setItem(newItem);
 			newItem.setData(handler.capture(diskStore));
     	}
     	finally {
     		CacheContext.setItem(parent);
+    		cache.getStatistics().captured(System.currentTimeMillis() - t1);
     	}
     }
     
-    private void replaceItemAndServeData(CacheEntry entry, CacheHandler handler,
-			CacheItem oldItem, CacheItem newItem) throws Exception {
-		
-		if (!newItem.isError() || !oldItem.isServeStaleOnError()) {
-			entry.setItem(newItem);
-		}
-		serveData(handler, entry);
+    /**
+     * Replaces the old item by the new one and serves it. If the new item 
+     * contains an error, the old item is retained and the error is served,
+     * unless the old item should be served stale on error. If the entry has
+     * been evicted in the meantime, the new item is served once and deleted.
+     * Must be invoked while holding the entry's write-lock.
+     */
+    private void replaceItemAndServeData(Cache cache, CacheEntry entry, 
+    		CacheHandler handler, CacheItem oldItem, CacheItem newItem) 
+    		throws Exception {
 		
-		if (newItem.isError()) {
-			entry.setItem(oldItem);
-			newItem.delete();
-		}
-		else {
+    	if (newItem.isError()) {
+    		boolean mapped = entry.peekItem() == oldItem
+    				? cache.containsEntry(entry)
+    				// Restore the item replaced by nonBlockingCapture()
+    				: cache.replaceItem(entry, oldItem);
+    		
+    		if (!mapped) {
+    			index.remove(oldItem);
+    		}
+    		try {
+	    		if (mapped && oldItem.isServeStaleOnError()) {
+	    			cache.getStatistics().staleServed();
+	    			serveData(cache, handler, entry);
+	    		}
+	    		else {
+	    			entry.getLock().writeLock().unlock();
+	    			serveItem(handler, newItem);
+	    		}
+    		}
+    		finally {
+    			newItem.delete();
+    		}
+    	}
+    	else if (cache.replaceItem(entry, newItem)) {
 			index.remove(oldItem);
 			index.add(newItem);
 			oldItem.delete();
-		}
+			serveData(cache, handler, entry);
+    	}
+    	else {
+    		log.debug("{} has been evicted during the capture", entry.getKey());
+    		// The eviction only removed the temporary item's tags
+    		index.remove(oldItem);
+    		entry.getLock().writeLock().unlock();
+    		try {
+    			serveItem(handler, newItem);
+    		}
+    		finally {
+    			newItem.delete();
+    		}
+    	}
 	}
     
     /**
@@ -220,35 +557,131 @@ public class CacheService {
      * if the current thread already has a write-lock, the lock is down-graded.
      * When the method returns, all locks will be released.
      */
-    private void serveData(CacheHandler handler, CacheEntry entry) 
-    		throws Exception {
+    private void serveData(Cache cache, CacheHandler handler, 
+    		CacheEntry entry) throws Exception {
     	
 		ReadLock readLock = entry.getLock().readLock();
-        readLock.lock();
+        lock(cache, readLock);
         try {
         	if (entry.getLock().isWriteLockedByCurrentThread()) {
         		entry.getLock().writeLock().unlock();
         	}
+        	serveItem(handler, entry.getItem());
+        }
+        finally {
+        	readLock.unlock();	
+        }
+    }
+    
+    /**
+     * Serves the cached content if it is up-to-date. Other than 
+     * {@link #serveData(Cache, CacheHandler, CacheEntry)} the method must not be
+     * called while holding a write-lock.
+     * 
+     * @return Whether the content was served
+     */
+    private boolean serveDataIfUpToDate(Cache cache, CacheHandler handler, 
+    		CacheEntry entry) throws Exception {
+    	
+    	ReadLock readLock = entry.getLock().readLock();
+        lock(cache, readLock);
+        try {
         	CacheItem item = entry.getItem();
-        	handler.serve(item.getData());
-        	CacheItem parentItem = CacheContext.getItem();
-        	if (parentItem != null) {
-        		parentItem.addAll(item);
+        	if (!isUpToDate(item, handler)) {
+        		return false;
         	}
+        	serveItem(handler, item);
+        	return true;
         }
         finally {
         	readLock.unlock();	
         }
     }
+    
+    private void serveItem(CacheHandler handler, CacheItem item) 
+    		throws Exception {
+    	
+    	handler.serve(item.getData());
+    	CacheItem parentItem = CacheContext.getItem();
+    	if (parentItem != null) {
+    		parentItem.addAll(item);
+    	}
+    }
 
+	/**
+	 * Sets the ItemInvalidator that is used to invalidate tagged items. 
+	 * Defaults to a {@link DefaultItemInvalidator}.
+	 */
+	public void setItemInvalidator(ItemInvalidator invalidator) {
+		this.invalidator = invalidator;
+		connectInvalidationBus();
+	}
+	
+	public ItemInvalidator getItemInvalidator() {
+		return invalidator;
+	}
+	
+	/**
+	 * Sets the bus that propagates invalidations to other nodes. The bus is 
+	 * started with the service's index and stopped when the service is
+	 * destroyed. If the ItemInvalidator extends 
+	 * {@link AbstractItemInvalidator}, the bus is passed to it, so that 
+	 * local invalidations are published.
+	 */
+	public void setInvalidationBus(InvalidationBus invalidationBus) 
+			throws IOException {
+		
+		this.invalidationBus = invalidationBus;
+		invalidationBus.start(index);
+		connectInvalidationBus();
+	}
+	
+	/**
+	 * Returns the bus that propagates invalidations to other nodes, or 
+	 * <code>null</code> if none has been configured.
+	 */
+	public InvalidationBus getInvalidationBus() {
+		return invalidationBus;
+	}
+	
+	private void connectInvalidationBus() {
+		if (invalidationBus != null 
+				&& invalidator instanceof AbstractItemInvalidator) {
+			
+			((AbstractItemInvalidator) invalidator).setInvalidationBus(
+					invalidationBus);
+		}
+	}
+	
 	public void invalidateTaggedItems(String tag) {
+		invalidationStatistics.invalidated(tag);
 		invalidator.invalidate(index, tag);
 	}
 
+	/**
+	 * Writes a snapshot of all entries to the index file. Does nothing if
+	 * the service was created without an index file. May be invoked 
+	 * periodically to limit the number of entries that are lost in case
+	 * of a crash.
+	 */
+	public void saveIndex() throws IOException {
+		if (persistentIndex != null) {
+			persistentIndex.save(caches, index);
+		}
+	}
+
 	public void destroy() throws Exception {
+		if (refreshScheduler != null) {
+			refreshScheduler.destroy();
+		}
 		for (Cache cache : caches.values()) {
 			cache.destroy();
 		}
+		if (invalidationBus != null) {
+			invalidationBus.stop();
+		}
+		saveIndex();
+		unregisterMBeans();
 	}
     
 }
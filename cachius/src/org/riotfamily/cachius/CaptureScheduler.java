@@ -0,0 +1,272 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Coordinates the blocking captures of a {@link CacheService}. Concurrent 
+ * requests for the same key are coalesced, so that only one thread captures
+ * the content while the others wait for the result (single-flight). The 
+ * number of captures that may run at the same time can be limited, which 
+ * prevents a cold cache from flooding the backend with hundreds of 
+ * concurrent renderings.
+ * <p>
+ * Captures are performed by the request threads themselves, as the content 
+ * is rendered using the current request. Nested captures (includes) don't 
+ * count against the limit. Permits are acquired before a capture is joined, 
+ * so that a thread never waits for a capture whose owner is itself queued
+ * for a permit. Threads that can't obtain a permit 
+ * or don't see the result within the configured timeout fall back to 
+ * {@link CacheHandler#handleUncached()}.
+ */
+public class CaptureScheduler {
+
+	private int maxConcurrentCaptures;
+	
+	private long timeout;
+	
+	private Semaphore permits;
+	
+	private volatile boolean started;
+	
+	private ConcurrentHashMap<String, CountDownLatch> captures = 
+			new ConcurrentHashMap<String, CountDownLatch>();
+	
+	private AtomicInteger activeCaptures = new AtomicInteger();
+	
+	private AtomicInteger queueLength = new AtomicInteger();
+	
+	private AtomicLong waits = new AtomicLong();
+	
+	private AtomicLong waitTime = new AtomicLong();
+	
+	private AtomicLong maxWaitTime = new AtomicLong();
+	
+	private AtomicLong coalescedRequests = new AtomicLong();
+	
+	private AtomicLong timeouts = new AtomicLong();
+	
+	/**
+	 * Sets the maximum number of captures that may run concurrently. 
+	 * Default is <code>0</code>, which means unlimited. The limit can't be 
+	 * changed once the first permit has been acquired, as permits held by 
+	 * running captures would be released to the wrong semaphore.
+	 */
+	public synchronized void setMaxConcurrentCaptures(int maxConcurrentCaptures) {
+		if (started) {
+			throw new IllegalStateException("The maximum number of concurrent "
+					+ "captures can't be changed after the first capture");
+		}
+		this.maxConcurrentCaptures = maxConcurrentCaptures;
+		this.permits = maxConcurrentCaptures > 0 
+				? new Semaphore(maxConcurrentCaptures, true) : null;
+	}
+	
+	public int getMaxConcurrentCaptures() {
+		return maxConcurrentCaptures;
+	}
+	
+	/**
+	 * Sets the maximum number of milliseconds a thread waits for a permit or
+	 * for the capture of another thread. Default is <code>0</code>, which 
+	 * means that threads wait without a time limit.
+	 */
+	public void setTimeout(long timeout) {
+		this.timeout = timeout;
+	}
+	
+	public long getTimeout() {
+		return timeout;
+	}
+	
+	/**
+	 * Registers a capture for the given key of a region. Returns 
+	 * <code>null</code> if the caller is responsible for the capture, or a 
+	 * latch that is released when the capture of another thread is finished.
+	 * Callers that receive <code>null</code> must invoke 
+	 * {@link #leave(String, String)} when they are done.
+	 */
+	CountDownLatch join(String region, String key) {
+		CountDownLatch latch = captures.putIfAbsent(captureKey(region, key), 
+				new CountDownLatch(1));
+		
+		if (latch != null) {
+			coalescedRequests.incrementAndGet();
+		}
+		return latch;
+	}
+	
+	/**
+	 * Returns the key under which a capture is registered. The region name
+	 * is prefixed with its length, so that different combinations of region 
+	 * and key can't produce the same string.
+	 */
+	private static String captureKey(String region, String key) {
+		return region.length() + ":" + region + key;
+	}
+	
+	/**
+	 * Unregisters the capture and releases all waiting threads.
+	 */
+	void leave(String region, String key) {
+		CountDownLatch latch = captures.remove(captureKey(region, key));
+		if (latch != null) {
+			latch.countDown();
+		}
+	}
+	
+	/**
+	 * Waits until the given capture has finished. Returns <code>false</code> 
+	 * if the timeout elapsed.
+	 */
+	boolean await(CountDownLatch latch) throws InterruptedException {
+		long t1 = System.currentTimeMillis();
+		queueLength.incrementAndGet();
+		try {
+			if (timeout > 0) {
+				return countTimeout(latch.await(timeout, TimeUnit.MILLISECONDS));
+			}
+			latch.await();
+			return true;
+		}
+		finally {
+			queueLength.decrementAndGet();
+			recordWait(System.currentTimeMillis() - t1);
+		}
+	}
+	
+	/**
+	 * Acquires a permit to perform a capture. Returns <code>false</code> if 
+	 * the timeout elapsed. Callers that receive <code>true</code> must invoke 
+	 * {@link #release()} when the capture is finished.
+	 */
+	boolean acquire() throws InterruptedException {
+		if (!started) {
+			start();
+		}
+		Semaphore semaphore = permits;
+		if (semaphore != null && !semaphore.tryAcquire()) {
+			long t1 = System.currentTimeMillis();
+			queueLength.incrementAndGet();
+			try {
+				if (timeout > 0) {
+					if (!countTimeout(semaphore.tryAcquire(
+							timeout, TimeUnit.MILLISECONDS))) {
+						
+						return false;
+					}
+				}
+				else {
+					semaphore.acquire();
+				}
+			}
+			finally {
+				queueLength.decrementAndGet();
+				recordWait(System.currentTimeMillis() - t1);
+			}
+		}
+		activeCaptures.incrementAndGet();
+		return true;
+	}
+	
+	private synchronized void start() {
+		started = true;
+	}
+	
+	void release() {
+		activeCaptures.decrementAndGet();
+		Semaphore semaphore = permits;
+		if (semaphore != null) {
+			semaphore.release();
+		}
+	}
+	
+	private boolean countTimeout(boolean success) {
+		if (!success) {
+			timeouts.incrementAndGet();
+		}
+		return success;
+	}
+	
+	private void recordWait(long millis) {
+		waits.incrementAndGet();
+		waitTime.addAndGet(millis);
+		long max;
+		while ((max = maxWaitTime.get()) < millis) {
+			if (maxWaitTime.compareAndSet(max, millis)) {
+				break;
+			}
+		}
+	}
+	
+	/**
+	 * Returns the number of captures that are currently running.
+	 */
+	public int getActiveCaptures() {
+		return activeCaptures.get();
+	}
+	
+	/**
+	 * Returns the number of threads that are currently waiting for a permit
+	 * or for the capture of another thread.
+	 */
+	public int getQueueLength() {
+		return queueLength.get();
+	}
+	
+	/**
+	 * Returns the number of requests that have been served by the capture 
+	 * of another thread.
+	 */
+	public long getCoalescedRequests() {
+		return coalescedRequests.get();
+	}
+	
+	/**
+	 * Returns the number of requests that have been handled uncached because
+	 * a timeout elapsed.
+	 */
+	public long getTimeouts() {
+		return timeouts.get();
+	}
+	
+	/**
+	 * Returns the average wait time in milliseconds.
+	 */
+	public long getAverageWaitTime() {
+		long count = waits.get();
+		return count > 0 ? waitTime.get() / count : 0;
+	}
+	
+	/**
+	 * Returns the maximum wait time in milliseconds.
+	 */
+	public long getMaxWaitTime() {
+		return maxWaitTime.get();
+	}
+	
+	public void resetStatistics() {
+		waits.set(0);
+		waitTime.set(0);
+		maxWaitTime.set(0);
+		coalescedRequests.set(0);
+		timeouts.set(0);
+	}
+	
+}
@@ -0,0 +1,122 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts tag invalidations. As the tag index is shared by all regions, the 
+ * counts are kept per {@link CacheService} rather than per region. To bound 
+ * the memory consumption, only the first <code>maxTrackedTags</code> tags 
+ * are counted individually.
+ */
+public class InvalidationStatistics implements InvalidationStatisticsMBean {
+
+	private int maxTrackedTags = 1000;
+	
+	private ConcurrentHashMap<String, AtomicLong> counts = 
+			new ConcurrentHashMap<String, AtomicLong>();
+	
+	private StripedCounter invalidations = new StripedCounter();
+	
+	/**
+	 * Sets the maximum number of tags that are counted individually.
+	 * Default is <code>1000</code>.
+	 */
+	public void setMaxTrackedTags(int maxTrackedTags) {
+		this.maxTrackedTags = maxTrackedTags;
+	}
+	
+	void invalidated(String tag) {
+		invalidations.increment();
+		AtomicLong count = counts.get(tag);
+		if (count == null) {
+			if (counts.size() >= maxTrackedTags) {
+				return;
+			}
+			count = new AtomicLong();
+			AtomicLong existing = counts.putIfAbsent(tag, count);
+			if (existing != null) {
+				count = existing;
+			}
+		}
+		count.incrementAndGet();
+	}
+	
+	/**
+	 * Returns the total number of invalidations.
+	 */
+	public long getInvalidations() {
+		return invalidations.sum();
+	}
+	
+	/**
+	 * Returns the number of invalidations of the given tag, or 
+	 * <code>-1</code> if the tag is not tracked.
+	 */
+	public long getInvalidations(String tag) {
+		AtomicLong count = counts.get(tag);
+		return count != null ? count.get() : -1;
+	}
+	
+	public int getTrackedTags() {
+		return counts.size();
+	}
+	
+	/**
+	 * Returns the most frequently invalidated tags, ordered by count.
+	 */
+	public Map<String, Long> getTopTagCounts(int max) {
+		List<Map.Entry<String, AtomicLong>> entries = 
+				new ArrayList<Map.Entry<String, AtomicLong>>(counts.entrySet());
+		
+		final Map<String, Long> snapshot = new LinkedHashMap<String, Long>();
+		for (Map.Entry<String, AtomicLong> entry : entries) {
+			snapshot.put(entry.getKey(), entry.getValue().get());
+		}
+		List<String> tags = new ArrayList<String>(snapshot.keySet());
+		Collections.sort(tags, new Comparator<String>() {
+			public int compare(String t1, String t2) {
+				return snapshot.get(t2).compareTo(snapshot.get(t1));
+			}
+		});
+		Map<String, Long> result = new LinkedHashMap<String, Long>();
+		for (String tag : tags.subList(0, Math.min(max, tags.size()))) {
+			result.put(tag, snapshot.get(tag));
+		}
+		return result;
+	}
+	
+	public String[] getTopTags(int max) {
+		Map<String, Long> top = getTopTagCounts(max);
+		String[] result = new String[top.size()];
+		int i = 0;
+		for (Map.Entry<String, Long> entry : top.entrySet()) {
+			result[i++] = entry.getKey() + ": " + entry.getValue();
+		}
+		return result;
+	}
+	
+	public void reset() {
+		invalidations.reset();
+		counts.clear();
+	}
+	
+}
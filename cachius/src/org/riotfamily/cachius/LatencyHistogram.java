@@ -0,0 +1,75 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram with fixed millisecond buckets. The last bucket counts all
+ * values above the highest bound.
+ */
+class LatencyHistogram {
+
+	static final long[] BOUNDS = {
+		1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000
+	};
+	
+	private final AtomicLongArray counts = new AtomicLongArray(BOUNDS.length + 1);
+	
+	public void record(long millis) {
+		int i = 0;
+		while (i < BOUNDS.length && millis > BOUNDS[i]) {
+			i++;
+		}
+		counts.incrementAndGet(i);
+	}
+	
+	public long[] getCounts() {
+		long[] result = new long[counts.length()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = counts.get(i);
+		}
+		return result;
+	}
+	
+	/**
+	 * Returns the upper bound of the bucket that contains the given 
+	 * percentile, <code>-1</code> if it lies above the highest bound, or 
+	 * <code>0</code> if no values have been recorded.
+	 */
+	public long getPercentile(double percentile) {
+		long[] c = getCounts();
+		long total = 0;
+		for (long count : c) {
+			total += count;
+		}
+		if (total == 0) {
+			return 0;
+		}
+		long threshold = (long) Math.ceil(total * percentile / 100);
+		long sum = 0;
+		for (int i = 0; i < BOUNDS.length; i++) {
+			sum += c[i];
+			if (sum >= threshold) {
+				return BOUNDS[i];
+			}
+		}
+		return -1;
+	}
+	
+	public void reset() {
+		for (int i = 0; i < counts.length(); i++) {
+			counts.set(i, 0);
+		}
+	}
+}
@@ -0,0 +1,218 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock.ReadLock;
+
+import org.riotfamily.cachius.invalidation.ItemIndex;
+import org.riotfamily.cachius.persistence.DiskStore;
+import org.riotfamily.cachius.persistence.Restorable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Snapshot of all cache entries that is written to disk, so that the 
+ * cached content survives a restart. The snapshot contains the entries of
+ * all regions, including their tags, expiry information and references to
+ * the content files in the {@link DiskStore}.
+ * <p>
+ * The file is written to a temporary location first and then renamed, so
+ * that a crash during a save never leaves a truncated index behind. Entries
+ * whose files are missing upon restart are discarded, files in the store 
+ * that are not referenced by any entry are deleted.
+ */
+class PersistentIndex {
+
+	private static final int VERSION = 1;
+	
+	private Logger log = LoggerFactory.getLogger(PersistentIndex.class);
+	
+	private File file;
+	
+	private File tempFile;
+	
+	public PersistentIndex(File file) {
+		this.file = file;
+		this.tempFile = new File(file.getPath() + ".tmp");
+	}
+	
+	/**
+	 * Writes the entries of all caches to disk. Pending generational 
+	 * invalidations are applied before, as the generations of the tags 
+	 * are not persisted.
+	 */
+	public synchronized void save(Map<String, Cache> caches, ItemIndex index) 
+			throws IOException {
+		
+		long t1 = System.currentTimeMillis();
+		int count = 0;
+		ObjectOutputStream out = new ObjectOutputStream(
+				new BufferedOutputStream(new FileOutputStream(tempFile)));
+		try {
+			out.writeInt(VERSION);
+			for (Map.Entry<String, Cache> region : caches.entrySet()) {
+				out.writeBoolean(true);
+				out.writeUTF(region.getKey());
+				for (CacheEntry entry : region.getValue().getEntries()) {
+					index.applyInvalidations(entry.peekItem());
+					writeEntry(out, entry);
+					count++;
+				}
+				out.writeObject(null);
+			}
+			out.writeBoolean(false);
+		}
+		finally {
+			out.close();
+		}
+		if (!tempFile.renameTo(file)) {
+			file.delete();
+			if (!tempFile.renameTo(file)) {
+				throw new IOException("Failed to rename " + tempFile + " to " + file);
+			}
+		}
+		log.info("Saved {} cache entries in {} ms", count, 
+				System.currentTimeMillis() - t1);
+	}
+	
+	/**
+	 * Writes the entry while holding its read-lock, so that the item can't
+	 * be replaced by another thread.
+	 */
+	private void writeEntry(ObjectOutputStream out, CacheEntry entry) 
+			throws IOException {
+		
+		ReadLock readLock = entry.getLock().readLock();
+		readLock.lock();
+		try {
+			out.writeObject(entry);
+			out.reset();
+		}
+		finally {
+			readLock.unlock();
+		}
+	}
+	
+	/**
+	 * Restores the entries from disk and deletes all files of the given store 
+	 * that are no longer referenced. Entries of regions that don't exist 
+	 * anymore are discarded. The index file is deleted afterwards, so that a 
+	 * stale snapshot is never loaded twice.
+	 */
+	public void load(Map<String, Cache> caches, DiskStore diskStore) {
+		long t1 = System.currentTimeMillis();
+		Set<File> referencedFiles = new HashSet<File>();
+		int count = 0;
+		if (file.exists()) {
+			try {
+				count = readEntries(caches, diskStore, referencedFiles);
+			}
+			catch (Exception e) {
+				log.warn("Failed to restore cache index from " + file, e);
+			}
+			file.delete();
+		}
+		int orphans = deleteOrphans(diskStore, referencedFiles);
+		log.info("Restored {} cache entries and deleted {} orphaned files " +
+				"in {} ms", new Object[] { count, orphans, 
+				System.currentTimeMillis() - t1 });
+	}
+	
+	private int readEntries(Map<String, Cache> caches, DiskStore diskStore, 
+			Set<File> referencedFiles) throws IOException, 
+			ClassNotFoundException {
+		
+		int count = 0;
+		ObjectInputStream in = new ObjectInputStream(
+				new BufferedInputStream(new FileInputStream(file)));
+		try {
+			int version = in.readInt();
+			if (version != VERSION) {
+				log.info("Ignoring cache index with version {}", version);
+				return 0;
+			}
+			while (in.readBoolean()) {
+				Cache cache = caches.get(in.readUTF());
+				CacheEntry entry;
+				while ((entry = (CacheEntry) in.readObject()) != null) {
+					if (cache != null && isValid(entry.getItem()) 
+							&& restore(entry, diskStore)) {
+						
+						cache.restoreEntry(entry);
+						addFiles(entry.getItem(), referencedFiles);
+						count++;
+					}
+				}
+			}
+		}
+		finally {
+			in.close();
+		}
+		return count;
+	}
+	
+	private boolean restore(CacheEntry entry, DiskStore diskStore) {
+		Serializable data = entry.getItem().getData();
+		if (data instanceof Restorable) {
+			Restorable restorable = (Restorable) data;
+			for (File f : restorable.getFiles()) {
+				if (!f.exists()) {
+					return false;
+				}
+			}
+			restorable.restore(diskStore);
+		}
+		return true;
+	}
+	
+	private boolean isValid(CacheItem item) {
+		return item != null && item.getData() != null && !item.isError();
+	}
+	
+	private void addFiles(CacheItem item, Collection<File> files) {
+		if (item.getData() instanceof Restorable) {
+			for (File f : ((Restorable) item.getData()).getFiles()) {
+				files.add(f.getAbsoluteFile());
+			}
+		}
+	}
+	
+	private int deleteOrphans(DiskStore diskStore, Set<File> referencedFiles) {
+		int count = 0;
+		for (File f : diskStore.listFiles()) {
+			File absoluteFile = f.getAbsoluteFile();
+			if (!referencedFiles.contains(absoluteFile)
+					&& !absoluteFile.equals(file.getAbsoluteFile())
+					&& !absoluteFile.equals(tempFile.getAbsoluteFile())) {
+				
+				if (f.delete()) {
+					count++;
+				}
+			}
+		}
+		return count;
+	}
+}
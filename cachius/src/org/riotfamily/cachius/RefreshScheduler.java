@@ -0,0 +1,184 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Executes refreshes of cached content in background threads, so that 
+ * visitors don't have to wait for the capturing. Refreshes are performed 
+ * for items that are about to expire (refresh-ahead), and for stale items
+ * that may be served while they are revalidated.
+ * <p>
+ * Only one refresh per key is performed at a time and the number of pending
+ * refreshes is limited. When a refresh fails, the next request for the 
+ * same key captures the content itself.
+ */
+public class RefreshScheduler {
+
+	private Logger log = LoggerFactory.getLogger(RefreshScheduler.class);
+	
+	private long refreshAheadTime = 0;
+	
+	private int maxConcurrentRefreshes = 2;
+	
+	private int maxPendingRefreshes = 100;
+	
+	private ExecutorService executor;
+	
+	private ConcurrentHashMap<String, Boolean> pendingKeys = 
+			new ConcurrentHashMap<String, Boolean>();
+	
+	private ConcurrentHashMap<String, Boolean> failedKeys = 
+			new ConcurrentHashMap<String, Boolean>();
+	
+	private AtomicLong refreshes = new AtomicLong();
+	
+	private AtomicLong failures = new AtomicLong();
+	
+	/**
+	 * Sets the number of milliseconds before expiration when an item should
+	 * be refreshed. Default is <code>0</code>, which means that items are 
+	 * only refreshed when they are stale.
+	 */
+	public void setRefreshAheadTime(long refreshAheadTime) {
+		this.refreshAheadTime = refreshAheadTime;
+	}
+
+	public long getRefreshAheadTime() {
+		return refreshAheadTime;
+	}
+	
+	/**
+	 * Sets the number of threads that perform refreshes. Default is 2.
+	 */
+	public void setMaxConcurrentRefreshes(int maxConcurrentRefreshes) {
+		this.maxConcurrentRefreshes = maxConcurrentRefreshes;
+	}
+
+	/**
+	 * Sets the maximum number of refreshes that may be pending (queued or 
+	 * running). If the limit is reached, requests capture stale content 
+	 * themselves. Default is 100.
+	 */
+	public void setMaxPendingRefreshes(int maxPendingRefreshes) {
+		this.maxPendingRefreshes = maxPendingRefreshes;
+	}
+	
+	/**
+	 * Returns whether a refresh for the given key can be scheduled, or is
+	 * already pending. Returns <code>false</code> if the queue is full or 
+	 * the previous refresh for the key failed.
+	 */
+	boolean accepts(String key) {
+		if (failedKeys.remove(key) != null) {
+			return false;
+		}
+		return pendingKeys.containsKey(key) 
+				|| pendingKeys.size() < maxPendingRefreshes;
+	}
+	
+	/**
+	 * Schedules the given refresh unless a refresh for the same key is 
+	 * already pending.
+	 */
+	void schedule(final String key, final Refresh refresh) {
+		if (pendingKeys.putIfAbsent(key, Boolean.TRUE) == null) {
+			getExecutor().execute(new Runnable() {
+				public void run() {
+					try {
+						log.debug("Refreshing {}", key);
+						refresh.run();
+						refreshes.incrementAndGet();
+					}
+					catch (Exception e) {
+						log.warn("Failed to refresh " + key, e);
+						failures.incrementAndGet();
+						if (failedKeys.size() >= maxPendingRefreshes) {
+							// Forget keys that have not been requested again
+							failedKeys.clear();
+						}
+						failedKeys.put(key, Boolean.TRUE);
+					}
+					finally {
+						pendingKeys.remove(key);
+					}
+				}
+			});
+		}
+	}
+	
+	private synchronized ExecutorService getExecutor() {
+		if (executor == null) {
+			executor = Executors.newFixedThreadPool(maxConcurrentRefreshes, 
+					new RefreshThreadFactory());
+		}
+		return executor;
+	}
+	
+	/**
+	 * Returns the number of refreshes that are queued or running.
+	 */
+	public int getPendingRefreshes() {
+		return pendingKeys.size();
+	}
+	
+	/**
+	 * Returns the number of successful refreshes.
+	 */
+	public long getRefreshes() {
+		return refreshes.get();
+	}
+	
+	/**
+	 * Returns the number of failed refreshes.
+	 */
+	public long getFailures() {
+		return failures.get();
+	}
+	
+	public synchronized void destroy() {
+		if (executor != null) {
+			executor.shutdownNow();
+			executor = null;
+		}
+	}
+	
+	/**
+	 * Callback that performs the actual refresh.
+	 */
+	interface Refresh {
+		void run() throws Exception;
+	}
+	
+	private static class RefreshThreadFactory implements ThreadFactory {
+		
+		private AtomicInteger count = new AtomicInteger();
+		
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "cachius-refresh-" 
+					+ count.incrementAndGet());
+			
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
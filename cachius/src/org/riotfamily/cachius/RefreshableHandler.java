@@ -0,0 +1,38 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius;
+
+/**
+ * Optional interface for {@link CacheHandler CacheHandlers} whose content 
+ * can be re-captured by a background thread.
+ * 
+ * @see RefreshScheduler
+ */
+public interface RefreshableHandler extends CacheHandler {
+
+	/**
+	 * Returns whether the content may be captured outside of the current
+	 * request.
+	 */
+	public boolean isRefreshable();
+	
+	/**
+	 * Detaches the handler from the current request, so that it can be used
+	 * to capture the content after the request has been completed. The method
+	 * is invoked after the response has been served. Afterwards only 
+	 * {@link #capture(org.riotfamily.cachius.persistence.DiskStore) capture()}
+	 * will be called.
+	 */
+	public void detach();
+	
+}
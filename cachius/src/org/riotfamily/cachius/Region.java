@@ -12,6 +12,8 @@
  */
 package org.riotfamily.cachius;
 
+import org.riotfamily.cachius.eviction.EvictionPolicy;
+import org.riotfamily.cachius.eviction.LruEvictionPolicy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -25,6 +27,12 @@ public class Region {
 	
 	private double evictionFactor = 0.2;
 	
+	private long maxDiskSize;
+	
+	private long maxHeapSize;
+	
+	private EvictionPolicy evictionPolicy = new LruEvictionPolicy();
+	
 	private volatile long lastOverflow = System.currentTimeMillis();
 	
 	private volatile long averageOverflowInterval;
@@ -45,18 +53,70 @@ public class Region {
 		this.capacity = capacity;
 	}
 	
+	public double getEvictionFactor() {
+		return evictionFactor;
+	}
+	
 	public void setEvictionFactor(double evictionFactor) {
 		this.evictionFactor = evictionFactor;
 	}
+	
+	public long getMaxDiskSize() {
+		return maxDiskSize;
+	}
+
+	/**
+	 * Sets the maximum number of bytes the cached items may occupy on disk. 
+	 * When the limit is exceeded, items are evicted until the usage drops
+	 * below <code>maxDiskSize * (1 - evictionFactor)</code>. 
+	 * Default is <code>0</code>, which means no limit.
+	 */
+	public void setMaxDiskSize(long maxDiskSize) {
+		this.maxDiskSize = maxDiskSize;
+	}
+	
+	public long getMaxHeapSize() {
+		return maxHeapSize;
+	}
+
+	/**
+	 * Sets the maximum number of bytes the cached items may hold in memory.
+	 * Default is <code>0</code>, which means no limit.
+	 * @see #setMaxDiskSize(long)
+	 */
+	public void setMaxHeapSize(long maxHeapSize) {
+		this.maxHeapSize = maxHeapSize;
+	}
+
+	public EvictionPolicy getEvictionPolicy() {
+		return evictionPolicy;
+	}
+
+	/**
+	 * Sets the policy that decides which items are evicted when the capacity
+	 * is exceeded. Defaults to a {@link LruEvictionPolicy}. 
+	 */
+	public void setEvictionPolicy(EvictionPolicy evictionPolicy) {
+		this.evictionPolicy = evictionPolicy;
+	}
 
 	public int getItemsToEvict() {
 		logOverflow();
 		return (int) Math.ceil(capacity * evictionFactor);
 	}
 	
+	/**
+	 * Returns the average number of milliseconds between two overflows.
+	 */
+	public long getAverageOverflowInterval() {
+		return averageOverflowInterval;
+	}
+	
 	public void logOverflow() {
 		log.info("Cache capacity exceeded. Performing cleanup ...");
-		long timeSinceLastOverflow = System.currentTimeMillis() - lastOverflow;
+		long now = System.currentTimeMillis();
+		long timeSinceLastOverflow = now - lastOverflow;
+		lastOverflow = now;
 		if (averageOverflowInterval == 0) {
 			averageOverflowInterval = timeSinceLastOverflow;
 		}
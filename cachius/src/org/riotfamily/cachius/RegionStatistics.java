@@ -0,0 +1,206 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Statistics of a {@link Cache} region. Counters that are updated on every 
+ * request are striped to keep the overhead low. The statistics can be 
+ * exposed via JMX, see {@link CacheService#setJmxEnabled(boolean)}.
+ */
+public class RegionStatistics implements RegionStatisticsMBean {
+
+	private Cache cache;
+	
+	private StripedCounter hits = new StripedCounter();
+	
+	private StripedCounter misses = new StripedCounter();
+	
+	private StripedCounter staleServes = new StripedCounter();
+	
+	private StripedCounter lockWaitTime = new StripedCounter();
+	
+	private AtomicLong captures = new AtomicLong();
+	
+	private AtomicLong captureTime = new AtomicLong();
+	
+	private AtomicLong maxCaptureTime = new AtomicLong();
+	
+	private LatencyHistogram captureTimes = new LatencyHistogram();
+	
+	private AtomicLong evictions = new AtomicLong();
+	
+	RegionStatistics(Cache cache) {
+		this.cache = cache;
+	}
+	
+	void hit() {
+		hits.increment();
+	}
+	
+	void miss() {
+		misses.increment();
+	}
+	
+	void staleServed() {
+		staleServes.increment();
+	}
+	
+	void lockWaited(long nanos) {
+		lockWaitTime.add(nanos);
+	}
+	
+	void captured(long millis) {
+		captures.incrementAndGet();
+		captureTime.addAndGet(millis);
+		captureTimes.record(millis);
+		long max;
+		while ((max = maxCaptureTime.get()) < millis) {
+			if (maxCaptureTime.compareAndSet(max, millis)) {
+				break;
+			}
+		}
+	}
+	
+	void evicted(int count) {
+		evictions.addAndGet(count);
+	}
+	
+	public String getName() {
+		return cache.getRegion().getName();
+	}
+	
+	public int getSize() {
+		return cache.getSize();
+	}
+	
+	public int getCapacity() {
+		return cache.getRegion().getCapacity();
+	}
+	
+	/**
+	 * Returns the number of bytes the cached items occupy on disk.
+	 */
+	public long getDiskUsage() {
+		return cache.getDiskUsage();
+	}
+	
+	public long getHeapUsage() {
+		return cache.getHeapUsage();
+	}
+	
+	/**
+	 * Returns the number of requests that were served from the cache.
+	 */
+	public long getHits() {
+		return hits.sum();
+	}
+	
+	/**
+	 * Returns the number of requests for items that were not up-to-date.
+	 */
+	public long getMisses() {
+		return misses.sum();
+	}
+	
+	public double getHitRatio() {
+		long h = getHits();
+		long total = h + getMisses();
+		return total > 0 ? (double) h / total : 0;
+	}
+	
+	/**
+	 * Returns how often stale content was served, either while it was 
+	 * being revalidated or because the capture failed.
+	 */
+	public long getStaleServes() {
+		return staleServes.sum();
+	}
+	
+	public long getCaptures() {
+		return captures.get();
+	}
+	
+	/**
+	 * Returns the average capture time in milliseconds.
+	 */
+	public long getAverageCaptureTime() {
+		long count = captures.get();
+		return count > 0 ? captureTime.get() / count : 0;
+	}
+	
+	public long getMaxCaptureTime() {
+		return maxCaptureTime.get();
+	}
+	
+	/**
+	 * Returns the upper bound (in milliseconds) of the histogram bucket that 
+	 * contains the given percentile of all capture times, or <code>-1</code>
+	 * if it exceeds the highest bound.
+	 */
+	public long getCaptureTimePercentile(double percentile) {
+		return captureTimes.getPercentile(percentile);
+	}
+	
+	/**
+	 * Returns the number of captures per bucket. 
+	 * @see #getCaptureTimeBounds()
+	 */
+	public long[] getCaptureTimeHistogram() {
+		return captureTimes.getCounts();
+	}
+	
+	/**
+	 * Returns the upper bounds of the histogram buckets in milliseconds.
+	 * The last bucket has no upper bound.
+	 */
+	public static long[] getCaptureTimeBounds() {
+		return LatencyHistogram.BOUNDS.clone();
+	}
+	
+	/**
+	 * Returns the total number of milliseconds threads spent waiting for 
+	 * entry locks.
+	 */
+	public long getLockWaitTime() {
+		return lockWaitTime.sum() / 1000000;
+	}
+	
+	/**
+	 * Returns the number of entries that have been evicted.
+	 */
+	public long getEvictions() {
+		return evictions.get();
+	}
+	
+	public long getAverageOverflowInterval() {
+		return cache.getRegion().getAverageOverflowInterval();
+	}
+	
+	/**
+	 * Resets all counters. Sizes and usage are not affected.
+	 */
+	public void reset() {
+		hits.reset();
+		misses.reset();
+		staleServes.reset();
+		lockWaitTime.reset();
+		captures.set(0);
+		captureTime.set(0);
+		maxCaptureTime.set(0);
+		captureTimes.reset();
+		evictions.set(0);
+	}
+	
+}
@@ -0,0 +1,56 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius;
+
+/**
+ * Management interface of {@link RegionStatistics}.
+ */
+public interface RegionStatisticsMBean {
+
+	public String getName();
+	
+	public int getSize();
+	
+	public int getCapacity();
+	
+	public long getDiskUsage();
+	
+	public long getHeapUsage();
+	
+	public long getHits();
+	
+	public long getMisses();
+	
+	public double getHitRatio();
+	
+	public long getStaleServes();
+	
+	public long getCaptures();
+	
+	public long getAverageCaptureTime();
+	
+	public long getMaxCaptureTime();
+	
+	public long getCaptureTimePercentile(double percentile);
+	
+	public long[] getCaptureTimeHistogram();
+	
+	public long getLockWaitTime();
+	
+	public long getEvictions();
+	
+	public long getAverageOverflowInterval();
+	
+	public void reset();
+	
+}
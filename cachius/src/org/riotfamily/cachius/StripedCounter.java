@@ -0,0 +1,66 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counter that spreads concurrent updates across several cells, so that 
+ * threads counting hits don't contend on a single cache line. Each thread 
+ * updates the cell selected by its id, reading the value sums up all cells.
+ */
+class StripedCounter {
+
+	private static final int STRIPES = stripes();
+	
+	/** Number of longs per 64 byte cache line */ 
+	private static final int PADDING = 8;
+	
+	private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+
+	private static int stripes() {
+		int n = 1;
+		int cpus = Runtime.getRuntime().availableProcessors();
+		while (n < cpus * 2 && n < 64) {
+			n <<= 1;
+		}
+		return n;
+	}
+	
+	private static int index() {
+		return ((int) Thread.currentThread().getId() & (STRIPES - 1)) * PADDING;
+	}
+	
+	public void increment() {
+		cells.incrementAndGet(index());
+	}
+	
+	public void add(long delta) {
+		cells.addAndGet(index(), delta);
+	}
+	
+	public long sum() {
+		long sum = 0;
+		for (int i = 0; i < cells.length(); i += PADDING) {
+			sum += cells.get(i);
+		}
+		return sum;
+	}
+	
+	public void reset() {
+		for (int i = 0; i < cells.length(); i += PADDING) {
+			cells.set(i, 0);
+		}
+	}
+	
+}
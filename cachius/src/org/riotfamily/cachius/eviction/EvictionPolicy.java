@@ -0,0 +1,52 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius.eviction;
+
+import org.riotfamily.cachius.CacheEntry;
+
+/**
+ * Strategy that decides which entries are removed from a 
+ * {@link org.riotfamily.cachius.Cache Cache} when the capacity of its 
+ * {@link org.riotfamily.cachius.Region Region} is exceeded. 
+ * <p>
+ * Implementations must be thread-safe, as the callbacks are invoked by 
+ * concurrent request threads as well as by the cache's clean-up thread. 
+ * All operations should run in constant time, regardless of the number
+ * of entries. Each Region needs its own policy instance.
+ */
+public interface EvictionPolicy {
+
+	/**
+	 * Invoked by the cache with the capacity of its region before any 
+	 * entries are added.
+	 */
+	public void setCapacity(int capacity);
+	
+	/**
+	 * Invoked when a new entry has been added to the cache.
+	 */
+	public void entryAdded(CacheEntry entry);
+
+	/**
+	 * Invoked when an existing entry has been looked up.
+	 */
+	public void entryAccessed(CacheEntry entry);
+
+	/**
+	 * Selects the next entry to be evicted and removes it from the policy's
+	 * internal bookkeeping. Returns <code>null</code> if the policy does not
+	 * track any entries.
+	 */
+	public CacheEntry nextVictim();
+
+}
@@ -0,0 +1,99 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius.eviction;
+
+/**
+ * Count-Min sketch that estimates how often an object has been seen, using
+ * four rows of byte counters that saturate at 15. In order to let the sketch adapt to changing
+ * access patterns, all counters are halved once the number of recorded 
+ * events reaches ten times the width of the table. 
+ * <p>
+ * This class is not thread-safe.
+ */
+class FrequencySketch {
+
+	private static final int DEPTH = 4;
+	
+	private static final int MAX_COUNT = 15;
+	
+	private static final int[] SEEDS = new int[] {
+		0x97cb3127, 0xc2b2ae35, 0x85ebca6b, 0x27d4eb2f
+	};
+	
+	private byte[] table;
+	
+	private int mask;
+	
+	private int additions;
+	
+	private int sampleSize;
+	
+	/**
+	 * Creates a sketch that can hold the given number of distinct objects.
+	 */
+	public FrequencySketch(int expectedSize) {
+		int width = Integer.highestOneBit(Math.max(expectedSize, 16) - 1) << 1;
+		table = new byte[width * DEPTH];
+		mask = width - 1;
+		sampleSize = width * 10;
+	}
+	
+	public int getWidth() {
+		return mask + 1;
+	}
+	
+	public int frequency(Object obj) {
+		int hash = spread(obj.hashCode());
+		int min = MAX_COUNT;
+		for (int i = 0; i < DEPTH; i++) {
+			min = Math.min(min, table[indexOf(hash, i)]);
+		}
+		return min;
+	}
+	
+	public void increment(Object obj) {
+		int hash = spread(obj.hashCode());
+		boolean added = false;
+		for (int i = 0; i < DEPTH; i++) {
+			int index = indexOf(hash, i);
+			if (table[index] < MAX_COUNT) {
+				table[index]++;
+				added = true;
+			}
+		}
+		if (added && ++additions >= sampleSize) {
+			reset();
+		}
+	}
+	
+	private void reset() {
+		for (int i = 0; i < table.length; i++) {
+			table[i] >>>= 1;
+		}
+		additions >>>= 1;
+	}
+	
+	private int indexOf(int hash, int row) {
+		int h = (hash ^ SEEDS[row]) * SEEDS[(row + 1) % DEPTH];
+		h ^= h >>> 16;
+		return row * (mask + 1) + (h & mask);
+	}
+	
+	private static int spread(int h) {
+		h ^= h >>> 16;
+		h *= 0x45d9f3b;
+		h ^= h >>> 16;
+		return h;
+	}
+
+}
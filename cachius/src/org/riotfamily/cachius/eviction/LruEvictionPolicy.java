@@ -0,0 +1,79 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius.eviction;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.riotfamily.cachius.CacheEntry;
+
+/**
+ * EvictionPolicy that evicts the least recently used entry. Entries are kept
+ * in a linked set that is re-ordered upon each access, so that both the 
+ * bookkeeping and the victim selection run in constant time.
+ * <p>
+ * Access notifications are recorded on a best-effort basis: If another 
+ * thread currently holds the lock, the access is dropped instead of blocking 
+ * the request thread. This makes the ordering approximate under heavy 
+ * contention, but keeps cache hits free of lock convoys.
+ */
+public class LruEvictionPolicy implements EvictionPolicy {
+
+	private LinkedHashSet<CacheEntry> entries = new LinkedHashSet<CacheEntry>();
+	
+	private ReentrantLock lock = new ReentrantLock();
+	
+	public void setCapacity(int capacity) {
+	}
+	
+	public void entryAdded(CacheEntry entry) {
+		lock.lock();
+		try {
+			entries.add(entry);
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+	
+	public void entryAccessed(CacheEntry entry) {
+		if (lock.tryLock()) {
+			try {
+				if (entries.remove(entry)) {
+					entries.add(entry);
+				}
+			}
+			finally {
+				lock.unlock();
+			}
+		}
+	}
+	
+	public CacheEntry nextVictim() {
+		lock.lock();
+		try {
+			Iterator<CacheEntry> it = entries.iterator();
+			if (it.hasNext()) {
+				CacheEntry eldest = it.next();
+				it.remove();
+				return eldest;
+			}
+			return null;
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+}
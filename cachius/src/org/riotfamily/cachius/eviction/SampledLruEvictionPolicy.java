@@ -0,0 +1,109 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius.eviction;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.riotfamily.cachius.CacheEntry;
+
+/**
+ * EvictionPolicy that approximates LRU by looking at a small random sample
+ * of entries and evicting the one with the oldest 
+ * {@link CacheEntry#getLastAccess() access time}. Since the access time is 
+ * recorded by the entry itself, cache hits don't cause any bookkeeping at 
+ * all. The cost of selecting a victim only depends on the sample size.
+ */
+public class SampledLruEvictionPolicy implements EvictionPolicy {
+
+	private ArrayList<CacheEntry> entries = new ArrayList<CacheEntry>();
+	
+	private HashMap<CacheEntry, Integer> positions = new HashMap<CacheEntry, Integer>();
+	
+	private ReentrantLock lock = new ReentrantLock();
+	
+	private Random random = new Random();
+	
+	private int sampleSize = 5;
+	
+	/**
+	 * Sets the number of entries that are inspected in order to find a 
+	 * victim. Larger samples yield a better approximation of LRU. 
+	 * Default is <code>5</code>.
+	 */
+	public void setSampleSize(int sampleSize) {
+		this.sampleSize = sampleSize;
+	}
+	
+	public void setCapacity(int capacity) {
+	}
+	
+	public void entryAdded(CacheEntry entry) {
+		lock.lock();
+		try {
+			if (!positions.containsKey(entry)) {
+				positions.put(entry, entries.size());
+				entries.add(entry);
+			}
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+	
+	public void entryAccessed(CacheEntry entry) {
+	}
+	
+	public CacheEntry nextVictim() {
+		lock.lock();
+		try {
+			int size = entries.size();
+			if (size == 0) {
+				return null;
+			}
+			int victimPos = random.nextInt(size);
+			CacheEntry victim = entries.get(victimPos);
+			for (int i = 1; i < sampleSize && i < size; i++) {
+				int pos = random.nextInt(size);
+				CacheEntry candidate = entries.get(pos);
+				if (candidate.getLastAccess() < victim.getLastAccess()) {
+					victim = candidate;
+					victimPos = pos;
+				}
+			}
+			removeAt(victimPos);
+			return victim;
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Removes the entry at the given position by moving the last entry into
+	 * its slot, so that no elements need to be shifted.
+	 */
+	private void removeAt(int pos) {
+		int lastPos = entries.size() - 1;
+		CacheEntry removed = entries.get(pos);
+		CacheEntry last = entries.remove(lastPos);
+		if (pos != lastPos) {
+			entries.set(pos, last);
+			positions.put(last, pos);
+		}
+		positions.remove(removed);
+	}
+
+}
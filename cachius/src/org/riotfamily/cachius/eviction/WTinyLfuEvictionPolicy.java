@@ -0,0 +1,190 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius.eviction;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.riotfamily.cachius.CacheEntry;
+
+/**
+ * EvictionPolicy implementing the W-TinyLFU scheme. New entries are placed in
+ * a small LRU admission window. Entries leaving the window have to compete 
+ * with the LRU entry of the main area and are only admitted if they have been
+ * requested more frequently (according to a {@link FrequencySketch}). 
+ * The main area is a segmented LRU, where entries are promoted from the 
+ * probation to the protected segment when they are accessed a second time.
+ * <p>
+ * As the cache evicts entries in batches, entries that lose the admission 
+ * test are not evicted immediately but put into a queue of rejected entries,
+ * which are the first to go once the capacity is exceeded. Rejected entries 
+ * that are requested again before that happens are admitted to the main area.
+ * <p>
+ * This protects the cache from being flushed by one-hit wonders, such as 
+ * crawlers requesting each page only once. All operations run in constant 
+ * time. Like with the {@link LruEvictionPolicy}, access notifications are 
+ * dropped if the lock is contended.
+ */
+public class WTinyLfuEvictionPolicy implements EvictionPolicy {
+
+	private LinkedHashSet<CacheEntry> window = new LinkedHashSet<CacheEntry>();
+	
+	private LinkedHashSet<CacheEntry> rejected = new LinkedHashSet<CacheEntry>();
+	
+	private LinkedHashSet<CacheEntry> probation = new LinkedHashSet<CacheEntry>();
+	
+	private LinkedHashSet<CacheEntry> protectedSegment = new LinkedHashSet<CacheEntry>();
+	
+	private FrequencySketch sketch = new FrequencySketch(1024);
+	
+	private ReentrantLock lock = new ReentrantLock();
+	
+	private double windowPercentage = 0.01;
+	
+	private double protectedPercentage = 0.8;
+	
+	/**
+	 * Sets the size of the admission window relative to the total number of
+	 * entries. Default is <code>0.01</code>.
+	 */
+	public void setWindowPercentage(double windowPercentage) {
+		this.windowPercentage = windowPercentage;
+	}
+	
+	/**
+	 * Sets the size of the protected segment relative to the main area.
+	 * Default is <code>0.8</code>.
+	 */
+	public void setProtectedPercentage(double protectedPercentage) {
+		this.protectedPercentage = protectedPercentage;
+	}
+
+	/**
+	 * Sizes the frequency sketch, which has room for 1024 entries until 
+	 * this method is invoked.
+	 */
+	public void setCapacity(int capacity) {
+		lock.lock();
+		try {
+			sketch = new FrequencySketch(capacity);
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+	
+	public void entryAdded(CacheEntry entry) {
+		lock.lock();
+		try {
+			sketch.increment(entry);
+			window.add(entry);
+			if (window.size() > getMaxWindow()) {
+				admit(removeEldest(window));
+			}
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+	
+	public void entryAccessed(CacheEntry entry) {
+		if (lock.tryLock()) {
+			try {
+				sketch.increment(entry);
+				if (window.remove(entry)) {
+					window.add(entry);
+				}
+				else if (probation.remove(entry)) {
+					protectedSegment.add(entry);
+					if (protectedSegment.size() > getMaxProtected()) {
+						probation.add(removeEldest(protectedSegment));
+					}
+				}
+				else if (protectedSegment.remove(entry)) {
+					protectedSegment.add(entry);
+				}
+				else if (rejected.remove(entry)) {
+					probation.add(entry);
+				}
+			}
+			finally {
+				lock.unlock();
+			}
+		}
+	}
+	
+	public CacheEntry nextVictim() {
+		lock.lock();
+		try {
+			CacheEntry victim = removeEldest(rejected);
+			if (victim == null) {
+				victim = removeEldest(probation);
+			}
+			if (victim == null) {
+				victim = removeEldest(protectedSegment);
+			}
+			if (victim == null) {
+				victim = removeEldest(window);
+			}
+			return victim;
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Lets an entry that leaves the window compete with the eldest entry of 
+	 * the probation segment. The candidate is admitted if it has been 
+	 * requested more frequently, otherwise it is marked as rejected.
+	 */
+	private void admit(CacheEntry candidate) {
+		CacheEntry victim = peekEldest(probation);
+		if (victim == null || sketch.frequency(candidate) > sketch.frequency(victim)) {
+			probation.add(candidate);
+		}
+		else {
+			rejected.add(candidate);
+		}
+	}
+	
+	private int size() {
+		return window.size() + probation.size() + protectedSegment.size() 
+				+ rejected.size();
+	}
+	
+	private int getMaxWindow() {
+		return Math.max(1, (int) (size() * windowPercentage));
+	}
+	
+	private int getMaxProtected() {
+		return (int) ((size() - getMaxWindow()) * protectedPercentage);
+	}
+	
+	private static CacheEntry peekEldest(LinkedHashSet<CacheEntry> set) {
+		Iterator<CacheEntry> it = set.iterator();
+		return it.hasNext() ? it.next() : null;
+	}
+	
+	private static CacheEntry removeEldest(LinkedHashSet<CacheEntry> set) {
+		Iterator<CacheEntry> it = set.iterator();
+		if (it.hasNext()) {
+			CacheEntry eldest = it.next();
+			it.remove();
+			return eldest;
+		}
+		return null;
+	}
+
+}
@@ -1,16 +1,35 @@
 package org.riotfamily.cachius.http;
 
 import java.io.Serializable;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.zip.Deflater;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-import org.riotfamily.cachius.CacheHandler;
+import org.riotfamily.cachius.RefreshableHandler;
 import org.riotfamily.cachius.http.content.Directives;
+import org.riotfamily.cachius.http.support.ChannelServingStrategy;
+import org.riotfamily.cachius.http.support.ContentEncoder;
+import org.riotfamily.cachius.http.support.DeflateEncoder;
+import org.riotfamily.cachius.http.support.GzipEncoder;
+import org.riotfamily.cachius.http.support.RequestSnapshot;
+import org.riotfamily.cachius.http.support.ServingStrategy;
 import org.riotfamily.cachius.http.support.SessionIdEncoder;
 import org.riotfamily.cachius.persistence.DiskStore;
 
-public abstract class AbstractHttpHandler implements CacheHandler {
+public abstract class AbstractHttpHandler implements RefreshableHandler {
+
+	private static final List<ContentEncoder> DEFAULT_ENCODERS = 
+			Arrays.<ContentEncoder>asList(new GzipEncoder(), new DeflateEncoder());
+	
+	private static final List<ContentEncoder> FAST_ENCODERS = 
+			Arrays.<ContentEncoder>asList(
+			new GzipEncoder(Deflater.BEST_SPEED), 
+			new DeflateEncoder(Deflater.BEST_SPEED));
 
 	private HttpServletRequest request;
 	
@@ -20,6 +39,18 @@ public abstract class AbstractHttpHandler implements CacheHandler {
 
 	private int gzipThreshold = 200;
 	
+	private ServingStrategy servingStrategy;
+	
+	private boolean refreshable;
+	
+	private List<ContentEncoder> contentEncoders = DEFAULT_ENCODERS;
+	
+	private Executor encodingExecutor;
+	
+	private String characterEncoding;
+	
+	private Map<String, Object> initialAttributes;
+	
 	public AbstractHttpHandler(HttpServletRequest request,
 			HttpServletResponse response) {
 	
@@ -38,6 +69,73 @@ public abstract class AbstractHttpHandler implements CacheHandler {
 		this.gzipThreshold = gzipThreshold;
 	}
 	
+	/**
+	 * Sets the strategy that is used to serve binary content. By default 
+	 * files are copied into the response's OutputStream. A 
+	 * {@link ChannelServingStrategy} may be set for containers whose 
+	 * ServletOutputStream implements WritableByteChannel.
+	 */
+	public void setServingStrategy(ServingStrategy servingStrategy) {
+		this.servingStrategy = servingStrategy;
+	}
+	
+	/**
+	 * Sets the encoders that are used to create pre-encoded variants of 
+	 * compressible content. The order determines which variant is served 
+	 * if the client has no preference. Defaults to gzip and deflate at the
+	 * best compression level if an {@link #setEncodingExecutor(Executor) 
+	 * encodingExecutor} is set, or at the fastest level otherwise.
+	 */
+	public void setContentEncoders(List<ContentEncoder> contentEncoders) {
+		this.contentEncoders = contentEncoders;
+	}
+	
+	/**
+	 * Sets an Executor that creates the encoded variants in the background.
+	 * Until the variants are available, the unencoded content is served.
+	 * Default is <code>null</code>, which means that the variants are 
+	 * created by the capturing thread, using the fastest compression level
+	 * unless custom encoders are set.
+	 */
+	public void setEncodingExecutor(Executor encodingExecutor) {
+		this.encodingExecutor = encodingExecutor;
+	}
+	
+	/**
+	 * Sets whether the content may be refreshed in a background thread using
+	 * a {@link RequestSnapshot}. Only enable this for handlers that neither 
+	 * depend on the session nor perform includes or forwards. 
+	 * Default is <code>false</code>.
+	 * <p>
+	 * Enabling the option records the current request attributes, so that the
+	 * snapshot won't contain attributes added while the content is rendered.
+	 * Hence the method must be invoked before the handler is passed to the
+	 * CacheService.
+	 */
+	public void setRefreshable(boolean refreshable) {
+		this.refreshable = refreshable;
+		this.initialAttributes = refreshable && request != null
+				? RequestSnapshot.copyAttributes(request) : null;
+	}
+	
+	public boolean isRefreshable() {
+		return refreshable;
+	}
+	
+	/**
+	 * Replaces the request by a {@link RequestSnapshot}. The response is 
+	 * released, as it must not be used after the request has been completed.
+	 */
+	public void detach() {
+		characterEncoding = response.getCharacterEncoding();
+		request = initialAttributes != null
+				? new RequestSnapshot(request, initialAttributes)
+				: new RequestSnapshot(request);
+		
+		initialAttributes = null;
+		response = null;
+	}
+	
 	protected HttpServletRequest getRequest() {
 		return request;
 	}
@@ -69,11 +167,17 @@ public abstract class AbstractHttpHandler implements CacheHandler {
 	}
 
 	public Serializable capture(DiskStore diskStore) throws Exception {
-		ResponseData data = new ResponseData(response.getCharacterEncoding());
+		ResponseData data = new ResponseData(response != null 
+				? response.getCharacterEncoding() : characterEncoding);
+		
 		SessionIdEncoder sessionIdEncoder = new SessionIdEncoder(request);
 		CachiusResponse cachiusResponse = new CachiusResponse(data, diskStore, 
 				sessionIdEncoder, isCompressible(), gzipThreshold , directives);
 		
+		cachiusResponse.setServingStrategy(servingStrategy);
+		cachiusResponse.setContentEncoders(contentEncoders == DEFAULT_ENCODERS 
+				&& encodingExecutor == null ? FAST_ENCODERS : contentEncoders);
+		cachiusResponse.setEncodingExecutor(encodingExecutor);
 		handleRequest(request, cachiusResponse);
 		cachiusResponse.stopCapturing();
 		return data;
@@ -19,7 +19,13 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.Executor;
 
 import javax.servlet.ServletOutputStream;
 import javax.servlet.http.Cookie;
@@ -30,14 +36,18 @@ import org.riotfamily.cachius.http.content.CharacterContent;
 import org.riotfamily.cachius.http.content.ChunkedContent;
 import org.riotfamily.cachius.http.content.ContentFragment;
 import org.riotfamily.cachius.http.content.Directives;
-import org.riotfamily.cachius.http.content.GzipContent;
+import org.riotfamily.cachius.http.content.EncodedContent;
+import org.riotfamily.cachius.http.content.FileContent;
 import org.riotfamily.cachius.http.header.SessionIdCookie;
 import org.riotfamily.cachius.http.header.StaticCookie;
+import org.riotfamily.cachius.http.support.ContentEncoder;
 import org.riotfamily.cachius.http.support.DelegatingServletOutputStream;
 import org.riotfamily.cachius.http.support.ScanWriter;
+import org.riotfamily.cachius.http.support.ServingStrategy;
 import org.riotfamily.cachius.http.support.SessionIdEncoder;
 import org.riotfamily.cachius.http.support.ScanWriter.Block;
 import org.riotfamily.cachius.persistence.DiskStore;
+import org.riotfamily.cachius.persistence.MemoryTier;
 
 
 /**
@@ -60,12 +70,22 @@ public class CachiusResponse implements HttpServletResponse {
     
     private DiskStore diskStore;
     
+    private MemoryTier memoryTier;
+    
+    private ServingStrategy servingStrategy;
+    
+    private List<ContentEncoder> encoders = Collections.emptyList();
+    
+    private Executor encodingExecutor;
+    
     private ServletOutputStream outputStream;
     
     private PrintWriter writer;
     
     private ScanWriter scanWriter;
     
+    private MessageDigest digest;
+    
     private File file;
 
     public CachiusResponse(ResponseData data, DiskStore diskStore, 
@@ -79,8 +99,32 @@ public class CachiusResponse implements HttpServletResponse {
     	this.gzipThreshold = gzipThreshold;
         this.directives = directives;
         this.file = diskStore.getFile();
+        this.memoryTier = MemoryTier.lookup(diskStore);
     }
 	
+    /**
+     * Sets the strategy that is used to serve the captured binary content.
+     */
+    public void setServingStrategy(ServingStrategy servingStrategy) {
+		this.servingStrategy = servingStrategy;
+	}
+    
+    /**
+     * Sets the encoders that are used to create pre-encoded variants of 
+     * compressible content.
+     */
+    public void setContentEncoders(List<ContentEncoder> encoders) {
+		this.encoders = encoders;
+	}
+    
+    /**
+     * Sets the Executor that creates the encoded variants. If no Executor
+     * is set, the variants are created when capturing stops.
+     */
+    public void setEncodingExecutor(Executor encodingExecutor) {
+		this.encodingExecutor = encodingExecutor;
+	}
+    
     public int getStatus() {
 		return data.getStatus();
 	}
@@ -156,6 +200,21 @@ public class CachiusResponse implements HttpServletResponse {
     	}
     }    
     
+    /**
+     * Returns a stream that writes to the file and computes a digest of 
+     * the written bytes.
+     */
+    private OutputStream createFileOutputStream() throws IOException {
+    	try {
+    		digest = MessageDigest.getInstance("MD5");
+    	}
+    	catch (NoSuchAlgorithmException e) {
+    		throw new IllegalStateException(e);
+    	}
+    	return new DigestOutputStream(new BufferedOutputStream(
+    			new FileOutputStream(file)), digest);
+    }
+    
     /**
      * Returns an ServletOutputStream that writes into the OutputStream
      * provided by the CacheItem. All output is redirected so nothing will be 
@@ -170,7 +229,7 @@ public class CachiusResponse implements HttpServletResponse {
         }
         if (outputStream == null) {
         		outputStream = new DelegatingServletOutputStream(
-        				new BufferedOutputStream(new FileOutputStream(file)));
+        				createFileOutputStream());
         }
         return outputStream;
     }
@@ -188,7 +247,7 @@ public class CachiusResponse implements HttpServletResponse {
             if (outputStream != null) {
                 throw new IllegalStateException();
             }
-            OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+            OutputStream out = createFileOutputStream();
             scanWriter = directives.createWriter(new OutputStreamWriter(out, "UTF-8"));
 	        writer = new PrintWriter(scanWriter);
 	    }
@@ -207,26 +266,46 @@ public class CachiusResponse implements HttpServletResponse {
     public void stopCapturing() throws IOException {
     	flushBuffer();
     	resetBuffer();
+    	FileContent content;
     	if (isChunked()) {
-    		ChunkedContent content = new ChunkedContent(file);
+    		ChunkedContent chunkedContent = new ChunkedContent(file, memoryTier);
     		for (Block block : scanWriter.getBlocks()) {
     			ContentFragment fragment = directives.parse(block.getValue());
     			if (fragment != null) {
-    				content.addFragment(block.getStart(), block.getEnd(), fragment);
+    				chunkedContent.addFragment(block.getStart(), block.getEnd(), 
+    						block.getByteStart(), block.getByteEnd(), fragment);
     			}
     		}
-    		content.addTail();
-    		data.setContent(content);
+    		chunkedContent.addTail(scanWriter.getCharCount(), 
+    				scanWriter.getByteCount());
+    		content = chunkedContent;
     	}
-    	else if (isGzip()) {
-			data.setContent(new GzipContent(file, diskStore.getFile()));
+    	else if (isEncodable()) {
+    		EncodedContent encodedContent = new EncodedContent(file, memoryTier);
+    		encodedContent.encode(encoders, diskStore, encodingExecutor);
+			content = encodedContent;
     	}
     	else if (isCharacter()) {
-    		data.setContent(new CharacterContent(file));
+    		content = new CharacterContent(file, memoryTier);
     	}	
     	else {
-    		data.setContent(new BinaryContent(file));
+    		content = new BinaryContent(file, memoryTier);
+    	}
+    	content.setServingStrategy(servingStrategy);
+    	if (digest != null && !isChunked()) {
+    		content.setDigest(toHex(digest.digest()));
+    	}
+    	data.setContent(content);
+    	data.setLastModified(System.currentTimeMillis());
+    }
+    
+    private static String toHex(byte[] bytes) {
+    	StringBuilder sb = new StringBuilder(bytes.length * 2);
+    	for (byte b : bytes) {
+    		sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+    		sb.append(Character.forDigit(b & 0xf, 16));
     	}
+    	return sb.toString();
     }
     
     private boolean isCharacter() {
@@ -237,8 +316,9 @@ public class CachiusResponse implements HttpServletResponse {
 		return isCharacter() && scanWriter.foundBlocks();
 	}
 	
-	private boolean isGzip() {
-		return compressible && file.length() > gzipThreshold;
+	private boolean isEncodable() {
+		return compressible && !encoders.isEmpty() 
+				&& file.length() > gzipThreshold;
 	}
 
     /**
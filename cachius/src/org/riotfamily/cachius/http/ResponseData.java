@@ -1,7 +1,10 @@
 package org.riotfamily.cachius.http;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Locale;
 
 import javax.servlet.ServletException;
@@ -9,12 +12,17 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.riotfamily.cachius.http.content.Content;
+import org.riotfamily.cachius.http.content.EncodedContent;
 import org.riotfamily.cachius.http.header.Cookies;
 import org.riotfamily.cachius.http.header.Headers;
 import org.riotfamily.cachius.persistence.Deleteable;
+import org.riotfamily.cachius.persistence.DiskStore;
+import org.riotfamily.cachius.persistence.Resizable;
+import org.riotfamily.cachius.persistence.Restorable;
 
 
-public class ResponseData implements Serializable, Deleteable {
+public class ResponseData implements Serializable, Deleteable, Resizable, 
+		Restorable {
 
 	/** The HTTP Status code */
     private int statusCode;
@@ -37,6 +45,9 @@ public class ResponseData implements Serializable, Deleteable {
 	private Locale locale;
 	
 	private Content content;
+	
+	/** Time of the capture, truncated to seconds */
+	private long lastModified;
 	 
     public ResponseData(String characterEncoding) {
     	this.characterEncoding = characterEncoding;
@@ -106,6 +117,10 @@ public class ResponseData implements Serializable, Deleteable {
 	public void setContent(Content content) {
 		this.content = content;
 	}
+	
+	public void setLastModified(long lastModified) {
+		this.lastModified = lastModified / 1000 * 1000;
+	}
 
 	public void serve(HttpServletRequest request, HttpServletResponse response) 
 			throws IOException, ServletException {
@@ -123,6 +138,20 @@ public class ResponseData implements Serializable, Deleteable {
 			response.sendError(statusCode, errorMessage);
 		}
 		else {
+			String entityTag = getEntityTag(request);
+			if (entityTag != null) {
+				response.setHeader("ETag", entityTag);
+				if (!getHeaders().contain("Last-Modified")) {
+					response.setDateHeader("Last-Modified", lastModified);
+				}
+				if (isNotModified(request, entityTag)) {
+					if (content instanceof EncodedContent) {
+						response.setHeader("Vary", "Accept-Encoding");
+					}
+					response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+					return;
+				}
+			}
 			if (statusCode > 0) {    
 				response.setStatus(statusCode);
 			}
@@ -136,10 +165,87 @@ public class ResponseData implements Serializable, Deleteable {
 		}
     }
 
+	/**
+	 * Returns the entity tag of the content, or <code>null</code> if the
+	 * request can't be answered conditionally. This is the case for 
+	 * includes, non-GET requests, non-200 responses and responses that
+	 * already carry an ETag set by the application.
+	 */
+	private String getEntityTag(HttpServletRequest request) {
+		if (content == null || lastModified == 0
+				|| (statusCode != 0 && statusCode != HttpServletResponse.SC_OK)
+				|| getHeaders().contain("ETag")
+				|| request.getAttribute("javax.servlet.include.request_uri") != null) {
+			
+			return null;
+		}
+		String method = request.getMethod();
+		if (!"GET".equals(method) && !"HEAD".equals(method)) {
+			return null;
+		}
+		return content.getEntityTag(request);
+	}
+	
+	/**
+	 * Evaluates the If-None-Match and If-Modified-Since headers. As 
+	 * mandated by RFC 2616, If-Modified-Since is ignored if If-None-Match
+	 * is present.
+	 */
+	private boolean isNotModified(HttpServletRequest request, String entityTag) {
+		String ifNoneMatch = request.getHeader("If-None-Match");
+		if (ifNoneMatch != null) {
+			for (String tag : ifNoneMatch.split(",")) {
+				tag = tag.trim();
+				if (tag.startsWith("W/")) {
+					tag = tag.substring(2);
+				}
+				if (tag.equals("*") || tag.equals(entityTag)) {
+					return true;
+				}
+			}
+			return false;
+		}
+		try {
+			long ifModifiedSince = request.getDateHeader("If-Modified-Since");
+			return ifModifiedSince != -1 && lastModified <= ifModifiedSince;
+		}
+		catch (IllegalArgumentException e) {
+			return false;
+		}
+	}
+	
 	public void delete() {
 		if (content != null) {
 			content.delete();
 		}
 	}
+	
+	public Collection<File> getFiles() {
+		if (content == null) {
+			return Collections.emptyList();
+		}
+		return content.getFiles();
+	}
+	
+	public void restore(DiskStore diskStore) {
+		if (content != null) {
+			content.restore(diskStore);
+		}
+	}
+	
+	public long getDiskSize() {
+		return content != null ? content.getDiskSize() : 0;
+	}
+	
+	public long getHeapSize() {
+		return content != null ? content.getHeapSize() : 0;
+	}
+	
+	public long setSizeListener(SizeListener listener) {
+		if (content instanceof Resizable) {
+			return ((Resizable) content).setSizeListener(listener);
+		}
+		return getDiskSize();
+	}
 
 }
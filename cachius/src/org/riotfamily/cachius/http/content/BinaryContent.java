@@ -7,29 +7,27 @@ import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-import org.riotfamily.cachius.http.support.IOUtils;
+import org.riotfamily.cachius.persistence.MemoryTier;
 
 
-public class BinaryContent implements Content {
+public class BinaryContent extends FileContent {
 
-	private File file;
-	
 	public BinaryContent(File file) {
-		this.file = file;
+		this(file, null);
+	}
+	
+	public BinaryContent(File file, MemoryTier memoryTier) {
+		super(file, memoryTier);
 	}
 
 	public int getLength(HttpServletRequest request, HttpServletResponse response) {
-		return (int) file.length();
+		return (int) getFile().length();
 	}
 
 	public void serve(HttpServletRequest request, HttpServletResponse response)
 			throws ServletException, IOException {
 		
-		IOUtils.serve(file, response.getOutputStream());
+		serveFile(getFile(), request, response);
 	}
 
-	public void delete() {
-		file.delete();
-	}
-	
 }
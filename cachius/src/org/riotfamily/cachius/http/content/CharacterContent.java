@@ -21,27 +21,26 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.riotfamily.cachius.http.support.IOUtils;
+import org.riotfamily.cachius.persistence.MemoryTier;
 
-public class CharacterContent implements Content {
+public class CharacterContent extends FileContent {
 
-	private File file;
-	
     public CharacterContent(File file) {
-        this.file = file;
+        this(file, null);
+    }
+    
+    public CharacterContent(File file, MemoryTier memoryTier) {
+    	super(file, memoryTier);
     }
 
     public int getLength(HttpServletRequest request, HttpServletResponse response) {
-        return (int)file.length();
+        return (int) getFile().length();
     }
 
     public void serve(HttpServletRequest request, HttpServletResponse response)
     		throws ServletException, IOException {
     	
-        IOUtils.serve(file, response.getWriter(), "UTF-8");
-    }
-
-    public void delete() {
-        file.delete();
+        IOUtils.serve(openStream(), response.getWriter(), "UTF-8");
     }
 
 }
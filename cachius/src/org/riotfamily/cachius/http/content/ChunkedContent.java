@@ -2,50 +2,92 @@ package org.riotfamily.cachius.http.content;
 
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.Reader;
 import java.io.Serializable;
-import java.util.LinkedList;
+import java.net.SocketException;
+import java.util.ArrayList;
 import java.util.List;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.riotfamily.cachius.http.support.FragmentResponseWrapper;
 import org.riotfamily.cachius.http.support.IOUtils;
+import org.riotfamily.cachius.persistence.MemoryTier;
 
+/**
+ * Character content that contains dynamic {@link ContentFragment fragments}.
+ * The content is split into chunks whose character and byte offsets are 
+ * computed at capture time. 
+ * <p>
+ * If the response is UTF-8 encoded, the static chunks are copied as raw bytes
+ * into the response's OutputStream and only the fragments are rendered. 
+ * Otherwise, or if the response's Writer is already in use, the file is 
+ * decoded and written to the Writer.
+ */
+public class ChunkedContent extends FileContent {
 
-public class ChunkedContent implements Content {
-
-	private File file;
-	
-	private List<Chunk> chunks = new LinkedList<Chunk>();
+	private List<Chunk> chunks = new ArrayList<Chunk>();
 	
 	private transient int lastEnd = -1;
 	
+	private transient int lastByteEnd = -1;
+	
 	public ChunkedContent(File file) {
-		this.file = file;
+		this(file, null);
 	}
 	
-	public void addFragment(int start, int end, ContentFragment fragment) {
+	public ChunkedContent(File file, MemoryTier memoryTier) {
+		super(file, memoryTier);
+	}
+	
+	/**
+	 * Adds a fragment that replaces the characters from <code>start</code> 
+	 * to <code>end</code>, which occupy the bytes from <code>byteStart</code>
+	 * to <code>byteEnd</code> in the file (all inclusive). The text between
+	 * the previous fragment and this one is added as static chunk.
+	 */
+	public void addFragment(int start, int end, int byteStart, int byteEnd, 
+			ContentFragment fragment) {
+		
 		int gap = start - (lastEnd + 1);
+		int byteGap = byteStart - (lastByteEnd + 1);
 		if (gap > 0) {
-			chunks.add(new Chunk(gap));
+			chunks.add(new Chunk(gap, byteGap));
 		}
-		chunks.add(new FragmentChunk(end - start + 1, fragment));
+		chunks.add(new FragmentChunk(end - start + 1, byteEnd - byteStart + 1, 
+				fragment));
+		
 		lastEnd = end;
+		lastByteEnd = byteEnd;
 	}
 	
-	public void addTail() {
-		int gap = ((int) file.length()) - (lastEnd + 1);
+	/**
+	 * Adds the text following the last fragment as static chunk.
+	 * @param length The total number of characters
+	 * @param byteLength The total number of bytes
+	 */
+	public void addTail(int length, int byteLength) {
+		int gap = length - (lastEnd + 1);
 		if (gap > 0) {
-			chunks.add(new Chunk(gap));
+			chunks.add(new Chunk(gap, byteLength - (lastByteEnd + 1)));
 		}
 	}
 
+	/**
+	 * Returns the number of bytes, or <code>-1</code> if the length can't be
+	 * determined in advance. This is the case if the response isn't UTF-8 
+	 * encoded or one of the fragments has an unknown length.
+	 */
 	public int getLength(HttpServletRequest request, HttpServletResponse response) {
+		if (!"UTF-8".equalsIgnoreCase(response.getCharacterEncoding())) {
+			return -1;
+		}
 		int length = 0;
 		if (chunks != null) {
 			for (Chunk chunk : chunks) {
@@ -62,35 +104,113 @@ public class ChunkedContent implements Content {
 	public void serve(HttpServletRequest request, HttpServletResponse response)
 			throws ServletException, IOException {
 		
-		Reader reader = new BufferedReader(new InputStreamReader(
-				new FileInputStream(file), "UTF-8"));
+		OutputStream out = getUtf8OutputStream(request, response);
+		if (out != null) {
+			serveBytes(out, request, response);
+		}
+		else {
+			serveCharacters(request, response);
+		}
+	}
+	
+	/**
+	 * Returns the response's OutputStream if the response is UTF-8 encoded 
+	 * and the stream can be used without interfering with other output, or 
+	 * <code>null</code> otherwise.
+	 */
+	private OutputStream getUtf8OutputStream(HttpServletRequest request, 
+			HttpServletResponse response) throws IOException {
 		
+		if (!"UTF-8".equalsIgnoreCase(response.getCharacterEncoding())
+				|| request.getAttribute("javax.servlet.include.request_uri") != null) {
+			
+			return null;
+		}
 		try {
-			if (chunks != null) {
-				for (Chunk chunk : chunks) {
-					chunk.serve(reader, request, response);
+			return response.getOutputStream();
+		}
+		catch (IllegalStateException e) {
+			// getWriter() has already been called
+			return null;
+		}
+	}
+	
+	private void serveBytes(OutputStream out, HttpServletRequest request, 
+			HttpServletResponse response) throws ServletException, IOException {
+		
+		InputStream in = openStream();
+		FragmentResponseWrapper fragmentResponse = null;
+		try {
+			for (Chunk chunk : chunks) {
+				if (chunk instanceof FragmentChunk) {
+					if (fragmentResponse == null) {
+						fragmentResponse = new FragmentResponseWrapper(response, out);
+					}
+					((FragmentChunk) chunk).serve(in, request, fragmentResponse);
+				}
+				else {
+					chunk.serve(in, out);
 				}
 			}
+			out.flush();
+		}
+		catch (SocketException e) {
+		}
+		finally {
+			IOUtils.closeStream(in);
+		}
+	}
+	
+	private void serveCharacters(HttpServletRequest request, 
+			HttpServletResponse response) throws ServletException, IOException {
+		
+		Reader reader = new BufferedReader(new InputStreamReader(
+				openStream(), "UTF-8"));
+		
+		try {
+			for (Chunk chunk : chunks) {
+				chunk.serve(reader, request, response);
+			}
 		}
 		finally {
 			IOUtils.closeReader(reader);
 		}
 	}
 	
-	public void delete() {
-		file.delete();
+	/**
+	 * Returns <code>null</code>, as the fragments are rendered upon each 
+	 * request.
+	 */
+	@Override
+	public String getEntityTag(HttpServletRequest request) {
+		return null;
+	}
+	
+	/**
+	 * Returns a rough estimate of the memory occupied by the chunk list.
+	 */
+	@Override
+	public long getHeapSize() {
+		return chunks.size() * 32;
 	}
 			
 	private static class Chunk implements Serializable {
 
 		protected int length;
 		
-		public Chunk(int length) {
+		protected int byteLength;
+		
+		public Chunk(int length, int byteLength) {
 			this.length = length;
+			this.byteLength = byteLength;
 		}
 
 		public int getLength(HttpServletRequest request, HttpServletResponse response) {
-			return length;
+			return byteLength;
+		}
+		
+		public void serve(InputStream in, OutputStream out) throws IOException {
+			IOUtils.copy(in, out, byteLength);
 		}
 		
 		public void serve(Reader reader, HttpServletRequest request, HttpServletResponse response) 
@@ -104,8 +224,8 @@ public class ChunkedContent implements Content {
 
 		private ContentFragment fragment;
 		
-		public FragmentChunk(int length, ContentFragment fragment) {
-			super(length);
+		public FragmentChunk(int length, int byteLength, ContentFragment fragment) {
+			super(length, byteLength);
 			this.fragment = fragment;
 		}
 		
@@ -116,6 +236,15 @@ public class ChunkedContent implements Content {
 			return fragment.getLength(request, response);
 		}
 
+		public void serve(InputStream in, HttpServletRequest request, 
+				FragmentResponseWrapper response) 
+				throws ServletException, IOException {
+			
+			IOUtils.skip(in, byteLength);
+			fragment.serve(request, response);
+			response.flushBuffer();
+		}
+		
 		@Override
 		public void serve(Reader reader, HttpServletRequest request, 
 				HttpServletResponse response) throws ServletException, IOException {
@@ -1,8 +1,42 @@
 package org.riotfamily.cachius.http.content;
 
+import java.io.File;
+import java.util.Collection;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.riotfamily.cachius.persistence.DiskStore;
+
 
 public interface Content extends ContentFragment {
 
 	public void delete();
+	
+	/**
+	 * Returns a strong entity tag for the representation that is served
+	 * in response to the given request, or <code>null</code> if the content
+	 * is assembled dynamically.
+	 */
+	public String getEntityTag(HttpServletRequest request);
+	
+	/**
+	 * Returns the files holding the content.
+	 */
+	public Collection<File> getFiles();
+	
+	/**
+	 * Invoked after the content has been restored from a persistent index.
+	 */
+	public void restore(DiskStore diskStore);
+
+	/**
+	 * Returns the number of bytes the content occupies on disk.
+	 */
+	public long getDiskSize();
+	
+	/**
+	 * Returns the (estimated) number of bytes the content holds in memory.
+	 */
+	public long getHeapSize();
 
 }
@@ -0,0 +1,268 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius.http.content;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.riotfamily.cachius.http.support.AcceptEncoding;
+import org.riotfamily.cachius.http.support.ContentEncoder;
+import org.riotfamily.cachius.http.support.IOUtils;
+import org.riotfamily.cachius.persistence.DiskStore;
+import org.riotfamily.cachius.persistence.MemoryTier;
+import org.riotfamily.cachius.persistence.Resizable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Binary content that keeps pre-encoded variants (e.g. gzip or deflate) in 
+ * addition to the original data. The variants can be created asynchronously, 
+ * in which case the original data is served until they are available. 
+ * Variants that are not smaller than the original are discarded.
+ * <p>
+ * The variant is selected according to the request's 
+ * <code>Accept-Encoding</code> header. The response always carries a 
+ * <code>Vary: Accept-Encoding</code> header. The selection is made once per
+ * request, so that the entity tag, the length and the body always refer to
+ * the same variant, even if a variant becomes available in between.
+ */
+public class EncodedContent extends BinaryContent implements Resizable {
+
+	private static Logger log = LoggerFactory.getLogger(EncodedContent.class);
+	
+	private static final String SELECTION_ATTRIBUTE = 
+			EncodedContent.class.getName() + ".selection";
+	
+	/** Available codings in the order of the encoders */
+	private List<String> codings = new CopyOnWriteArrayList<String>();
+	
+	/** Variant files keyed by coding */
+	private ConcurrentHashMap<String, File> variants = 
+			new ConcurrentHashMap<String, File>();
+	
+	private transient volatile boolean deleted;
+	
+	private transient SizeListener sizeListener;
+	
+	public EncodedContent(File file) {
+		this(file, null);
+	}
+	
+	public EncodedContent(File file, MemoryTier memoryTier) {
+		super(file, memoryTier);
+	}
+	
+	/**
+	 * Creates the variants using the given encoders. If an Executor is 
+	 * specified, the variants are created asynchronously. If the executor
+	 * rejects the task, the variants are created by the calling thread.
+	 */
+	public void encode(final List<ContentEncoder> encoders, 
+			final DiskStore diskStore, Executor executor) throws IOException {
+		
+		if (executor != null) {
+			try {
+				executor.execute(new Runnable() {
+					public void run() {
+						try {
+							encode(encoders, diskStore);
+						}
+						catch (IOException e) {
+							log.warn("Failed to encode " + getFile(), e);
+						}
+					}
+				});
+				return;
+			}
+			catch (RejectedExecutionException e) {
+			}
+		}
+		encode(encoders, diskStore);
+	}
+	
+	private void encode(List<ContentEncoder> encoders, DiskStore diskStore) 
+			throws IOException {
+		
+		for (ContentEncoder encoder : encoders) {
+			if (deleted) {
+				return;
+			}
+			File variant = diskStore.getFile();
+			// Read the file directly, bypassing the MemoryTier
+			InputStream in = new BufferedInputStream(
+					new FileInputStream(getFile()));
+			
+			OutputStream out = new FileOutputStream(variant);
+			try {
+				encoder.encode(in, out);
+			}
+			finally {
+				IOUtils.closeStream(in);
+				IOUtils.closeStream(out);
+			}
+			if (variant.length() < getFile().length()) {
+				addVariant(encoder.getName(), variant);
+			}
+			else {
+				deleteFile(variant);
+			}
+		}
+		if (deleted) {
+			deleteVariants();
+		}
+	}
+	
+	/**
+	 * Adds a variant and notifies the SizeListener. The variant is 
+	 * registered before its coding, so that a coding can't be selected 
+	 * before its file is available.
+	 */
+	private void addVariant(String coding, File variant) {
+		SizeListener listener;
+		synchronized (this) {
+			variants.put(coding, variant);
+			codings.add(coding);
+			listener = deleted ? null : sizeListener;
+		}
+		if (listener != null) {
+			listener.diskSizeChanged(variant.length());
+		}
+	}
+	
+	public synchronized long setSizeListener(SizeListener listener) {
+		this.sizeListener = listener;
+		return getDiskSize();
+	}
+	
+	/**
+	 * Returns the variant that should be served, or <code>null</code> if 
+	 * the original data should be sent. The result is stored as request 
+	 * attribute, so that subsequent calls for the same request return the 
+	 * same coding.
+	 */
+	private String selectCoding(HttpServletRequest request) {
+		if (request.getAttribute("javax.servlet.include.request_uri") != null) {
+			return null;
+		}
+		Object selection = request.getAttribute(SELECTION_ATTRIBUTE);
+		if (selection instanceof Selection 
+				&& ((Selection) selection).content == this) {
+			
+			return ((Selection) selection).coding;
+		}
+		String coding = variants.isEmpty() ? null 
+				: AcceptEncoding.select(request, codings);
+		
+		request.setAttribute(SELECTION_ATTRIBUTE, new Selection(this, coding));
+		return coding;
+	}
+	
+	/**
+	 * Returns an entity tag that contains the coding of the selected 
+	 * variant, as each variant is a different representation.
+	 */
+	@Override
+	public String getEntityTag(HttpServletRequest request) {
+		String coding = selectCoding(request);
+		if (coding != null && getDigest() != null) {
+			return '"' + getDigest() + '-' + coding + '"';
+		}
+		return super.getEntityTag(request);
+	}
+	
+	@Override
+	public int getLength(HttpServletRequest request,
+			HttpServletResponse response) {
+		
+		String coding = selectCoding(request);
+		if (coding != null) {
+			return (int) variants.get(coding).length();
+		}
+		return super.getLength(request, response);
+	}
+	
+	@Override
+	public void serve(HttpServletRequest request, HttpServletResponse response)
+			throws ServletException, IOException {
+		
+		response.setHeader("Vary", "Accept-Encoding");
+		String coding = selectCoding(request);
+		if (coding != null) {
+			response.setHeader("Content-Encoding", coding);
+			serveFile(variants.get(coding), request, response);
+		}
+		else {
+			super.serve(request, response);
+		}
+	}
+	
+	@Override
+	public void delete() {
+		deleted = true;
+		super.delete();
+		deleteVariants();
+	}
+	
+	private void deleteVariants() {
+		for (File variant : variants.values()) {
+			deleteFile(variant);
+		}
+	}
+	
+	@Override
+	public Collection<File> getFiles() {
+		Collection<File> files = super.getFiles();
+		files.addAll(variants.values());
+		return files;
+	}
+	
+	@Override
+	public long getDiskSize() {
+		long size = super.getDiskSize();
+		for (File variant : variants.values()) {
+			size += variant.length();
+		}
+		return size;
+	}
+	
+	/**
+	 * The coding selected for a request.
+	 */
+	private static class Selection {
+		
+		private EncodedContent content;
+		
+		private String coding;
+
+		public Selection(EncodedContent content, String coding) {
+			this.content = content;
+			this.coding = coding;
+		}
+	}
+
+}
@@ -0,0 +1,149 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius.http.content;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.riotfamily.cachius.http.support.IOUtils;
+import org.riotfamily.cachius.http.support.ServingStrategy;
+import org.riotfamily.cachius.persistence.DiskStore;
+import org.riotfamily.cachius.persistence.MemoryTier;
+
+/**
+ * Base class for content that is stored in a file. If a {@link MemoryTier} is
+ * provided, small files that are requested frequently are read from memory.
+ * Binary files that are not handled by the memory tier are sent using the
+ * configured {@link ServingStrategy}, if it supports the response.
+ */
+public abstract class FileContent implements Content {
+
+	private File file;
+	
+	private transient MemoryTier memoryTier;
+	
+	private ServingStrategy servingStrategy;
+	
+	private String digest;
+	
+	public FileContent(File file, MemoryTier memoryTier) {
+		this.file = file;
+		this.memoryTier = memoryTier;
+	}
+	
+	protected File getFile() {
+		return file;
+	}
+	
+	/**
+	 * Sets the strategy used by {@link #serveFile(File, HttpServletRequest, 
+	 * HttpServletResponse) serveFile()}. If not set, files are copied into
+	 * the response's OutputStream.
+	 */
+	public void setServingStrategy(ServingStrategy servingStrategy) {
+		this.servingStrategy = servingStrategy;
+	}
+	
+	/**
+	 * Opens an InputStream to read the content's file.
+	 */
+	protected InputStream openStream() throws IOException {
+		return openStream(file);
+	}
+	
+	/**
+	 * Opens an InputStream to read the given file, using the memory tier 
+	 * if available.
+	 */
+	protected InputStream openStream(File f) throws IOException {
+		if (memoryTier != null) {
+			return memoryTier.openStream(f);
+		}
+		return new BufferedInputStream(new FileInputStream(f));
+	}
+	
+	/**
+	 * Sends the given file as binary content. Files handled by the memory 
+	 * tier are always copied, as there is nothing to gain from a transfer
+	 * strategy. Otherwise the ServingStrategy is tried before falling back 
+	 * to plain stream copying.
+	 */
+	protected void serveFile(File f, HttpServletRequest request, 
+			HttpServletResponse response) throws IOException {
+		
+		if (servingStrategy != null 
+				&& (memoryTier == null || !memoryTier.accepts(f))
+				&& servingStrategy.serve(f, request, response)) {
+			
+			return;
+		}
+		IOUtils.serve(openStream(f), response.getOutputStream());
+	}
+	
+	/**
+	 * Sets the hex-encoded digest of the file, which is used to create the
+	 * entity tag.
+	 */
+	public void setDigest(String digest) {
+		this.digest = digest;
+	}
+	
+	protected String getDigest() {
+		return digest;
+	}
+	
+	public String getEntityTag(HttpServletRequest request) {
+		return digest != null ? '"' + digest + '"' : null;
+	}
+	
+	public Collection<File> getFiles() {
+		Collection<File> files = new ArrayList<File>();
+		files.add(file);
+		return files;
+	}
+	
+	public void restore(DiskStore diskStore) {
+		memoryTier = MemoryTier.lookup(diskStore);
+	}
+	
+	public long getDiskSize() {
+		return file.length();
+	}
+	
+	public long getHeapSize() {
+		return 0;
+	}
+	
+	public void delete() {
+		deleteFile(file);
+	}
+	
+	/**
+	 * Deletes the given file and removes it from the memory tier.
+	 */
+	protected void deleteFile(File f) {
+		if (memoryTier != null) {
+			memoryTier.remove(f);
+		}
+		f.delete();
+	}
+
+}
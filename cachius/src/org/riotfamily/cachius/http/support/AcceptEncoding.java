@@ -0,0 +1,126 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius.http.support;
+
+import java.util.Collection;
+import java.util.Enumeration;
+
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Parser for the <code>Accept-Encoding</code> header. Selects the best 
+ * content-coding among the available ones without allocating intermediate 
+ * objects.
+ */
+public final class AcceptEncoding {
+
+	private AcceptEncoding() {
+	}
+	
+	/**
+	 * Returns the content-coding that should be used for the response, or
+	 * <code>null</code> if the identity encoding should be used. If the 
+	 * client assigns the same quality value to several codings, the first 
+	 * one in the given collection wins.
+	 */
+	@SuppressWarnings("unchecked")
+	public static String select(HttpServletRequest request, 
+			Collection<String> available) {
+		
+		if (available.isEmpty()) {
+			return null;
+		}
+		Enumeration<String> values = request.getHeaders("Accept-Encoding");
+		if (values == null) {
+			return null;
+		}
+		String best = null;
+		float bestQuality = 0;
+		while (values.hasMoreElements()) {
+			String value = values.nextElement();
+			for (String coding : available) {
+				float q = getQuality(value, coding);
+				if (q > bestQuality) {
+					best = coding;
+					bestQuality = q;
+				}
+			}
+		}
+		return best;
+	}
+	
+	/**
+	 * Returns the quality value the given header value assigns to a 
+	 * content-coding. Explicitly listed codings take precedence over the 
+	 * <code>*</code> wildcard. 
+	 */
+	static float getQuality(String header, String coding) {
+		float wildcard = 0;
+		int len = header.length();
+		int pos = 0;
+		while (pos < len) {
+			int end = header.indexOf(',', pos);
+			if (end == -1) {
+				end = len;
+			}
+			int paramStart = header.indexOf(';', pos);
+			int nameEnd = paramStart != -1 && paramStart < end ? paramStart : end;
+			int nameStart = skipWhitespace(header, pos, nameEnd);
+			int nameLen = trimWhitespace(header, nameStart, nameEnd) - nameStart;
+			if (nameLen == coding.length() && header.regionMatches(
+					true, nameStart, coding, 0, nameLen)) {
+				
+				return parseQuality(header, nameEnd, end);
+			}
+			if (nameLen == 1 && header.charAt(nameStart) == '*') {
+				wildcard = parseQuality(header, nameEnd, end);
+			}
+			pos = end + 1;
+		}
+		return wildcard;
+	}
+	
+	/**
+	 * Parses the <code>q</code> parameter in the given range. Returns 1 if
+	 * the parameter is absent and 0 if it can't be parsed.
+	 */
+	private static float parseQuality(String header, int start, int end) {
+		int q = header.indexOf("q=", start);
+		if (q == -1 || q >= end) {
+			return 1;
+		}
+		int valueStart = q + 2;
+		int valueEnd = trimWhitespace(header, valueStart, end);
+		try {
+			return Float.parseFloat(header.substring(valueStart, valueEnd));
+		}
+		catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+	
+	private static int skipWhitespace(String s, int start, int end) {
+		while (start < end && Character.isWhitespace(s.charAt(start))) {
+			start++;
+		}
+		return start;
+	}
+	
+	private static int trimWhitespace(String s, int start, int end) {
+		while (end > start && Character.isWhitespace(s.charAt(end - 1))) {
+			end--;
+		}
+		return end;
+	}
+	
+}
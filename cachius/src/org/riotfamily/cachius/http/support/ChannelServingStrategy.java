@@ -0,0 +1,46 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius.http.support;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.WritableByteChannel;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * ServingStrategy that transfers files using 
+ * {@link java.nio.channels.FileChannel#transferTo(long, long, WritableByteChannel)
+ * FileChannel.transferTo()}. If the container's OutputStream is backed by a 
+ * socket channel, the operating system can send the data without copying it 
+ * into user space. The strategy is only applied if the response's 
+ * OutputStream implements {@link WritableByteChannel}, which is 
+ * container-specific (neither Tomcat nor Jetty do so). Otherwise it has no
+ * effect, which is why it is not used unless configured explicitly.
+ */
+public class ChannelServingStrategy implements ServingStrategy {
+
+	public boolean serve(File file, HttpServletRequest request,
+			HttpServletResponse response) throws IOException {
+		
+		OutputStream out = response.getOutputStream();
+		if (out instanceof WritableByteChannel) {
+			IOUtils.serve(file, (WritableByteChannel) out);
+			return true;
+		}
+		return false;
+	}
+
+}
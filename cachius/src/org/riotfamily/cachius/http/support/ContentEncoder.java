@@ -0,0 +1,38 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius.http.support;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+
+/**
+ * Strategy to create a pre-encoded variant of captured content.
+ */
+public interface ContentEncoder extends Serializable {
+
+	/**
+	 * Returns the content-coding as used in the <code>Accept-Encoding</code>
+	 * and <code>Content-Encoding</code> headers.
+	 */
+	public String getName();
+	
+	/**
+	 * Reads the data from the given InputStream and writes the encoded 
+	 * data to the OutputStream. Implementations must not close the 
+	 * OutputStream.
+	 */
+	public void encode(InputStream in, OutputStream out) throws IOException;
+	
+}
@@ -0,0 +1,60 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius.http.support;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * ContentEncoder that creates variants with the "deflate" content-coding,
+ * i.e. the zlib format as defined by RFC 2616.
+ */
+public class DeflateEncoder implements ContentEncoder {
+
+	private int level = Deflater.BEST_COMPRESSION;
+	
+	public DeflateEncoder() {
+	}
+	
+	public DeflateEncoder(int level) {
+		this.level = level;
+	}
+	
+	/**
+	 * Sets the compression level (0-9). Default is 
+	 * {@link Deflater#BEST_COMPRESSION}.
+	 */
+	public void setLevel(int level) {
+		this.level = level;
+	}
+	
+	public String getName() {
+		return "deflate";
+	}
+	
+	public void encode(InputStream in, OutputStream out) throws IOException {
+		Deflater deflater = new Deflater(level);
+		try {
+			DeflaterOutputStream deflate = new DeflaterOutputStream(out, deflater);
+			IOUtils.copy(in, deflate);
+			deflate.finish();
+		}
+		finally {
+			deflater.end();
+		}
+	}
+	
+}
@@ -0,0 +1,79 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius.http.support;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * ResponseWrapper that is used to render content fragments after the 
+ * response's OutputStream has been obtained. Character data written to the
+ * wrapper's Writer is encoded as UTF-8 and sent to the same OutputStream. 
+ * Calls to <code>close()</code> are ignored, so that fragments can't close 
+ * the actual response.
+ */
+public class FragmentResponseWrapper extends HttpServletResponseWrapper {
+
+	private ServletOutputStream outputStream;
+	
+	private PrintWriter writer;
+	
+	public FragmentResponseWrapper(HttpServletResponse response, 
+			final OutputStream out) {
+		
+		super(response);
+		this.outputStream = new DelegatingServletOutputStream(
+				new FilterOutputStream(out) {
+					@Override
+					public void write(byte[] b, int off, int len) 
+							throws IOException {
+						
+						out.write(b, off, len);
+					}
+					
+					@Override
+					public void close() throws IOException {
+						flush();
+					}
+				});
+	}
+	
+	@Override
+	public ServletOutputStream getOutputStream() throws IOException {
+		return outputStream;
+	}
+	
+	@Override
+	public PrintWriter getWriter() throws IOException {
+		if (writer == null) {
+			writer = new PrintWriter(new OutputStreamWriter(outputStream, "UTF-8"));
+		}
+		return writer;
+	}
+	
+	@Override
+	public void flushBuffer() throws IOException {
+		if (writer != null) {
+			writer.flush();
+		}
+		outputStream.flush();
+	}
+
+}
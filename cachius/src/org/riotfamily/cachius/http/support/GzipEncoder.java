@@ -0,0 +1,58 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius.http.support;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * ContentEncoder that creates gzip variants.
+ */
+public class GzipEncoder implements ContentEncoder {
+
+	private int level = Deflater.BEST_COMPRESSION;
+	
+	public GzipEncoder() {
+	}
+	
+	public GzipEncoder(int level) {
+		this.level = level;
+	}
+	
+	/**
+	 * Sets the compression level (0-9). Default is 
+	 * {@link Deflater#BEST_COMPRESSION}, as variants are created only once 
+	 * per capture.
+	 */
+	public void setLevel(int level) {
+		this.level = level;
+	}
+	
+	public String getName() {
+		return "gzip";
+	}
+	
+	public void encode(InputStream in, OutputStream out) throws IOException {
+		GZIPOutputStream gzip = new GZIPOutputStream(out) {
+			{
+				def.setLevel(level);
+			}
+		};
+		IOUtils.copy(in, gzip);
+		gzip.finish();
+	}
+	
+}
@@ -23,6 +23,9 @@ import java.io.Reader;
 import java.io.UnsupportedEncodingException;
 import java.io.Writer;
 import java.net.SocketException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 
 public class IOUtils {
 	
@@ -110,6 +113,60 @@ public class IOUtils {
 		return -1;
 	}
 	
+	/**
+	 * Transfers the content of the given File to a WritableByteChannel using
+	 * {@link FileChannel#transferTo(long, long, WritableByteChannel)}, which
+	 * allows the operating system to avoid copying the data into user space.
+	 * If the channel stops accepting data, the remainder is copied using a 
+	 * buffer. The target channel is not closed.
+	 * @return the number of bytes transferred
+	 * @throws IOException in case of I/O errors
+	 */
+	public static long transfer(File file, WritableByteChannel out) 
+			throws IOException {
+		
+		FileInputStream in = new FileInputStream(file);
+		try {
+			FileChannel channel = in.getChannel();
+			long size = channel.size();
+			long position = 0;
+			while (position < size) {
+				long count = channel.transferTo(position, size - position, out);
+				if (count <= 0) {
+					channel.position(position);
+					return position + copy(in, Channels.newOutputStream(out));
+				}
+				position += count;
+			}
+			return position;
+		}
+		finally {
+			closeStream(in);
+		}
+	}
+	
+	/**
+	 * Transfers the content of the given File to a WritableByteChannel,
+	 * swallowing exceptions caused by a ClientAbortException.
+	 * 
+	 * @see #transfer(File, WritableByteChannel)
+	 */
+	public static long serve(File file, WritableByteChannel out) 
+			throws IOException {
+		
+		try {
+			return transfer(file, out);
+		}
+		catch (SocketException e) {
+		}
+		catch (IOException e) {
+			if (!SocketException.class.isInstance(e.getCause())) {
+				throw e;
+			}
+		}
+		return -1;
+	}
+	
 	/**
 	 * Copies the content of the given Reader to a Writer.
 	 * Unlike FileCopyUtils.copy(Reader, Writer) this method does not 
@@ -136,6 +193,46 @@ public class IOUtils {
 		}
 	}
 	
+	/**
+	 * Copies up to <code>length</code> bytes from the given InputStream to an 
+	 * OutputStream. Neither of the streams is closed.
+	 * @return the number of bytes copied
+	 * @throws IOException in case of I/O errors
+	 */
+	public static int copy(InputStream in, OutputStream out, int length) 
+			throws IOException {
+		
+		byte[] buffer = new byte[Math.min(length, BUFFER_SIZE)];
+		int remaining = length;
+		while (remaining > 0) {
+			int bytesRead = in.read(buffer, 0, Math.min(remaining, buffer.length));
+			if (bytesRead == -1) {
+				break;
+			}
+			out.write(buffer, 0, bytesRead);
+			remaining -= bytesRead;
+		}
+		return length - remaining;
+	}
+	
+	/**
+	 * Skips exactly <code>length</code> bytes of the given InputStream, 
+	 * unless the end of the stream is reached before.
+	 */
+	public static void skip(InputStream in, long length) throws IOException {
+		long remaining = length;
+		while (remaining > 0) {
+			long skipped = in.skip(remaining);
+			if (skipped <= 0) {
+				if (in.read() == -1) {
+					return;
+				}
+				skipped = 1;
+			}
+			remaining -= skipped;
+		}
+	}
+	
 	public static int copy(Reader in, Writer out, int length) throws IOException {
 		for (int i = 0; i < length; i++) {
 			int c = in.read();
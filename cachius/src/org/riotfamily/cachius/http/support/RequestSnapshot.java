@@ -0,0 +1,451 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius.http.support;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.security.Principal;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+
+import javax.servlet.RequestDispatcher;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpSession;
+
+/**
+ * Immutable copy of a GET request that can be used after the original 
+ * request has been completed, i.e. to re-capture content in a background 
+ * thread. All request properties, headers, parameters and attributes are 
+ * copied. As the snapshot is usually taken after the request has been 
+ * rendered, callers should pass the attributes they recorded beforehand. 
+ * Requests made through the snapshot are always anonymous and 
+ * session-less, as the content must not depend on the visitor anyway in 
+ * order to be cacheable. 
+ * <p>
+ * Since the snapshot is not known to the servlet container, it can't be 
+ * used for dispatching. Handlers that rely on includes or forwards must 
+ * not be refreshed in the background.
+ */
+@SuppressWarnings("unchecked")
+public class RequestSnapshot implements HttpServletRequest {
+
+	private String method;
+	
+	private String scheme;
+	
+	private String protocol;
+	
+	private String serverName;
+	
+	private int serverPort;
+	
+	private String localName;
+	
+	private String localAddr;
+	
+	private int localPort;
+	
+	private String remoteAddr;
+	
+	private String remoteHost;
+	
+	private int remotePort;
+	
+	private boolean secure;
+	
+	private StringBuffer requestURL;
+	
+	private String requestURI;
+	
+	private String contextPath;
+	
+	private String servletPath;
+	
+	private String pathInfo;
+	
+	private String pathTranslated;
+	
+	private String queryString;
+	
+	private String characterEncoding;
+	
+	private List<Locale> locales = new ArrayList<Locale>();
+	
+	private Cookie[] cookies;
+	
+	private Map<String, List<String>> headers = 
+			new LinkedHashMap<String, List<String>>();
+	
+	private Map<String, String[]> parameters;
+	
+	private Map<String, Object> attributes = new HashMap<String, Object>();
+	
+	/**
+	 * Creates a snapshot of the given request, including its current 
+	 * attributes. Note that attributes added during rendering (model objects,
+	 * framework state) are copied too, which might not be what you want.
+	 * 
+	 * @see #RequestSnapshot(HttpServletRequest, Map)
+	 */
+	public RequestSnapshot(HttpServletRequest request) {
+		this(request, copyAttributes(request));
+	}
+	
+	/**
+	 * Creates a snapshot of the given request, using the given attributes 
+	 * instead of the current ones. This allows callers to record the 
+	 * attributes before the request is rendered, using 
+	 * {@link #copyAttributes(HttpServletRequest)}.
+	 */
+	public RequestSnapshot(HttpServletRequest request, 
+			Map<String, Object> attributes) {
+		
+		method = request.getMethod();
+		scheme = request.getScheme();
+		protocol = request.getProtocol();
+		serverName = request.getServerName();
+		serverPort = request.getServerPort();
+		localName = request.getLocalName();
+		localAddr = request.getLocalAddr();
+		localPort = request.getLocalPort();
+		remoteAddr = request.getRemoteAddr();
+		remoteHost = request.getRemoteHost();
+		remotePort = request.getRemotePort();
+		secure = request.isSecure();
+		requestURL = new StringBuffer(request.getRequestURL());
+		requestURI = request.getRequestURI();
+		contextPath = request.getContextPath();
+		servletPath = request.getServletPath();
+		pathInfo = request.getPathInfo();
+		pathTranslated = request.getPathTranslated();
+		queryString = request.getQueryString();
+		characterEncoding = request.getCharacterEncoding();
+		cookies = request.getCookies();
+		locales.addAll(Collections.list(request.getLocales()));
+		for (String name : (List<String>) Collections.list(request.getHeaderNames())) {
+			headers.put(name, Collections.list(request.getHeaders(name)));
+		}
+		parameters = new HashMap<String, String[]>(request.getParameterMap());
+		this.attributes.putAll(attributes);
+	}
+	
+	/**
+	 * Returns a copy of the request's current attributes.
+	 */
+	public static Map<String, Object> copyAttributes(HttpServletRequest request) {
+		Map<String, Object> attributes = new HashMap<String, Object>();
+		for (String name : (List<String>) Collections.list(request.getAttributeNames())) {
+			attributes.put(name, request.getAttribute(name));
+		}
+		return attributes;
+	}
+
+	// -----------------------------------------------------------------------
+	// Attributes
+	// -----------------------------------------------------------------------
+	
+	public synchronized Object getAttribute(String name) {
+		return attributes.get(name);
+	}
+
+	public synchronized Enumeration getAttributeNames() {
+		return Collections.enumeration(new ArrayList<String>(attributes.keySet()));
+	}
+
+	public synchronized void setAttribute(String name, Object value) {
+		if (value == null) {
+			attributes.remove(name);
+		}
+		else {
+			attributes.put(name, value);
+		}
+	}
+
+	public synchronized void removeAttribute(String name) {
+		attributes.remove(name);
+	}
+	
+	// -----------------------------------------------------------------------
+	// Parameters
+	// -----------------------------------------------------------------------
+
+	public String getParameter(String name) {
+		String[] values = parameters.get(name);
+		return values != null && values.length > 0 ? values[0] : null;
+	}
+
+	public Map getParameterMap() {
+		return Collections.unmodifiableMap(parameters);
+	}
+
+	public Enumeration getParameterNames() {
+		return Collections.enumeration(parameters.keySet());
+	}
+
+	public String[] getParameterValues(String name) {
+		return parameters.get(name);
+	}
+	
+	// -----------------------------------------------------------------------
+	// Headers
+	// -----------------------------------------------------------------------
+
+	private List<String> getHeaderValues(String name) {
+		for (Map.Entry<String, List<String>> entry : headers.entrySet()) {
+			if (entry.getKey().equalsIgnoreCase(name)) {
+				return entry.getValue();
+			}
+		}
+		return Collections.emptyList();
+	}
+	
+	public String getHeader(String name) {
+		List<String> values = getHeaderValues(name);
+		return values.isEmpty() ? null : values.get(0);
+	}
+
+	public Enumeration getHeaders(String name) {
+		return Collections.enumeration(getHeaderValues(name));
+	}
+
+	public Enumeration getHeaderNames() {
+		return Collections.enumeration(headers.keySet());
+	}
+
+	public long getDateHeader(String name) {
+		String value = getHeader(name);
+		if (value == null) {
+			return -1;
+		}
+		SimpleDateFormat format = new SimpleDateFormat(
+				"EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+		
+		format.setTimeZone(TimeZone.getTimeZone("GMT"));
+		try {
+			return format.parse(value).getTime();
+		}
+		catch (ParseException e) {
+			throw new IllegalArgumentException(value);
+		}
+	}
+
+	public int getIntHeader(String name) {
+		String value = getHeader(name);
+		return value != null ? Integer.parseInt(value) : -1;
+	}
+	
+	public Cookie[] getCookies() {
+		return cookies;
+	}
+	
+	public Locale getLocale() {
+		return locales.isEmpty() ? Locale.getDefault() : locales.get(0);
+	}
+
+	public Enumeration getLocales() {
+		return Collections.enumeration(locales);
+	}
+	
+	// -----------------------------------------------------------------------
+	// Request line and connection
+	// -----------------------------------------------------------------------
+
+	public String getMethod() {
+		return method;
+	}
+	
+	public String getScheme() {
+		return scheme;
+	}
+	
+	public String getProtocol() {
+		return protocol;
+	}
+
+	public String getServerName() {
+		return serverName;
+	}
+
+	public int getServerPort() {
+		return serverPort;
+	}
+	
+	public String getLocalName() {
+		return localName;
+	}
+
+	public String getLocalAddr() {
+		return localAddr;
+	}
+
+	public int getLocalPort() {
+		return localPort;
+	}
+
+	public String getRemoteAddr() {
+		return remoteAddr;
+	}
+
+	public String getRemoteHost() {
+		return remoteHost;
+	}
+
+	public int getRemotePort() {
+		return remotePort;
+	}
+
+	public boolean isSecure() {
+		return secure;
+	}
+	
+	public StringBuffer getRequestURL() {
+		return new StringBuffer(requestURL);
+	}
+
+	public String getRequestURI() {
+		return requestURI;
+	}
+
+	public String getContextPath() {
+		return contextPath;
+	}
+
+	public String getServletPath() {
+		return servletPath;
+	}
+
+	public String getPathInfo() {
+		return pathInfo;
+	}
+
+	public String getPathTranslated() {
+		return pathTranslated;
+	}
+
+	public String getQueryString() {
+		return queryString;
+	}
+	
+	// -----------------------------------------------------------------------
+	// Body
+	// -----------------------------------------------------------------------
+	
+	public String getCharacterEncoding() {
+		return characterEncoding;
+	}
+
+	public void setCharacterEncoding(String characterEncoding) 
+			throws UnsupportedEncodingException {
+		
+		this.characterEncoding = characterEncoding;
+	}
+	
+	public int getContentLength() {
+		return -1;
+	}
+
+	public String getContentType() {
+		return null;
+	}
+
+	public ServletInputStream getInputStream() throws IOException {
+		throw new IllegalStateException("The snapshot has no body");
+	}
+
+	public BufferedReader getReader() throws IOException {
+		throw new IllegalStateException("The snapshot has no body");
+	}
+	
+	// -----------------------------------------------------------------------
+	// Security and session
+	// -----------------------------------------------------------------------
+
+	public String getAuthType() {
+		return null;
+	}
+	
+	public String getRemoteUser() {
+		return null;
+	}
+
+	public Principal getUserPrincipal() {
+		return null;
+	}
+
+	public boolean isUserInRole(String role) {
+		return false;
+	}
+	
+	public HttpSession getSession() {
+		return getSession(true);
+	}
+
+	public HttpSession getSession(boolean create) {
+		if (create) {
+			throw new IllegalStateException("Sessions are not available " 
+					+ "in a request snapshot");
+		}
+		return null;
+	}
+	
+	public String getRequestedSessionId() {
+		return null;
+	}
+
+	public boolean isRequestedSessionIdValid() {
+		return false;
+	}
+
+	public boolean isRequestedSessionIdFromCookie() {
+		return false;
+	}
+
+	public boolean isRequestedSessionIdFromURL() {
+		return false;
+	}
+
+	/**
+	 * @deprecated
+	 */
+	public boolean isRequestedSessionIdFromUrl() {
+		return false;
+	}
+	
+	// -----------------------------------------------------------------------
+	// Dispatching
+	// -----------------------------------------------------------------------
+
+	public RequestDispatcher getRequestDispatcher(String path) {
+		return null;
+	}
+
+	/**
+	 * @deprecated
+	 */
+	public String getRealPath(String path) {
+		return null;
+	}
+
+}
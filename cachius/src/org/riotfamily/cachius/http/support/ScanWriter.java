@@ -18,12 +18,19 @@ import java.util.Collection;
 import java.util.LinkedList;
 
 /**
- * Writer that scans the output for expressions. 
+ * Writer that scans the output for expressions. Besides the character 
+ * positions of the blocks it also records their byte offsets in the UTF-8 
+ * encoded output, so that the static parts can be served without decoding.
+ * The start marker and the end character must be ASCII characters.
  */
 public class ScanWriter extends Writer {
 
 	private int index;
 	
+	private int byteIndex;
+	
+	private boolean pendingHighSurrogate;
+	
 	private char[] startPattern;
 	
 	private char endChar;
@@ -51,6 +58,22 @@ public class ScanWriter extends Writer {
 	public boolean foundBlocks() {
 		return blocks.size() > 0;
 	}
+	
+	/**
+	 * Returns the number of characters written so far.
+	 */
+	public int getCharCount() {
+		return index;
+	}
+	
+	/**
+	 * Returns the number of bytes the characters written so far occupy when
+	 * encoded as UTF-8. A trailing high surrogate is counted as the single
+	 * replacement byte the encoder emits if no low surrogate follows.
+	 */
+	public int getByteCount() {
+		return pendingHighSurrogate ? byteIndex + 1 : byteIndex;
+	}
 
 	@Override
 	public void close() throws IOException {
@@ -67,9 +90,23 @@ public class ScanWriter extends Writer {
 		int end = off + len;
 		for (int i = off; i < end; i++) {
 			char c = cbuf[i];
+			int byteLength = getUtf8Length(c);
+			if (pendingHighSurrogate) {
+				pendingHighSurrogate = false;
+				if (Character.isLowSurrogate(c)) {
+					byteLength = 4;
+				}
+				else {
+					byteIndex++;
+				}
+			}
+			if (Character.isHighSurrogate(c)) {
+				pendingHighSurrogate = true;
+				byteLength = 0;
+			}
 			if (block != null) {
 				if (c == endChar) {
-					block.end(index);
+					block.end(index, byteIndex);
 					blocks.add(block);
 		    		block = null;
 				}
@@ -84,7 +121,8 @@ public class ScanWriter extends Writer {
 				if (c == startPattern[p]) {
 					p++;
 					if (p == startPattern.length) {
-						block = new Block(index + 1 - startPattern.length);
+						block = new Block(index + 1 - startPattern.length, 
+								byteIndex + 1 - startPattern.length);
 						p = 0;
 					}
 				}
@@ -93,9 +131,28 @@ public class ScanWriter extends Writer {
 				}
 			}
 			index++;
+			byteIndex += byteLength;
 		}
 		out.write(cbuf, off, len);
 	}
+	
+	/**
+	 * Returns the number of bytes needed to encode the given char in UTF-8.
+	 * Surrogates are counted as one byte, as that's what the encoder emits
+	 * for an unpaired one. Pairs are handled by the caller, which counts
+	 * four bytes for the low surrogate and none for the high one.
+	 */
+	private static int getUtf8Length(char c) {
+		if (c < 0x80 || Character.isHighSurrogate(c) 
+				|| Character.isLowSurrogate(c)) {
+			
+			return 1;
+		}
+		if (c < 0x800) {
+			return 2;
+		}
+		return 3;
+	}
 
 	public static class Block {
     	
@@ -103,18 +160,24 @@ public class ScanWriter extends Writer {
     	
     	private int end;
     	
+    	private int byteStart;
+    	
+    	private int byteEnd;
+    	
     	private StringBuilder sb = new StringBuilder();
     	
-    	private Block(int start) {
+    	private Block(int start, int byteStart) {
     		this.start = start;
+    		this.byteStart = byteStart;
     	}
     	
     	private void append(char c) {
     		sb.append(c);
     	}
     	
-    	private void end(int end) {
+    	private void end(int end, int byteEnd) {
     		this.end = end;
+    		this.byteEnd = byteEnd;
     	}
 
 		public int getStart() {
@@ -125,6 +188,20 @@ public class ScanWriter extends Writer {
 			return end;
 		}
 		
+		/**
+		 * Returns the offset of the block's first byte in the UTF-8 output.
+		 */
+		public int getByteStart() {
+			return byteStart;
+		}
+		
+		/**
+		 * Returns the offset of the block's last byte in the UTF-8 output.
+		 */
+		public int getByteEnd() {
+			return byteEnd;
+		}
+		
 		private int length() {
 			return sb.length();
 		}
@@ -0,0 +1,36 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius.http.support;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Strategy to send the content of a cached file to the client. Strategies are
+ * stored along with the cached content and must therefore be serializable.
+ */
+public interface ServingStrategy extends Serializable {
+
+	/**
+	 * Sends the given file. Implementations return <code>false</code> if they
+	 * can't handle the given response, in which case the caller falls back to
+	 * copying the file into the response's OutputStream.
+	 */
+	public boolean serve(File file, HttpServletRequest request, 
+			HttpServletResponse response) throws IOException;
+
+}
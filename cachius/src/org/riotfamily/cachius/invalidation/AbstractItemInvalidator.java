@@ -0,0 +1,41 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius.invalidation;
+
+import java.util.Collection;
+
+/**
+ * Base class for ItemInvalidators that forward invalidations to an 
+ * {@link InvalidationBus}, if one is set.
+ */
+public abstract class AbstractItemInvalidator implements ItemInvalidator {
+
+	private InvalidationBus invalidationBus;
+	
+	public void setInvalidationBus(InvalidationBus invalidationBus) {
+		this.invalidationBus = invalidationBus;
+	}
+	
+	/**
+	 * Invalidates the tags locally and publishes them to the other nodes.
+	 */
+	protected void invalidateNow(ItemIndex index, Collection<String> tags) {
+		for (String tag : tags) {
+			index.invalidate(tag);
+		}
+		if (invalidationBus != null) {
+			invalidationBus.publish(tags);
+		}
+	}
+	
+}
@@ -12,11 +12,13 @@
  */
 package org.riotfamily.cachius.invalidation;
 
+import java.util.Collections;
 
-public class DefaultItemInvalidator implements ItemInvalidator {
+
+public class DefaultItemInvalidator extends AbstractItemInvalidator {
 
 	public void invalidate(ItemIndex index, String tag) {
-		index.invalidate(tag);
+		invalidateNow(index, Collections.singleton(tag));
 	}
 
 }
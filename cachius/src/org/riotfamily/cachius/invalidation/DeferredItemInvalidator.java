@@ -12,11 +12,17 @@
  */
 package org.riotfamily.cachius.invalidation;
 
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
 
 
-public class DeferredItemInvalidator implements ItemInvalidator {
+/**
+ * ItemInvalidator that collects the tags between {@link #defer()} and 
+ * {@link #commit()}. At commit, the de-duplicated tag set is invalidated
+ * and published to the {@link InvalidationBus} as a whole.
+ */
+public class DeferredItemInvalidator extends AbstractItemInvalidator {
 
 	private ThreadLocal<Invalidations> localInvalidations = new ThreadLocal<Invalidations>();
 
@@ -35,15 +41,17 @@ public class DeferredItemInvalidator implements ItemInvalidator {
 		Invalidations invalidations = (Invalidations) localInvalidations.get();
 		assert invalidations != null && invalidations.level >= 0 : "Unbalanced call to commit()";
 		if (invalidations.level-- == 0) {
-			invalidations.commit();
 			localInvalidations.remove();
+			if (invalidations.index != null) {
+				invalidateNow(invalidations.index, invalidations.tags);
+			}
 		}
 	}
 
 	public void invalidate(ItemIndex index, String tag) {
 		Invalidations invalidations = (Invalidations) localInvalidations.get();
 		if (invalidations == null) {
-			index.invalidate(tag);
+			invalidateNow(index, Collections.singleton(tag));
 		}
 		else {
 			invalidations.add(index, tag);
@@ -63,12 +71,6 @@ public class DeferredItemInvalidator implements ItemInvalidator {
 			tags.add(tag);
 		}
 
-		void commit() {
-			for (String tag : tags) {
-				index.invalidate(tag);				
-			}
-		}
-
 	}
 
 }
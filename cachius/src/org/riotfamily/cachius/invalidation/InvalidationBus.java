@@ -0,0 +1,221 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius.invalidation;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Propagates tag invalidations to the other nodes of a cluster. Published
+ * tags are collected and sent in batches by a background thread, so that
+ * a burst of invalidations (i.e. when an editor saves a page that touches
+ * many entities) results in a few messages containing each tag only once. 
+ * Invalidations received from other nodes are applied to the local 
+ * {@link ItemIndex} without being published again. Other components that
+ * keep node-local state can {@link #addListener(InvalidationListener) 
+ * register a listener} to be notified of received tags, too.
+ * <p>
+ * The bus must be passed to the ItemInvalidator and to the CacheService,
+ * which starts it with its index.
+ */
+public class InvalidationBus {
+
+	private Logger log = LoggerFactory.getLogger(InvalidationBus.class);
+	
+	private InvalidationTransport transport;
+	
+	private long flushInterval = 100;
+	
+	private int maxBatchSize = 500;
+	
+	private ConcurrentHashMap<String, Boolean> pendingTags = 
+			new ConcurrentHashMap<String, Boolean>();
+	
+	private AtomicLong sentTags = new AtomicLong();
+	
+	private AtomicLong receivedTags = new AtomicLong();
+	
+	private AtomicLong failures = new AtomicLong();
+	
+	private List<InvalidationListener> listeners = 
+			new CopyOnWriteArrayList<InvalidationListener>();
+	
+	private FlushThread flushThread;
+
+	public InvalidationBus(InvalidationTransport transport) {
+		this.transport = transport;
+	}
+	
+	/**
+	 * Sets the number of milliseconds published tags are collected before 
+	 * they are sent. Default is <code>100</code>.
+	 */
+	public void setFlushInterval(long flushInterval) {
+		this.flushInterval = flushInterval;
+	}
+	
+	/**
+	 * Sets the maximum number of tags sent in one batch. Default is 
+	 * <code>500</code>.
+	 */
+	public void setMaxBatchSize(int maxBatchSize) {
+		this.maxBatchSize = maxBatchSize;
+	}
+	
+	/**
+	 * Adds a listener that is notified whenever tags are received from 
+	 * another node. Tags published by this node are not passed to the 
+	 * listeners.
+	 */
+	public void addListener(InvalidationListener listener) {
+		listeners.add(listener);
+	}
+	
+	public void removeListener(InvalidationListener listener) {
+		listeners.remove(listener);
+	}
+	
+	/**
+	 * Starts receiving invalidations for the given index and sending 
+	 * published tags.
+	 */
+	public synchronized void start(final ItemIndex index) throws IOException {
+		if (flushThread != null) {
+			return;
+		}
+		transport.start(new InvalidationListener() {
+			public void invalidated(Collection<String> tags) {
+				receivedTags.addAndGet(tags.size());
+				for (String tag : tags) {
+					index.invalidate(tag);
+				}
+				for (InvalidationListener listener : listeners) {
+					listener.invalidated(tags);
+				}
+			}
+		});
+		flushThread = new FlushThread();
+		flushThread.start();
+	}
+	
+	/**
+	 * Sends the pending tags and stops the transport.
+	 */
+	public synchronized void stop() {
+		if (flushThread != null) {
+			flushThread.shutdown();
+			flushThread = null;
+			flush();
+			transport.stop();
+		}
+	}
+	
+	/**
+	 * Queues the given tags for the next batch.
+	 */
+	public void publish(Collection<String> tags) {
+		for (String tag : tags) {
+			pendingTags.put(tag, Boolean.TRUE);
+		}
+	}
+	
+	/**
+	 * Sends all pending tags.
+	 */
+	void flush() {
+		List<String> batch = new ArrayList<String>();
+		Iterator<String> it = pendingTags.keySet().iterator();
+		while (it.hasNext()) {
+			batch.add(it.next());
+			it.remove();
+			if (batch.size() == maxBatchSize || !it.hasNext()) {
+				send(batch);
+				batch = new ArrayList<String>();
+			}
+		}
+	}
+	
+	private void send(List<String> batch) {
+		try {
+			transport.send(batch);
+			sentTags.addAndGet(batch.size());
+		}
+		catch (IOException e) {
+			failures.incrementAndGet();
+			log.error("Failed to send invalidations", e);
+		}
+	}
+	
+	/**
+	 * Returns the number of tags that are waiting to be sent.
+	 */
+	public int getPendingTags() {
+		return pendingTags.size();
+	}
+	
+	public long getSentTags() {
+		return sentTags.get();
+	}
+	
+	public long getReceivedTags() {
+		return receivedTags.get();
+	}
+	
+	/**
+	 * Returns the number of batches that could not be sent.
+	 */
+	public long getFailures() {
+		return failures.get();
+	}
+	
+	/**
+	 * Thread that sends the pending tags in regular intervals.
+	 */
+	private class FlushThread extends Thread {
+		
+		private volatile boolean running = true;
+		
+		public FlushThread() {
+			super("cachius-invalidation-bus");
+			setDaemon(true);
+		}
+		
+		@Override
+		public void run() {
+			while (running) {
+				try {
+					Thread.sleep(flushInterval);
+				}
+				catch (InterruptedException e) {
+					break;
+				}
+				flush();
+			}
+		}
+		
+		public void shutdown() {
+			running = false;
+			interrupt();
+		}
+	}
+	
+}
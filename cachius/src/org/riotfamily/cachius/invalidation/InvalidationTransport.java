@@ -0,0 +1,38 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius.invalidation;
+
+import java.io.IOException;
+import java.util.Collection;
+
+/**
+ * Transport that sends tag invalidations to the other nodes of a cluster.
+ * Implementations must not deliver a node's own invalidations back to it.
+ * 
+ * @see InvalidationBus
+ */
+public interface InvalidationTransport {
+
+	/**
+	 * Starts receiving invalidations from other nodes.
+	 */
+	public void start(InvalidationListener listener) throws IOException;
+	
+	/**
+	 * Sends the given tags to all other nodes.
+	 */
+	public void send(Collection<String> tags) throws IOException;
+	
+	public void stop();
+	
+}
@@ -1,67 +1,306 @@
 package org.riotfamily.cachius.invalidation;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.riotfamily.cachius.CacheItem;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Index that maps tags to the items tagged with them. The items of each tag 
+ * are kept in a concurrent identity set, so that items can be added and 
+ * removed in constant time, and invalidations don't block concurrent 
+ * modifications.
+ * <p>
+ * In generational mode no items are tracked at all. Instead, the index 
+ * maintains a global generation counter. Each item records the generation 
+ * at which its capturing started, and an invalidation stores the next 
+ * generation for the tag. An item is stale if one of its tags has been 
+ * invalidated at a later generation than the item's own, which is checked 
+ * lazily by {@link #applyInvalidations(CacheItem)}.
+ * <p>
+ * To keep the memory footprint bounded, the oldest invalidations are folded
+ * into a floor generation once more than {@link #setMaxInvalidatedTags(int)
+ * maxInvalidatedTags} tags have been recorded. Tagged items that are older
+ * than the floor are considered stale, regardless of their actual tags.
+ */
 public class ItemIndex {
 
 	private Logger log = LoggerFactory.getLogger(ItemIndex.class);
 	
-	private ConcurrentHashMap<String, List<CacheItem>> taggedItems =
-			new ConcurrentHashMap<String, List<CacheItem>>();
+	private ConcurrentHashMap<String, TaggedItems> taggedItems =
+			new ConcurrentHashMap<String, TaggedItems>();
+	
+	private boolean generational;
+	
+	private AtomicLong generation = new AtomicLong();
+	
+	private ConcurrentHashMap<String, AtomicLong> invalidations =
+			new ConcurrentHashMap<String, AtomicLong>();
+	
+	private AtomicLong floorGeneration = new AtomicLong();
+	
+	private int maxInvalidatedTags = 10000;
+	
+	/**
+	 * Sets whether the generational mode should be used. When the mode is 
+	 * enabled, all tracked items are released. Default is <code>false</code>.
+	 */
+	public void setGenerational(boolean generational) {
+		this.generational = generational;
+		if (generational) {
+			taggedItems.clear();
+		}
+	}
+	
+	public boolean isGenerational() {
+		return generational;
+	}
+	
+	/**
+	 * Sets the maximal number of tags whose invalidation generation is 
+	 * remembered in generational mode. When the limit is exceeded, the older
+	 * half is folded into the floor generation. Default is <code>10000</code>.
+	 */
+	public void setMaxInvalidatedTags(int maxInvalidatedTags) {
+		this.maxInvalidatedTags = maxInvalidatedTags;
+	}
+	
+	/**
+	 * Returns the current generation. Items must record this value before
+	 * their data is captured.
+	 */
+	public long getGeneration() {
+		return generation.get();
+	}
 	
 	public void add(CacheItem item) {
+		advanceGeneration(item.getGeneration());
+		if (generational) {
+			return;
+		}
 		Set<String> tags = item.getTags();
 		if (tags != null) {
 			for (String tag : tags) {
-				List<CacheItem> items = taggedItems.get(tag);
-				if (items == null) {
-					List<CacheItem> newItems = new ArrayList<CacheItem>();
-					List<CacheItem> oldItems = taggedItems.putIfAbsent(tag, newItems);
-					items = oldItems != null ? oldItems : newItems;
-				}
-				synchronized (items) {
-					items.add(item);
-				}
+				add(tag, item);
+			}
+		}
+	}
+	
+	private void add(String tag, CacheItem item) {
+		while (true) {
+			TaggedItems items = taggedItems.get(tag);
+			if (items == null) {
+				TaggedItems newItems = new TaggedItems();
+				TaggedItems oldItems = taggedItems.putIfAbsent(tag, newItems);
+				items = oldItems != null ? oldItems : newItems;
+			}
+			items.put(item, Boolean.TRUE);
+			if (!items.retired.get()) {
+				return;
+			}
+			// The set is being discarded by a concurrent remove() call,
+			// back off and try again.
+			items.remove(item);
+		}
+	}
+	
+	/**
+	 * Makes sure that the current generation is not lower than the given 
+	 * one. This is required for items that have been restored from disk, 
+	 * as the counter starts at zero after a restart.
+	 */
+	private void advanceGeneration(long min) {
+		advance(generation, min);
+	}
+	
+	private static void advance(AtomicLong value, long min) {
+		long current;
+		while ((current = value.get()) < min) {
+			if (value.compareAndSet(current, min)) {
+				break;
 			}
 		}
 	}
 	
 	public void remove(CacheItem item) {
+		if (generational) {
+			return;
+		}
 		Set<String> tags = item.getTags();
 		if (tags != null) {
 			for (String tag : tags) {
-				List<CacheItem> items = taggedItems.get(tag);
+				TaggedItems items = taggedItems.get(tag);
 				if (items != null) {
-					synchronized (items) {
-						items.remove(item);
-						if (items.isEmpty()) {
-							taggedItems.remove(tag);
-						}
+					items.remove(item);
+					if (items.isEmpty()) {
+						discardIfEmpty(tag, items);
 					}
 				}
 			}
 		}
 	}
 	
+	/**
+	 * Removes the set from the index if it is still empty after it has been
+	 * marked as retired. Concurrent add() calls that see the mark move on to
+	 * a fresh set, so no item gets lost.
+	 */
+	private void discardIfEmpty(String tag, TaggedItems items) {
+		if (items.retired.compareAndSet(false, true)) {
+			if (items.isEmpty()) {
+				taggedItems.remove(tag, items);
+			}
+			else {
+				items.retired.set(false);
+			}
+		}
+	}
+	
 	public void invalidate(String tag) {
 		log.debug("Invalidating items tagged with {}", tag);
-		if (tag != null) {
-			List<CacheItem> items = taggedItems.get(tag);
+		if (tag != null && generational) {
+			invalidateGeneration(tag);
+		}
+		else if (tag != null) {
+			TaggedItems items = taggedItems.get(tag);
 			if (items != null) {
-				synchronized (items) {
-					for (CacheItem item : items) {
+				for (CacheItem item : items.keySet()) {
+					item.invalidate();
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Records the next generation as invalidation generation of the tag.
+	 */
+	private void invalidateGeneration(String tag) {
+		if (recordInvalidation(tag, generation.incrementAndGet())
+				&& invalidations.size() > maxInvalidatedTags) {
+			
+			foldInvalidations();
+		}
+	}
+	
+	/**
+	 * Records the given invalidation generation of the tag. Concurrent 
+	 * invalidations of the same tag can complete out of order, hence the 
+	 * value is only replaced if it is higher.
+	 * 
+	 * @return Whether a new tag has been added
+	 */
+	private boolean recordInvalidation(String tag, long tagGeneration) {
+		AtomicLong current = invalidations.get(tag);
+		if (current == null) {
+			current = invalidations.putIfAbsent(tag, new AtomicLong(tagGeneration));
+			if (current == null) {
+				return true;
+			}
+		}
+		advance(current, tagGeneration);
+		return false;
+	}
+	
+	/**
+	 * Removes the older half of the recorded invalidations and raises the 
+	 * floor generation accordingly. The floor is raised first, so that 
+	 * concurrent {@link #applyInvalidations(CacheItem)} calls never miss an
+	 * invalidation. Tags that are invalidated again while being removed are
+	 * recorded anew.
+	 */
+	private synchronized void foldInvalidations() {
+		if (invalidations.size() <= maxInvalidatedTags) {
+			return;
+		}
+		long[] generations = new long[invalidations.size()];
+		int i = 0;
+		for (AtomicLong tagGeneration : invalidations.values()) {
+			if (i == generations.length) {
+				break;
+			}
+			generations[i++] = tagGeneration.get();
+		}
+		Arrays.sort(generations, 0, i);
+		long cutoff = generations[(i - 1) / 2];
+		advance(floorGeneration, cutoff);
+		for (Map.Entry<String, AtomicLong> entry : invalidations.entrySet()) {
+			AtomicLong tagGeneration = entry.getValue();
+			if (tagGeneration.get() <= cutoff 
+					&& invalidations.remove(entry.getKey(), tagGeneration)
+					&& tagGeneration.get() > cutoff) {
+				
+				recordInvalidation(entry.getKey(), tagGeneration.get());
+			}
+		}
+		log.debug("Folded invalidations up to generation {}", cutoff);
+	}
+	
+	/**
+	 * Invalidates the given item if one of its tags has been invalidated 
+	 * after the item's capturing started. Does nothing unless the index is 
+	 * in generational mode.
+	 */
+	public void applyInvalidations(CacheItem item) {
+		if (generational && !item.isInvalidated()) {
+			Set<String> tags = item.getTags();
+			if (tags != null && !tags.isEmpty()) {
+				if (floorGeneration.get() > item.getGeneration()) {
+					item.invalidate();
+					return;
+				}
+				for (String tag : tags) {
+					AtomicLong tagGeneration = invalidations.get(tag);
+					if (tagGeneration != null 
+							&& tagGeneration.get() > item.getGeneration()) {
+						
 						item.invalidate();
+						return;
 					}
 				}
 			}
 		}
 	}
+	
+	/**
+	 * Returns the number of items tagged with the given tag.
+	 */
+	public int getItemCount(String tag) {
+		TaggedItems items = taggedItems.get(tag);
+		return items != null ? items.size() : 0;
+	}
+	
+	/**
+	 * Returns the number of distinct tags.
+	 */
+	public int getTagCount() {
+		return taggedItems.size();
+	}
+	
+	/**
+	 * Returns the number of tags whose invalidation generation is remembered.
+	 */
+	public int getInvalidatedTagCount() {
+		return invalidations.size();
+	}
+	
+	/**
+	 * Identity set of items. CacheItem doesn't override equals() and 
+	 * hashCode(), hence a ConcurrentHashMap with the items as keys can be used.
+	 */
+	@SuppressWarnings("serial")
+	private static class TaggedItems extends ConcurrentHashMap<CacheItem, Boolean> {
+		
+		private AtomicBoolean retired = new AtomicBoolean();
+		
+		TaggedItems() {
+			super(16, 0.75f, 4);
+		}
+	}
 
 }
@@ -0,0 +1,280 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius.invalidation;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * InvalidationTransport that sends UDP datagrams to a static list of peers.
+ * Each datagram contains the id of the sending node followed by the tags, 
+ * separated by line breaks. Batches that exceed the maximum packet size are
+ * split. The own node may be contained in the peer list, as messages 
+ * carrying the own id are ignored, which allows all nodes to share the 
+ * same configuration.
+ * <p>
+ * Datagrams are only accepted if they originate from one of the configured
+ * peers. As source addresses can be spoofed, a shared {@link #setSecret(String)
+ * secret} should be configured as well, in which case each datagram is 
+ * prefixed with an HMAC-SHA256 signature and unsigned or forged datagrams 
+ * are dropped. Use the {@link #setBindAddress(String) bindAddress} to 
+ * receive invalidations on the cluster-internal interface only.
+ * <p>
+ * Note: UDP doesn't guarantee delivery. Lost messages leave the affected
+ * items stale until they expire, so this transport should be used within
+ * a reliable local network.
+ */
+public class UdpInvalidationTransport implements InvalidationTransport {
+
+	private static final String CHARSET = "UTF-8";
+	
+	private static final String MAC_ALGORITHM = "HmacSHA256";
+	
+	/** Length of a hex encoded signature including the line break */
+	private static final int MAC_LENGTH = 65;
+	
+	private Logger log = LoggerFactory.getLogger(UdpInvalidationTransport.class);
+	
+	private String nodeId = UUID.randomUUID().toString();
+	
+	private int port;
+	
+	private InetAddress bindAddress;
+	
+	private SecretKeySpec secretKey;
+	
+	private List<InetSocketAddress> peers = new ArrayList<InetSocketAddress>();
+	
+	private int maxPacketSize = 8192;
+	
+	private DatagramSocket socket;
+	
+	/**
+	 * Sets the local port on which invalidations are received.
+	 */
+	public void setPort(int port) {
+		this.port = port;
+	}
+	
+	/**
+	 * Sets the local address on which invalidations are received. Default 
+	 * is <code>null</code>, which means that all local addresses are used.
+	 */
+	public void setBindAddress(String bindAddress) throws IOException {
+		this.bindAddress = bindAddress != null && bindAddress.length() > 0
+				? InetAddress.getByName(bindAddress) : null;
+	}
+	
+	/**
+	 * Sets a secret that is shared by all nodes and used to sign the 
+	 * datagrams. If set, datagrams without a valid signature are dropped.
+	 * Default is <code>null</code>.
+	 */
+	public void setSecret(String secret) throws IOException {
+		this.secretKey = secret != null && secret.length() > 0
+				? new SecretKeySpec(secret.getBytes(CHARSET), MAC_ALGORITHM) 
+				: null;
+	}
+	
+	/**
+	 * Sets a comma separated list of <code>host:port</code> pairs to which 
+	 * invalidations are sent. Only datagrams sent from one of these 
+	 * addresses are accepted.
+	 */
+	public void setPeers(String peers) {
+		this.peers.clear();
+		for (String peer : peers.split(",")) {
+			peer = peer.trim();
+			if (peer.length() > 0) {
+				int i = peer.lastIndexOf(':');
+				if (i == -1) {
+					throw new IllegalArgumentException(
+							"Peer must be specified as host:port: " + peer);
+				}
+				this.peers.add(new InetSocketAddress(peer.substring(0, i), 
+						Integer.parseInt(peer.substring(i + 1))));
+			}
+		}
+	}
+	
+	/**
+	 * Sets the maximum size of a datagram in bytes. Default is 
+	 * <code>8192</code>.
+	 */
+	public void setMaxPacketSize(int maxPacketSize) {
+		this.maxPacketSize = maxPacketSize;
+	}
+	
+	public synchronized void start(final InvalidationListener listener) 
+			throws IOException {
+		
+		final DatagramSocket socket = new DatagramSocket(
+				new InetSocketAddress(bindAddress, port));
+		
+		this.socket = socket;
+		Thread receiver = new Thread("cachius-invalidation-receiver") {
+			@Override
+			public void run() {
+				receive(socket, listener);
+			}
+		};
+		receiver.setDaemon(true);
+		receiver.start();
+		log.info("Receiving invalidations on {}", socket.getLocalSocketAddress());
+	}
+	
+	private void receive(DatagramSocket socket, InvalidationListener listener) {
+		byte[] buffer = new byte[maxPacketSize];
+		while (!socket.isClosed()) {
+			DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+			try {
+				socket.receive(packet);
+				if (!peers.contains(packet.getSocketAddress())) {
+					log.debug("Ignoring invalidation from unknown host {}", 
+							packet.getSocketAddress());
+					
+					continue;
+				}
+				int offset = 0;
+				if (secretKey != null) {
+					if (!verify(packet.getData(), packet.getLength())) {
+						log.debug("Ignoring invalidation with invalid " 
+								+ "signature from {}", packet.getSocketAddress());
+						
+						continue;
+					}
+					offset = MAC_LENGTH;
+				}
+				String[] lines = new String(packet.getData(), offset, 
+						packet.getLength() - offset, CHARSET).split("\n");
+				
+				if (lines.length > 1 && !lines[0].equals(nodeId)) {
+					listener.invalidated(Arrays.asList(lines).subList(1, lines.length));
+				}
+			}
+			catch (SocketException e) {
+				// Socket has been closed
+			}
+			catch (Exception e) {
+				log.error("Failed to process invalidation", e);
+			}
+		}
+	}
+
+	public void send(Collection<String> tags) throws IOException {
+		DatagramSocket socket = this.socket;
+		if (socket == null) {
+			throw new IllegalStateException("Transport has not been started");
+		}
+		byte[] header = (nodeId + "\n").getBytes(CHARSET);
+		int maxSize = secretKey != null 
+				? maxPacketSize - MAC_LENGTH : maxPacketSize;
+		
+		ByteArrayOutputStream packet = new ByteArrayOutputStream(maxPacketSize);
+		packet.write(header);
+		for (String tag : tags) {
+			byte[] line = (tag + "\n").getBytes(CHARSET);
+			if (header.length + line.length > maxSize) {
+				log.warn("Tag exceeds the maximum packet size: {}", tag);
+				continue;
+			}
+			if (packet.size() + line.length > maxSize) {
+				sendPacket(socket, packet.toByteArray());
+				packet.reset();
+				packet.write(header);
+			}
+			packet.write(line);
+		}
+		if (packet.size() > header.length) {
+			sendPacket(socket, packet.toByteArray());
+		}
+	}
+	
+	private void sendPacket(DatagramSocket socket, byte[] data) 
+			throws IOException {
+		
+		if (secretKey != null) {
+			byte[] signature = (sign(data, 0, data.length) + "\n").getBytes(CHARSET);
+			byte[] signed = new byte[signature.length + data.length];
+			System.arraycopy(signature, 0, signed, 0, signature.length);
+			System.arraycopy(data, 0, signed, signature.length, data.length);
+			data = signed;
+		}
+		for (InetSocketAddress peer : peers) {
+			socket.send(new DatagramPacket(data, data.length, peer));
+		}
+	}
+
+	/**
+	 * Returns the hex encoded HMAC of the given bytes.
+	 */
+	private String sign(byte[] data, int offset, int length) {
+		try {
+			Mac mac = Mac.getInstance(MAC_ALGORITHM);
+			mac.init(secretKey);
+			mac.update(data, offset, length);
+			byte[] bytes = mac.doFinal();
+			StringBuilder sb = new StringBuilder(bytes.length * 2);
+			for (byte b : bytes) {
+				sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+				sb.append(Character.forDigit(b & 0xf, 16));
+			}
+			return sb.toString();
+		}
+		catch (GeneralSecurityException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	/**
+	 * Checks whether the datagram starts with a valid signature of the 
+	 * remaining bytes. 
+	 */
+	private boolean verify(byte[] data, int length) throws IOException {
+		if (length <= MAC_LENGTH || data[MAC_LENGTH - 1] != '\n') {
+			return false;
+		}
+		byte[] expected = sign(data, MAC_LENGTH, length - MAC_LENGTH)
+				.getBytes(CHARSET);
+		
+		byte[] actual = new byte[MAC_LENGTH - 1];
+		System.arraycopy(data, 0, actual, 0, actual.length);
+		return MessageDigest.isEqual(expected, actual);
+	}
+
+	public synchronized void stop() {
+		if (socket != null) {
+			socket.close();
+			socket = null;
+		}
+	}
+
+}
@@ -2,9 +2,17 @@ package org.riotfamily.cachius.persistence;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Collection;
 
 public interface DiskStore {
 	
 	public File getFile() throws IOException;
+	
+	/**
+	 * Returns all files that have been created by the store and still exist. 
+	 * Used to clean up orphaned files after a restart. Stores that can't 
+	 * tell their files apart from others return an empty collection.
+	 */
+	public Collection<File> listFiles();
 
 }
@@ -0,0 +1,32 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius.persistence;
+
+/**
+ * Interface for cached data that can report how many bytes it occupies. 
+ * The values are used to enforce the byte budgets of a 
+ * {@link org.riotfamily.cachius.Region Region}.
+ */
+public interface Measurable {
+
+	/**
+	 * Returns the number of bytes stored on disk.
+	 */
+	public long getDiskSize();
+	
+	/**
+	 * Returns the (estimated) number of bytes held on the heap.
+	 */
+	public long getHeapSize();
+	
+}
@@ -0,0 +1,326 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius.persistence;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * In-memory tier that keeps the contents of small, frequently requested files
+ * on the heap, so that cache hits don't have to open the file at all.
+ * <p>
+ * Each file counts its hits. Once a file has been requested 
+ * {@link #setPromotionThreshold(int) often enough} and is not larger than
+ * {@link #setMaxItemSize(int) maxItemSize}, its content is loaded into memory.
+ * If this would exceed the {@link #setMaxSize(long) maxSize}, files with 
+ * fewer hits are demoted. A file that is not hotter than the coldest resident
+ * file of a random sample stays on disk. 
+ * <p>
+ * Hit counts are halved, so that files which are no longer requested cool 
+ * down. The aging is performed incrementally: every 64 requests a small batch 
+ * of files is aged, sized so that all files are visited about once every 
+ * 10000 requests. Files whose hit count drops to zero are forgotten, unless
+ * they are resident. The number of tracked files is limited by 
+ * {@link #setMaxFiles(int) maxFiles}.
+ */
+public class MemoryTier {
+
+	private static final int SAMPLE_SIZE = 8;
+	
+	private static final int AGING_INTERVAL = 10000;
+	
+	private static final int AGING_STEP = 64;
+	
+	private Logger log = LoggerFactory.getLogger(MemoryTier.class);
+	
+	private long maxSize = 16 * 1024 * 1024;
+	
+	private int maxItemSize = 32 * 1024;
+	
+	private int promotionThreshold = 3;
+	
+	private int maxFiles = 10000;
+	
+	private ConcurrentHashMap<File, Slot> slots = new ConcurrentHashMap<File, Slot>();
+	
+	private ArrayList<Slot> residents = new ArrayList<Slot>();
+	
+	private AtomicLong size = new AtomicLong();
+	
+	private AtomicInteger hits = new AtomicInteger();
+	
+	private Random random = new Random();
+	
+	private ReentrantLock agingLock = new ReentrantLock();
+	
+	private Iterator<Map.Entry<File, Slot>> agingCursor;
+	
+	/**
+	 * Returns the MemoryTier of the given store, or <code>null</code> if the 
+	 * store is not a {@link TieredDiskStore}.
+	 */
+	public static MemoryTier lookup(DiskStore diskStore) {
+		if (diskStore instanceof TieredDiskStore) {
+			return ((TieredDiskStore) diskStore).getMemoryTier();
+		}
+		return null;
+	}
+	
+	/**
+	 * Sets the maximum number of bytes held in memory. Default is 16 MB.
+	 */
+	public void setMaxSize(long maxSize) {
+		this.maxSize = maxSize;
+	}
+	
+	/**
+	 * Sets the size of the largest file that is kept in memory. Larger files
+	 * are always served from disk. Default is 32 KB.
+	 */
+	public void setMaxItemSize(int maxItemSize) {
+		this.maxItemSize = maxItemSize;
+	}
+
+	/**
+	 * Sets the number of hits after which a file is promoted to the memory
+	 * tier. Default is <code>3</code>.
+	 */
+	public void setPromotionThreshold(int promotionThreshold) {
+		this.promotionThreshold = promotionThreshold;
+	}
+	
+	/**
+	 * Sets the maximum number of files whose hits are counted. Requests for
+	 * other files are served from disk until the aging frees up a slot. 
+	 * Default is <code>10000</code>.
+	 */
+	public void setMaxFiles(int maxFiles) {
+		this.maxFiles = maxFiles;
+	}
+	
+	/**
+	 * Returns the number of bytes currently held in memory.
+	 */
+	public long getSize() {
+		return size.get();
+	}
+	
+	/**
+	 * Returns whether the given file is small enough to be held in memory.
+	 */
+	public boolean accepts(File file) {
+		return slots.containsKey(file) || file.length() <= maxItemSize;
+	}
+	
+	/**
+	 * Opens an InputStream to read the content of the given file. The data 
+	 * is read from memory if the file is resident, otherwise from disk.
+	 */
+	public InputStream openStream(File file) throws IOException {
+		Slot slot = getSlot(file);
+		if (slot != null) {
+			byte[] data = slot.hit();
+			if (data == null && slot.getHits() >= promotionThreshold) {
+				data = promote(file, slot);
+			}
+			if (data != null) {
+				return new ByteArrayInputStream(data);
+			}
+		}
+		return new BufferedInputStream(new FileInputStream(file));
+	}
+	
+	/**
+	 * Removes the given file from the memory tier. Must be invoked when a 
+	 * file is deleted.
+	 */
+	public void remove(File file) {
+		Slot slot = slots.remove(file);
+		if (slot != null) {
+			// Always take the lock, as a concurrent promote() might have 
+			// seen the slot before it was removed
+			synchronized (this) {
+				demote(slot);
+			}
+		}
+	}
+	
+	private Slot getSlot(File file) {
+		if (hits.incrementAndGet() % AGING_STEP == 0) {
+			age();
+		}
+		Slot slot = slots.get(file);
+		if (slot == null) {
+			long length = file.length();
+			if (length == 0 || length > maxItemSize || slots.size() >= maxFiles) {
+				return null;
+			}
+			Slot newSlot = new Slot((int) length);
+			slot = slots.putIfAbsent(file, newSlot);
+			if (slot == null) {
+				slot = newSlot;
+			}
+		}
+		return slot;
+	}
+	
+	private synchronized byte[] promote(File file, Slot slot) throws IOException {
+		if (slot.data != null) {
+			return slot.data;
+		}
+		while (size.get() + slot.length > maxSize) {
+			Slot victim = sampleColdest();
+			if (victim == null || victim.getHits() >= slot.getHits()) {
+				return null;
+			}
+			demote(victim);
+		}
+		byte[] data = new byte[slot.length];
+		DataInputStream in = new DataInputStream(new FileInputStream(file));
+		try {
+			in.readFully(data);
+		}
+		finally {
+			in.close();
+		}
+		if (slots.get(file) != slot) {
+			// The file has been removed in the meantime
+			return data;
+		}
+		slot.data = data;
+		slot.position = residents.size();
+		residents.add(slot);
+		size.addAndGet(slot.length);
+		log.trace("Promoted {} to memory tier", file);
+		return data;
+	}
+	
+	/**
+	 * Removes the given slot from the list of residents by moving the last
+	 * resident into its position. Must be invoked while holding the lock.
+	 */
+	private void demote(Slot slot) {
+		if (slot.data == null) {
+			return;
+		}
+		Slot last = residents.remove(residents.size() - 1);
+		if (last != slot) {
+			residents.set(slot.position, last);
+			last.position = slot.position;
+		}
+		slot.data = null;
+		size.addAndGet(-slot.length);
+	}
+	
+	private Slot sampleColdest() {
+		Slot coldest = null;
+		int count = residents.size();
+		for (int i = 0; i < SAMPLE_SIZE && i < count; i++) {
+			Slot slot = residents.get(random.nextInt(count));
+			if (coldest == null || slot.getHits() < coldest.getHits()) {
+				coldest = slot;
+			}
+		}
+		return coldest;
+	}
+	
+	/**
+	 * Ages the next batch of slots. Non-resident slots that have cooled 
+	 * down completely are removed. The removal happens while holding the 
+	 * lock used by promote(), so that no slot becomes resident after it has
+	 * been removed. If another thread is already aging, the method returns 
+	 * immediately.
+	 */
+	private void age() {
+		if (!agingLock.tryLock()) {
+			return;
+		}
+		try {
+			int batch = (int) ((long) slots.size() * AGING_STEP / AGING_INTERVAL) + 1;
+			for (int i = 0; i < batch; i++) {
+				if (agingCursor == null || !agingCursor.hasNext()) {
+					agingCursor = slots.entrySet().iterator();
+					if (!agingCursor.hasNext()) {
+						break;
+					}
+				}
+				Map.Entry<File, Slot> entry = agingCursor.next();
+				Slot slot = entry.getValue();
+				slot.age();
+				if (slot.data == null && slot.getHits() == 0) {
+					synchronized (this) {
+						if (slot.data == null) {
+							slots.remove(entry.getKey(), slot);
+						}
+					}
+				}
+			}
+		}
+		finally {
+			agingLock.unlock();
+		}
+	}
+	
+	/**
+	 * Returns the number of files whose hits are currently counted.
+	 */
+	int getFileCount() {
+		return slots.size();
+	}
+	
+	private static class Slot {
+		
+		private final int length;
+		
+		private final AtomicInteger hits = new AtomicInteger();
+		
+		private volatile byte[] data;
+		
+		private int position;
+		
+		Slot(int length) {
+			this.length = length;
+		}
+		
+		byte[] hit() {
+			hits.incrementAndGet();
+			return data;
+		}
+		
+		int getHits() {
+			return hits.get();
+		}
+		
+		void age() {
+			int h = hits.get();
+			hits.compareAndSet(h, h >>> 1);
+		}
+	}
+
+}
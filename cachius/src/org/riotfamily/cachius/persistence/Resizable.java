@@ -0,0 +1,38 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius.persistence;
+
+/**
+ * {@link Measurable} data whose disk size may change after it has been 
+ * cached, for example because additional files are created in the 
+ * background.
+ */
+public interface Resizable extends Measurable {
+
+	/**
+	 * Sets the listener that is notified when the disk size changes. Returns
+	 * the disk size at the time of registration, so that the caller neither
+	 * misses nor double-counts a concurrent change.
+	 */
+	public long setSizeListener(SizeListener listener);
+	
+	/**
+	 * Callback interface that receives the changes of the disk size.
+	 */
+	public interface SizeListener {
+		
+		public void diskSizeChanged(long delta);
+		
+	}
+	
+}
@@ -0,0 +1,36 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius.persistence;
+
+import java.io.File;
+import java.util.Collection;
+
+/**
+ * Interface for cached data that is stored in files of a {@link DiskStore} 
+ * and can be restored from a persistent index after a restart.
+ */
+public interface Restorable {
+
+	/**
+	 * Returns the files holding the data. The data can only be restored
+	 * if all of these files still exist.
+	 */
+	public Collection<File> getFiles();
+	
+	/**
+	 * Invoked after the data has been read from the persistent index, giving
+	 * the data a chance to re-attach to the store it was created by.
+	 */
+	public void restore(DiskStore diskStore);
+	
+}
@@ -14,6 +14,8 @@ package org.riotfamily.cachius.persistence;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
 
 public class RoundRobinDiskStore implements DiskStore {
 
@@ -43,6 +45,26 @@ public class RoundRobinDiskStore implements DiskStore {
 		return f;
 	}
 	
+	public Collection<File> listFiles() {
+		ArrayList<File> files = new ArrayList<File>();
+		addFiles(baseDir, files);
+		return files;
+	}
+	
+	private void addFiles(File dir, Collection<File> files) {
+		File[] entries = dir.listFiles();
+		if (entries != null) {
+			for (File entry : entries) {
+				if (entry.isDirectory()) {
+					addFiles(entry, files);
+				}
+				else {
+					files.add(entry);
+				}
+			}
+		}
+	}
+	
 	private File createFile() throws IOException {
 		File f = getFile(depth-1);
 		index[depth-1]++;
@@ -1,10 +1,16 @@
 package org.riotfamily.cachius.persistence;
 
 import java.io.File;
+import java.io.FileFilter;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 
 public class SimpleDiskStore implements DiskStore {
 
+	private static final String PREFIX = "item";
+
 	private File dir;
 
 	public SimpleDiskStore() {
@@ -15,8 +21,28 @@ public class SimpleDiskStore implements DiskStore {
 	}
 
 	public File getFile() throws IOException {
-		return File.createTempFile("item", "", dir);
+		return File.createTempFile(PREFIX, "", dir);
 	}
 	
+	/**
+	 * Returns the files in the configured directory. If no directory was
+	 * specified, an empty collection is returned, as the default temp 
+	 * directory may contain files of other applications.
+	 */
+	public Collection<File> listFiles() {
+		if (dir == null) {
+			return Collections.emptyList();
+		}
+		File[] files = dir.listFiles(new FileFilter() {
+			public boolean accept(File file) {
+				return file.isFile() && file.getName().startsWith(PREFIX);
+			}
+		});
+		if (files == null) {
+			return Collections.emptyList();
+		}
+		return Arrays.asList(files);
+	}
+
 	
 }
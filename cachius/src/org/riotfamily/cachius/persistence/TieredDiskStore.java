@@ -0,0 +1,51 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius.persistence;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+
+/**
+ * DiskStore that adds a {@link MemoryTier} on top of another DiskStore. 
+ * Small files that are requested frequently are served from memory, 
+ * all other files are read from the underlying store.
+ */
+public class TieredDiskStore implements DiskStore {
+
+	private DiskStore diskStore;
+	
+	private MemoryTier memoryTier;
+	
+	public TieredDiskStore(DiskStore diskStore) {
+		this(diskStore, new MemoryTier());
+	}
+	
+	public TieredDiskStore(DiskStore diskStore, MemoryTier memoryTier) {
+		this.diskStore = diskStore;
+		this.memoryTier = memoryTier;
+	}
+
+	public File getFile() throws IOException {
+		return diskStore.getFile();
+	}
+	
+	public Collection<File> listFiles() {
+		return diskStore.listFiles();
+	}
+	
+	public MemoryTier getMemoryTier() {
+		return memoryTier;
+	}
+
+}
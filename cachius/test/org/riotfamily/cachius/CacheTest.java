@@ -0,0 +1,155 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius;
+
+import java.io.Serializable;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.riotfamily.cachius.invalidation.ItemIndex;
+import org.riotfamily.cachius.persistence.Measurable;
+
+public class CacheTest {
+
+	private Region region;
+	
+	private Cache cache;
+	
+	@Before
+	public void setUp() {
+		region = new Region("test");
+		region.setEvictionFactor(0.5);
+		cache = new Cache(region, new ItemIndex());
+	}
+	
+	@After
+	public void tearDown() {
+		cache.destroy();
+	}
+	
+	private CacheItem replace(String key, long diskSize) {
+		CacheEntry entry = cache.getEntry(key);
+		CacheItem item = new CacheItem(key);
+		item.setData(new Data(diskSize));
+		entry.getLock().writeLock().lock();
+		try {
+			cache.replaceItem(entry, item);
+		}
+		finally {
+			entry.getLock().writeLock().unlock();
+		}
+		return item;
+	}
+	
+	private long sumOfItemSizes() {
+		long sum = 0;
+		for (CacheEntry entry : cache.getEntries()) {
+			sum += entry.peekItem().getDiskSize();
+		}
+		return sum;
+	}
+	
+	@Test
+	public void testReplacementAndEviction() throws Exception {
+		for (int i = 0; i < 10; i++) {
+			replace("item" + i, 10);
+		}
+		Assert.assertEquals(100, cache.getDiskUsage());
+		
+		replace("item3", 30);
+		replace("item5", 0);
+		Assert.assertEquals(110, cache.getDiskUsage());
+		Assert.assertEquals(sumOfItemSizes(), cache.getDiskUsage());
+		
+		// Keep item0 locked by another thread, so that it can't be evicted
+		final CacheEntry locked = cache.getEntry("item0");
+		final CountDownLatch acquired = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		Thread thread = new Thread() {
+			@Override
+			public void run() {
+				locked.getLock().writeLock().lock();
+				acquired.countDown();
+				try {
+					release.await();
+				}
+				catch (InterruptedException e) {
+				}
+				finally {
+					locked.getLock().writeLock().unlock();
+				}
+			}
+		};
+		thread.start();
+		acquired.await();
+		
+		region.setMaxDiskSize(100);
+		cache.cleanup();
+		release.countDown();
+		thread.join();
+		
+		Assert.assertTrue(cache.getDiskUsage() <= 50);
+		Assert.assertEquals(sumOfItemSizes(), cache.getDiskUsage());
+		Assert.assertTrue(cache.getEntries().contains(locked));
+		
+		// Replace surviving and re-created entries after the eviction
+		for (int i = 0; i < 10; i++) {
+			replace("item" + i, 5);
+		}
+		Assert.assertEquals(50, cache.getDiskUsage());
+		Assert.assertEquals(sumOfItemSizes(), cache.getDiskUsage());
+	}
+	
+	@Test
+	public void testReplaceEvictedEntry() throws Exception {
+		replace("item", 10);
+		CacheEntry entry = cache.getEntry("item");
+		region.setMaxDiskSize(5);
+		cache.cleanup();
+		Assert.assertFalse(cache.containsEntry(entry));
+		Assert.assertEquals(0, cache.getDiskUsage());
+		
+		CacheItem item = new CacheItem("item");
+		item.setData(new Data(10));
+		entry.getLock().writeLock().lock();
+		try {
+			Assert.assertFalse(cache.replaceItem(entry, item));
+		}
+		finally {
+			entry.getLock().writeLock().unlock();
+		}
+		Assert.assertEquals(0, cache.getDiskUsage());
+		Assert.assertNotSame(item, entry.peekItem());
+	}
+	
+	private static class Data implements Serializable, Measurable {
+		
+		private long diskSize;
+		
+		public Data(long diskSize) {
+			this.diskSize = diskSize;
+		}
+		
+		public long getDiskSize() {
+			return diskSize;
+		}
+		
+		public long getHeapSize() {
+			return 0;
+		}
+	}
+	
+}
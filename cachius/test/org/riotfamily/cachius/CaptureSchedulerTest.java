@@ -0,0 +1,184 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius;
+
+import java.io.Serializable;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.riotfamily.cachius.persistence.DiskStore;
+import org.riotfamily.cachius.persistence.SimpleDiskStore;
+
+public class CaptureSchedulerTest {
+
+	@Test
+	public void testSingleFlight() throws InterruptedException {
+		final CaptureScheduler scheduler = new CaptureScheduler();
+		Assert.assertNull(scheduler.join("region", "a"));
+		final CountDownLatch capture = scheduler.join("region", "a");
+		Assert.assertNotNull(capture);
+		Assert.assertNull(scheduler.join("region", "b"));
+		Assert.assertNull(scheduler.join("other", "a"));
+		Assert.assertNull(scheduler.join("regio", "na"));
+		
+		final boolean[] result = new boolean[1];
+		Thread waiter = new Thread() {
+			@Override
+			public void run() {
+				try {
+					result[0] = scheduler.await(capture);
+				}
+				catch (InterruptedException e) {
+				}
+			}
+		};
+		waiter.start();
+		scheduler.leave("region", "a");
+		waiter.join(1000);
+		Assert.assertTrue(result[0]);
+		Assert.assertEquals(1, scheduler.getCoalescedRequests());
+		Assert.assertNull(scheduler.join("region", "a"));
+	}
+	
+	@Test
+	public void testPermitTimeout() throws InterruptedException {
+		CaptureScheduler scheduler = new CaptureScheduler();
+		scheduler.setMaxConcurrentCaptures(1);
+		scheduler.setTimeout(10);
+		Assert.assertTrue(scheduler.acquire());
+		Assert.assertFalse(scheduler.acquire());
+		Assert.assertEquals(1, scheduler.getTimeouts());
+		Assert.assertEquals(1, scheduler.getActiveCaptures());
+		scheduler.release();
+		Assert.assertTrue(scheduler.acquire());
+		Assert.assertEquals(0, scheduler.getQueueLength());
+	}
+	
+	@Test
+	public void testLimitIsImmutableAfterStart() throws InterruptedException {
+		CaptureScheduler scheduler = new CaptureScheduler();
+		scheduler.setMaxConcurrentCaptures(1);
+		Assert.assertTrue(scheduler.acquire());
+		try {
+			scheduler.setMaxConcurrentCaptures(2);
+			Assert.fail();
+		}
+		catch (IllegalStateException e) {
+		}
+		scheduler.release();
+		Assert.assertTrue(scheduler.acquire());
+	}
+	
+	/**
+	 * A nested capture must not wait for a thread that is queued for the 
+	 * permit held by the nested capture's parent.
+	 */
+	@Test
+	public void testNestedCaptureWhileQueued() throws Exception {
+		final CacheService service = new CacheService(new SimpleDiskStore());
+		final CaptureScheduler scheduler = service.getCaptureScheduler();
+		scheduler.setMaxConcurrentCaptures(1);
+		
+		final TestHandler inner = new TestHandler("inner", null);
+		final TestHandler outer = new TestHandler("outer", new Runnable() {
+			public void run() {
+				Thread queued = new Thread() {
+					@Override
+					public void run() {
+						try {
+							service.handle(new TestHandler("inner", null));
+						}
+						catch (Exception e) {
+						}
+					}
+				};
+				queued.setDaemon(true);
+				queued.start();
+				while (scheduler.getQueueLength() == 0) {
+					Thread.yield();
+				}
+				try {
+					service.handle(inner);
+				}
+				catch (Exception e) {
+					throw new RuntimeException(e);
+				}
+			}
+		});
+		
+		Thread thread = new Thread() {
+			@Override
+			public void run() {
+				try {
+					service.handle(outer);
+				}
+				catch (Exception e) {
+				}
+			}
+		};
+		thread.setDaemon(true);
+		thread.start();
+		try {
+			thread.join(5000);
+			Assert.assertFalse(thread.isAlive());
+			Assert.assertEquals("inner", inner.served);
+			Assert.assertEquals("outer", outer.served);
+		}
+		finally {
+			service.destroy();
+		}
+	}
+	
+	private static class TestHandler implements CacheHandler {
+		
+		private String key;
+		
+		private Runnable nested;
+		
+		private Serializable served;
+		
+		public TestHandler(String key, Runnable nested) {
+			this.key = key;
+			this.nested = nested;
+		}
+
+		public String getCacheKey() {
+			return key;
+		}
+
+		public String getCacheRegion() {
+			return null;
+		}
+
+		public long getLastModified() {
+			return 0;
+		}
+
+		public Serializable capture(DiskStore diskStore) throws Exception {
+			if (nested != null) {
+				nested.run();
+			}
+			return key;
+		}
+
+		public void serve(Serializable data) throws Exception {
+			served = data;
+		}
+
+		public void handleUncached() throws Exception {
+			Assert.fail();
+		}
+	}
+	
+}
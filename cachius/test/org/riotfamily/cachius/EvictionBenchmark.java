@@ -0,0 +1,113 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeSet;
+
+import org.riotfamily.cachius.eviction.EvictionPolicy;
+import org.riotfamily.cachius.eviction.LruEvictionPolicy;
+import org.riotfamily.cachius.eviction.SampledLruEvictionPolicy;
+import org.riotfamily.cachius.eviction.WTinyLfuEvictionPolicy;
+
+/**
+ * Measures the time needed to select the victims of a single clean-up run
+ * (20% of the entries) for regions with 10k, 100k and 1M entries. The
+ * TreeSet column shows the cost of the sort-based approach that was used
+ * before eviction policies were introduced.
+ * <p>
+ * Run with <code>java -Xmx1g org.riotfamily.cachius.EvictionBenchmark</code>.
+ */
+public class EvictionBenchmark {
+
+	private static final int[] SIZES = new int[] { 10000, 100000, 1000000 };
+	
+	private static final double EVICTION_FACTOR = 0.2;
+	
+	/** 
+	 * Access order with the key as tie-breaker, so that entries with the 
+	 * same timestamp don't collapse into a single TreeSet element.
+	 */
+	private static final Comparator<CacheEntry> ACCESS_ORDER = new Comparator<CacheEntry>() {
+		public int compare(CacheEntry e1, CacheEntry e2) {
+			int result = e1.compareTo(e2);
+			return result != 0 ? result : e1.getKey().compareTo(e2.getKey());
+		}
+	};
+	
+	public static void main(String[] args) {
+		// Warm up the JIT before taking measurements
+		for (int i = 0; i < 3; i++) {
+			run(SIZES[0], false);
+		}
+		for (int size : SIZES) {
+			run(size, true);
+		}
+	}
+	
+	private static void run(int size, boolean print) {
+		List<CacheEntry> entries = createEntries(size);
+		int toEvict = (int) Math.ceil(size * EVICTION_FACTOR);
+		long treeSet = measureTreeSet(entries, toEvict);
+		long lru = measure(new LruEvictionPolicy(), entries, toEvict);
+		long sampled = measure(new SampledLruEvictionPolicy(), entries, toEvict);
+		long tinyLfu = measure(new WTinyLfuEvictionPolicy(), entries, toEvict);
+		if (print) {
+			System.out.printf("%,9d entries: TreeSet %,6d ms | LRU %,6d ms | " 
+					+ "Sampled LRU %,6d ms | W-TinyLFU %,6d ms%n",
+					size, treeSet, lru, sampled, tinyLfu);
+		}
+	}
+	
+	private static List<CacheEntry> createEntries(int size) {
+		List<CacheEntry> entries = new ArrayList<CacheEntry>(size);
+		for (int i = 0; i < size; i++) {
+			CacheEntry entry = new CacheEntry("http://www.example.com/page-" + i);
+			entry.getItem();
+			entries.add(entry);
+		}
+		return entries;
+	}
+	
+	private static long measureTreeSet(List<CacheEntry> entries, int toEvict) {
+		long start = System.nanoTime();
+		TreeSet<CacheEntry> sorted = new TreeSet<CacheEntry>(ACCESS_ORDER);
+		sorted.addAll(entries);
+		Iterator<CacheEntry> it = sorted.iterator();
+		for (int i = 0; i < toEvict && it.hasNext(); i++) {
+			it.next();
+		}
+		return (System.nanoTime() - start) / 1000000;
+	}
+	
+	private static long measure(EvictionPolicy policy, List<CacheEntry> entries, 
+			int toEvict) {
+		
+		policy.setCapacity(entries.size());
+		for (CacheEntry entry : entries) {
+			policy.entryAdded(entry);
+		}
+		for (int i = 0; i < entries.size(); i += 3) {
+			policy.entryAccessed(entries.get(i));
+		}
+		long start = System.nanoTime();
+		for (int i = 0; i < toEvict; i++) {
+			policy.nextVictim();
+		}
+		return (System.nanoTime() - start) / 1000000;
+	}
+	
+}
@@ -0,0 +1,83 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.riotfamily.cachius.eviction.EvictionPolicy;
+import org.riotfamily.cachius.eviction.LruEvictionPolicy;
+import org.riotfamily.cachius.eviction.SampledLruEvictionPolicy;
+import org.riotfamily.cachius.eviction.WTinyLfuEvictionPolicy;
+
+public class EvictionPolicyTest {
+
+	private static CacheEntry[] addEntries(EvictionPolicy policy, 
+			String prefix, int count) {
+		
+		CacheEntry[] entries = new CacheEntry[count];
+		for (int i = 0; i < count; i++) {
+			entries[i] = new CacheEntry(prefix + i);
+			policy.entryAdded(entries[i]);
+		}
+		return entries;
+	}
+	
+	@Test
+	public void testLruOrder() {
+		EvictionPolicy policy = new LruEvictionPolicy();
+		CacheEntry[] entries = addEntries(policy, "key", 3);
+		policy.entryAccessed(entries[0]);
+		Assert.assertSame(entries[1], policy.nextVictim());
+		Assert.assertSame(entries[2], policy.nextVictim());
+		Assert.assertSame(entries[0], policy.nextVictim());
+		Assert.assertNull(policy.nextVictim());
+	}
+	
+	@Test
+	public void testSampledLruEvictsEachEntryOnce() {
+		EvictionPolicy policy = new SampledLruEvictionPolicy();
+		CacheEntry[] entries = addEntries(policy, "key", 100);
+		policy.entryAdded(entries[42]);
+		Set<CacheEntry> victims = new HashSet<CacheEntry>();
+		CacheEntry victim;
+		while ((victim = policy.nextVictim()) != null) {
+			Assert.assertTrue(victims.add(victim));
+		}
+		Assert.assertEquals(100, victims.size());
+	}
+	
+	@Test
+	public void testTinyLfuKeepsFrequentEntries() {
+		EvictionPolicy policy = new WTinyLfuEvictionPolicy();
+		policy.setCapacity(200);
+		CacheEntry[] popular = addEntries(policy, "popular", 10);
+		// Push the last popular entry out of the admission window
+		addEntries(policy, "filler", 1);
+		for (int i = 0; i < 5; i++) {
+			for (CacheEntry entry : popular) {
+				policy.entryAccessed(entry);
+			}
+		}
+		addEntries(policy, "oneHitWonder", 100);
+		for (int i = 0; i < 100; i++) {
+			CacheEntry victim = policy.nextVictim();
+			for (CacheEntry entry : popular) {
+				Assert.assertNotSame(entry, victim);
+			}
+		}
+	}
+	
+}
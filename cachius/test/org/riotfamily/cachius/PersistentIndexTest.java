@@ -0,0 +1,106 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.riotfamily.cachius.http.ResponseData;
+import org.riotfamily.cachius.http.content.BinaryContent;
+import org.riotfamily.cachius.persistence.DiskStore;
+import org.riotfamily.cachius.persistence.SimpleDiskStore;
+
+public class PersistentIndexTest {
+
+	private File dir;
+	
+	private File indexFile;
+	
+	private DiskStore diskStore;
+	
+	private List<Region> regions = Collections.singletonList(new Region("default"));
+	
+	@Before
+	public void setUp() throws IOException {
+		dir = File.createTempFile("store", "");
+		dir.delete();
+		dir.mkdir();
+		indexFile = new File(dir, "index");
+		diskStore = new SimpleDiskStore(dir);
+	}
+	
+	@After
+	public void tearDown() {
+		for (File file : dir.listFiles()) {
+			file.delete();
+		}
+		dir.delete();
+	}
+	
+	private File createFile(int length) throws IOException {
+		File file = diskStore.getFile();
+		FileOutputStream out = new FileOutputStream(file);
+		out.write(new byte[length]);
+		out.close();
+		return file;
+	}
+	
+	private CacheItem createItem(String key, File file) {
+		CacheItem item = new CacheItem(key);
+		ResponseData data = new ResponseData("UTF-8");
+		data.setContent(new BinaryContent(file));
+		item.setData(data);
+		item.addTag("tag");
+		return item;
+	}
+	
+	@Test
+	public void testRestore() throws Exception {
+		CacheService service = new CacheService(diskStore, regions, indexFile);
+		Cache cache = service.getCache("default");
+		File file = createFile(10);
+		cache.getEntry("a").setItem(createItem("a", file));
+		File lost = createFile(20);
+		cache.getEntry("b").setItem(createItem("b", lost));
+		cache.getEntry("c");
+		service.destroy();
+		Assert.assertTrue(indexFile.exists());
+		
+		// Simulate the loss of b's content and an orphaned file
+		lost.delete();
+		File orphan = createFile(5);
+		
+		service = new CacheService(diskStore, regions, indexFile);
+		cache = service.getCache("default");
+		Assert.assertEquals(1, cache.getSize());
+		Assert.assertEquals(10, cache.getDiskUsage());
+		CacheItem item = cache.getEntries().iterator().next().getItem();
+		Assert.assertEquals("a", item.getKey());
+		Assert.assertTrue(item.getTags().contains("tag"));
+		Assert.assertTrue(file.exists());
+		Assert.assertFalse(orphan.exists());
+		Assert.assertFalse(indexFile.exists());
+		
+		service.invalidateTaggedItems("tag");
+		Assert.assertTrue(item.isInvalidated());
+		service.destroy();
+	}
+	
+}
@@ -0,0 +1,155 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.riotfamily.cachius.persistence.DiskStore;
+import org.riotfamily.cachius.persistence.SimpleDiskStore;
+
+public class RefreshSchedulerTest {
+
+	private CacheService service;
+	
+	private RefreshScheduler scheduler;
+	
+	@Before
+	public void setUp() {
+		service = new CacheService(new SimpleDiskStore());
+		scheduler = new RefreshScheduler();
+		scheduler.setRefreshAheadTime(60000);
+		service.setRefreshScheduler(scheduler);
+	}
+	
+	@After
+	public void tearDown() throws Exception {
+		service.destroy();
+	}
+	
+	@Test
+	public void testRefreshAhead() throws Exception {
+		TestHandler handler = new TestHandler(30000, false);
+		service.handle(handler);
+		Assert.assertEquals("v1", handler.served.get(0));
+		
+		handler = new TestHandler(30000, false);
+		service.handle(handler);
+		Assert.assertEquals("v1", handler.served.get(0));
+		Assert.assertTrue(handler.captured.await(5, TimeUnit.SECONDS));
+		Assert.assertTrue(handler.detached);
+		awaitIdle();
+		
+		handler = new TestHandler(30000, false);
+		service.handle(handler);
+		Assert.assertEquals("v2", handler.served.get(0));
+	}
+	
+	@Test
+	public void testServeStaleWhileRefreshing() throws Exception {
+		service.handle(new TestHandler(-1, true));
+		service.invalidateTaggedItems("tag");
+		
+		TestHandler handler = new TestHandler(-1, true);
+		service.handle(handler);
+		Assert.assertEquals("v1", handler.served.get(0));
+		Assert.assertTrue(handler.captured.await(5, TimeUnit.SECONDS));
+		awaitIdle();
+		
+		handler = new TestHandler(-1, true);
+		service.handle(handler);
+		Assert.assertEquals("v2", handler.served.get(0));
+		Assert.assertFalse(handler.detached);
+	}
+	
+	private void awaitIdle() throws InterruptedException {
+		for (int i = 0; i < 500 && scheduler.getPendingRefreshes() > 0; i++) {
+			Thread.sleep(10);
+		}
+		Assert.assertEquals(1, scheduler.getRefreshes());
+	}
+	
+	private static int version;
+	
+	@Before
+	public void resetVersion() {
+		version = 0;
+	}
+	
+	private static class TestHandler implements RefreshableHandler {
+		
+		private long ttl;
+		
+		private boolean serveStale;
+		
+		private boolean detached;
+		
+		private List<Serializable> served = new ArrayList<Serializable>();
+		
+		private CountDownLatch captured = new CountDownLatch(1);
+		
+		public TestHandler(long ttl, boolean serveStale) {
+			this.ttl = ttl;
+			this.serveStale = serveStale;
+		}
+
+		public String getCacheKey() {
+			return "key";
+		}
+
+		public String getCacheRegion() {
+			return null;
+		}
+
+		public long getLastModified() {
+			// Always newer than the cached item, even within the same millisecond
+			return Long.MAX_VALUE;
+		}
+
+		public Serializable capture(DiskStore diskStore) throws Exception {
+			CacheContext.tag("tag");
+			if (ttl > 0) {
+				CacheContext.expireIn(ttl);
+			}
+			if (serveStale) {
+				CacheContext.serveStaleWhileRevalidate();
+			}
+			captured.countDown();
+			return "v" + (++version);
+		}
+
+		public void serve(Serializable data) throws Exception {
+			served.add(data);
+		}
+
+		public void handleUncached() throws Exception {
+			Assert.fail();
+		}
+
+		public boolean isRefreshable() {
+			return true;
+		}
+
+		public void detach() {
+			detached = true;
+		}
+	}
+	
+}
@@ -0,0 +1,82 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius;
+
+import java.util.Collections;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.riotfamily.cachius.persistence.SimpleDiskStore;
+
+public class RegionStatisticsTest {
+
+	@Test
+	public void testCounters() {
+		Cache cache = new Cache(new Region("test"), null);
+		try {
+			RegionStatistics stats = cache.getStatistics();
+			stats.hit();
+			stats.hit();
+			stats.hit();
+			stats.miss();
+			stats.captured(3);
+			stats.captured(40);
+			stats.captured(20000);
+			Assert.assertEquals(3, stats.getHits());
+			Assert.assertEquals(0.75, stats.getHitRatio(), 0.001);
+			Assert.assertEquals(3, stats.getCaptures());
+			Assert.assertEquals(20000, stats.getMaxCaptureTime());
+			Assert.assertEquals(5, stats.getCaptureTimePercentile(30));
+			Assert.assertEquals(50, stats.getCaptureTimePercentile(50));
+			Assert.assertEquals(-1, stats.getCaptureTimePercentile(99));
+			stats.reset();
+			Assert.assertEquals(0, stats.getHits());
+			Assert.assertEquals(0, stats.getCaptureTimePercentile(50));
+		}
+		finally {
+			cache.destroy();
+		}
+	}
+	
+	@Test
+	public void testInvalidationCounts() {
+		InvalidationStatistics stats = new InvalidationStatistics();
+		stats.setMaxTrackedTags(2);
+		stats.invalidated("a");
+		stats.invalidated("b");
+		stats.invalidated("b");
+		stats.invalidated("c");
+		Assert.assertEquals(4, stats.getInvalidations());
+		Assert.assertEquals(2, stats.getTrackedTags());
+		Assert.assertEquals(-1, stats.getInvalidations("c"));
+		Assert.assertEquals("b", stats.getTopTagCounts(1).keySet().iterator().next());
+	}
+	
+	@Test
+	public void testMBeans() throws Exception {
+		MBeanServer server = MBeanServerFactory.newMBeanServer();
+		CacheService service = new CacheService(new SimpleDiskStore(), 
+				Collections.singletonList(new Region("test")));
+		
+		service.registerMBeans(server);
+		ObjectName name = new ObjectName("org.riotfamily.cachius:type=Region,name=\"test\"");
+		Assert.assertTrue(server.isRegistered(name));
+		Assert.assertEquals(0L, server.getAttribute(name, "Hits"));
+		service.destroy();
+		Assert.assertFalse(server.isRegistered(name));
+	}
+}
@@ -0,0 +1,153 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius.http.content;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.riotfamily.cachius.http.support.ScanWriter;
+import org.riotfamily.cachius.http.support.ScanWriter.Block;
+
+public class ChunkedContentTest {
+
+	private static final String TEXT = "\u00E4\uD83D\uDE00(@riot.a)\u20AC"
+			+ "\uDE00(@riot.b)\uD83D(@riot.c)\u00DF";
+	
+	private static final String EXPECTED = "\u00E4\uD83D\uDE00[a]\u20AC"
+			+ "?[b]?[c]\u00DF";
+	
+	@Test
+	public void testServeBytes() throws Exception {
+		ChunkedContent content = createContent(TEXT);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		content.serve(createRequest(), createResponse("UTF-8", out));
+		Assert.assertEquals(EXPECTED, new String(out.toByteArray(), "UTF-8"));
+	}
+	
+	@Test
+	public void testServeCharacters() throws Exception {
+		ChunkedContent content = createContent(TEXT);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		HttpServletResponse response = createResponse("UTF-16", out);
+		content.serve(createRequest(), response);
+		response.flushBuffer();
+		Assert.assertEquals(EXPECTED, new String(out.toByteArray(), "UTF-16"));
+	}
+	
+	private ChunkedContent createContent(String text) throws IOException {
+		File file = File.createTempFile("chunked", ".txt");
+		file.deleteOnExit();
+		ScanWriter writer = new ScanWriter(new OutputStreamWriter(
+				new FileOutputStream(file), "UTF-8"), "(@riot.", ')');
+		
+		writer.write(text);
+		writer.close();
+		
+		ChunkedContent content = new ChunkedContent(file);
+		for (Block block : writer.getBlocks()) {
+			content.addFragment(block.getStart(), block.getEnd(), 
+					block.getByteStart(), block.getByteEnd(), 
+					new TextFragment("[" + block.getValue() + "]"));
+		}
+		content.addTail(writer.getCharCount(), writer.getByteCount());
+		return content;
+	}
+	
+	static HttpServletRequest createRequest() {
+		return (HttpServletRequest) Proxy.newProxyInstance(
+				ChunkedContentTest.class.getClassLoader(), 
+				new Class<?>[] { HttpServletRequest.class }, 
+				new InvocationHandler() {
+					public Object invoke(Object proxy, Method method, Object[] args) {
+						return null;
+					}
+				});
+	}
+	
+	static HttpServletResponse createResponse(final String encoding, 
+			final ByteArrayOutputStream out) throws IOException {
+		
+		final ServletOutputStream outputStream = new ServletOutputStream() {
+			@Override
+			public void write(int b) {
+				out.write(b);
+			}
+		};
+		final PrintWriter writer = new PrintWriter(
+				new OutputStreamWriter(out, encoding), true);
+		
+		return (HttpServletResponse) Proxy.newProxyInstance(
+				ChunkedContentTest.class.getClassLoader(), 
+				new Class<?>[] { HttpServletResponse.class }, 
+				new InvocationHandler() {
+					public Object invoke(Object proxy, Method method, Object[] args) {
+						String name = method.getName();
+						if (name.equals("getCharacterEncoding")) {
+							return encoding;
+						}
+						if (name.equals("getOutputStream")) {
+							return outputStream;
+						}
+						if (name.equals("getWriter")) {
+							return writer;
+						}
+						if (name.equals("flushBuffer")) {
+							writer.flush();
+						}
+						if (method.getReturnType() == Boolean.TYPE) {
+							return Boolean.FALSE;
+						}
+						if (method.getReturnType() == Integer.TYPE) {
+							return 0;
+						}
+						return null;
+					}
+				});
+	}
+	
+	static class TextFragment implements ContentFragment {
+		
+		private String text;
+		
+		public TextFragment(String text) {
+			this.text = text;
+		}
+		
+		public int getLength(HttpServletRequest request, 
+				HttpServletResponse response) {
+			
+			return -1;
+		}
+		
+		public void serve(HttpServletRequest request, 
+				HttpServletResponse response) 
+				throws ServletException, IOException {
+			
+			response.getWriter().write(text);
+		}
+	}
+}
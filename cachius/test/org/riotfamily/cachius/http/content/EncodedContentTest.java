@@ -0,0 +1,115 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius.http.content;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.riotfamily.cachius.http.support.ContentEncoder;
+import org.riotfamily.cachius.http.support.GzipEncoder;
+import org.riotfamily.cachius.persistence.Resizable.SizeListener;
+import org.riotfamily.cachius.persistence.SimpleDiskStore;
+
+public class EncodedContentTest {
+
+	private static final List<ContentEncoder> ENCODERS = 
+			Collections.<ContentEncoder>singletonList(new GzipEncoder());
+	
+	@Test
+	public void testSelectionIsStable() throws Exception {
+		EncodedContent content = createContent();
+		HttpServletRequest request = createRequest("gzip");
+		int length = content.getLength(request, null);
+		
+		content.encode(ENCODERS, new SimpleDiskStore(), null);
+		Assert.assertEquals(length, content.getLength(request, null));
+		
+		HttpServletRequest nextRequest = createRequest("gzip");
+		Assert.assertTrue(content.getLength(nextRequest, null) < length);
+		content.delete();
+	}
+	
+	@Test
+	public void testSizeListener() throws Exception {
+		EncodedContent content = createContent();
+		final AtomicLong size = new AtomicLong();
+		size.set(content.setSizeListener(new SizeListener() {
+			public void diskSizeChanged(long delta) {
+				size.addAndGet(delta);
+			}
+		}));
+		
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		content.encode(ENCODERS, new SimpleDiskStore(), executor);
+		executor.shutdown();
+		Assert.assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+		
+		Assert.assertTrue(size.get() > content.getFile().length());
+		Assert.assertEquals(content.getDiskSize(), size.get());
+		content.delete();
+	}
+	
+	private EncodedContent createContent() throws IOException {
+		File file = new SimpleDiskStore().getFile();
+		OutputStream out = new FileOutputStream(file);
+		try {
+			for (int i = 0; i < 1000; i++) {
+				out.write("<p>Compressible content</p>\n".getBytes("UTF-8"));
+			}
+		}
+		finally {
+			out.close();
+		}
+		return new EncodedContent(file);
+	}
+	
+	private static HttpServletRequest createRequest(final String acceptEncoding) {
+		final Map<String, Object> attributes = new HashMap<String, Object>();
+		return (HttpServletRequest) Proxy.newProxyInstance(
+				EncodedContentTest.class.getClassLoader(), 
+				new Class<?>[] { HttpServletRequest.class }, 
+				new InvocationHandler() {
+					public Object invoke(Object proxy, Method method, Object[] args) {
+						String name = method.getName();
+						if (name.equals("getHeaders")) {
+							return Collections.enumeration(
+									Collections.singleton(acceptEncoding));
+						}
+						if (name.equals("getAttribute")) {
+							return attributes.get(args[0]);
+						}
+						if (name.equals("setAttribute")) {
+							attributes.put((String) args[0], args[1]);
+						}
+						return null;
+					}
+				});
+	}
+}
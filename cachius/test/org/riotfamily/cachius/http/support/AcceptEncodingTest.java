@@ -0,0 +1,32 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius.http.support;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AcceptEncodingTest {
+
+	@Test
+	public void testQuality() {
+		Assert.assertEquals(1f, AcceptEncoding.getQuality("gzip, deflate", "gzip"), 0);
+		Assert.assertEquals(1f, AcceptEncoding.getQuality("gzip, deflate", "deflate"), 0);
+		Assert.assertEquals(0f, AcceptEncoding.getQuality("gzip", "deflate"), 0);
+		Assert.assertEquals(0.5f, AcceptEncoding.getQuality("GZIP ; q=0.5", "gzip"), 0);
+		Assert.assertEquals(0f, AcceptEncoding.getQuality("gzip;q=0, *", "gzip"), 0);
+		Assert.assertEquals(0.2f, AcceptEncoding.getQuality("br, *;q=0.2", "deflate"), 0);
+		Assert.assertEquals(0f, AcceptEncoding.getQuality("x-gzip", "gzip"), 0);
+		Assert.assertEquals(0f, AcceptEncoding.getQuality("", "gzip"), 0);
+	}
+	
+}
@@ -0,0 +1,96 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius.http.support;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.riotfamily.cachius.http.support.ScanWriter.Block;
+
+public class ScanWriterTest {
+
+	private static final String START = "(@riot.";
+	
+	@Test
+	public void testAscii() throws Exception {
+		assertOffsets("<p>(@riot.a)</p>(@riot.b)", 1);
+	}
+	
+	@Test
+	public void testMultiByte() throws Exception {
+		assertOffsets("\u00E4\u00F6(@riot.a)\u20AC\u20AC(@riot.b)\u00DF", 1);
+	}
+	
+	@Test
+	public void testSurrogatePairs() throws Exception {
+		assertOffsets("\uD83D\uDE00(@riot.a)x\uD834\uDD1E(@riot.b)\uD83D\uDE00", 1);
+	}
+	
+	@Test
+	public void testSplitSurrogatePairs() throws Exception {
+		String s = "\uD83D\uDE00(@riot.a)\uD834\uDD1E\uD83D\uDE00(@riot.b)\uD83D\uDE00";
+		for (int chunkSize = 1; chunkSize < 4; chunkSize++) {
+			assertOffsets(s, chunkSize);
+		}
+	}
+	
+	@Test
+	public void testUnpairedSurrogates() throws Exception {
+		assertOffsets("\uDE00(@riot.a)\uD83D(@riot.b)\uD83D\uD83D\uDE00", 1);
+		assertOffsets("\uD83D\uD83D(@riot.a)\uDE00\uDE00(@riot.b)", 2);
+		assertOffsets("(@riot.a)\uD83D", 3);
+	}
+	
+	/**
+	 * Writes the given text in chunks of the given size and checks that the 
+	 * recorded byte offsets match the output of an UTF-8 encoding writer.
+	 */
+	private void assertOffsets(String text, int chunkSize) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ScanWriter writer = new ScanWriter(
+				new OutputStreamWriter(out, "UTF-8"), START, ')');
+		
+		char[] chars = text.toCharArray();
+		for (int i = 0; i < chars.length; i += chunkSize) {
+			writer.write(chars, i, Math.min(chunkSize, chars.length - i));
+		}
+		writer.close();
+		byte[] bytes = out.toByteArray();
+		
+		Assert.assertEquals(text.length(), writer.getCharCount());
+		Assert.assertEquals(bytes.length, writer.getByteCount());
+		
+		List<Block> blocks = new ArrayList<Block>(writer.getBlocks());
+		Assert.assertEquals(countBlocks(text), blocks.size());
+		for (Block block : blocks) {
+			String expression = text.substring(block.getStart(), block.getEnd() + 1);
+			String encoded = new String(bytes, block.getByteStart(), 
+					block.getByteEnd() - block.getByteStart() + 1, "UTF-8");
+			
+			Assert.assertEquals(START + block.getValue() + ")", expression);
+			Assert.assertEquals(expression, encoded);
+		}
+	}
+	
+	private static int countBlocks(String text) {
+		int count = 0;
+		for (int i = text.indexOf(START); i != -1; i = text.indexOf(START, i + 1)) {
+			count++;
+		}
+		return count;
+	}
+}
@@ -0,0 +1,138 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius.invalidation;
+
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.riotfamily.cachius.CacheItem;
+
+public class InvalidationBusTest {
+
+	private static int freePort() throws IOException {
+		DatagramSocket socket = new DatagramSocket(0);
+		int port = socket.getLocalPort();
+		socket.close();
+		return port;
+	}
+	
+	private static InvalidationBus createBus(int port, String peers) {
+		UdpInvalidationTransport transport = new UdpInvalidationTransport();
+		transport.setPort(port);
+		transport.setPeers(peers);
+		transport.setMaxPacketSize(90);
+		InvalidationBus bus = new InvalidationBus(transport);
+		bus.setFlushInterval(10);
+		return bus;
+	}
+	
+	private static void awaitInvalidation(CacheItem item) 
+			throws InterruptedException {
+		
+		for (int i = 0; i < 200 && !item.isInvalidated(); i++) {
+			Thread.sleep(10);
+		}
+	}
+	
+	@Test
+	public void testPropagation() throws Exception {
+		int port1 = freePort();
+		int port2 = freePort();
+		String peers = "localhost:" + port1 + ",localhost:" + port2;
+		
+		ItemIndex index1 = new ItemIndex();
+		ItemIndex index2 = new ItemIndex();
+		InvalidationBus bus1 = createBus(port1, peers);
+		InvalidationBus bus2 = createBus(port2, peers);
+		bus1.start(index1);
+		bus2.start(index2);
+		try {
+			DeferredItemInvalidator invalidator = new DeferredItemInvalidator();
+			invalidator.setInvalidationBus(bus1);
+			
+			CacheItem local = new CacheItem("local");
+			local.addTag("page-1");
+			index1.add(local);
+			
+			CacheItem remote = new CacheItem("remote");
+			remote.addTag("page-1");
+			index2.add(remote);
+			
+			CacheItem other = new CacheItem("other");
+			other.addTag("a-rather-long-tag-that-ends-up-in-a-second-packet");
+			index2.add(other);
+			
+			invalidator.defer();
+			invalidator.invalidate(index1, "page-1");
+			invalidator.invalidate(index1, "page-1");
+			invalidator.invalidate(index1, "a-rather-long-tag-that-ends-up-in-a-second-packet");
+			Assert.assertFalse(local.isInvalidated());
+			Assert.assertEquals(0, bus1.getPendingTags());
+			invalidator.commit();
+			
+			Assert.assertTrue(local.isInvalidated());
+			awaitInvalidation(remote);
+			awaitInvalidation(other);
+			Assert.assertTrue(remote.isInvalidated());
+			Assert.assertTrue(other.isInvalidated());
+			Assert.assertEquals(2, bus1.getSentTags());
+			Assert.assertEquals(0, bus1.getReceivedTags());
+		}
+		finally {
+			bus1.stop();
+			bus2.stop();
+		}
+	}
+	
+	@Test
+	public void testListener() throws Exception {
+		int port1 = freePort();
+		int port2 = freePort();
+		String peers = "localhost:" + port1 + ",localhost:" + port2;
+		
+		InvalidationBus bus1 = createBus(port1, peers);
+		InvalidationBus bus2 = createBus(port2, peers);
+		final Set<String> local = new CopyOnWriteArraySet<String>();
+		final Set<String> remote = new CopyOnWriteArraySet<String>();
+		bus1.addListener(new InvalidationListener() {
+			public void invalidated(Collection<String> tags) {
+				local.addAll(tags);
+			}
+		});
+		bus2.addListener(new InvalidationListener() {
+			public void invalidated(Collection<String> tags) {
+				remote.addAll(tags);
+			}
+		});
+		bus1.start(new ItemIndex());
+		bus2.start(new ItemIndex());
+		try {
+			bus1.publish(Collections.singleton("routes"));
+			for (int i = 0; i < 200 && remote.isEmpty(); i++) {
+				Thread.sleep(10);
+			}
+			Assert.assertTrue(remote.contains("routes"));
+			Assert.assertTrue(local.isEmpty());
+		}
+		finally {
+			bus1.stop();
+			bus2.stop();
+		}
+	}
+}
@@ -0,0 +1,176 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius.invalidation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+
+import org.riotfamily.cachius.CacheItem;
+
+/**
+ * Measures the throughput of concurrent add/remove/invalidate calls on a 
+ * single class-level tag that holds many items, which is the typical 
+ * situation for tags like <code>CacheTagUtils.getTag(Page.class)</code>. 
+ * The "synchronized list" column shows the cost of the approach that was 
+ * used before the index was made lock-free.
+ * <p>
+ * Run with <code>java org.riotfamily.cachius.invalidation.ItemIndexBenchmark</code>.
+ */
+public class ItemIndexBenchmark {
+
+	private static final String TAG = "org.riotfamily.pages.model.Page";
+	
+	private static final int ITEMS = 50000;
+	
+	private static final int OPERATIONS = 200000;
+	
+	private static final int[] THREADS = new int[] { 1, 4, 16 };
+	
+	private interface Index {
+		void add(CacheItem item);
+		void remove(CacheItem item);
+		void invalidate(String tag);
+	}
+	
+	public static void main(String[] args) throws InterruptedException {
+		// Warm up the JIT before taking measurements
+		for (int i = 0; i < 3; i++) {
+			run(4, false);
+		}
+		for (int threads : THREADS) {
+			run(threads, true);
+		}
+	}
+	
+	private static void run(int threads, boolean print) throws InterruptedException {
+		long legacy = measure(new SynchronizedListIndex(), threads);
+		long lockFree = measure(new LockFreeIndex(), threads);
+		if (print) {
+			System.out.printf("%2d threads: synchronized list %,6d ms | " 
+					+ "ItemIndex %,6d ms%n", threads, legacy, lockFree);
+		}
+	}
+	
+	private static CacheItem createItem(int i) {
+		CacheItem item = new CacheItem("http://www.example.com/page-" + i);
+		item.addTag(TAG);
+		return item;
+	}
+	
+	/**
+	 * Each thread replaces items (remove + add) and invalidates the tag 
+	 * after every 1000 operations.
+	 */
+	private static long measure(final Index index, int threads) 
+			throws InterruptedException {
+		
+		final List<CacheItem> items = new ArrayList<CacheItem>(ITEMS);
+		for (int i = 0; i < ITEMS; i++) {
+			CacheItem item = createItem(i);
+			items.add(item);
+			index.add(item);
+		}
+		final int operations = OPERATIONS / threads;
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(threads);
+		for (int t = 0; t < threads; t++) {
+			final int offset = t * operations;
+			new Thread() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+					}
+					catch (InterruptedException e) {
+						return;
+					}
+					for (int i = 0; i < operations; i++) {
+						int n = (offset + i) % ITEMS;
+						index.remove(items.get(n));
+						index.add(items.get(n));
+						if (i % 1000 == 0) {
+							index.invalidate(TAG);
+						}
+					}
+					done.countDown();
+				}
+			}.start();
+		}
+		long t1 = System.nanoTime();
+		start.countDown();
+		done.await();
+		return (System.nanoTime() - t1) / 1000000;
+	}
+	
+	private static class LockFreeIndex implements Index {
+		
+		private ItemIndex index = new ItemIndex();
+		
+		public void add(CacheItem item) {
+			index.add(item);
+		}
+		
+		public void remove(CacheItem item) {
+			index.remove(item);
+		}
+		
+		public void invalidate(String tag) {
+			index.invalidate(tag);
+		}
+	}
+	
+	private static class SynchronizedListIndex implements Index {
+		
+		private ConcurrentHashMap<String, List<CacheItem>> taggedItems =
+				new ConcurrentHashMap<String, List<CacheItem>>();
+		
+		public void add(CacheItem item) {
+			for (String tag : item.getTags()) {
+				List<CacheItem> items = taggedItems.get(tag);
+				if (items == null) {
+					List<CacheItem> newItems = new ArrayList<CacheItem>();
+					List<CacheItem> oldItems = taggedItems.putIfAbsent(tag, newItems);
+					items = oldItems != null ? oldItems : newItems;
+				}
+				synchronized (items) {
+					items.add(item);
+				}
+			}
+		}
+		
+		public void remove(CacheItem item) {
+			for (String tag : item.getTags()) {
+				List<CacheItem> items = taggedItems.get(tag);
+				if (items != null) {
+					synchronized (items) {
+						items.remove(item);
+					}
+				}
+			}
+		}
+		
+		public void invalidate(String tag) {
+			List<CacheItem> items = taggedItems.get(tag);
+			if (items != null) {
+				synchronized (items) {
+					for (CacheItem item : items) {
+						item.invalidate();
+					}
+				}
+			}
+		}
+	}
+	
+}
@@ -0,0 +1,160 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius.invalidation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.riotfamily.cachius.CacheItem;
+
+public class ItemIndexTest {
+
+	private ItemIndex index = new ItemIndex();
+	
+	private static CacheItem createItem(String key, String... tags) {
+		CacheItem item = new CacheItem(key);
+		for (String tag : tags) {
+			item.addTag(tag);
+		}
+		return item;
+	}
+	
+	@Test
+	public void testInvalidate() {
+		CacheItem a = createItem("a", "x", "y");
+		CacheItem b = createItem("b", "y");
+		index.add(a);
+		index.add(b);
+		Assert.assertEquals(2, index.getItemCount("y"));
+		index.invalidate("x");
+		Assert.assertTrue(a.isInvalidated());
+		Assert.assertFalse(b.isInvalidated());
+		index.invalidate("y");
+		Assert.assertTrue(b.isInvalidated());
+	}
+	
+	@Test
+	public void testGenerationalInvalidation() {
+		index.setGenerational(true);
+		CacheItem a = createItem("a", "x");
+		a.setGeneration(index.getGeneration());
+		index.add(a);
+		index.invalidate("y");
+		
+		// Capturing of b starts before x is invalidated 
+		CacheItem b = createItem("b", "x");
+		b.setGeneration(index.getGeneration());
+		index.invalidate("x");
+		index.add(b);
+		
+		CacheItem c = createItem("c", "x");
+		c.setGeneration(index.getGeneration());
+		index.add(c);
+		
+		Assert.assertEquals(0, index.getItemCount("x"));
+		index.applyInvalidations(a);
+		index.applyInvalidations(b);
+		index.applyInvalidations(c);
+		Assert.assertTrue(a.isInvalidated());
+		Assert.assertTrue(b.isInvalidated());
+		Assert.assertFalse(c.isInvalidated());
+	}
+	
+	@Test
+	public void testRestoredGenerationAdvancesCounter() {
+		index.setGenerational(true);
+		CacheItem a = createItem("a", "x");
+		a.setGeneration(42);
+		index.add(a);
+		Assert.assertEquals(42, index.getGeneration());
+		index.invalidate("x");
+		index.applyInvalidations(a);
+		Assert.assertTrue(a.isInvalidated());
+	}
+	
+	@Test
+	public void testFoldInvalidations() {
+		index.setGenerational(true);
+		index.setMaxInvalidatedTags(4);
+		CacheItem a = createItem("a", "a");
+		a.setGeneration(index.getGeneration());
+		index.invalidate("x1");
+		CacheItem b = createItem("b", "b");
+		b.setGeneration(index.getGeneration());
+		for (int i = 2; i <= 5; i++) {
+			index.invalidate("x" + i);
+		}
+		CacheItem c = createItem("c", "c");
+		c.setGeneration(index.getGeneration());
+		CacheItem d = createItem("d");
+		d.setGeneration(0);
+		
+		Assert.assertEquals(2, index.getInvalidatedTagCount());
+		index.applyInvalidations(a);
+		index.applyInvalidations(b);
+		index.applyInvalidations(c);
+		index.applyInvalidations(d);
+		Assert.assertTrue(a.isInvalidated());
+		Assert.assertTrue(b.isInvalidated());
+		Assert.assertFalse(c.isInvalidated());
+		Assert.assertFalse(d.isInvalidated());
+	}
+	
+	@Test
+	public void testRemoveDiscardsEmptyTags() {
+		CacheItem a = createItem("a", "x");
+		CacheItem b = createItem("b", "x");
+		index.add(a);
+		index.add(b);
+		index.remove(a);
+		Assert.assertEquals(1, index.getItemCount("x"));
+		index.remove(b);
+		Assert.assertEquals(0, index.getTagCount());
+	}
+	
+	@Test
+	public void testConcurrentModification() throws InterruptedException {
+		final int threads = 4;
+		final int iterations = 10000;
+		final List<CacheItem> survivors = new ArrayList<CacheItem>();
+		final CountDownLatch done = new CountDownLatch(threads);
+		for (int t = 0; t < threads; t++) {
+			final CacheItem survivor = createItem("survivor" + t, "shared");
+			survivors.add(survivor);
+			new Thread() {
+				@Override
+				public void run() {
+					for (int i = 0; i < iterations; i++) {
+						CacheItem item = createItem("item" + i, "shared");
+						index.add(item);
+						index.remove(item);
+						if (i == iterations / 2) {
+							index.add(survivor);
+						}
+					}
+					done.countDown();
+				}
+			}.start();
+		}
+		done.await();
+		Assert.assertEquals(threads, index.getItemCount("shared"));
+		index.invalidate("shared");
+		for (CacheItem survivor : survivors) {
+			Assert.assertTrue(survivor.isInvalidated());
+		}
+	}
+	
+}
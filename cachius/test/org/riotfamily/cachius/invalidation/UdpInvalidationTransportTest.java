@@ -0,0 +1,109 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius.invalidation;
+
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class UdpInvalidationTransportTest {
+
+	private static int freePort() throws IOException {
+		DatagramSocket socket = new DatagramSocket(0);
+		int port = socket.getLocalPort();
+		socket.close();
+		return port;
+	}
+	
+	private static UdpInvalidationTransport createTransport(int port, 
+			String peers, String secret) throws IOException {
+		
+		UdpInvalidationTransport transport = new UdpInvalidationTransport();
+		transport.setBindAddress("127.0.0.1");
+		transport.setPort(port);
+		transport.setPeers(peers);
+		transport.setSecret(secret);
+		return transport;
+	}
+	
+	/**
+	 * Sends a tag from a transport with the given configuration to a 
+	 * receiver that only accepts datagrams from the receiverPeers and 
+	 * returns the received tags.
+	 */
+	private static List<String> transmit(String senderSecret, 
+			String receiverSecret, boolean senderIsPeer) throws Exception {
+		
+		int senderPort = freePort();
+		int receiverPort = freePort();
+		UdpInvalidationTransport sender = createTransport(senderPort, 
+				"127.0.0.1:" + receiverPort, senderSecret);
+		
+		UdpInvalidationTransport receiver = createTransport(receiverPort, 
+				"127.0.0.1:" + (senderIsPeer ? senderPort : freePort()), 
+				receiverSecret);
+		
+		final List<String> received = new CopyOnWriteArrayList<String>();
+		receiver.start(new InvalidationListener() {
+			public void invalidated(Collection<String> tags) {
+				received.addAll(tags);
+			}
+		});
+		sender.start(new InvalidationListener() {
+			public void invalidated(Collection<String> tags) {
+			}
+		});
+		try {
+			sender.send(Collections.singleton("tag"));
+			for (int i = 0; i < 30 && received.isEmpty(); i++) {
+				Thread.sleep(10);
+			}
+			return received;
+		}
+		finally {
+			sender.stop();
+			receiver.stop();
+		}
+	}
+	
+	@Test
+	public void testSignedMessage() throws Exception {
+		Assert.assertEquals(Collections.singletonList("tag"), 
+				transmit("secret", "secret", true));
+	}
+	
+	@Test
+	public void testUnsignedMessage() throws Exception {
+		Assert.assertEquals(Collections.singletonList("tag"), 
+				transmit(null, null, true));
+		
+		Assert.assertTrue(transmit(null, "secret", true).isEmpty());
+	}
+	
+	@Test
+	public void testForgedSignature() throws Exception {
+		Assert.assertTrue(transmit("other", "secret", true).isEmpty());
+	}
+	
+	@Test
+	public void testUnknownSender() throws Exception {
+		Assert.assertTrue(transmit("secret", "secret", false).isEmpty());
+	}
+	
+}
@@ -0,0 +1,99 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius.persistence;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MemoryTierTest {
+
+	private MemoryTier tier;
+	
+	@Before
+	public void setUp() {
+		tier = new MemoryTier();
+		tier.setMaxSize(100);
+		tier.setMaxItemSize(60);
+		tier.setPromotionThreshold(2);
+	}
+	
+	private static File createFile(int length) throws IOException {
+		File file = File.createTempFile("tier", "");
+		file.deleteOnExit();
+		FileOutputStream out = new FileOutputStream(file);
+		out.write(new byte[length]);
+		out.close();
+		return file;
+	}
+	
+	private void read(File file, int times) throws IOException {
+		for (int i = 0; i < times; i++) {
+			InputStream in = tier.openStream(file);
+			while (in.read() != -1) {
+			}
+			in.close();
+		}
+	}
+	
+	@Test
+	public void testPromotion() throws IOException {
+		File file = createFile(50);
+		read(file, 1);
+		Assert.assertEquals(0, tier.getSize());
+		read(file, 1);
+		Assert.assertEquals(50, tier.getSize());
+		tier.remove(file);
+		Assert.assertEquals(0, tier.getSize());
+	}
+	
+	@Test
+	public void testLargeFilesStayOnDisk() throws IOException {
+		File file = createFile(70);
+		read(file, 5);
+		Assert.assertEquals(0, tier.getSize());
+	}
+	
+	@Test
+	public void testDemotion() throws IOException {
+		File warm = createFile(50);
+		File hot = createFile(60);
+		read(warm, 2);
+		read(hot, 3);
+		Assert.assertEquals(60, tier.getSize());
+		read(warm, 5);
+		Assert.assertEquals(50, tier.getSize());
+	}
+	
+	@Test
+	public void testMaxFiles() throws IOException {
+		tier.setMaxFiles(1);
+		File cold = createFile(10);
+		File hot = createFile(20);
+		read(cold, 1);
+		read(hot, 1);
+		Assert.assertEquals(1, tier.getFileCount());
+		
+		// The aging removes the cold file's slot, so that the hot file 
+		// can be tracked and promoted
+		read(hot, 200);
+		Assert.assertEquals(1, tier.getFileCount());
+		Assert.assertEquals(20, tier.getSize());
+	}
+	
+}
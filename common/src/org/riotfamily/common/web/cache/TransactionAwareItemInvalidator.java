@@ -0,0 +1,109 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.common.web.cache;
+
+import java.util.Collections;
+import java.util.Set;
+
+import org.riotfamily.cachius.invalidation.AbstractItemInvalidator;
+import org.riotfamily.cachius.invalidation.ItemIndex;
+import org.riotfamily.common.util.Generics;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * ItemInvalidator that defers invalidations until the current transaction
+ * has been completed. The tags are collected in a set bound to the 
+ * transaction, so that each tag is invalidated only once, no matter how 
+ * often it is passed to {@link #invalidate(ItemIndex, String)}, e.g. by the
+ * {@link org.riotfamily.common.web.cache.hibernate.CacheTagInterceptor 
+ * CacheTagInterceptor} or by an EntityListener during a bulk update.
+ * <p>
+ * The tags are invalidated after the transaction has been committed, so that
+ * no request can re-capture stale data in the meantime. Upon rollback the 
+ * tags are discarded. If the outcome is unknown, the tags are invalidated
+ * anyway. If no transaction synchronization is active, the tags
+ * are invalidated immediately.
+ * </p>
+ */
+public class TransactionAwareItemInvalidator extends AbstractItemInvalidator {
+
+	public void invalidate(ItemIndex index, String tag) {
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			getSynchronization(index).add(tag);
+		}
+		else {
+			invalidateNow(index, Collections.singleton(tag));
+		}
+	}
+	
+	private InvalidationSynchronization getSynchronization(ItemIndex index) {
+		InvalidationSynchronization sync = (InvalidationSynchronization) 
+				TransactionSynchronizationManager.getResource(this);
+		
+		if (sync == null) {
+			sync = new InvalidationSynchronization(index);
+			TransactionSynchronizationManager.registerSynchronization(sync);
+			TransactionSynchronizationManager.bindResource(this, sync);
+		}
+		return sync;
+	}
+	
+	/**
+	 * TransactionSynchronization that collects the tags of a transaction.
+	 */
+	private class InvalidationSynchronization 
+			extends TransactionSynchronizationAdapter {
+
+		private ItemIndex index;
+		
+		private Set<String> tags = Generics.newLinkedHashSet();
+		
+		public InvalidationSynchronization(ItemIndex index) {
+			this.index = index;
+		}
+		
+		public void add(String tag) {
+			tags.add(tag);
+		}
+		
+		@Override
+		public void suspend() {
+			TransactionSynchronizationManager.unbindResource(
+					TransactionAwareItemInvalidator.this);
+		}
+		
+		@Override
+		public void resume() {
+			TransactionSynchronizationManager.bindResource(
+					TransactionAwareItemInvalidator.this, this);
+		}
+		
+		@Override
+		public void afterCompletion(int status) {
+			if (TransactionSynchronizationManager.hasResource(
+					TransactionAwareItemInvalidator.this)) {
+				
+				TransactionSynchronizationManager.unbindResource(
+						TransactionAwareItemInvalidator.this);
+			}
+			if (status != TransactionSynchronization.STATUS_ROLLED_BACK 
+					&& !tags.isEmpty()) {
+				
+				invalidateNow(index, tags);
+			}
+		}
+	}
+	
+}
@@ -24,6 +24,7 @@ import java.util.Date;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -107,6 +108,11 @@ public class CacheAnnotationHandlerAdapter extends AnnotationMethodHandlerAdapte
 	
 	private Set<Class<?>> supportedTypes;
 	
+	private HandlerMethodInterceptor interceptor = new HandlerMethodInterceptor();
+	
+	private ConcurrentHashMap<Class<?>, HandlerMetadata> metadata = 
+			new ConcurrentHashMap<Class<?>, HandlerMetadata>();
+	
 	public CacheAnnotationHandlerAdapter(CacheService cacheService,
 			CacheKeyAugmentor cacheKeyAugmentor) {
 
@@ -192,25 +198,48 @@ public class CacheAnnotationHandlerAdapter extends AnnotationMethodHandlerAdapte
 		return super.handle(request, response, handler);
 	}
 	
-	protected String getDefaultCacheKeyPrefix(HttpServletRequest request, Method handlerMethod) {
-		return ServletUtils.getOriginatingRequestUrl(request)
-			.append('#').append(handlerMethod.getName())
-			.append('@').append(StringUtils.unqualify(handlerMethod.getAnnotation(RequestMapping.class).toString()))
-			.toString();
+	/**
+	 * Returns the metadata for the given handler class. The metadata is
+	 * created once per class and reused for all subsequent requests.
+	 */
+	private HandlerMetadata getHandlerMetadata(Class<?> handlerClass) {
+		HandlerMetadata hm = metadata.get(handlerClass);
+		if (hm == null) {
+			hm = new HandlerMetadata(handlerClass);
+			HandlerMetadata existing = metadata.putIfAbsent(handlerClass, hm);
+			if (existing != null) {
+				hm = existing;
+			}
+		}
+		return hm;
+	}
+	
+	/**
+	 * Returns the part of the default cache key that identifies the handler
+	 * method. It is appended to the originating request URL. 
+	 */
+	protected String getMappingKey(Method handlerMethod) {
+		return "#" + handlerMethod.getName() + "@" + StringUtils.unqualify(
+				handlerMethod.getAnnotation(RequestMapping.class).toString());
 	}
 	
-	protected CharSequence getDefaultMethodLevelCacheKey(Method handlerMethod, Object[] args) {
-		StringBuilder key = new StringBuilder();
-		key.append(" {");
+	/**
+	 * Returns the indexes of all {@link #isSupportedArgument(Annotation[], Class) 
+	 * supported} arguments of the given handler method.
+	 */
+	protected int[] getKeyArguments(Method handlerMethod) {
 		Class<?>[] types = handlerMethod.getParameterTypes();
 		Annotation[][] ann = handlerMethod.getParameterAnnotations();
+		int[] indexes = new int[types.length];
+		int count = 0;
 		for (int i = 0; i < types.length; i++) {
 			if (isSupportedArgument(ann[i], types[i])) {
-				key.append(String.valueOf(args[i])).append(';');
+				indexes[count++] = i;
 			}
 		}
-		key.append('}');
-		return key;
+		int[] result = new int[count];
+		System.arraycopy(indexes, 0, result, 0, count);
+		return result;
 	}
 	
 	protected boolean isSupportedArgument(Annotation[] annotations, Class<?> type) {
@@ -261,18 +290,128 @@ public class CacheAnnotationHandlerAdapter extends AnnotationMethodHandlerAdapte
 	
 	// ----------------------------------------------------------------------
 	
+	/**
+	 * Per-class metadata. Holds a proxy that is used to determine the handler
+	 * method and its arguments, and the lazily resolved method metadata.
+	 */
+	private class HandlerMetadata {
+		
+		private Class<?> handlerClass;
+		
+		private Object proxy;
+		
+		private String region;
+		
+		private Method cacheKeyMethod;
+		
+		private ConcurrentHashMap<Method, HandlerMethodMetadata> methods = 
+				new ConcurrentHashMap<Method, HandlerMethodMetadata>();
+		
+		public HandlerMetadata(Class<?> handlerClass) {
+			this.handlerClass = handlerClass;
+			ProxyFactory proxyFactory = new ProxyFactory();
+			proxyFactory.setTargetClass(handlerClass);
+			proxyFactory.setProxyTargetClass(true);
+			proxyFactory.addAdvice(interceptor);
+			proxy = proxyFactory.getProxy(handlerClass.getClassLoader());
+			
+			CacheRegion cacheRegion = handlerClass.getAnnotation(CacheRegion.class);
+			region = cacheRegion != null ? cacheRegion.value() : null;
+			
+			cacheKeyMethod = ReflectionUtils.findMethod(handlerClass, 
+					"getCacheKey", HttpServletRequest.class, Method.class);
+			
+			if (cacheKeyMethod != null) {
+				Assert.isAssignable(CharSequence.class, cacheKeyMethod.getReturnType());
+			}
+		}
+		
+		public HandlerMethodMetadata getMethodMetadata(Method handlerMethod) {
+			HandlerMethodMetadata hmm = methods.get(handlerMethod);
+			if (hmm == null) {
+				hmm = new HandlerMethodMetadata(handlerClass, handlerMethod);
+				HandlerMethodMetadata existing = methods.putIfAbsent(handlerMethod, hmm);
+				if (existing != null) {
+					hmm = existing;
+				}
+			}
+			return hmm;
+		}
+	}
+	
+	/**
+	 * Metadata of a handler method, resolved once per handler class.
+	 */
+	private class HandlerMethodMetadata {
+		
+		private Method handlerMethod;
+		
+		private Cache annotation;
+		
+		private Method lastModifiedMethod;
+		
+		private Method cacheKeyMethod;
+		
+		private String mappingKey;
+		
+		private volatile int[] keyArguments;
+		
+		public HandlerMethodMetadata(Class<?> handlerClass, Method handlerMethod) {
+			this.handlerMethod = handlerMethod;
+			this.annotation = handlerMethod.getAnnotation(Cache.class);
+			String suffix = StringUtils.capitalize(handlerMethod.getName());
+			Class<?>[] types = handlerMethod.getParameterTypes();
+			lastModifiedMethod = ReflectionUtils.findMethod(handlerClass, 
+					"getLastModifiedFor" + suffix, types);
+			
+			if (annotation != null) {
+				if (lastModifiedMethod != null) {
+					Assert.isAssignable(Long.TYPE, lastModifiedMethod.getReturnType());
+				}
+				cacheKeyMethod = ReflectionUtils.findMethod(handlerClass, 
+						"getCacheKeyFor" + suffix, types);
+				
+				if (cacheKeyMethod != null) {
+					Assert.isAssignable(CharSequence.class, cacheKeyMethod.getReturnType());
+				}
+				mappingKey = getMappingKey(handlerMethod);
+			}
+		}
+		
+		/**
+		 * Appends the String-representations of all supported arguments.
+		 * The argument indexes are determined upon first invocation, so that
+		 * unsupported arguments are only reported if the default key is 
+		 * actually used.
+		 */
+		public CharSequence getMethodLevelCacheKey(Object[] args) {
+			int[] indexes = keyArguments;
+			if (indexes == null) {
+				indexes = getKeyArguments(handlerMethod);
+				keyArguments = indexes;
+			}
+			StringBuilder key = new StringBuilder();
+			key.append(" {");
+			for (int i : indexes) {
+				key.append(String.valueOf(args[i])).append(';');
+			}
+			key.append('}');
+			return key;
+		}
+	}
+	
 	private class AnnotationCacheHandler extends AbstractHttpHandler {
 
 		private Object handler;
 		
-		private Method handlerMethod;
+		private HandlerMetadata hm;
+		
+		private HandlerMethodMetadata hmm;
 		
 		private Object[] args;
 		
 		private Cache annotation;
 		
-		private Method lastModifiedMethod;
-		
 		public AnnotationCacheHandler(HttpServletRequest request, 
 				HttpServletResponse response, Object handler) {
 			
@@ -281,19 +420,19 @@ public class CacheAnnotationHandlerAdapter extends AnnotationMethodHandlerAdapte
 			init();
 		}
 		
+		/**
+		 * Invokes the handler method on the class' proxy in order to 
+		 * determine the method and the resolved arguments. The proxy's 
+		 * interceptor doesn't proceed, so the controller isn't invoked.
+		 */
 		private void init() {
-			ProxyFactory proxyFactory = new ProxyFactory(handler);
-			proxyFactory.setProxyTargetClass(true);
-			HandlerMethodInterceptor interceptor = new HandlerMethodInterceptor();
-			proxyFactory.addAdvice(interceptor);
+			hm = getHandlerMetadata(handler.getClass());
 			try {
-				invokeHandlerMethod(getRequest(), getResponse(), proxyFactory.getProxy());
+				invokeHandlerMethod(getRequest(), getResponse(), hm.proxy);
 				MethodInvocation invocation = interceptor.getInvocation();
-				handlerMethod = invocation.getMethod();
+				hmm = hm.getMethodMetadata(invocation.getMethod());
 				args = invocation.getArguments();
-				annotation = handlerMethod.getAnnotation(Cache.class);
-				String name = "getLastModifiedFor" + StringUtils.capitalize(handlerMethod.getName());
-				lastModifiedMethod = ReflectionUtils.findMethod(handler.getClass(), name, handlerMethod.getParameterTypes());
+				annotation = hmm.annotation;
 			}
 			catch (Exception e) {
 				throw ExceptionUtils.wrapReflectionException(e);
@@ -302,16 +441,14 @@ public class CacheAnnotationHandlerAdapter extends AnnotationMethodHandlerAdapte
 		
 		@Override
 		public String getCacheRegion() {
-			CacheRegion region = handler.getClass().getAnnotation(CacheRegion.class);
-			return region != null ? region.value() : null;
+			return hm.region;
 		}
 		
 		@Override
 		public long getLastModified() {
 			try {
-				if (lastModifiedMethod != null) {
-					Assert.isAssignable(Long.TYPE, lastModifiedMethod.getReturnType());
-					return (Long) lastModifiedMethod.invoke(handler, args);
+				if (hmm.lastModifiedMethod != null) {
+					return (Long) hmm.lastModifiedMethod.invoke(handler, args);
 				}
 				return System.currentTimeMillis();
 			}
@@ -331,32 +468,26 @@ public class CacheAnnotationHandlerAdapter extends AnnotationMethodHandlerAdapte
 				return null;
 			}
 			try {
-				Method method = ReflectionUtils.findMethod(handler.getClass(), 
-						"getCacheKey", HttpServletRequest.class, Method.class);
-				
 				CharSequence prefix;
-				if (method != null) {
-					Assert.isAssignable(CharSequence.class, method.getReturnType());
-					prefix = (CharSequence) method.invoke(handler, getRequest(), handlerMethod);
+				if (hm.cacheKeyMethod != null) {
+					prefix = (CharSequence) hm.cacheKeyMethod.invoke(
+							handler, getRequest(), hmm.handlerMethod);
 				}
 				else {
-					prefix = getDefaultCacheKeyPrefix(getRequest(), handlerMethod);
+					prefix = ServletUtils.getOriginatingRequestUrl(getRequest())
+							.append(hmm.mappingKey);
 				}
 				if (prefix == null) {
 					return null;
 				}
 
 				CharSequence suffix;
-				String name = "getCacheKeyFor" + StringUtils.capitalize(handlerMethod.getName());
-				method = ReflectionUtils.findMethod(handler.getClass(), name, handlerMethod.getParameterTypes());
-				if (method != null) {
-					Assert.isAssignable(CharSequence.class, method.getReturnType());
-					suffix = (CharSequence) method.invoke(handler, args);
+				if (hmm.cacheKeyMethod != null) {
+					suffix = (CharSequence) hmm.cacheKeyMethod.invoke(handler, args);
 				}
 				else {
-					suffix = getMethodLevelCacheKey();
+					suffix = hmm.getMethodLevelCacheKey(args);
 				}
-				
 				if (suffix == null) {
 					return null;
 				}
@@ -372,16 +503,6 @@ public class CacheAnnotationHandlerAdapter extends AnnotationMethodHandlerAdapte
 			}
 		}
 		
-		private CharSequence getMethodLevelCacheKey() {
-			String name = "getCacheKeyFor" + StringUtils.capitalize(handlerMethod.getName());
-			Method method = ReflectionUtils.findMethod(handler.getClass(), name, handlerMethod.getParameterTypes());
-			if (method != null) {
-				Assert.isAssignable(CharSequence.class, method.getReturnType());
-				return (CharSequence) ReflectionUtils.invokeMethod(method, handler, args);
-			}
-			return getDefaultMethodLevelCacheKey(handlerMethod, args);
-		}
-		
 		@Override
 		protected void handleRequest(HttpServletRequest request,
 				HttpServletResponse response) throws Exception {
@@ -423,24 +544,31 @@ public class CacheAnnotationHandlerAdapter extends AnnotationMethodHandlerAdapte
 				if (expireIn != null) {
 					CacheContext.expireIn(expireIn);
 				}
-				else if (lastModifiedMethod != null) {
+				else if (hmm.lastModifiedMethod != null) {
 					CacheContext.expireIn(0);
 				}
 			}
 		}
 	}
 	
+	/**
+	 * Interceptor that records the last invocation of the current thread
+	 * instead of invoking the target. It is shared by all proxies.
+	 */
 	private static class HandlerMethodInterceptor implements MethodInterceptor {
 		
-		private MethodInvocation invocation;
+		private ThreadLocal<MethodInvocation> invocation = 
+				new ThreadLocal<MethodInvocation>();
 		
 		public Object invoke(MethodInvocation invocation) throws Throwable {
-			this.invocation = invocation;
+			this.invocation.set(invocation);
 			return null;
 		}
 		
 		public MethodInvocation getInvocation() {
-			return invocation;
+			MethodInvocation result = invocation.get();
+			invocation.remove();
+			return result;
 		}
 	}
 	
@@ -12,6 +12,8 @@
  */
 package org.riotfamily.common.web.cache.controller;
 
+import java.util.concurrent.Executor;
+
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
@@ -52,6 +54,10 @@ public class CacheableControllerHandlerAdapter implements HandlerAdapter,
     private CacheKeyAugmentor cacheKeyAugmentor;
     
     private int order = 0;
+    
+    private boolean refreshable;
+    
+    private Executor encodingExecutor;
 
     public CacheableControllerHandlerAdapter(CacheService cacheService) {
 		this.cacheService = cacheService;
@@ -86,6 +92,27 @@ public class CacheableControllerHandlerAdapter implements HandlerAdapter,
 		this.cacheKeyAugmentor = cacheKeyAugmentor;
 	}
 	
+	/**
+	 * Sets whether the output of the controllers may be refreshed by a 
+	 * background thread of the CacheService's 
+	 * {@link org.riotfamily.cachius.RefreshScheduler RefreshScheduler}. 
+	 * Only enable this if none of the controllers depend on the session or
+	 * perform includes. Default is <code>false</code>.
+	 */
+	public void setRefreshable(boolean refreshable) {
+		this.refreshable = refreshable;
+	}
+	
+	/**
+	 * Sets an Executor that creates the compressed variants of the captured
+	 * content in the background.
+	 * 
+	 * @see org.riotfamily.cachius.http.AbstractHttpHandler#setEncodingExecutor(Executor)
+	 */
+	public void setEncodingExecutor(Executor encodingExecutor) {
+		this.encodingExecutor = encodingExecutor;
+	}
+	
     /**
      * Returns <code>true</code> if handler implements the
      * {@link CacheableController} interface.
@@ -100,10 +127,13 @@ public class CacheableControllerHandlerAdapter implements HandlerAdapter,
     public final ModelAndView handle(HttpServletRequest request,
             HttpServletResponse response, Object handler) throws Exception {
 
-    	cacheService.handle(new ControllerCacheHandler(
+    	ControllerCacheHandler cacheHandler = new ControllerCacheHandler(
     			request, response, (CacheableController) handler, 
-    			cacheKeyAugmentor, viewResolverHelper));
+    			cacheKeyAugmentor, viewResolverHelper);
     	
+    	cacheHandler.setRefreshable(refreshable);
+    	cacheHandler.setEncodingExecutor(encodingExecutor);
+    	cacheService.handle(cacheHandler);
         return null;
 	}
 	
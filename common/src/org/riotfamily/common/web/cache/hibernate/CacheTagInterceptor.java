@@ -37,7 +37,11 @@ import org.springframework.util.ReflectionUtils.FieldCallback;
 
 /**
  * Hibernate Interceptor that invalidates tagged cache items whenever an entity 
- * with a {@link TagCacheItems} annotation is modified or deleted.
+ * with a {@link TagCacheItems} annotation is modified or deleted. Configure 
+ * the CacheService with a 
+ * {@link org.riotfamily.common.web.cache.TransactionAwareItemInvalidator
+ * TransactionAwareItemInvalidator} to defer the invalidation until the 
+ * transaction has been committed.
  * 
  * @author Felix Gnass [fgnass at neteye dot de]
  */
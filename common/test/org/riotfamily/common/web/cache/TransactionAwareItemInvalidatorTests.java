@@ -0,0 +1,83 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.common.web.cache;
+
+import static junit.framework.Assert.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.riotfamily.cachius.CacheItem;
+import org.riotfamily.cachius.invalidation.ItemIndex;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+public class TransactionAwareItemInvalidatorTests {
+
+	private TransactionAwareItemInvalidator invalidator;
+	
+	private ItemIndex index;
+	
+	private CacheItem item;
+	
+	@Before
+	public void setUp() {
+		invalidator = new TransactionAwareItemInvalidator();
+		index = new ItemIndex();
+		item = new CacheItem("item");
+		item.addTag("foo");
+		index.add(item);
+	}
+	
+	@After
+	public void tearDown() {
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.clearSynchronization();
+		}
+	}
+	
+	private void complete(int status) {
+		for (Object sync : TransactionSynchronizationManager.getSynchronizations()) {
+			((TransactionSynchronization) sync).afterCompletion(status);
+		}
+		TransactionSynchronizationManager.clearSynchronization();
+	}
+	
+	@Test
+	public void invalidatesImmediatelyWithoutTransaction() {
+		invalidator.invalidate(index, "foo");
+		assertTrue(item.isInvalidated());
+	}
+	
+	@Test
+	public void invalidatesOnceAfterCommit() {
+		TransactionSynchronizationManager.initSynchronization();
+		invalidator.invalidate(index, "foo");
+		invalidator.invalidate(index, "foo");
+		assertFalse(item.isInvalidated());
+		assertEquals(1, TransactionSynchronizationManager.getSynchronizations().size());
+		complete(TransactionSynchronization.STATUS_COMMITTED);
+		assertTrue(item.isInvalidated());
+		assertFalse(TransactionSynchronizationManager.hasResource(invalidator));
+	}
+	
+	@Test
+	public void discardsTagsOnRollback() {
+		TransactionSynchronizationManager.initSynchronization();
+		invalidator.invalidate(index, "foo");
+		complete(TransactionSynchronization.STATUS_ROLLED_BACK);
+		assertFalse(item.isInvalidated());
+		assertFalse(TransactionSynchronizationManager.hasResource(invalidator));
+	}
+	
+}
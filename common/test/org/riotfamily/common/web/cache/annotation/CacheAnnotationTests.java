@@ -55,6 +55,7 @@ public class CacheAnnotationTests {
 				wac.registerBeanDefinition("controller2", new RootBeanDefinition(CacheKeyController.class));
 				wac.registerBeanDefinition("controller3", new RootBeanDefinition(CustomCacheKeyController.class));
 				wac.registerBeanDefinition("controller4", new RootBeanDefinition(PathVariableController.class));
+				wac.registerBeanDefinition("controller5", new RootBeanDefinition(CountingController.class));
 				wac.refresh();
 				return wac;
 			}
@@ -131,6 +132,18 @@ public class CacheAnnotationTests {
 	}
 	
 	
+	@Test
+	public void proxyIsReused() throws Exception {
+		int instances = CountingController.instances;
+		get("/count/cached", "name", "a");
+		get("/count/cached", "name", "b");
+		get("/count/cached", "name", "c");
+		assertTrue("Proxy must be created at most once", 
+				CountingController.instances - instances <= 1);
+		
+		assertTrue(get("/count/cached", "name", "d").endsWith("{d;}"));
+	}
+	
 	public String get(String url, String... params) throws Exception {
 		MockHttpServletRequest request = new MockHttpServletRequest("GET", url);
 		for (int i = 0; i < params.length; i += 2) {
@@ -220,6 +233,23 @@ public class CacheAnnotationTests {
 		
 	}
 	
+	@Controller
+	@RequestMapping("/count/*")
+	public static class CountingController {
+
+		public static int instances;
+		
+		public CountingController() {
+			instances++;
+		}
+		
+		@Cache
+		@RequestMapping
+		public void cached(Writer out, @RequestParam String name) throws Exception {
+			out.write(CacheContext.getCacheKey());
+		}
+	}
+	
 	@Controller
 	@RequestMapping("/path/*")
 	public static class PathVariableController {
@@ -0,0 +1,181 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.components.xstream;
+
+import java.io.StringReader;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.riotfamily.components.model.Content;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.thoughtworks.xstream.io.HierarchicalStreamDriver;
+import com.thoughtworks.xstream.io.HierarchicalStreamReader;
+import com.thoughtworks.xstream.io.copy.HierarchicalStreamCopier;
+import com.thoughtworks.xstream.io.xml.XppDomReader;
+import com.thoughtworks.xstream.io.xml.XppDomWriter;
+import com.thoughtworks.xstream.io.xml.xppdom.Xpp3Dom;
+
+/**
+ * Cache that holds the parsed XML of {@link Content} entities, keyed by 
+ * the entity's id and version. The cached trees are never modified, hence
+ * they can be shared by all sessions, each of which obtains its own reader.
+ * This way the XML is only parsed once per version, although the object
+ * graph still has to be built for every session, as it contains entities
+ * bound to that session.
+ * <p>
+ * The statistics can be monitored via JMX, see 
+ * {@link XStreamMarshaller#setJmxEnabled(boolean)}.
+ */
+public class ParsedContentCache implements ParsedContentCacheMBean {
+
+	private Logger log = LoggerFactory.getLogger(ParsedContentCache.class);
+	
+	private Map<Long, Entry> entries;
+	
+	private AtomicLong hits = new AtomicLong();
+	
+	private AtomicLong misses = new AtomicLong();
+	
+	private AtomicLong parseTime = new AtomicLong();
+	
+	public ParsedContentCache(final int capacity) {
+		entries = new LinkedHashMap<Long, Entry>(capacity, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Long, Entry> eldest) {
+				return size() > capacity;
+			}
+		};
+	}
+	
+	/**
+	 * Returns a reader for the given XML. If the content has not been 
+	 * saved yet, the XML is parsed directly by the driver.
+	 */
+	public HierarchicalStreamReader createReader(Content content, String xml,
+			HierarchicalStreamDriver driver) {
+		
+		Long id = content.getId();
+		if (id == null) {
+			return driver.createReader(new StringReader(xml));
+		}
+		Entry entry;
+		synchronized (entries) {
+			entry = entries.get(id);
+		}
+		if (entry != null && entry.matches(content.getVersion(), xml)) {
+			hits.incrementAndGet();
+		}
+		else {
+			misses.incrementAndGet();
+			entry = new Entry(content.getVersion(), xml, parse(xml, driver));
+			synchronized (entries) {
+				entries.put(id, entry);
+			}
+		}
+		return new XppDomReader(entry.dom);
+	}
+	
+	private Xpp3Dom parse(String xml, HierarchicalStreamDriver driver) {
+		long start = System.nanoTime();
+		HierarchicalStreamReader reader = driver.createReader(new StringReader(xml));
+		XppDomWriter writer = new XppDomWriter();
+		new HierarchicalStreamCopier().copy(reader, writer);
+		reader.close();
+		long nanos = System.nanoTime() - start;
+		parseTime.addAndGet(nanos);
+		if (log.isDebugEnabled()) {
+			log.debug("Parsed {} chars of content XML in {} microseconds", 
+					xml.length(), nanos / 1000);
+		}
+		return writer.getConfiguration();
+	}
+	
+	/**
+	 * Removes all entries and resets the statistics.
+	 */
+	public void clear() {
+		synchronized (entries) {
+			entries.clear();
+		}
+		hits.set(0);
+		misses.set(0);
+		parseTime.set(0);
+	}
+	
+	public int getSize() {
+		synchronized (entries) {
+			return entries.size();
+		}
+	}
+	
+	public long getHits() {
+		return hits.get();
+	}
+	
+	public long getMisses() {
+		return misses.get();
+	}
+	
+	/**
+	 * Returns the fraction (0-1) of lookups that could be served from the 
+	 * cache.
+	 */
+	public double getHitRatio() {
+		long h = hits.get();
+		long total = h + misses.get();
+		return total > 0 ? (double) h / total : 0;
+	}
+	
+	/**
+	 * Returns the total number of milliseconds spent parsing XML.
+	 */
+	public long getParseTime() {
+		return parseTime.get() / 1000000;
+	}
+	
+	/**
+	 * Returns the average number of microseconds needed to parse the XML
+	 * of a cache miss.
+	 */
+	public long getAverageParseTime() {
+		long m = misses.get();
+		return m > 0 ? parseTime.get() / 1000 / m : 0;
+	}
+	
+	private static class Entry {
+		
+		private int version;
+		
+		private String xml;
+		
+		private Xpp3Dom dom;
+
+		public Entry(int version, String xml, Xpp3Dom dom) {
+			this.version = version;
+			this.xml = xml;
+			this.dom = dom;
+		}
+		
+		/**
+		 * Compares the XML too, as it might have been replaced via 
+		 * setXml() without incrementing the version.
+		 */
+		public boolean matches(int version, String xml) {
+			return this.version == version && this.xml.equals(xml);
+		}
+	}
+	
+}
@@ -0,0 +1,34 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.components.xstream;
+
+/**
+ * Management interface of {@link ParsedContentCache}.
+ */
+public interface ParsedContentCacheMBean {
+
+	public int getSize();
+	
+	public long getHits();
+	
+	public long getMisses();
+	
+	public double getHitRatio();
+	
+	public long getParseTime();
+	
+	public long getAverageParseTime();
+	
+	public void clear();
+	
+}
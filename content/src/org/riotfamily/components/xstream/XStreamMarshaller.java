@@ -14,6 +14,11 @@ package org.riotfamily.components.xstream;
 
 import java.io.StringReader;
 import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 import org.riotfamily.components.model.Component;
 import org.riotfamily.components.model.ComponentList;
@@ -21,41 +26,116 @@ import org.riotfamily.components.model.Content;
 import org.riotfamily.components.model.ContentMap;
 import org.riotfamily.components.model.ContentMapImpl;
 import org.riotfamily.components.model.ContentMapMarshaller;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.ApplicationContextAware;
 
 import com.thoughtworks.xstream.XStream;
 import com.thoughtworks.xstream.converters.DataHolder;
+import com.thoughtworks.xstream.core.TreeUnmarshaller;
 import com.thoughtworks.xstream.io.HierarchicalStreamDriver;
 import com.thoughtworks.xstream.io.HierarchicalStreamReader;
 import com.thoughtworks.xstream.io.HierarchicalStreamWriter;
 import com.thoughtworks.xstream.io.xml.DomDriver;
+import com.thoughtworks.xstream.io.xml.XppDriver;
 import com.thoughtworks.xstream.mapper.Mapper;
 import com.thoughtworks.xstream.mapper.MapperWrapper;
 
 public class XStreamMarshaller implements ContentMapMarshaller, 
-		InitializingBean, ApplicationContextAware {
+		InitializingBean, DisposableBean, ApplicationContextAware {
+
+	private Logger log = LoggerFactory.getLogger(XStreamMarshaller.class);
+	
 
 	private XStream xstream;
 	
 	private HierarchicalStreamDriver driver;
+	
+	private HierarchicalStreamDriver readerDriver;
 
 	private ApplicationContext applicationContext;
 	
+	private int parsedContentCacheSize = 1000;
+	
+	private ParsedContentCache parsedContentCache;
+	
+	private boolean jmxEnabled;
+	
+	private String jmxName = "org.riotfamily.components:type=ParsedContentCache";
+	
+	private ObjectName registeredName;
 
 	public void setDriver(HierarchicalStreamDriver driver) {
 		this.driver = driver;
 	}
 
+	/**
+	 * Sets the driver used to parse the XML. As unmarshalling occurs far 
+	 * more often than marshalling, it defaults to the streaming 
+	 * {@link XppDriver}, while the DOM based default driver is used to 
+	 * produce nicely formatted XML. If a custom driver has been set via 
+	 * {@link #setDriver(HierarchicalStreamDriver)}, that driver is used by
+	 * default, as it might produce a format the XppDriver can't read.
+	 */
+	public void setReaderDriver(HierarchicalStreamDriver readerDriver) {
+		this.readerDriver = readerDriver;
+	}
+
 	public void setApplicationContext(ApplicationContext applicationContext) {
 		this.applicationContext = applicationContext;
 	}
+	
+	/**
+	 * Sets the maximum number of parsed XML documents to keep in memory.
+	 * Default is <code>1000</code>. Set to <code>0</code> to disable
+	 * the cache.
+	 * @see ParsedContentCache
+	 */
+	public void setParsedContentCacheSize(int parsedContentCacheSize) {
+		this.parsedContentCacheSize = parsedContentCacheSize;
+	}
+	
+	/**
+	 * Sets whether the statistics of the {@link ParsedContentCache} should 
+	 * be registered with the platform MBeanServer. Default is 
+	 * <code>false</code>.
+	 */
+	public void setJmxEnabled(boolean jmxEnabled) {
+		this.jmxEnabled = jmxEnabled;
+	}
+	
+	/**
+	 * Sets the ObjectName under which the cache is registered. Default is
+	 * <code>org.riotfamily.components:type=ParsedContentCache</code>.
+	 */
+	public void setJmxName(String jmxName) {
+		this.jmxName = jmxName;
+	}
+	
+	/**
+	 * Returns the cache that holds the parsed XML, or <code>null</code> if
+	 * caching is disabled.
+	 */
+	public ParsedContentCache getParsedContentCache() {
+		return parsedContentCache;
+	}
 		
 	public void afterPropertiesSet() throws Exception {
+		if (readerDriver == null) {
+			readerDriver = driver != null ? driver : new XppDriver();
+		}
 		if (driver == null) {
 			driver = new DomDriver("UTF-8");
 		}
+		if (parsedContentCacheSize > 0) {
+			parsedContentCache = new ParsedContentCache(parsedContentCacheSize);
+			if (jmxEnabled) {
+				registerMBean();
+			}
+		}
 
 		xstream = new XStream(driver) {
 			@Override
@@ -79,6 +159,40 @@ public class XStreamMarshaller implements ContentMapMarshaller,
 		xstream.setMarshallingStrategy(new NullSafeXPathMarshallingStrategy());
 	}
 	
+	/**
+	 * Registers the ParsedContentCache with the platform MBeanServer. If 
+	 * another MBean with the same name exists (i.e. when two applications 
+	 * use the same name), a warning is logged.
+	 */
+	private void registerMBean() {
+		try {
+			ObjectName name = new ObjectName(jmxName);
+			ManagementFactory.getPlatformMBeanServer().registerMBean(
+					parsedContentCache, name);
+			
+			registeredName = name;
+		}
+		catch (InstanceAlreadyExistsException e) {
+			log.warn("MBean already registered: {}", e.getMessage());
+		}
+		catch (Exception e) {
+			log.error("Failed to register MBean", e);
+		}
+	}
+	
+	public void destroy() throws Exception {
+		if (registeredName != null) {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			try {
+				server.unregisterMBean(registeredName);
+			}
+			catch (Exception e) {
+				log.warn("Failed to unregister MBean " + registeredName, e);
+			}
+			registeredName = null;
+		}
+	}
+	
 	private DataHolder createDataHolder(Content content) {
 		DataHolder dataHolder = xstream.newDataHolder();
 		dataHolder.put("content", content);
@@ -86,10 +200,40 @@ public class XStreamMarshaller implements ContentMapMarshaller,
 	}
 	
 	public ContentMap unmarshal(Content owner, String xml) {
-		HierarchicalStreamReader reader = driver.createReader(new StringReader(
-				xml));
-		return (ContentMap) xstream.unmarshal(reader, null,
-				createDataHolder(owner));
+		return unmarshal(owner, xml, containsReferences(xml));
+	}
+	
+	/**
+	 * Unmarshals the given XML. The paths of the nodes are only tracked if
+	 * <code>resolveReferences</code> is set, otherwise a plain 
+	 * TreeUnmarshaller is used.
+	 */
+	ContentMap unmarshal(Content owner, String xml, boolean resolveReferences) {
+		HierarchicalStreamReader reader;
+		if (parsedContentCache != null) {
+			reader = parsedContentCache.createReader(owner, xml, readerDriver);
+		}
+		else {
+			reader = readerDriver.createReader(new StringReader(xml));
+		}
+		DataHolder dataHolder = createDataHolder(owner);
+		if (resolveReferences) {
+			return (ContentMap) xstream.unmarshal(reader, null, dataHolder);
+		}
+		TreeUnmarshaller unmarshaller = new TreeUnmarshaller(null, reader, 
+				xstream.getConverterLookup(), xstream.getMapper());
+		
+		return (ContentMap) unmarshaller.start(dataHolder);
+	}
+	
+	/**
+	 * Returns whether the XML contains XPath references. Only in this case
+	 * the paths of all nodes need to be tracked while unmarshalling. 
+	 * Text that looks like a reference attribute leads to a false positive,
+	 * which is harmless.
+	 */
+	private boolean containsReferences(String xml) {
+		return xml.indexOf("reference=") != -1;
 	}
 	
 	public String marshal(ContentMap contentMap) {
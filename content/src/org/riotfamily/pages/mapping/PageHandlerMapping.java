@@ -76,6 +76,19 @@ public class PageHandlerMapping extends AbstractHandlerMapping {
 			HttpServletRequest request) {
 		
 		try {
+			PageRoutingTable table = PageResolver.getRoutingTable();
+			if (table != null) {
+				if (!table.hasAlias(site, path)) {
+					return null;
+				}
+				Long id = table.getAliasedPageId(site, path);
+				ContentPage page = id != null ? ContentPage.load(id) : null;
+				if (page != null) {
+					String url = new PageFacade(page, request).getUrl();
+					return new RedirectController(url, true);
+				}
+				return new HttpErrorController(HttpServletResponse.SC_GONE);
+			}
 			PageAlias alias = PageAlias.loadBySiteAndPath(site, path);
 			if (alias != null) {
 				ContentPage page = alias.getPage();
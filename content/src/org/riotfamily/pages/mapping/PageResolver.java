@@ -35,9 +35,23 @@ public final class PageResolver {
 
 	private static final Object NOT_FOUND = new Object();
 	
+	private static PageRoutingTable routingTable;
+	
 	private PageResolver() {
 	}
 	
+	/**
+	 * Sets the table used to resolve sites and pages without querying the
+	 * database. Invoked by the {@link PageRoutingTable} itself.
+	 */
+	static void setRoutingTable(PageRoutingTable routingTable) {
+		PageResolver.routingTable = routingTable;
+	}
+	
+	static PageRoutingTable getRoutingTable() {
+		return routingTable;
+	}
+	
 	/**
 	 * Returns the first Site that matches the given request. The PathCompleter
 	 * is used to strip the servlet mapping from the request URI.
@@ -86,6 +100,11 @@ public final class PageResolver {
 	
 	private static Site resolveSite(HttpServletRequest request) {
 		String hostName = request.getServerName();
+		PageRoutingTable table = routingTable;
+		if (table != null) {
+			Long id = table.getSiteId(hostName);
+			return id != null ? Site.load(id) : null;
+		}
 		return Site.loadByHostName(hostName);
 	}
 
@@ -95,7 +114,7 @@ public final class PageResolver {
             return null;
         }
         String lookupPath = getLookupPath(request);
-        Page page = ContentPage.loadBySiteAndPath(site, lookupPath);
+        Page page = loadPage(site, lookupPath);
         if (page == null) {
             page = resolveVirtualChildPage(site, lookupPath);
         }
@@ -108,16 +127,39 @@ public final class PageResolver {
         return page;
     }
 	
+	private static ContentPage loadPage(Site site, String lookupPath) {
+		PageRoutingTable table = routingTable;
+		if (table != null) {
+			Long id = table.getPageId(site, lookupPath);
+			return id != null ? ContentPage.load(id) : null;
+		}
+		return ContentPage.loadBySiteAndPath(site, lookupPath);
+	}
+	
 	private static Page resolveVirtualChildPage(Site site, String lookupPath) {
+		PageRoutingTable table = routingTable;
+		if (table != null) {
+			Long id = table.getVirtualParentId(site, lookupPath, 
+					site.getSchema().getVirtualParents());
+			
+			ContentPage parent = id != null ? ContentPage.load(id) : null;
+			return parent != null ? resolveVirtualChildPage(parent, lookupPath) : null;
+		}
 		for (ContentPage parent : ContentPage.findByTypesAndSite(site.getSchema().getVirtualParents(), site)) {
 			if (lookupPath.startsWith(parent.getPath())) {
-				SystemPageType parentType = (SystemPageType) parent.getPageType();
-				String tail = lookupPath.substring(parent.getPath().length());
-				return parentType.getVirtualChildType().resolve(parent, tail);
+				return resolveVirtualChildPage(parent, lookupPath);
 			}
 		}
 		return null;
 	}
+	
+	private static Page resolveVirtualChildPage(ContentPage parent, 
+			String lookupPath) {
+		
+		SystemPageType parentType = (SystemPageType) parent.getPageType();
+		String tail = lookupPath.substring(parent.getPath().length());
+		return parentType.getVirtualChildType().resolve(parent, tail);
+	}
 
 	public static String getLookupPath(HttpServletRequest request) {
 		String s = FormatUtils.stripExtension(FormatUtils.stripTrailingSlash(
@@ -0,0 +1,706 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.pages.mapping;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.riotfamily.cachius.CacheService;
+import org.riotfamily.cachius.invalidation.InvalidationBus;
+import org.riotfamily.cachius.invalidation.InvalidationListener;
+import org.riotfamily.common.hibernate.EntityListener;
+import org.riotfamily.common.hibernate.HibernateCallbackWithoutResult;
+import org.riotfamily.common.hibernate.ThreadBoundHibernateTemplate;
+import org.riotfamily.common.util.Generics;
+import org.riotfamily.pages.config.PageType;
+import org.riotfamily.pages.model.ContentPage;
+import org.riotfamily.pages.model.PageAlias;
+import org.riotfamily.pages.model.Site;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * In-memory index that maps host names to sites and paths to pages, so that
+ * the {@link PageResolver} can resolve requests without querying the 
+ * database. Only ids are stored, the entities are loaded via 
+ * <code>Session.get()</code>, which is served by Hibernate's second-level 
+ * cache.
+ * <p>
+ * The table is built upon first access and updated incrementally whenever a
+ * ContentPage or PageAlias is modified. The changes are applied after the 
+ * transaction has been committed, and discarded on rollback. As Sites are
+ * rarely modified, any change to a Site causes a complete rebuild. 
+ * </p>
+ * <p>
+ * Rebuilds are performed by a single background thread while the previous
+ * table continues to serve lookups. Only the very first build blocks the
+ * requesting threads.
+ * </p>
+ * <p>
+ * If the CacheService has an {@link InvalidationBus}, committed changes are
+ * announced to the other cluster nodes, which rebuild their tables in 
+ * response. Without a bus, other nodes are not notified, so the table is 
+ * also rebuilt once it's older than the configured 
+ * {@link #setMaxAge(long) maxAge}. 
+ * </p>
+ */
+public class PageRoutingTable implements EntityListener, InvalidationListener,
+		InitializingBean, DisposableBean {
+
+	/**
+	 * Tag that is published via the {@link InvalidationBus} when the routes 
+	 * have been modified.
+	 */
+	public static final String INVALIDATION_TAG = PageRoutingTable.class.getName();
+	
+	private Logger log = LoggerFactory.getLogger(PageRoutingTable.class);
+	
+	private ThreadBoundHibernateTemplate hibernateTemplate;
+	
+	private CacheService cacheService;
+	
+	private InvalidationBus invalidationBus;
+	
+	private long maxAge = 60000;
+	
+	private volatile Table table;
+	
+	private volatile boolean stale;
+	
+	private AtomicBoolean rebuilding = new AtomicBoolean();
+	
+	/** Changes applied while a rebuild is in progress, guarded by this */
+	private List<Change> changesDuringRebuild;
+	
+	public PageRoutingTable(SessionFactory sessionFactory, 
+			CacheService cacheService) {
+		
+		if (sessionFactory != null) {
+			this.hibernateTemplate = new ThreadBoundHibernateTemplate(sessionFactory);
+		}
+		this.cacheService = cacheService;
+	}
+	
+	/**
+	 * Sets the number of milliseconds after which the table is rebuilt from
+	 * scratch. Default is <code>60000</code>. The setting is ignored if the
+	 * CacheService has an {@link InvalidationBus}, as the table is then 
+	 * rebuilt whenever another node announces a change. Set to <code>0</code> 
+	 * to rebuild the table only when a Site is modified, which is sufficient 
+	 * if the application is not run in a cluster.
+	 */
+	public void setMaxAge(long maxAge) {
+		this.maxAge = maxAge;
+	}
+	
+	public void afterPropertiesSet() {
+		if (cacheService != null) {
+			invalidationBus = cacheService.getInvalidationBus();
+			if (invalidationBus != null) {
+				invalidationBus.addListener(this);
+			}
+		}
+		PageResolver.setRoutingTable(this);
+	}
+	
+	public void destroy() {
+		PageResolver.setRoutingTable(null);
+		if (invalidationBus != null) {
+			invalidationBus.removeListener(this);
+		}
+	}
+	
+	/**
+	 * Marks the table as stale, so that it's rebuilt in the background upon 
+	 * next access.
+	 */
+	public void invalidate() {
+		stale = true;
+	}
+	
+	/**
+	 * Invoked by the {@link InvalidationBus} when another node has modified
+	 * the routes.
+	 */
+	public void invalidated(Collection<String> tags) {
+		if (tags.contains(INVALIDATION_TAG)) {
+			invalidate();
+		}
+	}
+	
+	private boolean isExpired(Table t) {
+		return stale || (maxAge > 0 && invalidationBus == null 
+				&& System.currentTimeMillis() - t.buildTime > maxAge);
+	}
+	
+	/**
+	 * Returns the current table. If no table has been built yet, the calling 
+	 * thread builds it. If the table is stale, a background rebuild is 
+	 * triggered and the current table is returned.
+	 */
+	Table getTable() {
+		Table t = table;
+		if (t == null) {
+			return buildInitialTable();
+		}
+		if (isExpired(t)) {
+			scheduleRebuild();
+		}
+		return t;
+	}
+	
+	private synchronized Table buildInitialTable() {
+		if (table == null) {
+			stale = false;
+			table = loadTable();
+			log.debug("Routing table built in {} ms", 
+					System.currentTimeMillis() - table.buildTime);
+		}
+		return table;
+	}
+	
+	private void scheduleRebuild() {
+		if (rebuilding.compareAndSet(false, true)) {
+			Thread thread = new Thread("riot-routing-table") {
+				@Override
+				public void run() {
+					try {
+						rebuild();
+					}
+					finally {
+						rebuilding.set(false);
+					}
+				}
+			};
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+	
+	/**
+	 * Loads a new table and replaces the current one. Changes that are
+	 * applied while the table is loaded are recorded and replayed on the new
+	 * table, as the queries might not have seen them. 
+	 */
+	void rebuild() {
+		synchronized (this) {
+			stale = false;
+			changesDuringRebuild = Generics.newArrayList();
+		}
+		try {
+			Table newTable = loadTableInSession();
+			synchronized (this) {
+				for (Change change : changesDuringRebuild) {
+					if (!change.apply(newTable)) {
+						stale = true;
+					}
+				}
+				table = newTable;
+			}
+			log.debug("Routing table rebuilt in {} ms", 
+					System.currentTimeMillis() - newTable.buildTime);
+		}
+		catch (RuntimeException e) {
+			stale = true;
+			log.error("Failed to rebuild the routing table", e);
+		}
+		finally {
+			synchronized (this) {
+				changesDuringRebuild = null;
+			}
+		}
+	}
+	
+	private Table loadTableInSession() {
+		if (hibernateTemplate == null) {
+			return loadTable();
+		}
+		final Table[] result = new Table[1];
+		hibernateTemplate.execute(new HibernateCallbackWithoutResult() {
+			@Override
+			protected void doWithoutResult(Session session) {
+				result[0] = loadTable();
+			}
+		});
+		return result[0];
+	}
+	
+	/**
+	 * Loads the routes from the database using the current Hibernate session.
+	 */
+	Table loadTable() {
+		Table t = new Table();
+		for (Site site : Site.findAll()) {
+			t.addSite(site.getId(), site.getHostName(), site.getAliases());
+		}
+		for (Object[] row : ContentPage.findRoutes()) {
+			t.putPage((Long) row[1], (Long) row[0], (String) row[2], 
+					(String) row[3]);
+		}
+		for (Object[] row : PageAlias.findRoutes()) {
+			t.putAlias((Long) row[0], (String) row[1], (Long) row[2]);
+		}
+		return t;
+	}
+	
+	private SiteRoutes getSiteRoutes(Site site) {
+		return getTable().siteRoutes.get(site.getId());
+	}
+	
+	// ----------------------------------------------------------------------
+	// Lookup methods
+	// ----------------------------------------------------------------------
+	
+	/**
+	 * Returns the id of the first Site that matches the given host name, or 
+	 * the id of the first Site without a host name if there's no match.
+	 */
+	public Long getSiteId(String hostName) {
+		Table t = getTable();
+		Long id = hostName != null ? t.siteIdsByHostName.get(hostName) : null;
+		return id != null ? id : t.catchAllSiteId;
+	}
+	
+	/**
+	 * Returns the id of the page with the given path, or <code>null</code>.
+	 */
+	public Long getPageId(Site site, String path) {
+		SiteRoutes sr = getSiteRoutes(site);
+		if (sr == null) {
+			return null;
+		}
+		PathNode node = sr.getNode(path, false);
+		return node != null ? node.pageId : null;
+	}
+	
+	/**
+	 * Returns the id of the deepest ancestor of the given path whose type is
+	 * contained in the given collection, or <code>null</code>.
+	 */
+	public Long getVirtualParentId(Site site, String path, 
+			Collection<String> virtualParents) {
+		
+		if (virtualParents == null || virtualParents.isEmpty()) {
+			return null;
+		}
+		SiteRoutes sr = getSiteRoutes(site);
+		if (sr == null) {
+			return null;
+		}
+		PathNode node = sr.root;
+		Long result = node.getPageIdIfType(virtualParents);
+		for (String segment : split(path)) {
+			node = node.children.get(segment);
+			if (node == null) {
+				break;
+			}
+			Long id = node.getPageIdIfType(virtualParents);
+			if (id != null) {
+				result = id;
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * Returns whether an alias exists for the given path.
+	 */
+	public boolean hasAlias(Site site, String path) {
+		SiteRoutes sr = getSiteRoutes(site);
+		if (sr == null) {
+			return false;
+		}
+		PathNode node = sr.getNode(path, false);
+		return node != null && node.alias;
+	}
+	
+	/**
+	 * Returns the id of the page the alias for the given path points to, or
+	 * <code>null</code> if there is no such alias or if the page has been 
+	 * deleted.
+	 */
+	public Long getAliasedPageId(Site site, String path) {
+		SiteRoutes sr = getSiteRoutes(site);
+		if (sr == null) {
+			return null;
+		}
+		PathNode node = sr.getNode(path, false);
+		return node != null && node.alias ? node.aliasedPageId : null;
+	}
+	
+	// ----------------------------------------------------------------------
+	// Implementation of the EntityListener interface
+	// ----------------------------------------------------------------------
+	
+	public boolean supports(Class<?> entityClass) {
+		return Site.class.isAssignableFrom(entityClass)
+				|| ContentPage.class.isAssignableFrom(entityClass)
+				|| PageAlias.class.isAssignableFrom(entityClass);
+	}
+	
+	public void onSave(Object entity, Session session) {
+		entityChanged(entity, false);
+	}
+	
+	public void onUpdate(Object entity, Object oldState, Session session) {
+		entityChanged(entity, false);
+	}
+	
+	public void onDelete(Object entity, Session session) {
+		entityChanged(entity, true);
+	}
+	
+	private void entityChanged(Object entity, boolean deleted) {
+		if (entity instanceof Site) {
+			afterCommit(new Invalidation());
+		}
+		else if (entity instanceof ContentPage) {
+			ContentPage page = (ContentPage) entity;
+			PageType type = page.getPageType();
+			afterCommit(new PageChange(page.getSite().getId(), page.getId(), 
+					deleted ? null : page.getPath(), 
+					type != null ? type.getName() : null));
+		}
+		else if (entity instanceof PageAlias) {
+			PageAlias alias = (PageAlias) entity;
+			ContentPage page = alias.getPage();
+			afterCommit(new AliasChange(alias.getSite().getId(), 
+					alias.getPath(), deleted,
+					page != null ? page.getId() : null));
+		}
+	}
+	
+	/**
+	 * Applies the given change after the current transaction has been 
+	 * committed, or immediately, if no transaction is active.
+	 */
+	void afterCommit(Change change) {
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			ChangeSynchronization sync = (ChangeSynchronization) 
+					TransactionSynchronizationManager.getResource(this);
+			
+			if (sync == null) {
+				sync = new ChangeSynchronization();
+				TransactionSynchronizationManager.registerSynchronization(sync);
+				TransactionSynchronizationManager.bindResource(this, sync);
+			}
+			sync.changes.add(change);
+		}
+		else {
+			apply(Collections.singletonList(change));
+		}
+	}
+	
+	/**
+	 * Applies the given changes to the current table and notifies the other
+	 * cluster nodes.
+	 */
+	private void apply(List<Change> changes) {
+		synchronized (this) {
+			for (Change change : changes) {
+				if (table != null && !change.apply(table)) {
+					stale = true;
+				}
+				if (changesDuringRebuild != null) {
+					changesDuringRebuild.add(change);
+				}
+			}
+		}
+		if (invalidationBus != null) {
+			invalidationBus.publish(Collections.singleton(INVALIDATION_TAG));
+		}
+	}
+	
+	private static List<String> split(String path) {
+		List<String> segments = Generics.newArrayList();
+		int start = 0;
+		int len = path.length();
+		while (start < len) {
+			int end = path.indexOf('/', start);
+			if (end == -1) {
+				end = len;
+			}
+			if (end > start) {
+				segments.add(path.substring(start, end));
+			}
+			start = end + 1;
+		}
+		return segments;
+	}
+	
+	/**
+	 * Change that is applied to the table once the transaction has been 
+	 * committed.
+	 */
+	interface Change {
+		
+		/**
+		 * Applies the change to the given table. Returns <code>false</code>
+		 * if the table must be rebuilt instead.
+		 */
+		public boolean apply(Table table);
+	}
+	
+	static class Invalidation implements Change {
+		public boolean apply(Table table) {
+			return false;
+		}
+	}
+	
+	static class PageChange implements Change {
+		
+		private Long siteId;
+		
+		private Long pageId;
+		
+		private String path;
+		
+		private String type;
+
+		public PageChange(Long siteId, Long pageId, String path, String type) {
+			this.siteId = siteId;
+			this.pageId = pageId;
+			this.path = path;
+			this.type = type;
+		}
+
+		public boolean apply(Table table) {
+			SiteRoutes sr = table.siteRoutes.get(siteId);
+			if (sr == null) {
+				return false;
+			}
+			if (path != null) {
+				sr.putPage(pageId, path, type);
+				sr.removeAlias(path);
+			}
+			else {
+				sr.removePage(pageId);
+			}
+			return true;
+		}
+	}
+	
+	static class AliasChange implements Change {
+		
+		private Long siteId;
+		
+		private String path;
+		
+		private boolean deleted;
+		
+		private Long pageId;
+		
+		public AliasChange(Long siteId, String path, boolean deleted, 
+				Long pageId) {
+			
+			this.siteId = siteId;
+			this.path = path;
+			this.deleted = deleted;
+			this.pageId = pageId;
+		}
+
+		public boolean apply(Table table) {
+			SiteRoutes sr = table.siteRoutes.get(siteId);
+			if (sr == null) {
+				return false;
+			}
+			if (deleted) {
+				sr.removeAlias(path);
+			}
+			else {
+				sr.putAlias(path, pageId);
+			}
+			return true;
+		}
+	}
+	
+	private class ChangeSynchronization extends TransactionSynchronizationAdapter {
+		
+		private List<Change> changes = Generics.newArrayList();
+		
+		@Override
+		public void suspend() {
+			TransactionSynchronizationManager.unbindResource(PageRoutingTable.this);
+		}
+		
+		@Override
+		public void resume() {
+			TransactionSynchronizationManager.bindResource(PageRoutingTable.this, this);
+		}
+		
+		@Override
+		public void afterCompletion(int status) {
+			if (TransactionSynchronizationManager.hasResource(PageRoutingTable.this)) {
+				TransactionSynchronizationManager.unbindResource(PageRoutingTable.this);
+			}
+			if (status == TransactionSynchronization.STATUS_COMMITTED) {
+				apply(changes);
+			}
+			else if (status == TransactionSynchronization.STATUS_UNKNOWN) {
+				invalidate();
+			}
+		}
+	}
+	
+	/**
+	 * Snapshot of the routes of all sites. Modifications must be synchronized
+	 * by the caller, lookups may be performed concurrently.
+	 */
+	static class Table {
+		
+		private long buildTime = System.currentTimeMillis();
+		
+		private Map<String, Long> siteIdsByHostName = new ConcurrentHashMap<String, Long>();
+		
+		private Long catchAllSiteId;
+		
+		private Map<Long, SiteRoutes> siteRoutes = new ConcurrentHashMap<Long, SiteRoutes>();
+		
+		/**
+		 * Adds a site. Sites must be added in their natural order, as the 
+		 * first match wins.
+		 */
+		public void addSite(Long siteId, String hostName, 
+				Collection<String> aliases) {
+			
+			if (hostName != null) {
+				putIfAbsent(hostName, siteId);
+			}
+			else if (catchAllSiteId == null) {
+				catchAllSiteId = siteId;
+			}
+			if (aliases != null) {
+				for (String alias : aliases) {
+					putIfAbsent(alias, siteId);
+				}
+			}
+			siteRoutes.put(siteId, new SiteRoutes());
+		}
+		
+		private void putIfAbsent(String hostName, Long siteId) {
+			if (!siteIdsByHostName.containsKey(hostName)) {
+				siteIdsByHostName.put(hostName, siteId);
+			}
+		}
+		
+		public void putPage(Long siteId, Long pageId, String path, String type) {
+			SiteRoutes sr = siteRoutes.get(siteId);
+			if (sr != null) {
+				sr.putPage(pageId, path, type);
+			}
+		}
+		
+		public void putAlias(Long siteId, String path, Long pageId) {
+			SiteRoutes sr = siteRoutes.get(siteId);
+			if (sr != null) {
+				sr.putAlias(path, pageId);
+			}
+		}
+	}
+	
+	/**
+	 * Routes of a single site. Modifications must be synchronized by the 
+	 * caller, lookups may be performed concurrently.
+	 */
+	private static class SiteRoutes {
+		
+		private PathNode root = new PathNode();
+		
+		private Map<Long, String> pathsByPageId = new ConcurrentHashMap<Long, String>();
+		
+		public PathNode getNode(String path, boolean create) {
+			PathNode node = root;
+			for (String segment : split(path)) {
+				PathNode child = node.children.get(segment);
+				if (child == null) {
+					if (!create) {
+						return null;
+					}
+					child = new PathNode();
+					node.children.put(segment, child);
+				}
+				node = child;
+			}
+			return node;
+		}
+		
+		public void putPage(Long pageId, String path, String type) {
+			removePage(pageId);
+			PathNode node = getNode(path, true);
+			node.pageId = pageId;
+			node.pageType = type;
+			pathsByPageId.put(pageId, path);
+		}
+		
+		/**
+		 * Removes the page. Aliases pointing to the page are kept, as the
+		 * caller won't be able to load the page and will treat the alias
+		 * accordingly.
+		 */
+		public void removePage(Long pageId) {
+			String path = pathsByPageId.remove(pageId);
+			if (path != null) {
+				PathNode node = getNode(path, false);
+				if (node != null && pageId.equals(node.pageId)) {
+					node.pageId = null;
+					node.pageType = null;
+				}
+			}
+		}
+		
+		public void putAlias(String path, Long pageId) {
+			PathNode node = getNode(path, true);
+			node.aliasedPageId = pageId;
+			node.alias = true;
+		}
+		
+		public void removeAlias(String path) {
+			PathNode node = getNode(path, false);
+			if (node != null) {
+				node.alias = false;
+				node.aliasedPageId = null;
+			}
+		}
+	}
+	
+	private static class PathNode {
+		
+		private Map<String, PathNode> children = new ConcurrentHashMap<String, PathNode>();
+		
+		private volatile Long pageId;
+		
+		private volatile String pageType;
+		
+		private volatile boolean alias;
+		
+		private volatile Long aliasedPageId;
+		
+		public Long getPageIdIfType(Collection<String> types) {
+			Long id = pageId;
+			String type = pageType;
+			return id != null && type != null && types.contains(type) ? id : null;
+		}
+	}
+	
+}
@@ -17,6 +17,7 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 
 import javax.persistence.CascadeType;
 import javax.persistence.Column;
@@ -350,5 +351,36 @@ public class ContentPage extends ContentEntity implements Page, Lifecycle {
 				.setParameter("site", site)
 				.cache().find();
 	}
+	
+	/**
+	 * Returns the number of children of the given pages, keyed by page id.
+	 * Pages without children are not contained in the map.
+	 */
+	public static Map<Long, Integer> countChildren(Collection<?> pages) {
+		Map<Long, Integer> result = Generics.newHashMap();
+		if (!pages.isEmpty()) {
+			List<?> rows = query(ContentPage.class, 
+					"select parent.id, count(*) from {} " +
+					"where parent in (:pages) group by parent.id")
+					.setParameterList("pages", pages)
+					.list();
+			
+			for (Object row : rows) {
+				Object[] values = (Object[]) row;
+				result.put((Long) values[0], ((Number) values[1]).intValue());
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * Returns the id, site id, path and page type name of all pages.
+	 * @see org.riotfamily.pages.mapping.PageRoutingTable
+	 */
+	@SuppressWarnings("unchecked")
+	public static List<Object[]> findRoutes() {
+		return (List<Object[]>) query(ContentPage.class, 
+				"select id, site.id, path, pageTypeName from {}").list();
+	}
 
 }
@@ -12,6 +12,8 @@
  */
 package org.riotfamily.pages.model;
 
+import java.util.List;
+
 import javax.persistence.Entity;
 import javax.persistence.ManyToOne;
 import javax.persistence.Table;
@@ -94,6 +96,17 @@ public class PageAlias extends ActiveRecordBeanSupport {
 				.cache().load();
 	}
 
+	/**
+	 * Returns the site id, path and page id of all aliases.
+	 * @see org.riotfamily.pages.mapping.PageRoutingTable
+	 */
+	@SuppressWarnings("unchecked")
+	public static List<Object[]> findRoutes() {
+		return (List<Object[]>) query(PageAlias.class, 
+				"select a.site.id, a.path, p.id from {} a left join a.page p")
+				.list();
+	}
+
 	private static void deleteBySiteAndPath(Site site, String path) {
 		query(PageAlias.class, 
 				"delete from {} where site = ? and path = ?", site, path)
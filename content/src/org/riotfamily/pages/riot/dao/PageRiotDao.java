@@ -15,7 +15,9 @@ package org.riotfamily.pages.riot.dao;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
+import org.riotfamily.core.dao.BatchTree;
 import org.riotfamily.core.dao.Constraints;
 import org.riotfamily.core.dao.CopyAndPaste;
 import org.riotfamily.core.dao.CutAndPaste;
@@ -31,8 +33,8 @@ import org.springframework.util.Assert;
  * @author Felix Gnass [fgnass at neteye dot de]
  * @since 6.5
  */
-public class PageRiotDao implements SingleRoot,	Constraints, Swapping, 
-		CutAndPaste, CopyAndPaste {
+public class PageRiotDao implements SingleRoot,	BatchTree, Constraints, 
+		Swapping, CutAndPaste, CopyAndPaste {
 
 	public Object getParent(Object entity) {
 		ContentPage page = (ContentPage) entity;
@@ -102,6 +104,20 @@ public class PageRiotDao implements SingleRoot,	Constraints, Swapping,
 		return page.getChildren().size() > 0;
 	}
 	
+	public int[] countChildren(List<?> nodes, Object parent, ListParams params) {
+		int[] counts = new int[nodes.size()];
+		Map<Long, Integer> countsById = ContentPage.countChildren(nodes);
+		for (int i = 0; i < counts.length; i++) {
+			ContentPage page = (ContentPage) nodes.get(i);
+			if (parent instanceof Site && !parent.equals(page.getSite())) {
+				continue;
+			}
+			Integer count = countsById.get(page.getId());
+			counts[i] = count != null ? count.intValue() : 0;
+		}
+		return counts;
+	}
+	
 	public Object load(String id) throws DataAccessException {
 		return ContentPage.load(Long.valueOf(id));
 	}
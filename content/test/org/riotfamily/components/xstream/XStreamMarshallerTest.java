@@ -0,0 +1,149 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.components.xstream;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.riotfamily.components.model.Content;
+import org.riotfamily.components.model.ContentMap;
+import org.riotfamily.components.model.ContentMapImpl;
+
+import com.thoughtworks.xstream.io.xml.DomDriver;
+
+public class XStreamMarshallerTest {
+
+	private XStreamMarshaller marshaller;
+	
+	@Before
+	public void setUp() throws Exception {
+		marshaller = new XStreamMarshaller();
+		marshaller.setParsedContentCacheSize(0);
+		marshaller.afterPropertiesSet();
+	}
+	
+	private ContentMap createMap() {
+		Content owner = new Content();
+		owner.setMarshaller(marshaller);
+		ContentMap map = new ContentMapImpl(owner);
+		map.put("text", "Hello world");
+		map.put("blank", "   ");
+		map.put("empty", "");
+		map.put("none", null);
+		List<String> list = new ArrayList<String>();
+		list.add("a");
+		list.add(null);
+		list.add(" ");
+		map.put("list", list);
+		return map;
+	}
+	
+	private Content createSavedContent() {
+		Content content = new Content();
+		content.setId(1L);
+		return content;
+	}
+	
+	private ContentMap unmarshal(String xml, boolean resolveReferences) {
+		Content owner = new Content();
+		owner.setMarshaller(marshaller);
+		return marshaller.unmarshal(owner, xml, resolveReferences);
+	}
+	
+	/**
+	 * The TreeUnmarshaller used for XML without references must produce the
+	 * same result as the XPath-tracking unmarshaller.
+	 */
+	@Test
+	public void testTreeUnmarshallerMatchesXPathUnmarshaller() {
+		ContentMap map = createMap();
+		String xml = marshaller.marshal(map);
+		Assert.assertEquals(-1, xml.indexOf("reference="));
+		
+		ContentMap tree = unmarshal(xml, false);
+		ContentMap xpath = unmarshal(xml, true);
+		Assert.assertEquals(new HashMap<String, Object>(map), 
+				new HashMap<String, Object>(tree));
+		
+		Assert.assertEquals(new HashMap<String, Object>(xpath), 
+				new HashMap<String, Object>(tree));
+		
+		Assert.assertTrue(tree.containsKey("none"));
+		Assert.assertNull(tree.get("none"));
+		Assert.assertEquals("   ", tree.get("blank"));
+	}
+	
+	/**
+	 * XML produced by the DomDriver must be read by the default XppDriver 
+	 * exactly like it is read by the DomDriver itself.
+	 */
+	@Test
+	public void testXppReaderMatchesDomReader() throws Exception {
+		ContentMap map = createMap();
+		map.put("same", map.get("list"));
+		map.put("markup", "<p>Caf\u00e9 &amp; \"Bar\"</p>");
+		String xml = marshaller.marshal(map);
+		
+		XStreamMarshaller domMarshaller = new XStreamMarshaller();
+		domMarshaller.setParsedContentCacheSize(0);
+		domMarshaller.setReaderDriver(new DomDriver("UTF-8"));
+		domMarshaller.afterPropertiesSet();
+		
+		ContentMap xpp = marshaller.unmarshal(new Content(), xml);
+		ContentMap dom = domMarshaller.unmarshal(new Content(), xml);
+		Assert.assertEquals(new HashMap<String, Object>(map), 
+				new HashMap<String, Object>(xpp));
+		
+		Assert.assertEquals(new HashMap<String, Object>(dom), 
+				new HashMap<String, Object>(xpp));
+		
+		Assert.assertSame(xpp.get("list"), xpp.get("same"));
+	}
+	
+	@Test
+	public void testReferences() {
+		ContentMap map = createMap();
+		map.put("same", map.get("list"));
+		String xml = marshaller.marshal(map);
+		Assert.assertTrue(xml.indexOf("reference=") != -1);
+		
+		ContentMap result = marshaller.unmarshal(new Content(), xml);
+		Assert.assertSame(result.get("list"), result.get("same"));
+		Assert.assertEquals(new HashMap<String, Object>(map), 
+				new HashMap<String, Object>(result));
+	}
+	
+	@Test
+	public void testParsedContentCache() throws Exception {
+		marshaller.setParsedContentCacheSize(10);
+		marshaller.afterPropertiesSet();
+		
+		ContentMap map = createMap();
+		String xml = marshaller.marshal(map);
+		Map<String, Object> first = new HashMap<String, Object>(
+				marshaller.unmarshal(createSavedContent(), xml));
+		
+		Map<String, Object> second = new HashMap<String, Object>(
+				marshaller.unmarshal(createSavedContent(), xml));
+		
+		Assert.assertEquals(new HashMap<String, Object>(map), first);
+		Assert.assertEquals(first, second);
+		Assert.assertEquals(1, marshaller.getParsedContentCache().getHits());
+		Assert.assertEquals(0.5, marshaller.getParsedContentCache().getHitRatio(), 0.001);
+	}
+}
@@ -0,0 +1,242 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.pages.mapping;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.riotfamily.pages.mapping.PageRoutingTable.AliasChange;
+import org.riotfamily.pages.mapping.PageRoutingTable.Invalidation;
+import org.riotfamily.pages.mapping.PageRoutingTable.PageChange;
+import org.riotfamily.pages.mapping.PageRoutingTable.Table;
+import org.riotfamily.pages.model.Site;
+
+public class PageRoutingTableTest {
+
+	private static Site createSite(long id) {
+		Site site = new Site();
+		site.setId(id);
+		return site;
+	}
+	
+	private static Table createTable() {
+		Table table = new Table();
+		table.addSite(1L, "www.example.com", Collections.singleton("example.com"));
+		table.addSite(2L, null, null);
+		table.addSite(3L, "www.example.com", null);
+		table.putPage(1L, 10L, "/", "root");
+		table.putPage(1L, 11L, "/news", "news");
+		table.putPage(1L, 12L, "/news/2010", "archive");
+		table.putPage(1L, 13L, "/news/2010/hello", "article");
+		table.putPage(2L, 20L, "/news", "news");
+		table.putPage(4L, 40L, "/orphan", "page");
+		table.putAlias(1L, "/old-news", 11L);
+		return table;
+	}
+	
+	@Test
+	public void testSiteLookup() {
+		TestRoutingTable routes = new TestRoutingTable(createTable());
+		Assert.assertEquals(Long.valueOf(1), routes.getSiteId("www.example.com"));
+		Assert.assertEquals(Long.valueOf(1), routes.getSiteId("example.com"));
+		Assert.assertEquals(Long.valueOf(2), routes.getSiteId("www.example.org"));
+		Assert.assertEquals(Long.valueOf(2), routes.getSiteId(null));
+		Assert.assertEquals(1, routes.loads.get());
+	}
+	
+	@Test
+	public void testPathLookup() {
+		TestRoutingTable routes = new TestRoutingTable(createTable());
+		Site site = createSite(1);
+		Assert.assertEquals(Long.valueOf(10), routes.getPageId(site, "/"));
+		Assert.assertEquals(Long.valueOf(11), routes.getPageId(site, "/news"));
+		Assert.assertEquals(Long.valueOf(11), routes.getPageId(site, "/news/"));
+		Assert.assertEquals(Long.valueOf(13), routes.getPageId(site, "/news/2010/hello"));
+		Assert.assertNull(routes.getPageId(site, "/news/2011"));
+		Assert.assertNull(routes.getPageId(site, "/orphan"));
+		Assert.assertEquals(Long.valueOf(20), routes.getPageId(createSite(2), "/news"));
+		Assert.assertNull(routes.getPageId(createSite(4), "/orphan"));
+		
+		Assert.assertTrue(routes.hasAlias(site, "/old-news"));
+		Assert.assertEquals(Long.valueOf(11), routes.getAliasedPageId(site, "/old-news"));
+		Assert.assertNull(routes.getPageId(site, "/old-news"));
+		Assert.assertFalse(routes.hasAlias(site, "/news"));
+		Assert.assertNull(routes.getAliasedPageId(site, "/news"));
+	}
+	
+	@Test
+	public void testVirtualParentLookup() {
+		TestRoutingTable routes = new TestRoutingTable(createTable());
+		Site site = createSite(1);
+		Assert.assertEquals(Long.valueOf(11), routes.getVirtualParentId(
+				site, "/news/2010/hello/world", Collections.singleton("news")));
+		
+		Assert.assertEquals(Long.valueOf(12), routes.getVirtualParentId(
+				site, "/news/2010/hello/world", Arrays.asList("news", "archive")));
+		
+		Assert.assertEquals(Long.valueOf(10), routes.getVirtualParentId(
+				site, "/unknown/path", Arrays.asList("news", "root")));
+		
+		Assert.assertNull(routes.getVirtualParentId(
+				site, "/unknown/path", Collections.singleton("news")));
+		
+		Assert.assertNull(routes.getVirtualParentId(
+				site, "/news/2010", Collections.<String>emptySet()));
+		
+		Assert.assertNull(routes.getVirtualParentId(
+				createSite(4), "/orphan/x", Collections.singleton("page")));
+	}
+	
+	@Test
+	public void testChangeApplication() {
+		TestRoutingTable routes = new TestRoutingTable(createTable());
+		Site site = createSite(1);
+		routes.getTable();
+		
+		// Page moved
+		routes.afterCommit(new PageChange(1L, 11L, "/press", "news"));
+		Assert.assertNull(routes.getPageId(site, "/news"));
+		Assert.assertEquals(Long.valueOf(11), routes.getPageId(site, "/press"));
+		Assert.assertEquals(Long.valueOf(12), routes.getPageId(site, "/news/2010"));
+		Assert.assertEquals(Long.valueOf(11), routes.getVirtualParentId(
+				site, "/press/x", Collections.singleton("news")));
+		
+		Assert.assertNull(routes.getVirtualParentId(
+				site, "/news/x", Collections.singleton("news")));
+		
+		// Alias created for the old path
+		routes.afterCommit(new AliasChange(1L, "/news", false, 11L));
+		Assert.assertTrue(routes.hasAlias(site, "/news"));
+		Assert.assertEquals(Long.valueOf(11), routes.getAliasedPageId(site, "/news"));
+		
+		// Page created at the aliased path
+		routes.afterCommit(new PageChange(1L, 14L, "/news", "news"));
+		Assert.assertEquals(Long.valueOf(14), routes.getPageId(site, "/news"));
+		Assert.assertFalse(routes.hasAlias(site, "/news"));
+		
+		// Page deleted
+		routes.afterCommit(new PageChange(1L, 13L, null, null));
+		Assert.assertNull(routes.getPageId(site, "/news/2010/hello"));
+		
+		// Alias deleted
+		routes.afterCommit(new AliasChange(1L, "/old-news", true, null));
+		Assert.assertFalse(routes.hasAlias(site, "/old-news"));
+		
+		Assert.assertEquals(1, routes.loads.get());
+	}
+	
+	@Test
+	public void testUnknownSiteCausesRebuild() throws Exception {
+		TestRoutingTable routes = new TestRoutingTable(createTable());
+		routes.getTable();
+		routes.afterCommit(new PageChange(4L, 41L, "/page", "page"));
+		
+		Table rebuilt = createTable();
+		rebuilt.addSite(4L, null, null);
+		rebuilt.putPage(4L, 41L, "/page", "page");
+		routes.next = rebuilt;
+		routes.awaitTable(rebuilt);
+		Assert.assertEquals(Long.valueOf(41), routes.getPageId(createSite(4), "/page"));
+		Assert.assertEquals(2, routes.loads.get());
+	}
+	
+	@Test
+	public void testRebuildInBackground() throws Exception {
+		Table initial = createTable();
+		TestRoutingTable routes = new TestRoutingTable(initial);
+		Site site = createSite(1);
+		Assert.assertSame(initial, routes.getTable());
+		
+		Table rebuilt = createTable();
+		routes.next = rebuilt;
+		routes.loadStarted = new CountDownLatch(1);
+		routes.blockLoad = new CountDownLatch(1);
+		routes.afterCommit(new Invalidation());
+		
+		// The stale table is served while the rebuild is blocked
+		Assert.assertSame(initial, routes.getTable());
+		Assert.assertTrue(routes.loadStarted.await(5, TimeUnit.SECONDS));
+		Assert.assertSame(initial, routes.getTable());
+		Assert.assertSame(initial, routes.getTable());
+		
+		// Changes committed during the rebuild are replayed on the new table
+		routes.afterCommit(new PageChange(1L, 15L, "/events", "page"));
+		Assert.assertEquals(Long.valueOf(15), routes.getPageId(site, "/events"));
+		
+		routes.blockLoad.countDown();
+		routes.awaitTable(rebuilt);
+		Assert.assertEquals(Long.valueOf(15), routes.getPageId(site, "/events"));
+		Assert.assertEquals(2, routes.loads.get());
+	}
+	
+	@Test
+	public void testRemoteInvalidation() throws Exception {
+		TestRoutingTable routes = new TestRoutingTable(createTable());
+		routes.getTable();
+		routes.invalidated(Collections.singleton("something-else"));
+		routes.getTable();
+		Assert.assertEquals(1, routes.loads.get());
+		
+		Table rebuilt = createTable();
+		routes.next = rebuilt;
+		routes.invalidated(Collections.singleton(PageRoutingTable.INVALIDATION_TAG));
+		routes.awaitTable(rebuilt);
+		Assert.assertEquals(2, routes.loads.get());
+	}
+	
+	private static class TestRoutingTable extends PageRoutingTable {
+
+		private volatile Table next;
+		
+		private volatile CountDownLatch loadStarted;
+		
+		private volatile CountDownLatch blockLoad;
+		
+		private AtomicInteger loads = new AtomicInteger();
+		
+		public TestRoutingTable(Table table) {
+			super(null, null);
+			this.next = table;
+			setMaxAge(0);
+		}
+		
+		@Override
+		Table loadTable() {
+			loads.incrementAndGet();
+			if (loadStarted != null) {
+				loadStarted.countDown();
+			}
+			if (blockLoad != null) {
+				try {
+					blockLoad.await();
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			return next;
+		}
+		
+		public void awaitTable(Table table) throws InterruptedException {
+			for (int i = 0; i < 500 && getTable() != table; i++) {
+				Thread.sleep(10);
+			}
+			Assert.assertSame(table, getTable());
+		}
+	}
+}
@@ -0,0 +1,33 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.core.dao;
+
+import java.util.List;
+
+/**
+ * Interface that can be implemented by {@link Tree} DAOs which are able to
+ * count the children of several nodes at once. Lists use this method instead
+ * of invoking {@link #hasChildren(Object, Object, ListParams) hasChildren()}
+ * for every single node.
+ */
+public interface BatchTree extends Tree {
+
+	/**
+	 * Returns the number of children of each of the given nodes. The 
+	 * returned array has the same length and order as the list of nodes.
+	 * The <code>parent</code> argument has the same meaning as in 
+	 * {@link #hasChildren(Object, Object, ListParams)}.
+	 */
+	public int[] countChildren(List<?> nodes, Object parent, ListParams params);
+	
+}
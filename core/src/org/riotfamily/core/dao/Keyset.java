@@ -0,0 +1,55 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.core.dao;
+
+import java.io.Serializable;
+
+/**
+ * Position within a sorted list, described by the sort key values of an 
+ * item. Allows {@link Seekable} DAOs to page through a list without 
+ * skipping <code>offset</code> rows.
+ * @see ListParams#getKeyset()
+ */
+public class Keyset implements Serializable {
+
+	private Object[] values;
+	
+	private boolean backward;
+	
+	private boolean inclusive;
+	
+	/**
+	 * @param values The key values as returned by 
+	 * 		{@link Seekable#getKeyValues(Object, ListParams)}
+	 * @param backward Whether the page <em>ends</em> before the given key
+	 * @param inclusive Whether the item with the given key should be included
+	 */
+	public Keyset(Object[] values, boolean backward, boolean inclusive) {
+		this.values = values;
+		this.backward = backward;
+		this.inclusive = inclusive;
+	}
+
+	public Object[] getValues() {
+		return values;
+	}
+
+	public boolean isBackward() {
+		return backward;
+	}
+
+	public boolean isInclusive() {
+		return inclusive;
+	}
+	
+}
@@ -58,5 +58,12 @@ public interface ListParams {
 	 * displayed.
 	 */
 	public int getOffset();
+	
+	/**
+	 * Returns the position of the page within the list, or <code>null</code>
+	 * if the position is unknown. DAOs that implement the {@link Seekable} 
+	 * interface may use this information instead of the offset.
+	 */
+	public Keyset getKeyset();
 
 }
\ No newline at end of file
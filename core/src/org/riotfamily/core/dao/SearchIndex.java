@@ -0,0 +1,34 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.core.dao;
+
+import java.util.Collection;
+
+/**
+ * Index that resolves full-text searches to entity identifiers, so that 
+ * {@link Searchable} DAOs don't have to scan the whole table.
+ */
+public interface SearchIndex {
+
+	/**
+	 * Returns the identifiers of all entities of the given class (including 
+	 * subclasses) that match the search string in at least one of the given
+	 * properties. Returns <code>null</code> if the search can't be answered
+	 * by the index, for example because the index is not yet built or the 
+	 * result is too large. Callers must then fall back to a conventional
+	 * search.
+	 */
+	public Collection<?> search(Class<?> entityClass, String[] properties, 
+			String search);
+
+}
@@ -0,0 +1,29 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.core.dao;
+
+/**
+ * Interface that can be implemented by DAOs that are able to seek to a
+ * {@link Keyset} instead of skipping a number of items. 
+ */
+public interface Seekable extends RiotDao {
+
+	/**
+	 * Returns the sort key values of the given item, i.e. the values of all 
+	 * properties the list is ordered by, followed by the item's id. Returns 
+	 * <code>null</code> if the list can't be paged using a keyset, for 
+	 * example because it's ordered by a nullable property.
+	 */
+	public Object[] getKeyValues(Object item, ListParams params);
+	
+}
@@ -12,16 +12,30 @@
  */
 package org.riotfamily.core.dao.hibernate;
 
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
 
+import org.hibernate.EntityMode;
+import org.hibernate.Hibernate;
 import org.hibernate.Query;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
 import org.hibernate.SessionFactory;
+import org.hibernate.metadata.ClassMetadata;
+import org.riotfamily.common.beans.property.PropertyUtils;
 import org.riotfamily.common.hibernate.HibernateUtils;
+import org.riotfamily.common.util.Generics;
+import org.riotfamily.core.dao.Keyset;
 import org.riotfamily.core.dao.ListParams;
 import org.riotfamily.core.dao.Order;
+import org.riotfamily.core.dao.SearchIndex;
 import org.riotfamily.core.dao.Searchable;
+import org.riotfamily.core.dao.Seekable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.util.StringUtils;
@@ -30,12 +44,23 @@ import org.springframework.util.StringUtils;
  * RiotDao implementation based on Hibernate.
  */
 public abstract class AbstractHqlDao extends AbstractHibernateRiotDao 
-		implements Searchable {
+		implements Searchable, Seekable {
 
+	private static final int MAX_CACHED_COUNTS = 1000;
+	
 	private Logger log = LoggerFactory.getLogger(AbstractHqlDao.class);
 
 	private String[] searchableProperties;
 	
+	private SearchIndex searchIndex;
+	
+	private boolean keysetPagination;
+	
+	private long countCacheMaxAge;
+	
+	private Map<String, CachedCount> countCache = 
+			new ConcurrentHashMap<String, CachedCount>();
+	
     public AbstractHqlDao(SessionFactory sessionFactory) {
 		super(sessionFactory);
 	}
@@ -63,10 +88,45 @@ public abstract class AbstractHqlDao extends AbstractHibernateRiotDao
 		return searchableProperties;
 	}
 
+	/**
+	 * Sets a {@link SearchIndex} that is used to resolve search strings to
+	 * a set of ids. If the index is unable to answer a search, the DAO falls 
+	 * back to matching the {@link #setSearch(String) searchable properties} 
+	 * using <code>LIKE</code> expressions.
+	 */
+	public void setSearchIndex(SearchIndex searchIndex) {
+		this.searchIndex = searchIndex;
+	}
+
 	protected String getWhere() {
     	return null;
     }
     
+    /**
+     * Sets whether pages adjacent to the previously displayed page should be
+     * loaded by seeking to the sort key of its first or last item, rather 
+     * than by skipping <code>offset</code> rows. This keeps the navigation
+     * fast on large tables, given that the sort properties are indexed.
+     * Keysets are only used if the list is ordered by non-nullable 
+     * properties of the entity itself. The entity's id is always appended 
+     * to the order clause. Default is <code>false</code>.
+     */
+    public void setKeysetPagination(boolean keysetPagination) {
+		this.keysetPagination = keysetPagination;
+	}
+    
+    /**
+     * Sets the number of milliseconds the result of 
+     * {@link #getListSize(Object, ListParams)} may be cached. Changes made
+     * via this DAO clear the cache, but changes made elsewhere won't be 
+     * reflected until the cached count expires. Counts are only cached for
+     * lists without a filter or with a Map-based filter. Default is 
+     * <code>0</code>, which disables the cache.
+     */
+    public void setCountCacheMaxAge(long countCacheMaxAge) {
+		this.countCacheMaxAge = countCacheMaxAge;
+	}
+    
     protected boolean isPrefixSearch() {
     	return true;
     }
@@ -80,27 +140,190 @@ public abstract class AbstractHqlDao extends AbstractHibernateRiotDao
      */
 	@Override
     protected List<?> listInternal(Object parent, ListParams params) {
-    	Query query = getSession().createQuery(buildHql(parent, params));
+    	params = resolveSearch(params);
+    	boolean seekable = isSeekable(params);
+    	Keyset keyset = null;
+    	if (seekable && params.getPageSize() > 0) {
+    		keyset = params.getKeyset();
+    	}
+    	Query query = getSession().createQuery(
+    			buildHql(parent, params, seekable, keyset));
+    	
     	setQueryParameters(query, parent, params);
+    	if (keyset != null) {
+    		setKeysetParameters(query, keyset);
+    	}
         if (params.getPageSize() > 0) {
-            query.setFirstResult(params.getOffset());
+        	if (keyset == null) {
+        		query.setFirstResult(params.getOffset());
+        	}
             query.setMaxResults(params.getPageSize());
         }
-        return query.list();
+        List<?> result = query.list();
+        if (keyset != null && keyset.isBackward()) {
+        	result = Generics.newArrayList(result);
+        	Collections.reverse(result);
+        }
+        return result;
     }
 
     /**
-     * Returns the total number of items.
+     * Returns an iterator over all items of the list, ignoring the page size.
+     * The items are read from a forward-only cursor, so that a single query 
+     * is issued and no rows are skipped or repeated, as it might happen when
+     * a large list is loaded page by page. As the iterator is meant for 
+     * processing large lists, the session is cleared after every 
+     * <code>batchSize</code> items. Callers must therefore not rely on 
+     * other entities of the current session being attached.
+     */
+    public Iterator<?> iterate(Object parent, ListParams params, int batchSize) {
+    	params = resolveSearch(params);
+    	Query query = getSession().createQuery(buildHql(parent, params));
+    	return scroll(query, parent, params, batchSize);
+    }
+    
+    protected Iterator<?> scroll(Query query, Object parent, ListParams params, 
+    		int batchSize) {
+    	
+    	setQueryParameters(query, parent, params);
+    	ScrollableResults results = query.setReadOnly(true)
+    			.setFetchSize(batchSize)
+    			.scroll(ScrollMode.FORWARD_ONLY);
+    	
+    	return new ScrollIterator(results, batchSize);
+    }
+    
+    /**
+     * Returns the total number of items. If a 
+     * {@link #setCountCacheMaxAge(long) countCacheMaxAge} is set, the 
+     * result may be served from a cache.
      */
     @Override
 	public int getListSize(Object parent, ListParams params) {
-        Query query = getSession().createQuery(buildCountHql(parent, params));
+    	params = resolveSearch(params);
+    	String hql = buildCountHql(parent, params);
+    	String cacheKey = getCountCacheKey(hql, parent, params);
+    	if (cacheKey != null) {
+    		CachedCount cached = countCache.get(cacheKey);
+    		if (cached != null && !cached.isExpired(countCacheMaxAge)) {
+    			return cached.count;
+    		}
+    	}
+        Query query = getSession().createQuery(hql);
         setQueryParameters(query, parent, params);
         Number size = (Number) query.uniqueResult();
-        if (size == null) {
-        	return 0;
+        int count = size != null ? size.intValue() : 0;
+        if (cacheKey != null) {
+        	if (countCache.size() >= MAX_CACHED_COUNTS) {
+        		countCache.clear();
+        	}
+        	countCache.put(cacheKey, new CachedCount(count));
         }
-        return size.intValue();
+        return count;
+    }
+    
+    private String getCountCacheKey(String hql, Object parent, 
+    		ListParams params) {
+    	
+    	if (countCacheMaxAge <= 0 || (params.getFilter() != null 
+    			&& !(params.getFilter() instanceof Map<?, ?>))) {
+    		
+    		return null;
+    	}
+    	StringBuilder key = new StringBuilder(hql);
+    	if (parent != null) {
+    		ClassMetadata meta = getSessionFactory().getClassMetadata(
+    				Hibernate.getClass(parent));
+    		
+    		if (meta == null) {
+    			return null;
+    		}
+    		key.append('|').append(meta.getIdentifier(parent, EntityMode.POJO));
+    	}
+    	key.append('|').append(params.getSearch());
+    	key.append('|').append(params.getFilter());
+    	return key.toString();
+    }
+    
+    @Override
+    public void save(Object entity, Object parent) {
+    	super.save(entity, parent);
+    	countCache.clear();
+    }
+    
+    @Override
+    public Object update(Object entity) {
+    	Object result = super.update(entity);
+    	countCache.clear();
+    	return result;
+    }
+    
+    @Override
+    public void delete(Object entity, Object parent) {
+    	super.delete(entity, parent);
+    	countCache.clear();
+    }
+    
+    /**
+     * Returns whether the list can be paged using a {@link Keyset}. This is
+     * the case if {@link #setKeysetPagination(boolean) keysetPagination} is
+     * enabled, the query selects the entity itself, and all order 
+     * properties are non-nullable properties of the entity.
+     */
+    protected boolean isSeekable(ListParams params) {
+    	if (!keysetPagination || !"this".equals(getSelect())) {
+    		return false;
+    	}
+    	if (params.hasOrder()) {
+    		ClassMetadata meta = getSessionFactory().getClassMetadata(getEntityClass());
+    		if (meta == null) {
+    			return false;
+    		}
+    		List<String> names = Generics.newArrayList();
+    		Collections.addAll(names, meta.getPropertyNames());
+    		for (Order order : params.getOrder()) {
+    			int i = names.indexOf(order.getProperty());
+    			if (i == -1 || meta.getPropertyNullability()[i]) {
+    				return false;
+    			}
+    		}
+    	}
+    	return true;
+    }
+    
+    public Object[] getKeyValues(Object item, ListParams params) {
+    	if (!isSeekable(params)) {
+    		return null;
+    	}
+    	List<Order> orders = getKeysetOrder(params);
+    	Object[] values = new Object[orders.size() + 1];
+    	for (int i = 0; i < orders.size(); i++) {
+    		Order order = orders.get(i);
+    		Object value = PropertyUtils.getProperty(item, order.getProperty());
+    		if (value == null) {
+    			return null;
+    		}
+    		if (order.isIgnoreCase() && value instanceof String) {
+    			value = ((String) value).toLowerCase();
+    		}
+    		values[i] = value;
+    	}
+    	values[orders.size()] = HibernateUtils.getId(getSessionFactory(), item);
+    	return values;
+    }
+    
+    private List<Order> getKeysetOrder(ListParams params) {
+    	if (params.hasOrder()) {
+    		return params.getOrder();
+    	}
+    	return Collections.emptyList();
+    }
+    
+    private void setKeysetParameters(Query query, Keyset keyset) {
+    	Object[] values = keyset.getValues();
+    	for (int i = 0; i < values.length; i++) {
+    		query.setParameter("keyset" + i, values[i]);
+    	}
     }
 
     protected void setQueryParameters(Query query, Object parent,
@@ -109,7 +332,13 @@ public abstract class AbstractHqlDao extends AbstractHibernateRiotDao
     	if (params.getFilter() != null) {
     		setFilterParameters(query, params);
         }
-    	if (params.getSearch() != null) {
+    	if (params instanceof IndexedSearchParams) {
+    		Collection<?> ids = ((IndexedSearchParams) params).getIds();
+    		if (!ids.isEmpty()) {
+    			query.setParameterList("searchIds", ids);
+    		}
+    	}
+    	else if (params.getSearch() != null) {
     		String search = params.getSearch().toLowerCase();
     		if (isPrefixSearch()) {
     			search += '%';
@@ -140,12 +369,32 @@ public abstract class AbstractHqlDao extends AbstractHibernateRiotDao
      * Builds a HQL query string to retrieve a list of items.
      */
     protected final String buildHql(Object parent, ListParams params) {
+    	return buildHql(parent, params, false, null);
+    }
+    
+    private String buildHql(Object parent, ListParams params, 
+    		boolean seekable, Keyset keyset) {
+    	
     	StringBuilder hql = new StringBuilder();
     	hql.append("select ");
     	hql.append(getSelect());
     	appendFromClause(hql, params);
-    	HqlUtils.appendHql(hql, "where", getWhereClause(parent, params));
-    	HqlUtils.appendHql(hql, "order by", getOrderBy(params));
+    	StringBuilder where = new StringBuilder();
+    	HqlUtils.appendHql(where, null, getWhereClause(parent, params));
+    	if (keyset != null) {
+    		HqlUtils.appendHql(where, "and", HqlUtils.getKeysetWhereClause(
+    				"this", getKeysetOrder(params), keyset.isBackward(), 
+    				keyset.isInclusive()));
+    	}
+    	HqlUtils.appendHql(hql, "where", where.toString());
+    	if (seekable) {
+    		HqlUtils.appendHql(hql, "order by", HqlUtils.getKeysetOrderBy(
+    				"this", getKeysetOrder(params), 
+    				keyset != null && keyset.isBackward()));
+    	}
+    	else {
+    		HqlUtils.appendHql(hql, "order by", getOrderBy(params));
+    	}
     	log.debug(hql.toString());
         return hql.toString();
     }
@@ -199,7 +448,36 @@ public abstract class AbstractHqlDao extends AbstractHibernateRiotDao
 				params.getFilter());
     }
     
+    /**
+     * Asks the {@link #setSearchIndex(SearchIndex) searchIndex} for the ids
+     * of the matching entities. If the index can answer the search, the 
+     * given params are wrapped, so that {@link #getSearchWhereClause(ListParams)}
+     * and {@link #setQueryParameters(Query, Object, ListParams)} restrict 
+     * the query to these ids.
+     */
+    private ListParams resolveSearch(ListParams params) {
+    	if (searchIndex == null || params.getSearch() == null
+    			|| searchableProperties == null 
+    			|| searchableProperties.length == 0) {
+    		
+    		return params;
+    	}
+    	Collection<?> ids = searchIndex.search(getEntityClass(), 
+    			searchableProperties, params.getSearch());
+    	
+    	if (ids == null) {
+    		return params;
+    	}
+    	return new IndexedSearchParams(params, ids);
+    }
+    
     protected final String getSearchWhereClause(ListParams params) {
+    	if (params instanceof IndexedSearchParams) {
+    		if (((IndexedSearchParams) params).getIds().isEmpty()) {
+    			return "(1 = 0)";
+    		}
+    		return "(this.id in (:searchIds))";
+    	}
     	return HqlUtils.getSearchWhereClause(getEntityClass().getName(), "this", "search", getSearchableProperties());
     }
     
@@ -227,4 +505,119 @@ public abstract class AbstractHqlDao extends AbstractHibernateRiotDao
         return sb.toString();
     }
 
-}
\ No newline at end of file
+    private static class CachedCount {
+    	
+    	private int count;
+    	
+    	private long timestamp = System.currentTimeMillis();
+    	
+    	public CachedCount(int count) {
+			this.count = count;
+		}
+    	
+    	public boolean isExpired(long maxAge) {
+    		return System.currentTimeMillis() - timestamp > maxAge;
+    	}
+    }
+
+    /**
+     * ListParams decorator that carries the ids resolved by the 
+     * {@link SearchIndex}.
+     */
+    private static class IndexedSearchParams implements ListParams {
+    	
+    	private ListParams params;
+    	
+    	private Collection<?> ids;
+    	
+		public IndexedSearchParams(ListParams params, Collection<?> ids) {
+			this.params = params;
+			this.ids = ids;
+		}
+		
+		public Collection<?> getIds() {
+			return ids;
+		}
+
+		public Object getFilter() {
+			return params.getFilter();
+		}
+
+		public String[] getFilteredProperties() {
+			return params.getFilteredProperties();
+		}
+
+		public String getSearch() {
+			return params.getSearch();
+		}
+
+		public boolean hasOrder() {
+			return params.hasOrder();
+		}
+
+		public List<Order> getOrder() {
+			return params.getOrder();
+		}
+
+		public int getPageSize() {
+			return params.getPageSize();
+		}
+
+		public int getOffset() {
+			return params.getOffset();
+		}
+
+		public Keyset getKeyset() {
+			return params.getKeyset();
+		}
+    }
+
+    
+    /**
+     * Iterator over the first column of a ScrollableResults instance that 
+     * clears the session after each batch and closes the results once the 
+     * last row has been read.
+     */
+    private class ScrollIterator implements Iterator<Object> {
+    	
+    	private ScrollableResults results;
+    	
+    	private int batchSize;
+    	
+    	private int count;
+    	
+    	private Boolean hasNext;
+
+		public ScrollIterator(ScrollableResults results, int batchSize) {
+			this.results = results;
+			this.batchSize = batchSize;
+		}
+
+		public boolean hasNext() {
+			if (hasNext == null) {
+				if (count > 0 && batchSize > 0 && count % batchSize == 0) {
+					getSession().clear();
+				}
+				hasNext = Boolean.valueOf(results.next());
+				if (!hasNext.booleanValue()) {
+					results.close();
+				}
+			}
+			return hasNext.booleanValue();
+		}
+
+		public Object next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			hasNext = null;
+			count++;
+			return results.get(0);
+		}
+
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+    }
+    
+}
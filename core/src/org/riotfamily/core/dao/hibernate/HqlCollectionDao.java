@@ -14,6 +14,7 @@ package org.riotfamily.core.dao.hibernate;
 
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 
 import org.hibernate.Query;
@@ -168,6 +169,16 @@ public class HqlCollectionDao extends AbstractHqlDao implements
 		return Collections.emptyList();
 	}
 
+	@Override
+	public Iterator<?> iterate(Object parent, ListParams params, int batchSize) {
+		Collection<?> c = getCollection(parent);
+		if (c != null) {
+			Query query = getSession().createFilter(c, buildHql(parent, params));
+			return scroll(query, parent, params, batchSize);
+		}
+		return Collections.emptyList().iterator();
+	}
+
 	@Override
 	public int getListSize(Object parent, ListParams params) {
 		Collection<?> c = getCollection(parent);
@@ -125,6 +125,15 @@ public class HqlDao extends AbstractHqlDao implements Swapping {
     	}
     }
 
+	/**
+	 * Returns <code>false</code> if a positionProperty is set, as the list
+	 * is then always ordered by this property.
+	 */
+	@Override
+	protected boolean isSeekable(ListParams params) {
+		return positionProperty == null && super.isSeekable(params);
+	}
+	
 	@Override
 	protected String getOrderBy(ListParams params) {
         if (positionProperty != null) {
@@ -52,6 +52,14 @@ public class HqlIndexedListDao extends HqlCollectionDao
 		return indexColumn;
 	}
 	
+	/**
+	 * Always returns false, as the list must always be sorted by the index.
+	 */
+	@Override
+	protected boolean isSeekable(ListParams params) {
+		return false;
+	}
+	
 	public boolean canSwap(Object entity, Object parent,
 			ListParams params, int swapWith) {
 		
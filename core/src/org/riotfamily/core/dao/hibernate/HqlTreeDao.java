@@ -23,6 +23,9 @@
  * ***** END LICENSE BLOCK ***** */
 package org.riotfamily.core.dao.hibernate;
 
+import java.io.Serializable;
+import java.util.List;
+import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -30,15 +33,16 @@ import org.hibernate.Query;
 import org.hibernate.SessionFactory;
 import org.riotfamily.common.beans.property.PropertyUtils;
 import org.riotfamily.common.hibernate.HibernateUtils;
+import org.riotfamily.common.util.Generics;
+import org.riotfamily.core.dao.BatchTree;
 import org.riotfamily.core.dao.ListParams;
-import org.riotfamily.core.dao.Tree;
 
 
 
 /**
  * HqlTreeDao implementation based on Hibernate.
  */
-public class HqlTreeDao extends HqlDao implements Tree {
+public class HqlTreeDao extends HqlDao implements BatchTree {
 
     private String parentProperty;
     
@@ -123,5 +127,53 @@ public class HqlTreeDao extends HqlDao implements Tree {
 	public boolean hasChildren(Object node, Object parent, ListParams params) {
 		return this.getListSize(node, params) > 0 ? true : false;
 	}
+	
+	/**
+	 * Counts the children of all nodes with a single grouped query. Falls 
+	 * back to {@link #getListSize(Object, ListParams)} for each node if
+	 * the parent property is not mapped, or if the where clause refers
+	 * to the <code>:parent</code> parameter.
+	 */
+	public int[] countChildren(List<?> nodes, Object parent, ListParams params) {
+		int[] counts = new int[nodes.size()];
+		if (nodes.isEmpty()) {
+			return counts;
+		}
+		String where = super.getWhereClause(null, params);
+		if (!parentPropertyMapped || where.contains(":parent")) {
+			for (int i = 0; i < counts.length; i++) {
+				counts[i] = getListSize(nodes.get(i), params);
+			}
+			return counts;
+		}
+		Query query = getSession().createQuery(buildChildCountHql(where, params));
+		super.setQueryParameters(query, null, params);
+		query.setParameterList("nodes", nodes);
+		Map<Serializable, Integer> countsById = Generics.newHashMap();
+		for (Object row : query.list()) {
+			Object[] values = (Object[]) row;
+			countsById.put((Serializable) values[0], 
+					((Number) values[1]).intValue());
+		}
+		for (int i = 0; i < counts.length; i++) {
+			Integer count = countsById.get(HibernateUtils.getId(
+					getSessionFactory(), nodes.get(i)));
+			
+			counts[i] = count != null ? count.intValue() : 0;
+		}
+		return counts;
+	}
+	
+	private String buildChildCountHql(String where, ListParams params) {
+		StringBuilder hql = new StringBuilder();
+		hql.append("select this.").append(parentProperty).append(".id, count(")
+				.append(getSelect()).append(')');
+		
+		appendFromClause(hql, params);
+		hql.append(" where this.").append(parentProperty).append(" in (:nodes)");
+		HqlUtils.appendHql(hql, "and", where);
+		hql.append(" group by this.").append(parentProperty).append(".id");
+		return hql.toString();
+	}
 
 }
\ No newline at end of file
@@ -15,10 +15,12 @@ package org.riotfamily.core.dao.hibernate;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 
 import org.hibernate.Query;
 import org.riotfamily.common.beans.property.PropertyUtils;
+import org.riotfamily.core.dao.Order;
 import org.springframework.util.StringUtils;
 
 public class HqlUtils {
@@ -193,4 +195,77 @@ public class HqlUtils {
 		hql.append(')');		
 		return hql.toString();
 	}
+	
+	private static String getKeysetExpression(String alias, Order order) {
+		if (order.isIgnoreCase()) {
+			return "lower(" + alias + "." + order.getProperty() + ")";
+		}
+		return alias + "." + order.getProperty();
+	}
+	
+	/**
+	 * Returns an order clause for keyset pagination. The id is appended in 
+	 * order to get a total ordering. If <code>backward</code> is 
+	 * <code>true</code>, all directions are inverted.
+	 */
+	public static String getKeysetOrderBy(String alias, List<Order> orders, 
+			boolean backward) {
+		
+		StringBuilder hql = new StringBuilder();
+		for (Order order : orders) {
+			hql.append(getKeysetExpression(alias, order));
+			hql.append(order.isAscending() != backward ? " asc, " : " desc, ");
+		}
+		hql.append(alias).append(".id").append(backward ? " desc" : " asc");
+		return hql.toString();
+	}
+	
+	/**
+	 * Returns a where clause that restricts the result to the items after
+	 * (or before, if <code>backward</code> is <code>true</code>) a keyset. 
+	 * The key values must be bound to the parameters <code>keyset0</code> 
+	 * to <code>keysetN</code>, the last one being the id. For keys 
+	 * (a, b, id) the clause reads:
+	 * <pre>
+	 * a > :keyset0 or (a = :keyset0 and b > :keyset1) 
+	 *     or (a = :keyset0 and b = :keyset1 and id > :keyset2)
+	 * </pre>
+	 */
+	public static String getKeysetWhereClause(String alias, List<Order> orders,
+			boolean backward, boolean inclusive) {
+		
+		int count = orders.size() + 1;
+		StringBuilder hql = new StringBuilder("(");
+		for (int i = 0; i < count; i++) {
+			if (i > 0) {
+				hql.append(" or ");
+			}
+			hql.append('(');
+			for (int j = 0; j < i; j++) {
+				hql.append(getKeysetExpression(alias, count, orders, j));
+				hql.append(" = :keyset").append(j).append(" and ");
+			}
+			boolean last = i == count - 1;
+			boolean ascending = last ? !backward 
+					: orders.get(i).isAscending() != backward;
+			
+			hql.append(getKeysetExpression(alias, count, orders, i));
+			hql.append(ascending ? " >" : " <");
+			if (last && inclusive) {
+				hql.append('=');
+			}
+			hql.append(" :keyset").append(i).append(')');
+		}
+		hql.append(')');
+		return hql.toString();
+	}
+	
+	private static String getKeysetExpression(String alias, int count, 
+			List<Order> orders, int i) {
+		
+		if (i == count - 1) {
+			return alias + ".id";
+		}
+		return getKeysetExpression(alias, orders.get(i));
+	}
 }
@@ -17,6 +17,7 @@ import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 
+import org.riotfamily.core.dao.Keyset;
 import org.riotfamily.core.dao.ListParams;
 import org.riotfamily.core.dao.Order;
 
@@ -36,6 +37,12 @@ public class ListParamsImpl implements ListParams, Serializable {
 	private int pageSize;
 	
 	private int offset;
+	
+	private int keysPage;
+	
+	private Object[] firstKey;
+	
+	private Object[] lastKey;
 
 	public ListParamsImpl() {
 	}
@@ -66,6 +73,7 @@ public class ListParamsImpl implements ListParams, Serializable {
 
 	public void setFilter(Object filter) {
 		this.filter = filter;
+		clearKeys();
 	}
 	
 	public String[] getFilteredProperties() {
@@ -82,6 +90,7 @@ public class ListParamsImpl implements ListParams, Serializable {
 
 	public void setSearch(String search) {
 		this.search = search;
+		clearKeys();
 	}
 	
 	public int getOffset() {
@@ -109,9 +118,11 @@ public class ListParamsImpl implements ListParams, Serializable {
 
 	public void setOrder(List<Order> order) {
 		this.order = order;
+		clearKeys();
 	}
 	
 	public void setOrder(Order order) {
+		clearKeys();
 		this.order = new LinkedList<Order>();
 		if (order != null) {
 			this.order.add(order);
@@ -136,6 +147,7 @@ public class ListParamsImpl implements ListParams, Serializable {
 	 * property in which case only the sort direction will be toggled.
 	 */
 	public void orderBy(String property, boolean ascending, boolean caseSensitive) {
+		clearKeys();
 		if (getOrder() == null) {
 			setOrder(new LinkedList<Order>());
 		}
@@ -162,6 +174,45 @@ public class ListParamsImpl implements ListParams, Serializable {
 
 	public void setPageSize(int pageSize) {
 		this.pageSize = pageSize;
+		clearKeys();
+	}
+	
+	/**
+	 * Remembers the keys of the first and the last item of the current page,
+	 * so that the adjacent pages can be loaded using a {@link Keyset}.
+	 * @see org.riotfamily.core.dao.Seekable
+	 */
+	public void setKeys(Object[] firstKey, Object[] lastKey) {
+		this.keysPage = getPage();
+		this.firstKey = firstKey;
+		this.lastKey = lastKey;
+	}
+	
+	public void clearKeys() {
+		firstKey = null;
+		lastKey = null;
+	}
+	
+	/**
+	 * Returns a Keyset if the current page is the one whose keys have been
+	 * set, or one of its neighbours. The first page is always loaded using
+	 * an offset, so that new items show up.
+	 */
+	public Keyset getKeyset() {
+		int page = getPage();
+		if (firstKey == null || lastKey == null || page <= 1) {
+			return null;
+		}
+		if (page == keysPage) {
+			return new Keyset(firstKey, false, true);
+		}
+		if (page == keysPage + 1) {
+			return new Keyset(lastKey, false, false);
+		}
+		if (page == keysPage - 1) {
+			return new Keyset(firstKey, true, false);
+		}
+		return null;
 	}
 
 }
@@ -12,7 +12,10 @@
  */
 package org.riotfamily.core.screen.list.command.impl.export;
 
-import java.io.ByteArrayOutputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.Collection;
@@ -29,6 +32,22 @@ import org.riotfamily.core.screen.list.command.result.DownloadResult;
 
 public abstract class AbstractExportCommand extends AbstractCommand {
 	
+	private static final String TEMP_FILE_PREFIX = "riot-export";
+	
+	/** Age after which export files that haven't been downloaded are deleted */
+	private static final long TEMP_FILE_TTL = 60 * 60 * 1000;
+	
+	private int chunkSize = 500;
+	
+	/**
+	 * Sets the number of items after which the Hibernate session is cleared
+	 * while exporting the items of an HQL-based list. Default is 
+	 * <code>500</code>.
+	 */
+	public void setChunkSize(int chunkSize) {
+		this.chunkSize = chunkSize;
+	}
+	
 	@Override
 	protected String getIcon() {
 		return "table_go";
@@ -45,20 +64,56 @@ public abstract class AbstractExportCommand extends AbstractCommand {
 		return new DownloadResult(createFileTransfer(context, selection));
 	}
 
+	/**
+	 * Writes the export into a temporary file, which is deleted once it has
+	 * been downloaded. Files of exports that were never fetched are deleted 
+	 * by subsequent exports once they are older than one hour.
+	 */
 	protected FileTransfer createFileTransfer(
 			CommandContext context, Selection selection)
 			throws IOException {
 		
+		String fileName = getFileName(context);
+		File file = File.createTempFile(TEMP_FILE_PREFIX, "." + getFileExtension());
+		deleteExpiredFiles(file.getParentFile());
+		try {
+			OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+			try {
+				export(context, selection, out);
+			}
+			finally {
+				out.close();
+			}
+		}
+		catch (IOException e) {
+			file.delete();
+			throw e;
+		}
+		catch (RuntimeException e) {
+			file.delete();
+			throw e;
+		}
 		return new FileTransfer(
-				getFileName(context), 
+				fileName, 
 				getMimeType(),
-				getBytes(context, selection));
+				file.length(),
+				new TempFileInputStreamFactory(file));
 	}
 
-	private byte[] getBytes(CommandContext context, Selection selection) throws IOException {
-		ByteArrayOutputStream out = new ByteArrayOutputStream();
-		export(context, selection, out);
-		return out.toByteArray();
+	private static void deleteExpiredFiles(File dir) {
+		File[] files = dir.listFiles(new FilenameFilter() {
+			public boolean accept(File dir, String name) {
+				return name.startsWith(TEMP_FILE_PREFIX);
+			}
+		});
+		if (files != null) {
+			long expired = System.currentTimeMillis() - TEMP_FILE_TTL;
+			for (File file : files) {
+				if (file.lastModified() < expired) {
+					file.delete();
+				}
+			}
+		}
 	}
 
 	protected void export(CommandContext context, Selection selection,
@@ -70,9 +125,14 @@ public abstract class AbstractExportCommand extends AbstractCommand {
 	protected void export(Collection<?> items, OutputStream out) throws IOException {
 	}
 	
+	/**
+	 * Returns a collection that loads the items while being iterated.
+	 * @see ChunkedItemCollection
+	 */
 	protected Collection<?> getItems(CommandContext context, Selection selection) {
 		ListParams params = new ListParamsImpl(context.getParams());
-		return context.getScreen().getDao().list(context.getParent(), params);
+		return new ChunkedItemCollection(context.getScreen().getDao(), 
+				context.getParent(), params, chunkSize);
 	}
 
 	protected String getFileName(CommandContext context) {
@@ -0,0 +1,80 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.core.screen.list.command.impl.export;
+
+import java.util.AbstractCollection;
+import java.util.Iterator;
+
+import org.riotfamily.core.dao.ListParams;
+import org.riotfamily.core.dao.RiotDao;
+import org.riotfamily.core.dao.hibernate.AbstractHqlDao;
+import org.riotfamily.core.screen.list.ListParamsImpl;
+
+/**
+ * Read-only collection that contains all items of a list, regardless of the
+ * page size. If the DAO is an {@link AbstractHqlDao}, the items are read 
+ * from a forward-only cursor and the Hibernate session is cleared after 
+ * each chunk, so that only one chunk is held in memory at a time. Other 
+ * DAOs are asked for the complete list at once, as they can't be relied 
+ * upon to honor the page size.
+ * 
+ * @see AbstractHqlDao#iterate(Object, ListParams, int)
+ */
+public class ChunkedItemCollection extends AbstractCollection<Object> {
+
+	private RiotDao dao;
+	
+	private Object parent;
+	
+	private ListParams params;
+	
+	private int chunkSize;
+	
+	public ChunkedItemCollection(RiotDao dao, Object parent, 
+			ListParams params, int chunkSize) {
+		
+		this.dao = dao;
+		this.parent = parent;
+		this.params = params;
+		this.chunkSize = chunkSize;
+	}
+	
+	@SuppressWarnings("unchecked")
+	@Override
+	public Iterator<Object> iterator() {
+		ListParamsImpl allItems = new ListParamsImpl(params);
+		allItems.setPageSize(0);
+		if (dao instanceof AbstractHqlDao) {
+			return (Iterator<Object>) ((AbstractHqlDao) dao).iterate(
+					parent, allItems, chunkSize);
+		}
+		return (Iterator<Object>) dao.list(parent, allItems).iterator();
+	}
+	
+	/**
+	 * Returns the number of items as reported by the DAO. If the DAO is
+	 * unable to determine the size, all items are iterated. 
+	 */
+	@Override
+	public int size() {
+		int size = dao.getListSize(parent, params);
+		if (size < 0) {
+			size = 0;
+			for (Iterator<Object> it = iterator(); it.hasNext(); it.next()) {
+				size++;
+			}
+		}
+		return size;
+	}
+	
+}
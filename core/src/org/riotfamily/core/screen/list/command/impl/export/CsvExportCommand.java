@@ -12,15 +12,24 @@
  */
 package org.riotfamily.core.screen.list.command.impl.export;
 
+import java.beans.PropertyDescriptor;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.lang.reflect.Method;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
+import org.riotfamily.common.util.Generics;
+import org.springframework.beans.BeanUtils;
 import org.springframework.beans.BeanWrapperImpl;
+import org.springframework.beans.PropertyAccessor;
+import org.springframework.util.Assert;
+import org.springframework.util.ReflectionUtils;
+import org.springframework.util.StringUtils;
 
 public class CsvExportCommand extends AbstractExportCommand {
 
@@ -37,6 +46,10 @@ public class CsvExportCommand extends AbstractExportCommand {
 	public void setDelimiter(String delimiter) {
 		this.delimiter = delimiter;
 	}
+	
+	public void setProperties(List<String> properties) {
+		this.properties = properties;
+	}
 
 	@Override
 	protected String getFileExtension() {
@@ -51,10 +64,13 @@ public class CsvExportCommand extends AbstractExportCommand {
 	@Override
 	protected void export(Collection<?> items, OutputStream out) throws IOException {
 		PrintWriter pw = new PrintWriter(new OutputStreamWriter(out, encoding));
+		List<PropertyReader> readers = Generics.newArrayList();
+		for (String property : properties) {
+			readers.add(new PropertyReader(property));
+		}
 		for (Object item : items) {
-			BeanWrapperImpl wrapper = new BeanWrapperImpl(item);
-			for (String property : properties) {
-				Object value = wrapper.getPropertyValue(property);
+			for (PropertyReader reader : readers) {
+				Object value = reader.read(item);
 				if (value instanceof Collection<?>) {
 					Iterator<?> it = ((Collection<?>) value).iterator();
 					while (it.hasNext()) {
@@ -69,5 +85,60 @@ public class CsvExportCommand extends AbstractExportCommand {
 			}
 			pw.println();
 		}
+		pw.flush();
+	}
+	
+	/**
+	 * Reads a (possibly nested) property. The getter methods are looked up 
+	 * once per class, instead of creating a BeanWrapper for each item.
+	 * Indexed or mapped paths like <code>a[0]</code> or <code>m[key]</code>
+	 * are still resolved by a BeanWrapper.
+	 */
+	private static class PropertyReader {
+		
+		private String property;
+		
+		private String[] names;
+		
+		private List<Map<Class<?>, Method>> getters = Generics.newArrayList();
+		
+		public PropertyReader(String property) {
+			if (property.indexOf(PropertyAccessor.PROPERTY_KEY_PREFIX_CHAR) != -1) {
+				this.property = property;
+				return;
+			}
+			names = StringUtils.tokenizeToStringArray(property, ".");
+			for (int i = 0; i < names.length; i++) {
+				Map<Class<?>, Method> map = Generics.newHashMap();
+				getters.add(map);
+			}
+		}
+		
+		public Object read(Object bean) {
+			if (property != null) {
+				return new BeanWrapperImpl(bean).getPropertyValue(property);
+			}
+			Object value = bean;
+			for (int i = 0; i < names.length && value != null; i++) {
+				value = ReflectionUtils.invokeMethod(
+						getGetter(i, value.getClass()), value);
+			}
+			return value;
+		}
+		
+		private Method getGetter(int i, Class<?> clazz) {
+			Map<Class<?>, Method> map = getters.get(i);
+			Method getter = map.get(clazz);
+			if (getter == null) {
+				PropertyDescriptor pd = BeanUtils.getPropertyDescriptor(clazz, names[i]);
+				Assert.isTrue(pd != null && pd.getReadMethod() != null, 
+						"Property '" + names[i] + "' of " + clazz + " is not readable");
+				
+				getter = pd.getReadMethod();
+				ReflectionUtils.makeAccessible(getter);
+				map.put(clazz, getter);
+			}
+			return getter;
+		}
 	}
 }
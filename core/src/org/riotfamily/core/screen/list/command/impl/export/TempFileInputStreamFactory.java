@@ -0,0 +1,53 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.core.screen.list.command.impl.export;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.directwebremoting.io.InputStreamFactory;
+
+/**
+ * InputStreamFactory that reads a temporary file, which is deleted once 
+ * the download is complete.
+ */
+class TempFileInputStreamFactory implements InputStreamFactory {
+
+	private File file;
+	
+	private InputStream in;
+	
+	public TempFileInputStreamFactory(File file) {
+		this.file = file;
+	}
+
+	public InputStream getInputStream() throws IOException {
+		in = new BufferedInputStream(new FileInputStream(file));
+		return in;
+	}
+	
+	public void close() throws IOException {
+		try {
+			if (in != null) {
+				in.close();
+			}
+		}
+		finally {
+			file.delete();
+		}
+	}
+	
+}
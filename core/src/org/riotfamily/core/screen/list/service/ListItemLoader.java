@@ -15,6 +15,7 @@ package org.riotfamily.core.screen.list.service;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 
@@ -22,12 +23,17 @@ import javax.servlet.http.HttpServletRequest;
 
 import org.riotfamily.common.i18n.MessageResolver;
 import org.riotfamily.common.util.Generics;
+import org.riotfamily.core.dao.BatchTree;
+import org.riotfamily.core.dao.Seekable;
 import org.riotfamily.core.dao.SingleRoot;
 import org.riotfamily.core.dao.Tree;
 import org.riotfamily.core.screen.list.ColumnConfig;
+import org.riotfamily.core.screen.list.ListParamsImpl;
 import org.riotfamily.core.screen.list.ListRenderContext;
 import org.riotfamily.core.screen.list.dto.ListItem;
 import org.riotfamily.core.security.AccessController;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.BeanWrapper;
 import org.springframework.beans.BeanWrapperImpl;
 import org.springframework.beans.NullValueInNestedPathException;
@@ -38,10 +44,14 @@ import org.springframework.beans.NullValueInNestedPathException;
  */
 class ListItemLoader extends ChooserCommandHandler implements ListRenderContext {
 	
+	private Logger log = LoggerFactory.getLogger(ListItemLoader.class);
+	
 	protected Tree tree;
 	
 	protected SingleRoot rootNodeTreeDao;
 	
+	private int daoCallCount;
+	
 	ListItemLoader(ListService service, String key, 
 			HttpServletRequest request) {
 		
@@ -78,6 +88,7 @@ class ListItemLoader extends ChooserCommandHandler implements ListRenderContext
 	
 	private Object loadExpandedParent(String expandedId) {
 		if (tree != null && expandedId != null) {
+			daoCalled();
 			Object object = dao.load(expandedId);
 			return tree.getParentNode(object);
 		}
@@ -88,23 +99,65 @@ class ListItemLoader extends ChooserCommandHandler implements ListRenderContext
 	}
 	
 	protected List<ListItem> getChildren(String parentId) {
+		daoCalled();
 		Object parent = dao.load(parentId);
 		List<ListItem> children = createChildItems(parent, null);
 		createItem(parent, null).setChildren(children); // Initialize parentNodeId
+		log.debug("Loaded {} child items using {} DAO calls", 
+				children.size(), daoCallCount);
+		
 		return children;
 	}
 
 	private List<ListItem> createChildItems(Object parent, ListItem expanded) {
-		List<ListItem> items = Generics.newArrayList();
-		for (Object child : dao.list(parent, getParams())) {
+		List<Object> children = Generics.newArrayList();
+		daoCalled();
+		Collection<?> list = dao.list(parent, getParams());
+		if (parent == getParent()) {
+			rememberKeys(list);
+		}
+		for (Object child : list) {
 			if (AccessController.isGranted("viewItem", child, screenContext)) {
-				items.add(createItem(child, expanded));
+				children.add(child);
 			}
 		}
+		boolean[] expandable = getExpandable(children);
+		List<ListItem> items = Generics.newArrayList();
+		for (int i = 0; i < expandable.length; i++) {
+			items.add(createItem(children.get(i), expanded, expandable[i]));
+		}
 		return items;
 	}
 	
+	/**
+	 * Stores the keys of the first and last item, so that the adjacent pages
+	 * can be loaded by a {@link Seekable} DAO without using an offset.
+	 */
+	private void rememberKeys(Collection<?> list) {
+		ListParamsImpl params = state.getParams();
+		if (dao instanceof Seekable && !list.isEmpty() 
+				&& params.getPageSize() > 0) {
+			
+			Seekable seekable = (Seekable) dao;
+			List<?> items = list instanceof List<?> 
+					? (List<?>) list : Generics.newArrayList(list);
+			
+			params.setKeys(
+					seekable.getKeyValues(items.get(0), params), 
+					seekable.getKeyValues(items.get(items.size() - 1), params));
+		}
+		else {
+			params.clearKeys();
+		}
+	}
+	
 	private ListItem createItem(Object object, ListItem expanded) {
+		return createItem(object, expanded, isExpandable(object));
+	}
+	
+	private ListItem createItem(Object object, ListItem expanded, 
+			boolean expandable) {
+		
 		String id = dao.getObjectId(object);
 		if (expanded != null && id.equals(expanded.getObjectId())) {
 			return expanded;
@@ -112,7 +165,7 @@ class ListItemLoader extends ChooserCommandHandler implements ListRenderContext
 		ListItem item = new ListItem();
 		item.setObjectId(id);
 		item.setColumns(getColumns(object));
-		item.setExpandable(isExpandable(object));
+		item.setExpandable(expandable);
 		return item;
 	}
 	
@@ -144,11 +197,53 @@ class ListItemLoader extends ChooserCommandHandler implements ListRenderContext
 		
 	private boolean isExpandable(Object node) {
 		if (dao instanceof Tree) {
+			daoCalled();
 			return ((Tree) dao).hasChildren(node, getParent(), state.getParams());
 		}
 		return false;
 	}
 	
+	/**
+	 * Returns whether the given nodes can be expanded. If the DAO implements
+	 * the {@link BatchTree} interface, the children of all nodes are counted 
+	 * at once, otherwise {@link #isExpandable(Object)} is invoked for each 
+	 * node.
+	 */
+	private boolean[] getExpandable(List<?> nodes) {
+		boolean[] result = new boolean[nodes.size()];
+		if (dao instanceof BatchTree && !nodes.isEmpty()) {
+			daoCalled();
+			int[] counts = ((BatchTree) dao).countChildren(nodes, getParent(), 
+					state.getParams());
+			
+			for (int i = 0; i < result.length; i++) {
+				result[i] = counts[i] > 0;
+			}
+		}
+		else {
+			for (int i = 0; i < result.length; i++) {
+				result[i] = isExpandable(nodes.get(i));
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * Must be invoked whenever the DAO is asked to load something, in order 
+	 * to keep track of the number of DAO calls needed to render a list.
+	 */
+	protected void daoCalled() {
+		daoCallCount++;
+	}
+	
+	/**
+	 * Returns the number of DAO calls performed by this handler. Note that
+	 * a single call might issue more than one database query.
+	 */
+	protected int getDaoCallCount() {
+		return daoCallCount;
+	}
+	
 	// ------------------------------------------------------------------------
 	// Implementation of the RenderContext interface
 	// ------------------------------------------------------------------------
@@ -32,6 +32,8 @@ import org.riotfamily.core.screen.list.dto.ListColumn;
 import org.riotfamily.core.screen.list.dto.ListItem;
 import org.riotfamily.core.screen.list.dto.ListModel;
 import org.riotfamily.forms.controller.FormContextFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * List service handler that builds the complete list model, including column 
@@ -40,6 +42,8 @@ import org.riotfamily.forms.controller.FormContextFactory;
  */
 public class ListModelBuilder extends ListItemLoader {
 
+	private Logger log = LoggerFactory.getLogger(ListModelBuilder.class);
+
 	private FormContextFactory formContextFactory;
 	
 	public ListModelBuilder(ListService service, String key, 
@@ -62,8 +66,12 @@ public class ListModelBuilder extends ListItemLoader {
 		}
 		List<ListItem> items = createItems(expandedId);
 		ListParamsImpl params = state.getParams();
+		daoCalled();
 		int itemsTotal = dao.getListSize(getParent(), params);
 		params.adjust(itemsTotal);
+		log.debug("Built list model with {} items using {} DAO calls", 
+				items.size(), getDaoCallCount());
+		
 		
 		ListModel model = new ListModel(items, itemsTotal, params);
 		model.setColumns(createColumns());
@@ -16,6 +16,7 @@ import java.util.Collections;
 import java.util.List;
 
 import org.riotfamily.common.util.Generics;
+import org.riotfamily.core.security.auth.RiotUser;
 import org.riotfamily.core.security.policy.AuthorizationPolicy;
 import org.springframework.beans.factory.BeanFactoryUtils;
 import org.springframework.context.ApplicationContext;
@@ -30,6 +31,18 @@ import org.springframework.core.OrderComparator;
  */
 public class AccessControlInitializer implements ApplicationContextAware {
 	
+	/**
+	 * Sets whether the results of {@link AccessController#isGranted(
+	 * RiotUser, String, Object, Object) isGranted()} should be cached until
+	 * the end of the request. Decisions are cached per user, action, object
+	 * instance and context instance, so policies that depend on the state 
+	 * of an object that is modified during the request may return stale
+	 * results. Default is <code>false</code>.
+	 */
+	public void setCacheDecisions(boolean cacheDecisions) {
+		AccessController.setCacheDecisions(cacheDecisions);
+	}
+	
 	public void setApplicationContext(ApplicationContext context) {
 		List<AuthorizationPolicy> policies = Generics.newArrayList();
 		policies.addAll(BeanFactoryUtils.beansOfTypeIncludingAncestors(
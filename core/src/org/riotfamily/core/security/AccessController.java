@@ -15,6 +15,7 @@ package org.riotfamily.core.security;
 import static org.riotfamily.core.security.policy.AuthorizationPolicy.Permission.*;
 
 import java.util.List;
+import java.util.Map;
 
 import org.riotfamily.core.security.auth.RiotUser;
 import org.riotfamily.core.security.policy.AuthorizationPolicy;
@@ -24,6 +25,7 @@ import org.riotfamily.core.security.policy.AuthorizationPolicy.Permission;
 import org.riotfamily.core.security.session.SecurityContextInterceptor;
 import org.riotfamily.core.security.session.SecurityContext;
 import org.springframework.util.Assert;
+import org.springframework.util.ObjectUtils;
 
 
 
@@ -39,7 +41,9 @@ public final class AccessController {
 	private AccessController() {
 	}
 	
-	private static List<AuthorizationPolicy> policies;
+	private static AuthorizationPolicy[] policies;
+	
+	private static boolean cacheDecisions;
 
 	/**
 	 * The {@link AccessControlInitializer} sets a list of 
@@ -47,7 +51,15 @@ public final class AccessController {
 	 * from a static context.
 	 */
 	static void setPolicies(List<AuthorizationPolicy> policies) {
-		AccessController.policies = policies;
+		AccessController.policies = policies.toArray(
+				new AuthorizationPolicy[policies.size()]);
+	}
+	
+	/**
+	 * @see AccessControlInitializer#setCacheDecisions(boolean)
+	 */
+	static void setCacheDecisions(boolean cacheDecisions) {
+		AccessController.cacheDecisions = cacheDecisions;
 	}
 		
 	@SuppressWarnings("unchecked")
@@ -72,15 +84,33 @@ public final class AccessController {
 	}
 		
 	public static boolean isGranted(RiotUser user, String action, Object object, Object context) {
-		if (user != null) {
-			for (AuthorizationPolicy policy : policies) {
-				Permission permission = policy.getPermission(user, action, object, context);
-				if (permission == GRANTED || permission == REQUESTABLE) {
-					return true;
-				}
-				else if (permission == DENIED) {
-					return false;
-				}
+		if (user == null) {
+			return false;
+		}
+		Map<Object, Boolean> cache = null;
+		if (cacheDecisions) {
+			cache = SecurityContext.getDecisionCache();
+		}
+		if (cache == null) {
+			return checkPolicies(user, action, object, context);
+		}
+		Decision decision = new Decision(user, action, object, context);
+		Boolean granted = cache.get(decision);
+		if (granted == null) {
+			granted = checkPolicies(user, action, object, context);
+			cache.put(decision, granted);
+		}
+		return granted;
+	}
+	
+	private static boolean checkPolicies(RiotUser user, String action, Object object, Object context) {
+		for (AuthorizationPolicy policy : policies) {
+			Permission permission = policy.getPermission(user, action, object, context);
+			if (permission == GRANTED || permission == REQUESTABLE) {
+				return true;
+			}
+			else if (permission == DENIED) {
+				return false;
 			}
 		}
 		return false;
@@ -115,4 +145,50 @@ public final class AccessController {
 		throw new PermissionDeniedException(user, action, object, context, null);
 	}
 	
+	/**
+	 * Key for cached decisions. Objects and contexts are compared by 
+	 * identity, as their equals() methods may be expensive or may not be 
+	 * implemented at all.
+	 */
+	private static final class Decision {
+		
+		private RiotUser user;
+		
+		private String action;
+		
+		private Object object;
+		
+		private Object context;
+		
+		private int hashCode;
+
+		public Decision(RiotUser user, String action, Object object, Object context) {
+			this.user = user;
+			this.action = action;
+			this.object = object;
+			this.context = context;
+			hashCode = ObjectUtils.nullSafeHashCode(action);
+			hashCode = 31 * hashCode + System.identityHashCode(user);
+			hashCode = 31 * hashCode + System.identityHashCode(object);
+			hashCode = 31 * hashCode + System.identityHashCode(context);
+		}
+		
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+		
+		@Override
+		public boolean equals(Object obj) {
+			if (obj instanceof Decision) {
+				Decision other = (Decision) obj;
+				return user == other.user
+						&& object == other.object
+						&& context == other.context
+						&& ObjectUtils.nullSafeEquals(action, other.action);
+			}
+			return false;
+		}
+	}
+	
 }
@@ -15,12 +15,11 @@ package org.riotfamily.core.security.policy;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
-import java.util.List;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.hibernate.Hibernate;
 import org.riotfamily.common.util.FormatUtils;
-import org.riotfamily.common.util.Generics;
 import org.riotfamily.core.security.auth.RiotUser;
 import org.springframework.util.Assert;
 import org.springframework.util.ObjectUtils;
@@ -32,6 +31,11 @@ import org.springframework.util.StringUtils;
  * one or two parameters (the first one must be assignment-compatible with 
  * {@link RiotUser}) and a <code>Permission</code> return type. The action name is
  * uncapitalized and converted to camel-case.
+ * <p>
+ * The method that matches a combination of action, object class and context
+ * class is looked up once and cached, so subsequent checks only cost a 
+ * map lookup and a reflective call.
+ * </p>
  * 
  * @author Felix Gnass [fgnass at neteye dot de]
  * @since 7.0
@@ -40,7 +44,11 @@ public class ReflectionPolicy implements AuthorizationPolicy {
 
 	private Object delegate = this;
 	
-	private Map<SignaturePattern, PermissionMethod> methods = Generics.newHashMap();
+	private ConcurrentMap<SignaturePattern, PermissionMethod> methods = 
+			new ConcurrentHashMap<SignaturePattern, PermissionMethod>();
+	
+	private ConcurrentMap<String, String> methodNames = 
+			new ConcurrentHashMap<String, String>();
 	
 	private int order;
 	
@@ -58,20 +66,32 @@ public class ReflectionPolicy implements AuthorizationPolicy {
 	}
 	
 	public final Permission getPermission(RiotUser user, String action, Object object, Object context) {
-		PermissionMethod method = getMethod(new SignaturePattern(action, object, context));
-		if (method != null) {
+		PermissionMethod method = getMethod(new SignaturePattern(
+				getMethodName(action), object, context));
+		
+		if (method != PermissionMethod.NONE) {
 			return method.invoke(delegate, user, action, object, context);
 		}
 		return Permission.ABSTAIN;
 	}
 		
+	/**
+	 * Returns the uncapitalized camel-case version of the given action.
+	 */
+	private String getMethodName(String action) {
+		String name = methodNames.get(action);
+		if (name == null) {
+			name = StringUtils.uncapitalize(FormatUtils.xmlToCamelCase(action));
+			methodNames.put(action, name);
+		}
+		return name;
+	}
+	
 	private PermissionMethod getMethod(SignaturePattern signature) {
 		PermissionMethod method = methods.get(signature);
 		if (method == null) {
-			if (!methods.containsKey(signature)) {
-				method = signature.find(delegate.getClass().getDeclaredMethods());
-				methods.put(signature, method);
-			}			
+			method = signature.find(delegate.getClass().getDeclaredMethods());
+			methods.put(signature, method);
 		}
 		return method;
 	}
@@ -88,32 +108,42 @@ public class ReflectionPolicy implements AuthorizationPolicy {
 		private boolean object;
 		private boolean context;
 		
+		private int count;
+		
 		Arguments(int action, int object, int context) {
 			this.action = action > 0;
 			this.object = object > 0;
 			this.context = context > 0;
+			this.count = 1 + action + object + context;
 		}
 		
 		public Object[] buildArgs(RiotUser user, 
 				String action, Object object, Object context) {
 			
-			List<Object> args = Generics.newArrayList();
-			args.add(user);
+			Object[] args = new Object[count];
+			int i = 0;
+			args[i++] = user;
 			if (this.action) {
-				args.add(action);
+				args[i++] = action;
 			}
 			if (this.object) {
-				args.add(object);
+				args[i++] = object;
 			}
 			if (this.context) {
-				args.add(context);
+				args[i++] = context;
 			}
-			return args.toArray();
+			return args;
 		}
 	}
 	
 	private static class PermissionMethod {
 		
+		/** 
+		 * Placeholder for signatures without a matching method, as the 
+		 * ConcurrentHashMap does not allow <code>null</code> values.
+		 */
+		private static final PermissionMethod NONE = new PermissionMethod(null, null);
+		
 		private Method method;
 		
 		private Arguments arguments;
@@ -121,6 +151,10 @@ public class ReflectionPolicy implements AuthorizationPolicy {
 		public PermissionMethod(Method method, Arguments arguments) {
 			this.method = method;
 			this.arguments = arguments;
+			if (method != null) {
+				// Suppress the access check performed by every invocation
+				method.setAccessible(true);
+			}
 		}
 		
 		public Permission invoke(Object delegate, RiotUser user, 
@@ -152,14 +186,19 @@ public class ReflectionPolicy implements AuthorizationPolicy {
 		
 		private Class<?> contextClass;
 		
+		private int hashCode;
+		
 		public SignaturePattern(String action, Object obj, Object context) {
-			this.action = StringUtils.uncapitalize(FormatUtils.xmlToCamelCase(action));
+			this.action = action;
 			if (obj != null) {
 				objectClass = Hibernate.getClass(obj);
 			}
 			if (context != null) {
 				contextClass = context.getClass();
 			}
+			hashCode = ObjectUtils.nullSafeHashCode(action);
+			hashCode = 31 * hashCode + ObjectUtils.nullSafeHashCode(objectClass);
+			hashCode = 31 * hashCode + ObjectUtils.nullSafeHashCode(contextClass);
 		}
 		
 		public PermissionMethod find(Method[] methods) {
@@ -169,7 +208,7 @@ public class ReflectionPolicy implements AuthorizationPolicy {
 					return new PermissionMethod(method, arguments);
 				}
 			}
-			return null;
+			return PermissionMethod.NONE;
 		}
 		
 		private Method find(Method[] methods, Arguments arguments) {
@@ -246,7 +285,7 @@ public class ReflectionPolicy implements AuthorizationPolicy {
 		
 		@Override
 		public int hashCode() {
-			return toString().hashCode();
+			return hashCode;
 		}
 		
 		@Override
@@ -12,6 +12,9 @@
  */
 package org.riotfamily.core.security.session;
 
+import java.util.Map;
+
+import org.riotfamily.common.util.Generics;
 import org.riotfamily.common.web.filter.DiagnosticContextFilter;
 import org.riotfamily.core.security.auth.RiotUser;
 import org.slf4j.MDC;
@@ -26,8 +29,12 @@ public class SecurityContext {
 
 	private static ThreadLocal<RiotUser> threadLocal = new ThreadLocal<RiotUser>();
 	
+	private static ThreadLocal<Map<Object, Boolean>> decisions = 
+			new ThreadLocal<Map<Object, Boolean>>();
+	
 	public static void bindUserToCurrentThread(RiotUser user) {
 		threadLocal.set(user);
+		decisions.set(null);
 		if (user != null) {
 			MDC.put("RiotUser", user.getUserId());
 		}
@@ -37,8 +44,26 @@ public class SecurityContext {
 		return threadLocal.get();
 	}
 	
+	/**
+	 * Returns a Map that can be used to cache authorization decisions until
+	 * the next time a user is bound to or reset from the current thread.
+	 * Returns <code>null</code> if no user is bound.
+	 */
+	public static Map<Object, Boolean> getDecisionCache() {
+		if (threadLocal.get() == null) {
+			return null;
+		}
+		Map<Object, Boolean> cache = decisions.get();
+		if (cache == null) {
+			cache = Generics.newHashMap();
+			decisions.set(cache);
+		}
+		return cache;
+	}
+	
 	public static void resetUser() {
 		threadLocal.set(null);
+		decisions.set(null);
 		if (!DiagnosticContextFilter.isPresent()) {
 			MDC.remove("RiotUser");
 		}
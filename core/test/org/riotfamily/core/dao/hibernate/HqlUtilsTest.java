@@ -15,9 +15,11 @@ package org.riotfamily.core.dao.hibernate;
 import static org.junit.Assert.assertEquals;
 
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 import org.junit.Test;
+import org.riotfamily.core.dao.Order;
 
 public class HqlUtilsTest {
 
@@ -64,6 +66,64 @@ public class HqlUtilsTest {
 				HqlUtils.getExampleWhereClause(Cat.class, example, "this", "color", "kitten"));
 	}
 		
+	@Test
+	public void keysetOrderByWithoutOrder() {
+		List<Order> orders = Collections.emptyList();
+		assertEquals("this.id asc", 
+				HqlUtils.getKeysetOrderBy("this", orders, false));
+		
+		assertEquals("this.id desc", 
+				HqlUtils.getKeysetOrderBy("this", orders, true));
+	}
+	
+	@Test
+	public void keysetOrderBy() {
+		List<Order> orders = Arrays.asList(
+				new Order("name", true, false), 
+				new Order("date", false, true));
+		
+		assertEquals("lower(this.name) asc, this.date desc, this.id asc", 
+				HqlUtils.getKeysetOrderBy("this", orders, false));
+		
+		assertEquals("lower(this.name) desc, this.date asc, this.id desc", 
+				HqlUtils.getKeysetOrderBy("this", orders, true));
+	}
+	
+	@Test
+	public void keysetWhereClauseWithoutOrder() {
+		List<Order> orders = Collections.emptyList();
+		assertEquals("((this.id > :keyset0))", 
+				HqlUtils.getKeysetWhereClause("this", orders, false, false));
+		
+		assertEquals("((this.id <= :keyset0))", 
+				HqlUtils.getKeysetWhereClause("this", orders, true, true));
+	}
+	
+	@Test
+	public void keysetWhereClause() {
+		List<Order> orders = Arrays.asList(
+				new Order("name", true, false), 
+				new Order("date", false, true));
+		
+		assertEquals("((lower(this.name) > :keyset0)"
+				+ " or (lower(this.name) = :keyset0 and this.date < :keyset1)"
+				+ " or (lower(this.name) = :keyset0 and this.date = :keyset1"
+				+ " and this.id > :keyset2))", 
+				HqlUtils.getKeysetWhereClause("this", orders, false, false));
+	}
+	
+	@Test
+	public void keysetWhereClauseBackward() {
+		List<Order> orders = Arrays.asList(new Order("date", false, true));
+		assertEquals("((this.date > :keyset0)"
+				+ " or (this.date = :keyset0 and this.id < :keyset1))", 
+				HqlUtils.getKeysetWhereClause("this", orders, true, false));
+		
+		assertEquals("((this.date > :keyset0)"
+				+ " or (this.date = :keyset0 and this.id <= :keyset1))", 
+				HqlUtils.getKeysetWhereClause("this", orders, true, true));
+	}
+		
 	public class Cat {
 		
 		private String color;
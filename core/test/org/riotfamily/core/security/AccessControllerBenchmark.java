@@ -0,0 +1,116 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.core.security;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.riotfamily.core.security.auth.RiotUser;
+import org.riotfamily.core.security.auth.User;
+import org.riotfamily.core.security.policy.AuthorizationPolicy;
+import org.riotfamily.core.security.policy.GrantAllPolicy;
+import org.riotfamily.core.security.policy.ReflectionPolicy;
+import org.riotfamily.core.security.session.SecurityContext;
+
+/**
+ * Measures the throughput of {@link AccessController#isGranted(String, 
+ * Object, Object)} for a list screen that checks the <code>viewItem</code>
+ * and <code>edit</code> permissions of 1,000 items several times per 
+ * request, with and without the per-request decision cache.
+ * <p>
+ * Run with <code>java org.riotfamily.core.security.AccessControllerBenchmark</code>.
+ */
+public class AccessControllerBenchmark {
+
+	private static final int ITEMS = 1000;
+	
+	private static final int CHECKS_PER_ITEM = 3;
+	
+	private static final int REQUESTS = 200;
+	
+	private static final String[] ACTIONS = new String[] { "viewItem", "edit" };
+	
+	public static void main(String[] args) {
+		List<AuthorizationPolicy> policies = new ArrayList<AuthorizationPolicy>();
+		policies.add(new ItemPolicy());
+		policies.add(new GrantAllPolicy());
+		AccessController.setPolicies(policies);
+		
+		RiotUser user = new User();
+		Object context = new Object();
+		List<Item> items = new ArrayList<Item>(ITEMS);
+		for (int i = 0; i < ITEMS; i++) {
+			items.add(new Item(i));
+		}
+		
+		// Warm up the JIT before taking measurements
+		run(user, items, context, false, false);
+		run(user, items, context, true, false);
+		
+		run(user, items, context, false, true);
+		run(user, items, context, true, true);
+	}
+	
+	private static void run(RiotUser user, List<Item> items, Object context,
+			boolean cacheDecisions, boolean print) {
+		
+		AccessController.setCacheDecisions(cacheDecisions);
+		int granted = 0;
+		long start = System.nanoTime();
+		for (int r = 0; r < REQUESTS; r++) {
+			SecurityContext.bindUserToCurrentThread(user);
+			for (int c = 0; c < CHECKS_PER_ITEM; c++) {
+				for (Item item : items) {
+					for (String action : ACTIONS) {
+						if (AccessController.isGranted(action, item, context)) {
+							granted++;
+						}
+					}
+				}
+			}
+			SecurityContext.resetUser();
+		}
+		long nanos = System.nanoTime() - start;
+		if (print) {
+			long checks = (long) REQUESTS * CHECKS_PER_ITEM * ITEMS * ACTIONS.length;
+			System.out.printf("%-16s %,12d checks/s (%,d granted)%n",
+					cacheDecisions ? "Decision cache:" : "No cache:",
+					checks * 1000000000L / nanos, granted);
+		}
+	}
+	
+	public static class Item {
+		
+		private int id;
+
+		public Item(int id) {
+			this.id = id;
+		}
+		
+		public int getId() {
+			return id;
+		}
+	}
+	
+	public static class ItemPolicy extends ReflectionPolicy {
+		
+		public Permission viewItem(RiotUser user, Item item, Object context) {
+			return Permission.GRANTED;
+		}
+		
+		public Permission edit(RiotUser user, Item item, Object context) {
+			return item.getId() % 2 == 0 ? Permission.GRANTED : Permission.DENIED;
+		}
+	}
+	
+}
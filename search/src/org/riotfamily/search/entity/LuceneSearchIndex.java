@@ -0,0 +1,667 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.search.entity;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.servlet.ServletContext;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.Token;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.ConstantScoreQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.PrefixFilter;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.hibernate.CacheMode;
+import org.hibernate.EntityMode;
+import org.hibernate.FlushMode;
+import org.hibernate.Hibernate;
+import org.hibernate.HibernateException;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+import org.hibernate.metadata.ClassMetadata;
+import org.hibernate.type.NullableType;
+import org.hibernate.type.Type;
+import org.riotfamily.common.beans.property.PropertyUtils;
+import org.riotfamily.common.hibernate.EntityListener;
+import org.riotfamily.common.util.Generics;
+import org.riotfamily.core.dao.SearchIndex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.core.io.Resource;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.web.context.ServletContextAware;
+import org.springframework.web.util.WebUtils;
+
+/**
+ * {@link SearchIndex} that keeps an inverted index of entity properties in
+ * a local Lucene directory. 
+ * <p>
+ * An entity class is indexed when it is searched for the first time. The 
+ * index is then built in a background thread by scrolling through all 
+ * entities of that class, and kept in sync via Hibernate entity events 
+ * afterwards. Until the index is ready, {@link #search(Class, String[], String)}
+ * returns <code>null</code>, so that callers fall back to a conventional 
+ * search.
+ * </p>
+ * <p>
+ * Each word of the search string must match the beginning of a word in one 
+ * of the indexed properties. Unlike <code>LIKE '%x%'</code>, matches in the 
+ * middle of a word are not found. Changes of associated entities are only 
+ * picked up when the indexed entity itself is updated.
+ * </p>
+ * <p>
+ * Modified entities are collected while the session is flushed, but their 
+ * documents are only created once the transaction has completed, so that 
+ * no associations are loaded during a flush.
+ * </p>
+ * <p>
+ * The index is node-local and only sees the changes made by the local 
+ * Hibernate session factory. It must therefore not be used by applications 
+ * that run on multiple cluster nodes. The index is opt-in: entity classes 
+ * are only registered by DAOs whose <code>searchIndex</code> property is set, 
+ * events of all other entities are ignored.
+ * </p>
+ */
+public class LuceneSearchIndex implements SearchIndex, EntityListener,
+		ServletContextAware, InitializingBean, DisposableBean {
+
+	private static final String KEY = "_key";
+	
+	private static final String ID = "_id";
+	
+	private static final String CLASS = "_class";
+	
+	private Logger log = LoggerFactory.getLogger(LuceneSearchIndex.class);
+	
+	private SessionFactory sessionFactory;
+	
+	private Directory indexDir;
+	
+	private File tempDir;
+	
+	private Analyzer analyzer = new StandardAnalyzer(new String[0]);
+	
+	private int maxResults = 1000;
+	
+	private int batchSize = 100;
+	
+	private IndexWriter writer;
+	
+	private IndexReader reader;
+	
+	private IndexSearcher searcher;
+	
+	private volatile boolean readerStale;
+	
+	private Map<Class<?>, IndexedClass> indexedClasses = 
+			new ConcurrentHashMap<Class<?>, IndexedClass>();
+	
+	private int runningBuilds;
+	
+	private List<Change> replay;
+	
+	public LuceneSearchIndex(SessionFactory sessionFactory) {
+		this.sessionFactory = sessionFactory;
+	}
+
+	/**
+	 * Sets the location where the index should be stored. The given resource
+	 * must point into the file system, i.e. resource.getFile() must return a
+	 * File object. Any existing index at this location is discarded on 
+	 * startup.
+	 */
+	public void setIndexLocation(Resource resource) throws IOException {
+		setIndexDir(resource.getFile());
+	}
+
+	/**
+	 * Sets the directory where the index should be stored. If not set, a 
+	 * directory inside the servlet container's temp dir is used.
+	 */
+	public void setIndexDir(File dir) throws IOException {
+		dir.mkdirs();
+		indexDir = FSDirectory.getDirectory(dir);
+	}
+	
+	/**
+	 * Sets the Analyzer that is used to tokenize property values and search
+	 * strings. Defaults to a {@link StandardAnalyzer} without stop words.
+	 */
+	public void setAnalyzer(Analyzer analyzer) {
+		this.analyzer = analyzer;
+	}
+	
+	/**
+	 * Sets the maximum number of ids returned by a search. If more entities 
+	 * match, <code>null</code> is returned, as long lists of ids would make 
+	 * the resulting SQL query slower than a table scan. Default is 
+	 * <code>1000</code>.
+	 */
+	public void setMaxResults(int maxResults) {
+		this.maxResults = maxResults;
+	}
+	
+	/**
+	 * Sets the number of entities after which the Hibernate session is 
+	 * cleared while the index is built. Default is <code>100</code>.
+	 */
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+
+	public void setServletContext(ServletContext servletContext) {
+		tempDir = WebUtils.getTempDir(servletContext);
+	}
+	
+	public void afterPropertiesSet() throws Exception {
+		if (indexDir == null) {
+			setIndexDir(new File(tempDir, "entity-search-index"));
+		}
+		writer = new IndexWriter(indexDir, analyzer, true, 
+				IndexWriter.MaxFieldLength.UNLIMITED);
+		
+		writer.commit();
+		reader = IndexReader.open(indexDir, true);
+		searcher = new IndexSearcher(reader);
+	}
+	
+	public synchronized void destroy() throws Exception {
+		searcher.close();
+		reader.close();
+		writer.close();
+	}
+	
+	// ----------------------------------------------------------------------
+	// Implementation of the SearchIndex interface
+	// ----------------------------------------------------------------------
+	
+	public Collection<?> search(Class<?> entityClass, String[] properties, 
+			String search) {
+		
+		IndexedClass indexed = register(entityClass, properties);
+		if (indexed == null || !indexed.ready) {
+			return null;
+		}
+		List<String> words = tokenize(properties[0], search);
+		if (words.isEmpty()) {
+			return null;
+		}
+		BooleanQuery query = new BooleanQuery();
+		query.add(new TermQuery(new Term(CLASS, entityClass.getName())), 
+				BooleanClause.Occur.MUST);
+		
+		for (String word : words) {
+			BooleanQuery anyProperty = new BooleanQuery();
+			for (String property : properties) {
+				anyProperty.add(new ConstantScoreQuery(new PrefixFilter(
+						new Term(property, word))), BooleanClause.Occur.SHOULD);
+			}
+			query.add(anyProperty, BooleanClause.Occur.MUST);
+		}
+		try {
+			return getIds(query, indexed.idType);
+		}
+		catch (IOException e) {
+			log.error("Error searching the index", e);
+			return null;
+		}
+	}
+	
+	private synchronized Collection<?> getIds(BooleanQuery query, 
+			NullableType idType) throws IOException {
+		
+		if (readerStale) {
+			readerStale = false;
+			IndexReader newReader = reader.reopen();
+			if (newReader != reader) {
+				searcher.close();
+				reader.close();
+				reader = newReader;
+				searcher = new IndexSearcher(reader);
+			}
+		}
+		TopDocs topDocs = searcher.search(query, null, maxResults);
+		if (topDocs.totalHits > maxResults) {
+			return null;
+		}
+		List<Object> ids = Generics.newArrayList(topDocs.scoreDocs.length);
+		for (ScoreDoc scoreDoc : topDocs.scoreDocs) {
+			String id = searcher.doc(scoreDoc.doc).get(ID);
+			ids.add(idType.fromStringValue(id));
+		}
+		return ids;
+	}
+	
+	private List<String> tokenize(String field, String s) {
+		List<String> words = Generics.newArrayList();
+		try {
+			TokenStream stream = analyzer.tokenStream(field, new StringReader(s));
+			Token token = new Token();
+			for (token = stream.next(token); token != null; token = stream.next(token)) {
+				words.add(token.term());
+			}
+			stream.close();
+		}
+		catch (IOException e) {
+		}
+		return words;
+	}
+	
+	/**
+	 * Returns the IndexedClass for the given entity class, or 
+	 * <code>null</code> if the class can't be indexed. Starts a (re)build 
+	 * if the class is not yet indexed or if properties have been added. 
+	 */
+	private synchronized IndexedClass register(Class<?> entityClass, 
+			String[] properties) {
+		
+		IndexedClass indexed = indexedClasses.get(entityClass);
+		if (indexed == null) {
+			ClassMetadata meta = sessionFactory.getClassMetadata(entityClass);
+			if (meta == null) {
+				return null;
+			}
+			Type idType = meta.getIdentifierType();
+			if (!(idType instanceof NullableType)) {
+				log.warn("Can't index {}, identifier type must implement " 
+						+ "NullableType", entityClass.getName());
+				
+				indexedClasses.put(entityClass, new IndexedClass(entityClass, null));
+				return null;
+			}
+			indexed = new IndexedClass(entityClass, (NullableType) idType);
+			indexedClasses.put(entityClass, indexed);
+		}
+		if (indexed.idType == null) {
+			return null;
+		}
+		Set<String> newProperties = null;
+		for (String property : properties) {
+			if (!indexed.properties.contains(property)) {
+				if (newProperties == null) {
+					newProperties = Generics.newHashSet(indexed.properties);
+				}
+				newProperties.add(property);
+			}
+		}
+		if (newProperties != null) {
+			indexed.properties = newProperties;
+			indexed.ready = false;
+			startBuild(indexed);
+		}
+		return indexed;
+	}
+	
+	// ----------------------------------------------------------------------
+	// Building the index
+	// ----------------------------------------------------------------------
+	
+	private void startBuild(final IndexedClass indexed) {
+		if (indexed.building) {
+			indexed.stale = true;
+			return;
+		}
+		indexed.building = true;
+		runningBuilds++;
+		if (replay == null) {
+			replay = Generics.newArrayList();
+		}
+		Thread thread = new Thread("SearchIndexBuilder-" 
+				+ indexed.entityClass.getSimpleName()) {
+			
+			@Override
+			public void run() {
+				boolean success;
+				do {
+					success = false;
+					try {
+						build(indexed.entityClass);
+						success = true;
+					}
+					catch (Exception e) {
+						log.error("Error building the search index for " 
+								+ indexed.entityClass.getName(), e);
+					}
+				}
+				while (buildFinished(indexed, success));
+			}
+		};
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	private void build(Class<?> entityClass) throws IOException {
+		log.info("Building search index for {}", entityClass.getName());
+		long start = System.currentTimeMillis();
+		int count = 0;
+		Session session = sessionFactory.openSession();
+		try {
+			session.setFlushMode(FlushMode.MANUAL);
+			session.setCacheMode(CacheMode.IGNORE);
+			Transaction tx = session.beginTransaction();
+			try {
+				ScrollableResults results = session.createQuery(
+						"from " + entityClass.getName())
+						.setReadOnly(true)
+						.setFetchSize(batchSize)
+						.scroll(ScrollMode.FORWARD_ONLY);
+				
+				while (results.next()) {
+					Object entity = results.get(0);
+					writer.updateDocument(new Term(KEY, getKey(entity)), 
+							createDocument(entity, false));
+					
+					if (++count % batchSize == 0) {
+						session.clear();
+					}
+				}
+				results.close();
+			}
+			finally {
+				tx.rollback();
+			}
+		}
+		finally {
+			session.close();
+		}
+		writer.commit();
+		log.info("Indexed {} entities in {} ms", count, 
+				System.currentTimeMillis() - start);
+	}
+	
+	/**
+	 * Re-applies all changes that occurred during the build, as the build 
+	 * may have read entities before they were modified. Returns 
+	 * <code>true</code> if properties have been added in the meantime and 
+	 * the build must be repeated, otherwise the class is marked as ready.
+	 */
+	private synchronized boolean buildFinished(IndexedClass indexed, 
+			boolean success) {
+		
+		try {
+			for (Change change : replay) {
+				change.apply();
+			}
+			writer.commit();
+		}
+		catch (IOException e) {
+			log.error("Error updating the search index", e);
+			success = false;
+		}
+		readerStale = true;
+		if (success && indexed.stale) {
+			indexed.stale = false;
+			return true;
+		}
+		indexed.stale = false;
+		indexed.building = false;
+		indexed.ready = success;
+		if (--runningBuilds == 0) {
+			replay = null;
+		}
+		return false;
+	}
+	
+	private String getKey(Object entity) {
+		Class<?> entityClass = Hibernate.getClass(entity);
+		Object id = sessionFactory.getClassMetadata(entityClass)
+				.getIdentifier(entity, EntityMode.POJO);
+		
+		return entityClass.getName() + '#' + id;
+	}
+	
+	/**
+	 * Creates a document containing the indexed properties of the given 
+	 * entity. If <code>ownStateOnly</code> is <code>true</code>, nested 
+	 * properties and uninitialized associations are skipped, so that the 
+	 * method can be invoked while the session is flushed.
+	 */
+	private Document createDocument(Object entity, boolean ownStateOnly) {
+		Class<?> entityClass = Hibernate.getClass(entity);
+		Object id = sessionFactory.getClassMetadata(entityClass)
+				.getIdentifier(entity, EntityMode.POJO);
+		
+		Document doc = new Document();
+		doc.add(new Field(KEY, entityClass.getName() + '#' + id, 
+				Field.Store.NO, Field.Index.NOT_ANALYZED));
+		
+		doc.add(new Field(ID, id.toString(), 
+				Field.Store.YES, Field.Index.NO));
+		
+		for (Class<?> c = entityClass; c != Object.class; c = c.getSuperclass()) {
+			doc.add(new Field(CLASS, c.getName(), 
+					Field.Store.NO, Field.Index.NOT_ANALYZED));
+		}
+		Set<String> properties = Generics.newHashSet();
+		for (IndexedClass indexed : indexedClasses.values()) {
+			if (indexed.entityClass.isAssignableFrom(entityClass)) {
+				properties.addAll(indexed.properties);
+			}
+		}
+		for (String property : properties) {
+			if (ownStateOnly && property.indexOf('.') != -1) {
+				continue;
+			}
+			try {
+				Object value = PropertyUtils.getProperty(entity, property);
+				if (value != null && (!ownStateOnly 
+						|| Hibernate.isInitialized(value))) {
+					
+					doc.add(new Field(property, value.toString(), 
+							Field.Store.NO, Field.Index.ANALYZED));
+				}
+			}
+			catch (BeansException e) {
+				log.debug("Can't index property " + property, e);
+			}
+			catch (HibernateException e) {
+				log.debug("Can't index property " + property, e);
+			}
+		}
+		return doc;
+	}
+	
+	/**
+	 * Returns whether the class of the given entity (or one of its 
+	 * superclasses) has been registered for indexing.
+	 */
+	private boolean isIndexed(Object entity) {
+		Class<?> entityClass = Hibernate.getClass(entity);
+		for (IndexedClass indexed : indexedClasses.values()) {
+			if (indexed.idType != null 
+					&& indexed.entityClass.isAssignableFrom(entityClass)) {
+				
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	// ----------------------------------------------------------------------
+	// Implementation of the EntityListener interface
+	// ----------------------------------------------------------------------
+	
+	/**
+	 * Returns <code>true</code> for all mapped classes. As the 
+	 * EntityListenerInterceptor caches the listeners of each class, the 
+	 * result must not depend on the classes that have been registered so far.
+	 * Entities of classes that are not indexed are ignored by the event
+	 * handlers.
+	 */
+	public boolean supports(Class<?> entityClass) {
+		return sessionFactory.getClassMetadata(entityClass) != null;
+	}
+	
+	public void onSave(Object entity, Session session) {
+		entityChanged(entity, false);
+	}
+	
+	public void onUpdate(Object entity, Object oldState, Session session) {
+		entityChanged(entity, false);
+	}
+	
+	public void onDelete(Object entity, Session session) {
+		entityChanged(entity, true);
+	}
+	
+	/**
+	 * Updates the index after the current transaction has been committed. 
+	 * If no transaction is active, the index is updated immediately, using
+	 * only the entity's own state.
+	 */
+	private void entityChanged(Object entity, boolean deleted) {
+		if (!isIndexed(entity)) {
+			return;
+		}
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			ChangeSynchronization sync = (ChangeSynchronization) 
+					TransactionSynchronizationManager.getResource(this);
+			
+			if (sync == null) {
+				sync = new ChangeSynchronization();
+				TransactionSynchronizationManager.registerSynchronization(sync);
+				TransactionSynchronizationManager.bindResource(this, sync);
+			}
+			sync.entities.put(entity, Boolean.valueOf(deleted));
+		}
+		else {
+			apply(Collections.singletonList(new Change(getKey(entity), 
+					deleted ? null : createDocument(entity, true))));
+		}
+	}
+	
+	private synchronized void apply(List<Change> changes) {
+		try {
+			for (Change change : changes) {
+				change.apply();
+				if (replay != null) {
+					replay.add(change);
+				}
+			}
+			writer.commit();
+			readerStale = true;
+		}
+		catch (IOException e) {
+			log.error("Error updating the search index", e);
+		}
+	}
+	
+	private class Change {
+		
+		private Term key;
+		
+		private Document document;
+
+		public Change(String key, Document document) {
+			this.key = new Term(KEY, key);
+			this.document = document;
+		}
+		
+		public void apply() throws IOException {
+			if (document != null) {
+				writer.updateDocument(key, document);
+			}
+			else {
+				writer.deleteDocuments(key);
+			}
+		}
+	}
+	
+	private class ChangeSynchronization extends TransactionSynchronizationAdapter {
+		
+		private Map<Object, Boolean> entities = new IdentityHashMap<Object, Boolean>();
+		
+		@Override
+		public void suspend() {
+			TransactionSynchronizationManager.unbindResource(LuceneSearchIndex.this);
+		}
+		
+		@Override
+		public void resume() {
+			TransactionSynchronizationManager.bindResource(LuceneSearchIndex.this, this);
+		}
+		
+		@Override
+		public void afterCompletion(int status) {
+			if (TransactionSynchronizationManager.hasResource(LuceneSearchIndex.this)) {
+				TransactionSynchronizationManager.unbindResource(LuceneSearchIndex.this);
+			}
+			if (status != TransactionSynchronization.STATUS_ROLLED_BACK) {
+				List<Change> changes = Generics.newArrayList();
+				for (Map.Entry<Object, Boolean> entry : entities.entrySet()) {
+					Object entity = entry.getKey();
+					if (isIndexed(entity)) {
+						boolean deleted = entry.getValue().booleanValue();
+						changes.add(new Change(getKey(entity), 
+								deleted ? null : createDocument(entity, false)));
+					}
+				}
+				if (!changes.isEmpty()) {
+					apply(changes);
+				}
+			}
+		}
+	}
+	
+	private static class IndexedClass {
+		
+		private Class<?> entityClass;
+		
+		private NullableType idType;
+		
+		private volatile Set<String> properties = Generics.newHashSet();
+		
+		private volatile boolean ready;
+		
+		private boolean building;
+		
+		private boolean stale;
+
+		public IndexedClass(Class<?> entityClass, NullableType idType) {
+			this.entityClass = entityClass;
+			this.idType = idType;
+		}
+	}
+	
+}
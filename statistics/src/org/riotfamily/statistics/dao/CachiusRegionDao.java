@@ -0,0 +1,69 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.statistics.dao;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.riotfamily.cachius.Cache;
+import org.riotfamily.cachius.CacheService;
+import org.riotfamily.cachius.RegionStatistics;
+import org.riotfamily.common.util.Generics;
+import org.riotfamily.statistics.domain.CachiusRegionStatsItem;
+import org.riotfamily.statistics.domain.StatsItem;
+import org.springframework.dao.DataAccessException;
+
+public class CachiusRegionDao extends AbstractStatsItemDao {
+
+	private CacheService cacheService;
+	
+	public CachiusRegionDao(CacheService cacheService) {
+		this.cacheService = cacheService;
+	}
+
+	@Override
+	public boolean canSortBy(String property) {
+		return true;
+	}
+
+	public Class<?> getEntityClass() {
+		return CachiusRegionStatsItem.class;
+	}
+	
+	@Override
+	protected List<? extends StatsItem> getStats() {
+		ArrayList<CachiusRegionStatsItem> stats = Generics.newArrayList();
+		for (Cache cache : cacheService.getCaches()) {
+			RegionStatistics rs = cache.getStatistics();
+			CachiusRegionStatsItem item = new CachiusRegionStatsItem(rs.getName());
+			item.setSize(rs.getSize());
+			item.setHitCount(rs.getHits());
+			item.setMissCount(rs.getMisses());
+			item.setStaleCount(rs.getStaleServes());
+			item.setHitRatio(Math.round(rs.getHitRatio() * 100));
+			item.setCaptureCount(rs.getCaptures());
+			item.setAvgCaptureTime(rs.getAverageCaptureTime());
+			item.setP95CaptureTime(rs.getCaptureTimePercentile(95));
+			item.setLockWaitTime(rs.getLockWaitTime());
+			item.setEvictionCount(rs.getEvictions());
+			item.setKbOnDisk(rs.getDiskUsage() / 1024);
+			item.setKbInMemory(rs.getHeapUsage() / 1024);
+			stats.add(item);
+		}
+		return stats;
+	}
+	
+	public Object load(String id) throws DataAccessException {
+		return new CachiusRegionStatsItem(id);
+	}
+}
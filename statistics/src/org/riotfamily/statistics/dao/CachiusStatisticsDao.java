@@ -0,0 +1,82 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.statistics.dao;
+
+import java.util.Map;
+
+import org.riotfamily.cachius.Cache;
+import org.riotfamily.cachius.CacheService;
+import org.riotfamily.cachius.CaptureScheduler;
+import org.riotfamily.cachius.InvalidationStatistics;
+import org.riotfamily.cachius.RefreshScheduler;
+import org.riotfamily.cachius.RegionStatistics;
+import org.riotfamily.statistics.domain.Statistics;
+
+public class CachiusStatisticsDao extends AbstractSimpleStatsDao {
+
+	private CacheService cacheService;
+	
+	private int maxTags = 10;
+	
+	public CachiusStatisticsDao(CacheService cacheService) {
+		this.cacheService = cacheService;
+	}
+	
+	/**
+	 * Sets the number of most frequently invalidated tags that are listed.
+	 * Default is <code>10</code>.
+	 */
+	public void setMaxTags(int maxTags) {
+		this.maxTags = maxTags;
+	}
+
+	@Override
+	protected void populateStats(Statistics stats) throws Exception {
+		long hits = 0;
+		long misses = 0;
+		long diskUsage = 0;
+		for (Cache cache : cacheService.getCaches()) {
+			RegionStatistics rs = cache.getStatistics();
+			hits += rs.getHits();
+			misses += rs.getMisses();
+			diskUsage += rs.getDiskUsage();
+		}
+		stats.add("Hit count", hits);
+		stats.add("Miss count", misses);
+		if (hits + misses > 0) {
+			stats.add("Hit ratio [%]", hits * 100 / (hits + misses));
+		}
+		stats.addBytes("Disk usage", diskUsage);
+		
+		CaptureScheduler cs = cacheService.getCaptureScheduler();
+		stats.add("Active captures", cs.getActiveCaptures());
+		stats.add("Waiting threads", cs.getQueueLength());
+		stats.add("Coalesced requests", cs.getCoalescedRequests());
+		stats.add("Capture timeouts", cs.getTimeouts(), cs.getTimeouts() > 0);
+		stats.addMillis("Max. wait time", cs.getMaxWaitTime());
+		
+		RefreshScheduler rs = cacheService.getRefreshScheduler();
+		if (rs != null) {
+			stats.add("Background refreshes", rs.getRefreshes());
+			stats.add("Pending refreshes", rs.getPendingRefreshes());
+			stats.add("Failed refreshes", rs.getFailures(), rs.getFailures() > 0);
+		}
+		
+		InvalidationStatistics is = cacheService.getInvalidationStatistics();
+		stats.add("Invalidations", is.getInvalidations());
+		for (Map.Entry<String, Long> entry : is.getTopTagCounts(maxTags).entrySet()) {
+			stats.add("Invalidations of " + entry.getKey(), entry.getValue());
+		}
+	}
+	
+}
@@ -0,0 +1,141 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.statistics.domain;
+
+public class CachiusRegionStatsItem extends StatsItem {
+
+	private Integer size;
+	
+	private Long hitCount;
+	
+	private Long missCount;
+	
+	private Long staleCount;
+	
+	private Long hitRatio;
+	
+	private Long captureCount;
+	
+	private Long avgCaptureTime;
+	
+	private Long p95CaptureTime;
+	
+	private Long lockWaitTime;
+	
+	private Long evictionCount;
+	
+	private Long kbOnDisk;
+	
+	private Long kbInMemory;
+	
+	public CachiusRegionStatsItem(String name) {
+		super(name);
+	}
+
+	public Integer getSize() {
+		return size;
+	}
+
+	public void setSize(Integer size) {
+		this.size = size;
+	}
+
+	public Long getHitCount() {
+		return hitCount;
+	}
+
+	public void setHitCount(Long hitCount) {
+		this.hitCount = hitCount;
+	}
+
+	public Long getMissCount() {
+		return missCount;
+	}
+
+	public void setMissCount(Long missCount) {
+		this.missCount = missCount;
+	}
+
+	public Long getStaleCount() {
+		return staleCount;
+	}
+
+	public void setStaleCount(Long staleCount) {
+		this.staleCount = staleCount;
+	}
+
+	public Long getHitRatio() {
+		return hitRatio;
+	}
+
+	public void setHitRatio(Long hitRatio) {
+		this.hitRatio = hitRatio;
+	}
+
+	public Long getCaptureCount() {
+		return captureCount;
+	}
+
+	public void setCaptureCount(Long captureCount) {
+		this.captureCount = captureCount;
+	}
+
+	public Long getAvgCaptureTime() {
+		return avgCaptureTime;
+	}
+
+	public void setAvgCaptureTime(Long avgCaptureTime) {
+		this.avgCaptureTime = avgCaptureTime;
+	}
+
+	public Long getP95CaptureTime() {
+		return p95CaptureTime;
+	}
+
+	public void setP95CaptureTime(Long p95CaptureTime) {
+		this.p95CaptureTime = p95CaptureTime;
+	}
+
+	public Long getLockWaitTime() {
+		return lockWaitTime;
+	}
+
+	public void setLockWaitTime(Long lockWaitTime) {
+		this.lockWaitTime = lockWaitTime;
+	}
+
+	public Long getEvictionCount() {
+		return evictionCount;
+	}
+
+	public void setEvictionCount(Long evictionCount) {
+		this.evictionCount = evictionCount;
+	}
+
+	public Long getKbOnDisk() {
+		return kbOnDisk;
+	}
+
+	public void setKbOnDisk(Long kbOnDisk) {
+		this.kbOnDisk = kbOnDisk;
+	}
+
+	public Long getKbInMemory() {
+		return kbInMemory;
+	}
+
+	public void setKbInMemory(Long kbInMemory) {
+		this.kbInMemory = kbInMemory;
+	}
+
+}